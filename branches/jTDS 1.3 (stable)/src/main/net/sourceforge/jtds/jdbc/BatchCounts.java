@@ -0,0 +1,119 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+/**
+ * Growable list of batch update counts, stored as primitive <code>int</code>s
+ * to avoid boxing a count for each statement of (potentially very large)
+ * batches.
+ *
+ * @version $Id$
+ */
+final class BatchCounts {
+    /** The update counts. */
+    private int[] counts;
+    /** The number of update counts held. */
+    private int size;
+
+    /**
+     * Constructs a new, empty list.
+     *
+     * @param capacity the initial capacity
+     */
+    BatchCounts(int capacity) {
+        counts = new int[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Appends an update count.
+     *
+     * @param count the update count, <code>SUCCESS_NO_INFO</code> or
+     *              <code>EXECUTE_FAILED</code>
+     */
+    void add(int count) {
+        if (size == counts.length) {
+            int[] tmp = new int[size * 2];
+            System.arraycopy(counts, 0, tmp, 0, size);
+            counts = tmp;
+        }
+
+        counts[size++] = count;
+    }
+
+    /**
+     * Appends the first <code>length</code> update counts held by another
+     * list. If it holds fewer counts, the missing ones are reported as
+     * <code>EXECUTE_FAILED</code>.
+     *
+     * @param other  the list to copy the update counts from
+     * @param length the number of update counts to append
+     */
+    void addAll(BatchCounts other, int length) {
+        int copy = Math.min(length, other.size);
+
+        for (int i = 0; i < copy; i++) {
+            add(other.counts[i]);
+        }
+
+        for (int i = copy; i < length; i++) {
+            add(JtdsStatement.EXECUTE_FAILED);
+        }
+    }
+
+    /**
+     * Retrieves an update count.
+     *
+     * @param index the index of the update count
+     * @return the update count
+     */
+    int get(int index) {
+        if (index >= size) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+
+        return counts[index];
+    }
+
+    /**
+     * Retrieves the number of update counts held.
+     *
+     * @return the number of update counts
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes all update counts.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Retrieves the update counts as an array.
+     *
+     * @return a new <code>int[]</code> holding the update counts
+     */
+    int[] toArray() {
+        int[] result = new int[size];
+        System.arraycopy(counts, 0, result, 0, size);
+
+        return result;
+    }
+}
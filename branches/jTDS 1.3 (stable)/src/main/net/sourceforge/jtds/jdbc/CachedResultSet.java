@@ -32,8 +32,9 @@ import java.util.HashSet;
  * Notes:
  * <ol>
  *   <li>For maximum performance use the scroll insensitive result set type.
- *   <li>As the result set is cached in memory this implementation is limited
- *     to small result sets.
+ *   <li>The result set is cached in a column oriented {@link ColumnStore},
+ *     which moves its primitive column blocks to memory mapped files once
+ *     the <code>resultSetMaxMemory</code> limit is exceeded.
  *   <li>Updateable or scroll sensitive result sets are limited to selects
  *     which reference one table only.
  *   <li>Scroll sensitive result sets must have primary keys.
@@ -94,6 +95,10 @@ public class CachedResultSet extends JtdsResultSet {
     protected String tableName;
     /** The parent connection object */
     protected JtdsConnection connection;
+    /** The cached rows. */
+    protected ColumnStore rowStore;
+    /** The statement is closed along with this result set. */
+    private boolean closeStatement;
 
     /**
      * Constructs a new cached result set.
@@ -167,7 +172,7 @@ public class CachedResultSet extends JtdsResultSet {
             columns[i] = ci;
         }
         columnCount   = getColumnCount(columns);
-        rowData       = new ArrayList(INITIAL_ROW_COUNT);
+        rowStore      = createRowStore();
         rowsInResult  = 0;
         pos           = POS_BEFORE_FIRST;
         tempResultSet = true;
@@ -213,7 +218,7 @@ public class CachedResultSet extends JtdsResultSet {
 
         columns       = rs.getColumns();
         columnCount   = getColumnCount(columns);
-        rowData       = new ArrayList(INITIAL_ROW_COUNT);
+        rowStore      = createRowStore();
         rowsInResult  = 0;
         pos           = POS_BEFORE_FIRST;
         tempResultSet = true;
@@ -225,9 +230,9 @@ public class CachedResultSet extends JtdsResultSet {
         //
         if (load) {
             while (rs.next()) {
-                rowData.add(copyRow(rs.getCurrentRow()));
+                rowStore.add(rs.getCurrentRow());
             }
-            rowsInResult  = rowData.size();
+            rowsInResult  = rowStore.size();
         }
     }
 
@@ -244,16 +249,45 @@ public class CachedResultSet extends JtdsResultSet {
         super(statement, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, null);
         this.columns       = columns;
         columnCount   = getColumnCount(columns);
-        rowData       = new ArrayList(1);
+        rowStore      = createRowStore();
         rowsInResult  = 1;
         pos           = POS_BEFORE_FIRST;
         tempResultSet = true;
         cursorName    = null;
-        rowData.add(copyRow(data));
+        rowStore.add(data);
         procName      = null;
         procedureParams = null;
     }
 
+    /**
+     * Creates a read only cached result set from column descriptors and rows
+     * captured from another result set. The statement is only used by this
+     * result set and closed along with it.
+     *
+     * @param statement   the parent statement object
+     * @param columns     the column descriptor array
+     * @param columnCount the number of visible columns
+     * @param rows        the row data, each row is copied
+     * @throws SQLException if an error occurs
+     */
+    CachedResultSet(JtdsStatement statement, ColInfo columns[],
+            int columnCount, Object rows[][]) throws SQLException {
+        super(statement, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, null);
+        this.columns     = columns;
+        this.columnCount = columnCount;
+        rowStore      = createRowStore();
+        for (int i = 0; i < rows.length; i++) {
+            rowStore.add(rows[i]);
+        }
+        rowsInResult  = rows.length;
+        pos           = POS_BEFORE_FIRST;
+        tempResultSet = true;
+        cursorName    = null;
+        procName      = null;
+        procedureParams = null;
+        closeStatement = true;
+    }
+
    /**
     * <p> <b>Warning! Ensure the provided data matches the column layout of this
     * {@link ResultSet}. All kind of weird behavior and errors could be expected
@@ -265,7 +299,7 @@ public class CachedResultSet extends JtdsResultSet {
    void addRow( Object data[] )
    {
       rowsInResult ++;
-      rowData.add( copyRow( data ) );
+      rowStore.add( data );
    }
 
     /**
@@ -424,12 +458,12 @@ public class CachedResultSet extends JtdsResultSet {
                 }
                 columns = cursorTds.getColumns();
                 columnCount = getColumnCount(columns);
-                rowData = new ArrayList(INITIAL_ROW_COUNT);
+                rowStore = createRowStore();
                 //
                 // Load result set into buffer
                 //
                 cacheResultSetRows();
-                rowsInResult  = rowData.size();
+                rowsInResult  = rowStore.size();
                 pos = POS_BEFORE_FIRST;
                 //
                 // If cursor is built over one table and the table has
@@ -461,12 +495,12 @@ public class CachedResultSet extends JtdsResultSet {
                 }
                 columns = cursorTds.getColumns();
                 columnCount = getColumnCount(columns);
-                rowData = new ArrayList(INITIAL_ROW_COUNT);
+                rowStore = createRowStore();
                 //
                 // Load result set into buffer
                 //
                 cacheResultSetRows();
-                rowsInResult  = rowData.size();
+                rowsInResult  = rowStore.size();
                 pos = POS_BEFORE_FIRST;
             }
         }
@@ -683,7 +717,7 @@ public class CachedResultSet extends JtdsResultSet {
             return false;
         }
         pos = rowNum;
-        currentRow = (Object[])rowData.get(rowNum-1);
+        currentRow = rowStore.get(rowNum-1);
         rowDeleted = currentRow == null;
 
         if (resultSetType >= ResultSet.TYPE_SCROLL_SENSITIVE &&
@@ -710,7 +744,39 @@ public class CachedResultSet extends JtdsResultSet {
             }
             cursorTds.submitSQL(sql);
         }
-        rowData = null;
+        if (rowStore != null) {
+            rowStore.close();
+            rowStore = null;
+        }
+    }
+
+    /**
+     * Creates the store for the cached rows, replacing the current one when
+     * the result set is reread.
+     *
+     * @return the new row store
+     */
+    private ColumnStore createRowStore() {
+        if (rowStore != null) {
+            rowStore.close();
+        }
+
+        JtdsConnection con = statement.connection;
+        return new ColumnStore(columns.length,
+                con.getResultSetMaxMemory() * 1024L, con.getBufferDir());
+    }
+
+    /**
+     * Caches the remaining rows of the result in the row store.
+     */
+    protected void cacheResultSetRows() throws SQLException {
+        TdsCore tds = statement.getTds();
+
+        while (tds.getNextRow()) {
+            rowStore.add(tds.getRowData());
+        }
+        // Allow statement to process output vars etc
+        statement.cacheResults();
     }
 
     /**
@@ -949,8 +1015,8 @@ public class CachedResultSet extends JtdsResultSet {
         }
         tds.clearResponseQueue();
         statement.getMessages().checkErrors();
+        rowStore.set(pos-1, currentRow);
         if (currentRow == null) {
-            rowData.set(pos-1, null);
             rowDeleted = true;
         }
     }
@@ -1021,10 +1087,16 @@ public class CachedResultSet extends JtdsResultSet {
          }
          finally
          {
+            JtdsStatement stmt = closeStatement ? statement : null;
             closed    = true;
             statement = null;
             cursorTds = null;
             updateTds = null;
+
+            if( stmt != null )
+            {
+               stmt.close();
+            }
          }
       }
    }
@@ -1075,7 +1147,7 @@ public class CachedResultSet extends JtdsResultSet {
          currentRow = null;
          if (resultSetType != ResultSet.TYPE_FORWARD_ONLY) {
              // Leave a 'hole' in the result set array.
-             rowData.set(pos-1, null);
+             rowStore.set(pos-1, null);
          }
      }
 
@@ -1174,7 +1246,7 @@ public class CachedResultSet extends JtdsResultSet {
                              columns[i].jdbcType, con.getCharset());
                  }
              }
-             rowData.add(row);
+             rowStore.add(row);
          }
          rowsInResult++;
          //
@@ -1346,12 +1418,16 @@ public class CachedResultSet extends JtdsResultSet {
          //
          if (keysChanged && resultSetType >= ResultSet.TYPE_SCROLL_SENSITIVE) {
              // Leave hole at current position and add updated row to end of set
-             rowData.add(currentRow);
-             rowsInResult = rowData.size();
-             rowData.set(pos-1, null);
+             rowStore.add(currentRow);
+             rowsInResult = rowStore.size();
+             rowStore.set(pos-1, null);
              currentRow = null;
              rowDeleted = true;
          } else {
+             if (resultSetType != ResultSet.TYPE_SCROLL_INSENSITIVE && rowStore != null) {
+                 // Store the in memory copy
+                 rowStore.set(pos-1, currentRow);
+             }
              rowUpdated = true;
          }
          //
@@ -0,0 +1,673 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import net.sourceforge.jtds.util.Logger;
+
+/**
+ * Column oriented store for the rows of a {@link CachedResultSet}.
+ * <p/>
+ * The values of each column are stored in blocks of up to
+ * {@link #BLOCK_SIZE} rows. Numbers, booleans and <code>DateTime</code>
+ * values are kept in <code>int</code> or <code>long</code> blocks instead of
+ * as objects, strings are replaced by codes into a dictionary of the
+ * distinct values and nulls are kept in a bitmap. Columns holding values of
+ * other types, or of more than one type, store the objects.
+ * <p/>
+ * Once the estimated memory use exceeds the limit, the <code>int</code> and
+ * <code>long</code> blocks are moved to a memory mapped temporary file, so
+ * only dictionaries and object columns stay on the heap.
+ * <p/>
+ * Rows are returned as new arrays, changes to a row have to be stored back
+ * with {@link #set}.
+ */
+final class ColumnStore {
+    /** Maximum number of rows per block. */
+    static final int BLOCK_SIZE = 4096;
+    /** log2 of {@link #BLOCK_SIZE}. */
+    private static final int BLOCK_SHIFT = 12;
+    /** Initial number of rows of the first block. */
+    private static final int MIN_BLOCK_SIZE = 64;
+    /** Size of the regions of the spill file mapped at once. */
+    private static final int REGION_SIZE = 16 * 1024 * 1024;
+    /** Dictionary size from which mostly distinct strings are stored as objects. */
+    private static final int MAX_DICTIONARY = 65536;
+
+    // Column kinds, by the class of the values
+    /** Only nulls stored so far. */
+    private static final int NONE     = 0;
+    private static final int INT      = 1;
+    private static final int SHORT    = 2;
+    private static final int BYTE     = 3;
+    private static final int BOOLEAN  = 4;
+    private static final int FLOAT    = 5;
+    /** Strings stored as <code>int</code> codes into the dictionary. */
+    private static final int STRING   = 6;
+    private static final int LONG     = 7;
+    private static final int DOUBLE   = 8;
+    private static final int DATETIME = 9;
+    private static final int OBJECT   = 10;
+
+    /**
+     * The values of one column.
+     */
+    private static final class Column {
+        /** The kind of values stored. */
+        int kind = NONE;
+        /** Null bitmap. */
+        long[] nulls;
+        /** Blocks of <code>int</code> values or string codes. */
+        IntBuffer[] ints;
+        /** Blocks of <code>long</code> values. */
+        LongBuffer[] longs;
+        /** Blocks of objects. */
+        Object[][] objects;
+        /** Codes of the distinct strings. */
+        HashMap dictionary;
+        /** The distinct strings, indexed by code. */
+        ArrayList values;
+        /** Estimated heap size of the dictionary. */
+        long dictionaryBytes;
+
+        Column(int capacity) {
+            nulls = new long[capacity >>> 6];
+        }
+    }
+
+    /** Number of columns. */
+    private final int width;
+    /** The columns. */
+    private Column[] columns;
+    /** Bitmap of the deleted rows. */
+    private long[] deleted;
+    /** Number of rows the bitmaps can hold, a multiple of 64. */
+    private int capacity = 64;
+    /** Number of rows. */
+    private int size;
+
+    /** Bytes of heap to use before spilling or 0 to never spill. */
+    private long maxMemory;
+    /** Directory for the spill file. */
+    private final File spillDir;
+    /** Estimated heap use. */
+    private long heapBytes;
+    /** True if new blocks are allocated in the spill file. */
+    private boolean spilled;
+    /** The spill file. */
+    private File file;
+    /** The open spill file. */
+    private RandomAccessFile spillFile;
+    /** The region of the spill file blocks are allocated from. */
+    private MappedByteBuffer region;
+    /** Size of the mapped part of the spill file. */
+    private long fileSize;
+
+    /**
+     * Creates an empty store.
+     *
+     * @param width     the number of columns
+     * @param maxMemory the number of bytes to keep on the heap before moving
+     *                  blocks to a spill file or 0 to never spill
+     * @param spillDir  the directory to create the spill file in or
+     *                  <code>null</code> for the default temporary directory
+     */
+    ColumnStore(int width, long maxMemory, File spillDir) {
+        this.width = width;
+        this.maxMemory = maxMemory;
+        this.spillDir = spillDir;
+        columns = new Column[width];
+        for (int c = 0; c < width; c++) {
+            columns[c] = new Column(capacity);
+        }
+        deleted = new long[capacity >>> 6];
+    }
+
+    /**
+     * Returns the number of rows, including deleted rows.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if blocks have been moved to a spill file.
+     */
+    boolean isSpilled() {
+        return spilled;
+    }
+
+    /**
+     * Appends a row.
+     *
+     * @param row the column values, missing trailing values are stored as
+     *            nulls
+     */
+    void add(Object[] row) {
+        if (size == capacity) {
+            grow();
+        }
+
+        int index = size++;
+        for (int c = 0; c < width; c++) {
+            write(columns[c], index, c < row.length ? row[c] : null);
+        }
+
+        checkMemory();
+    }
+
+    /**
+     * Replaces a row.
+     *
+     * @param index the index of the row
+     * @param row   the new column values or <code>null</code> to mark the row
+     *              as deleted
+     */
+    void set(int index, Object[] row) {
+        checkIndex(index);
+
+        if (row == null) {
+            deleted[index >>> 6] |= 1L << index;
+            return;
+        }
+
+        deleted[index >>> 6] &= ~(1L << index);
+        for (int c = 0; c < width; c++) {
+            write(columns[c], index, c < row.length ? row[c] : null);
+        }
+
+        checkMemory();
+    }
+
+    /**
+     * Retrieves a row.
+     *
+     * @param index the index of the row
+     * @return a new array holding the column values or <code>null</code> if
+     *         the row has been deleted
+     */
+    Object[] get(int index) {
+        checkIndex(index);
+
+        if ((deleted[index >>> 6] & (1L << index)) != 0) {
+            return null;
+        }
+
+        Object[] row = new Object[width];
+        for (int c = 0; c < width; c++) {
+            Column col = columns[c];
+            if ((col.nulls[index >>> 6] & (1L << index)) == 0) {
+                row[c] = read(col, index);
+            }
+        }
+
+        return row;
+    }
+
+    /**
+     * Releases the rows and deletes the spill file.
+     */
+    void close() {
+        columns = null;
+        region = null;
+        size = 0;
+
+        if (spillFile != null) {
+            try {
+                spillFile.close();
+            } catch (IOException e) {
+                // Ignore, the file is deleted anyway
+            }
+            spillFile = null;
+            // Fails on Windows as long as the blocks aren't garbage collected
+            file.delete();
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Row " + index + " of " + size);
+        }
+    }
+
+    /**
+     * Doubles the capacity of the bitmaps.
+     */
+    private void grow() {
+        capacity *= 2;
+        deleted = Arrays.copyOf(deleted, capacity >>> 6);
+        for (int c = 0; c < width; c++) {
+            columns[c].nulls = Arrays.copyOf(columns[c].nulls, capacity >>> 6);
+        }
+    }
+
+    /**
+     * Returns the kind of column able to store a value.
+     */
+    private static int kindOf(Object value) {
+        Class type = value.getClass();
+
+        if (type == String.class) {
+            return STRING;
+        } else if (type == Integer.class) {
+            return INT;
+        } else if (type == Long.class) {
+            return LONG;
+        } else if (type == DateTime.class) {
+            return DATETIME;
+        } else if (type == Double.class) {
+            return DOUBLE;
+        } else if (type == Boolean.class) {
+            return BOOLEAN;
+        } else if (type == Float.class) {
+            return FLOAT;
+        } else if (type == Short.class) {
+            return SHORT;
+        } else if (type == Byte.class) {
+            return BYTE;
+        }
+
+        return OBJECT;
+    }
+
+    /**
+     * Stores a value.
+     */
+    private void write(Column col, int index, Object value) {
+        int block = index >>> BLOCK_SHIFT;
+        int offset = index & (BLOCK_SIZE - 1);
+
+        if (value == null) {
+            col.nulls[index >>> 6] |= 1L << index;
+            if (col.kind == OBJECT && col.objects != null && block < col.objects.length
+                    && col.objects[block] != null
+                    && offset < col.objects[block].length) {
+                col.objects[block][offset] = null;
+            }
+            return;
+        }
+
+        int kind = kindOf(value);
+        if (col.kind != kind) {
+            // Don't convert the value being replaced or the unset new one
+            col.nulls[index >>> 6] |= 1L << index;
+            if (col.kind == NONE) {
+                col.kind = kind;
+                if (kind == STRING) {
+                    col.dictionary = new HashMap();
+                    col.values = new ArrayList();
+                }
+            } else if (col.kind != OBJECT) {
+                toObjects(col);
+            }
+        }
+        col.nulls[index >>> 6] &= ~(1L << index);
+
+        switch (col.kind) {
+            case STRING:
+                Integer code = (Integer) col.dictionary.get(value);
+                if (code == null) {
+                    code = new Integer(col.values.size());
+                    col.dictionary.put(value, code);
+                    col.values.add(value);
+                    col.dictionaryBytes += estimate(value) + 48;
+                    heapBytes += estimate(value) + 48;
+                }
+                intBlock(col, block, offset).put(offset, code.intValue());
+                if (col.values.size() > MAX_DICTIONARY && col.values.size() * 2 > size) {
+                    // Mostly distinct, the dictionary doesn't pay off
+                    toObjects(col);
+                }
+                break;
+            case INT:
+                intBlock(col, block, offset).put(offset, ((Integer) value).intValue());
+                break;
+            case SHORT:
+                intBlock(col, block, offset).put(offset, ((Short) value).shortValue());
+                break;
+            case BYTE:
+                intBlock(col, block, offset).put(offset, ((Byte) value).byteValue());
+                break;
+            case BOOLEAN:
+                intBlock(col, block, offset).put(offset, ((Boolean) value).booleanValue() ? 1 : 0);
+                break;
+            case FLOAT:
+                intBlock(col, block, offset).put(offset,
+                        Float.floatToRawIntBits(((Float) value).floatValue()));
+                break;
+            case LONG:
+                longBlock(col, block, offset).put(offset, ((Long) value).longValue());
+                break;
+            case DOUBLE:
+                longBlock(col, block, offset).put(offset,
+                        Double.doubleToRawLongBits(((Double) value).doubleValue()));
+                break;
+            case DATETIME:
+                longBlock(col, block, offset).put(offset, ((DateTime) value).pack());
+                break;
+            default:
+                objectBlock(col, block, offset)[offset] = value;
+                heapBytes += estimate(value);
+        }
+    }
+
+    /**
+     * Retrieves a value that isn't null.
+     */
+    private static Object read(Column col, int index) {
+        int block = index >>> BLOCK_SHIFT;
+        int offset = index & (BLOCK_SIZE - 1);
+
+        switch (col.kind) {
+            case STRING:
+                return col.values.get(col.ints[block].get(offset));
+            case INT:
+                return Integer.valueOf(col.ints[block].get(offset));
+            case SHORT:
+                return Short.valueOf((short) col.ints[block].get(offset));
+            case BYTE:
+                return Byte.valueOf((byte) col.ints[block].get(offset));
+            case BOOLEAN:
+                return Boolean.valueOf(col.ints[block].get(offset) != 0);
+            case FLOAT:
+                return Float.valueOf(Float.intBitsToFloat(col.ints[block].get(offset)));
+            case LONG:
+                return Long.valueOf(col.longs[block].get(offset));
+            case DOUBLE:
+                return Double.valueOf(Double.longBitsToDouble(col.longs[block].get(offset)));
+            case DATETIME:
+                return DateTime.unpack(col.longs[block].get(offset));
+            default:
+                return col.objects[block][offset];
+        }
+    }
+
+    /**
+     * Converts a column to store objects, because it's given a value of
+     * another type or the dictionary has grown too large.
+     */
+    private void toObjects(Column col) {
+        Column old = new Column(0);
+        old.kind = col.kind;
+        old.ints = col.ints;
+        old.longs = col.longs;
+        old.values = col.values;
+
+        heapBytes -= heapSize(col.ints, 4) + heapSize(col.longs, 8) + col.dictionaryBytes;
+        col.kind = OBJECT;
+        col.ints = null;
+        col.longs = null;
+        col.dictionary = null;
+        col.values = null;
+        col.dictionaryBytes = 0;
+
+        for (int i = 0; i < size; i++) {
+            if ((col.nulls[i >>> 6] & (1L << i)) == 0) {
+                Object value = read(old, i);
+                int offset = i & (BLOCK_SIZE - 1);
+                objectBlock(col, i >>> BLOCK_SHIFT, offset)[offset] = value;
+                heapBytes += estimate(value);
+            }
+        }
+    }
+
+    /**
+     * Returns the block of an <code>int</code> column holding an offset,
+     * allocating or growing it if required.
+     */
+    private IntBuffer intBlock(Column col, int block, int offset) {
+        if (col.ints == null) {
+            col.ints = new IntBuffer[block + 1];
+        } else if (block >= col.ints.length) {
+            col.ints = Arrays.copyOf(col.ints, Math.max(block + 1, col.ints.length * 2));
+        }
+
+        IntBuffer buf = col.ints[block];
+        if (buf == null || offset >= buf.capacity()) {
+            int length = blockLength(buf == null ? 0 : buf.capacity(), offset);
+            ByteBuffer mapped = length == BLOCK_SIZE ? map(BLOCK_SIZE * 4) : null;
+            IntBuffer tmp;
+            if (mapped != null) {
+                tmp = mapped.asIntBuffer();
+            } else {
+                tmp = IntBuffer.allocate(length);
+                heapBytes += length * 4;
+            }
+            if (buf != null) {
+                buf.rewind();
+                tmp.put(buf);
+                heapBytes -= buf.capacity() * 4;
+            }
+            col.ints[block] = buf = tmp;
+        }
+
+        return buf;
+    }
+
+    /**
+     * Returns the block of a <code>long</code> column holding an offset,
+     * allocating or growing it if required.
+     */
+    private LongBuffer longBlock(Column col, int block, int offset) {
+        if (col.longs == null) {
+            col.longs = new LongBuffer[block + 1];
+        } else if (block >= col.longs.length) {
+            col.longs = Arrays.copyOf(col.longs, Math.max(block + 1, col.longs.length * 2));
+        }
+
+        LongBuffer buf = col.longs[block];
+        if (buf == null || offset >= buf.capacity()) {
+            int length = blockLength(buf == null ? 0 : buf.capacity(), offset);
+            ByteBuffer mapped = length == BLOCK_SIZE ? map(BLOCK_SIZE * 8) : null;
+            LongBuffer tmp;
+            if (mapped != null) {
+                tmp = mapped.asLongBuffer();
+            } else {
+                tmp = LongBuffer.allocate(length);
+                heapBytes += length * 8;
+            }
+            if (buf != null) {
+                buf.rewind();
+                tmp.put(buf);
+                heapBytes -= buf.capacity() * 8;
+            }
+            col.longs[block] = buf = tmp;
+        }
+
+        return buf;
+    }
+
+    /**
+     * Returns the block of an object column holding an offset, allocating or
+     * growing it if required.
+     */
+    private Object[] objectBlock(Column col, int block, int offset) {
+        if (col.objects == null) {
+            col.objects = new Object[block + 1][];
+        } else if (block >= col.objects.length) {
+            col.objects = Arrays.copyOf(col.objects, Math.max(block + 1, col.objects.length * 2));
+        }
+
+        Object[] buf = col.objects[block];
+        if (buf == null || offset >= buf.length) {
+            int length = blockLength(buf == null ? 0 : buf.length, offset);
+            Object[] tmp = new Object[length];
+            heapBytes += length * 8;
+            if (buf != null) {
+                System.arraycopy(buf, 0, tmp, 0, buf.length);
+                heapBytes -= buf.length * 8;
+            }
+            col.objects[block] = buf = tmp;
+        }
+
+        return buf;
+    }
+
+    /**
+     * Returns the length of a block grown to hold an offset. Blocks start
+     * small, so small result sets don't allocate full blocks.
+     */
+    private static int blockLength(int length, int offset) {
+        length = Math.max(length * 2, MIN_BLOCK_SIZE);
+        while (length <= offset) {
+            length *= 2;
+        }
+
+        return Math.min(length, BLOCK_SIZE);
+    }
+
+    /**
+     * Returns the heap size of the blocks not moved to the spill file.
+     */
+    private static long heapSize(java.nio.Buffer[] blocks, int valueSize) {
+        long bytes = 0;
+
+        for (int i = 0; blocks != null && i < blocks.length; i++) {
+            if (blocks[i] != null && !blocks[i].isDirect()) {
+                bytes += (long) blocks[i].capacity() * valueSize;
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Returns a rough estimate of the heap size of a value.
+     */
+    private static int estimate(Object value) {
+        if (value instanceof String) {
+            return 40 + 2 * ((String) value).length();
+        } else if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        }
+
+        return 32;
+    }
+
+    /**
+     * Moves the <code>int</code> and <code>long</code> blocks to the spill
+     * file once the memory limit is exceeded.
+     */
+    private void checkMemory() {
+        if (spilled || maxMemory <= 0 || heapBytes <= maxMemory) {
+            return;
+        }
+
+        try {
+            file = File.createTempFile("jtds", ".tmp", spillDir);
+            spillFile = new RandomAccessFile(file, "rw");
+            // The open file stays usable once unlinked; where it can't be
+            // deleted while open (Windows) remove it when the VM exits
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        } catch (IOException e) {
+            spillFailed(e);
+            return;
+        } catch (SecurityException e) {
+            // Not allowed to use the disk so carry on in memory
+            spillFailed(e);
+            return;
+        }
+        spilled = true;
+
+        for (int c = 0; c < width && spilled; c++) {
+            Column col = columns[c];
+            for (int b = 0; col.ints != null && b < col.ints.length && spilled; b++) {
+                IntBuffer buf = col.ints[b];
+                ByteBuffer mapped;
+                if (buf != null && !buf.isDirect() && (mapped = map(BLOCK_SIZE * 4)) != null) {
+                    IntBuffer tmp = mapped.asIntBuffer();
+                    buf.rewind();
+                    tmp.put(buf);
+                    col.ints[b] = tmp;
+                    heapBytes -= buf.capacity() * 4;
+                }
+            }
+            for (int b = 0; col.longs != null && b < col.longs.length && spilled; b++) {
+                LongBuffer buf = col.longs[b];
+                ByteBuffer mapped;
+                if (buf != null && !buf.isDirect() && (mapped = map(BLOCK_SIZE * 8)) != null) {
+                    LongBuffer tmp = mapped.asLongBuffer();
+                    buf.rewind();
+                    tmp.put(buf);
+                    col.longs[b] = tmp;
+                    heapBytes -= buf.capacity() * 8;
+                }
+            }
+        }
+    }
+
+    /**
+     * Allocates a block in the spill file.
+     *
+     * @param bytes the size of the block
+     * @return the block or <code>null</code> if not spilling
+     */
+    private ByteBuffer map(int bytes) {
+        if (!spilled) {
+            return null;
+        }
+
+        try {
+            if (region == null || region.remaining() < bytes) {
+                region = spillFile.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                        fileSize, REGION_SIZE);
+                fileSize += REGION_SIZE;
+            }
+        } catch (IOException e) {
+            spillFailed(e);
+            return null;
+        }
+
+        ByteBuffer block = region.slice();
+        block.limit(bytes);
+        region.position(region.position() + bytes);
+
+        return block.order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Keeps the blocks on the heap if spilling isn't possible.
+     */
+    private void spillFailed(Exception e) {
+        if (Logger.isActive()) {
+            Logger.logException(e);
+        }
+        if (spillFile == null && file != null) {
+            file.delete();
+            file = null;
+        }
+        // Blocks already moved stay in the file
+        spilled = false;
+        maxMemory = 0;
+        region = null;
+    }
+}
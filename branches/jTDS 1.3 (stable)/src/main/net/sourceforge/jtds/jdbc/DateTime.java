@@ -170,6 +170,26 @@ public class DateTime {
         unpacked  = true;
     }
 
+    /**
+     * Retrieves the server date and time components packed into a
+     * <code>long</code>, to be restored by {@link #unpack(long)}.
+     *
+     * @return the packed datetime value
+     */
+    long pack() {
+        return ((long) date << 32) | (time & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Creates a DateTime object from components packed by {@link #pack()}.
+     *
+     * @param value the packed datetime value
+     * @return the new DateTime object
+     */
+    static DateTime unpack(long value) {
+        return new DateTime((int) (value >> 32), (int) value);
+    }
+
     /**
      * Retrieves the date component of a datetime value.
      *
@@ -254,17 +274,19 @@ public class DateTime {
             minute = 0;
             second = 0;
         } else {
-            int hours = time / 1080000;
-            time = time - hours * 1080000;
-            int minutes = time / 18000;
-            time = time - (minutes * 18000);
-            int seconds = time / 300;
-            time = time - seconds * 300;
-            time = Math.round(time * 1000 / 300f);
+            // Work on a copy, the packed time is still needed by pack()
+            int ticks = time;
+            int hours = ticks / 1080000;
+            ticks = ticks - hours * 1080000;
+            int minutes = ticks / 18000;
+            ticks = ticks - (minutes * 18000);
+            int seconds = ticks / 300;
+            ticks = ticks - seconds * 300;
+            ticks = Math.round(ticks * 1000 / 300f);
             hour = (short)hours;
             minute = (short)minutes;
             second = (short)seconds;
-            millis = (short)time;
+            millis = (short)ticks;
         }
         unpacked = true;
     }
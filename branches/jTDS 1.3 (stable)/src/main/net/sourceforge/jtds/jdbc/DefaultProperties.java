@@ -141,6 +141,38 @@ public final class DefaultProperties {
     public static final String SOCKET_KEEPALIVE = "false";
     /** Default <code>processId</code> property. */
     public static final String PROCESS_ID = "123";
+    /** Default <code>resultSetMaxMemory</code> property. */
+    public static final String RESULT_SET_MAX_MEMORY = "16384";
+    /** Default <code>instanceCacheTTL</code> property. */
+    public static final String INSTANCE_CACHE_TTL = "300";
+    /** Default <code>multiSubnetFailover</code> property. */
+    public static final String MULTI_SUBNET_FAILOVER = "false";
+    /** Default <code>failoverPartner</code> property. */
+    public static final String FAILOVER_PARTNER = "";
+    /** Default <code>lockTimeout</code> property. */
+    public static final String LOCK_TIMEOUT = "0";
+    /** Default <code>fairLock</code> property. */
+    public static final String FAIR_LOCK = "false";
+    /** Default <code>validationWindow</code> property. */
+    public static final String VALIDATION_WINDOW = "0";
+    /** Default <code>describeParameters</code> property. */
+    public static final String DESCRIBE_PARAMETERS = "false";
+    /** Default <code>procedureCacheTtl</code> property. */
+    public static final String PROCEDURE_CACHE_TTL = "0";
+    /** Default <code>metadataCacheSize</code> property. */
+    public static final String METADATA_CACHE_SIZE = "500";
+    /** Default <code>metadataCacheTtl</code> property. */
+    public static final String METADATA_CACHE_TTL = "0";
+    /** Default <code>prepareThreshold</code> property. */
+    public static final String PREPARE_THRESHOLD = "0";
+    /** Default <code>statementPoolSize</code> property. */
+    public static final String STATEMENT_POOL_SIZE = "0";
+    /** Default <code>parseCacheSize</code> property. */
+    public static final String PARSE_CACHE_SIZE = "1000";
+    /** Default <code>streamBatches</code> property. */
+    public static final String STREAM_BATCHES = "false";
+    /** Default <code>rewriteBatchedInserts</code> property. */
+    public static final String REWRITE_BATCHED_INSERTS = "false";
 
     /** Default <code>serverType</code> property for SQL Server. */
     public static final String SERVER_TYPE_SQLSERVER = "sqlserver";
@@ -258,6 +290,22 @@ public final class DefaultProperties {
         addDefaultPropertyIfNotSet(props, Driver.BINDADDRESS, BIND_ADDRESS);
         addDefaultPropertyIfNotSet(props, Driver.USEJCIFS, USEJCIFS);
         addDefaultPropertyIfNotSet(props, Driver.BUFFERDIR, BUFFER_DIR);
+        addDefaultPropertyIfNotSet(props, Driver.RESULTSETMAXMEMORY, RESULT_SET_MAX_MEMORY);
+        addDefaultPropertyIfNotSet(props, Driver.INSTANCECACHETTL, INSTANCE_CACHE_TTL);
+        addDefaultPropertyIfNotSet(props, Driver.MULTISUBNETFAILOVER, MULTI_SUBNET_FAILOVER);
+        addDefaultPropertyIfNotSet(props, Driver.FAILOVERPARTNER, FAILOVER_PARTNER);
+        addDefaultPropertyIfNotSet(props, Driver.LOCKTIMEOUT, LOCK_TIMEOUT);
+        addDefaultPropertyIfNotSet(props, Driver.FAIRLOCK, FAIR_LOCK);
+        addDefaultPropertyIfNotSet(props, Driver.VALIDATIONWINDOW, VALIDATION_WINDOW);
+        addDefaultPropertyIfNotSet(props, Driver.DESCRIBEPARAMETERS, DESCRIBE_PARAMETERS);
+        addDefaultPropertyIfNotSet(props, Driver.PROCEDURECACHETTL, PROCEDURE_CACHE_TTL);
+        addDefaultPropertyIfNotSet(props, Driver.METADATACACHESIZE, METADATA_CACHE_SIZE);
+        addDefaultPropertyIfNotSet(props, Driver.METADATACACHETTL, METADATA_CACHE_TTL);
+        addDefaultPropertyIfNotSet(props, Driver.PREPARETHRESHOLD, PREPARE_THRESHOLD);
+        addDefaultPropertyIfNotSet(props, Driver.STATEMENTPOOLSIZE, STATEMENT_POOL_SIZE);
+        addDefaultPropertyIfNotSet(props, Driver.PARSECACHESIZE, PARSE_CACHE_SIZE);
+        addDefaultPropertyIfNotSet(props, Driver.STREAMBATCHES, STREAM_BATCHES);
+        addDefaultPropertyIfNotSet(props, Driver.REWRITEBATCHEDINSERTS, REWRITE_BATCHED_INSERTS);
 
         return props;
     }
@@ -86,27 +86,42 @@ public class Driver implements java.sql.Driver {
     public static final String CACHEMETA     = "prop.cachemetadata";
     public static final String CHARSET       = "prop.charset";
     public static final String DATABASENAME  = "prop.databasename";
+    public static final String DESCRIBEPARAMETERS = "prop.describeparameters";
     public static final String DOMAIN        = "prop.domain";
+    public static final String FAILOVERPARTNER = "prop.failoverpartner";
+    public static final String FAIRLOCK      = "prop.fairlock";
     public static final String INSTANCE      = "prop.instance";
+    public static final String INSTANCECACHETTL = "prop.instancecachettl";
     public static final String LANGUAGE      = "prop.language";
     public static final String LASTUPDATECOUNT = "prop.lastupdatecount";
     public static final String LOBBUFFER     = "prop.lobbuffer";
+    public static final String LOCKTIMEOUT   = "prop.locktimeout";
     public static final String LOGFILE       = "prop.logfile";
     public static final String LOGINTIMEOUT  = "prop.logintimeout";
     public static final String MACADDRESS    = "prop.macaddress";
     public static final String MAXSTATEMENTS = "prop.maxstatements";
+    public static final String METADATACACHESIZE = "prop.metadatacachesize";
+    public static final String METADATACACHETTL = "prop.metadatacachettl";
+    public static final String MULTISUBNETFAILOVER = "prop.multisubnetfailover";
     public static final String NAMEDPIPE     = "prop.namedpipe";
     public static final String PACKETSIZE    = "prop.packetsize";
+    public static final String PARSECACHESIZE = "prop.parsecachesize";
     public static final String PASSWORD      = "prop.password";
     public static final String PORTNUMBER    = "prop.portnumber";
     public static final String PREPARESQL    = "prop.preparesql";
+    public static final String PREPARETHRESHOLD = "prop.preparethreshold";
+    public static final String PROCEDURECACHETTL = "prop.procedurecachettl";
     public static final String PROGNAME      = "prop.progname";
+    public static final String RESULTSETMAXMEMORY = "prop.resultsetmaxmemory";
+    public static final String REWRITEBATCHEDINSERTS = "prop.rewritebatchedinserts";
     public static final String SERVERNAME    = "prop.servername";
     public static final String SERVERTYPE    = "prop.servertype";
     public static final String SOTIMEOUT     = "prop.sotimeout";
     public static final String SOKEEPALIVE   = "prop.sokeepalive";
     public static final String PROCESSID     = "prop.processid";
     public static final String SSL           = "prop.ssl";
+    public static final String STATEMENTPOOLSIZE = "prop.statementpoolsize";
+    public static final String STREAMBATCHES = "prop.streambatches";
     public static final String TCPNODELAY    = "prop.tcpnodelay";
     public static final String TDS           = "prop.tds";
     public static final String USECURSORS    = "prop.usecursors";
@@ -116,6 +131,7 @@ public class Driver implements java.sql.Driver {
     public static final String USELOBS       = "prop.uselobs";
     public static final String USER          = "prop.user";
     public static final String SENDSTRINGPARAMETERSASUNICODE = "prop.useunicode";
+    public static final String VALIDATIONWINDOW = "prop.validationwindow";
     public static final String WSID          = "prop.wsid";
     public static final String XAEMULATION   = "prop.xaemulation";
 
@@ -275,6 +291,11 @@ public class Driver implements java.sql.Driver {
         choicesMap.put(Messages.get(Driver.USECURSORS), booleanChoices);
         choicesMap.put(Messages.get(Driver.USELOBS), booleanChoices);
         choicesMap.put(Messages.get(Driver.XAEMULATION), booleanChoices);
+        choicesMap.put(Messages.get(Driver.MULTISUBNETFAILOVER), booleanChoices);
+        choicesMap.put(Messages.get(Driver.FAIRLOCK), booleanChoices);
+        choicesMap.put(Messages.get(Driver.DESCRIBEPARAMETERS), booleanChoices);
+        choicesMap.put(Messages.get(Driver.STREAMBATCHES), booleanChoices);
+        choicesMap.put(Messages.get(Driver.REWRITEBATCHEDINSERTS), booleanChoices);
 
         final String[] prepareSqlChoices = new String[]{
             String.valueOf(TdsCore.UNPREPARED),
@@ -28,6 +28,7 @@ import java.sql.CallableStatement;
 import java.sql.Clob;
 import java.sql.Date;
 import java.sql.NClob;
+import java.sql.ParameterMetaData;
 import java.sql.Ref;
 import java.sql.RowId;
 import java.sql.SQLException;
@@ -55,6 +56,10 @@ import java.util.Map;
 public class JtdsCallableStatement extends JtdsPreparedStatement implements CallableStatement {
     /** Last parameter retrieved was null. */
     protected boolean paramWasNull;
+    /** The parameters of the called procedure, if known. */
+    private ParamInfo[] signature;
+    /** The procedure signature has been looked up. */
+    private boolean described;
 
     /**
      * Construct a CallableStatement object.
@@ -92,6 +97,19 @@ public class JtdsCallableStatement extends JtdsPreparedStatement implements Call
         }
 
         if (set && !name.equalsIgnoreCase("@return_status")) {
+            // bind the name to its position in the procedure, if known
+            int offset = getSignatureOffset();
+            if (offset >= 0) {
+                for (int i = 0; i < signature.length; i++) {
+                    if (signature[i].name.equalsIgnoreCase(name)
+                            && parameters[i + offset].name == null) {
+                        parameters[i + offset].name = name;
+
+                        return i + offset + 1;
+                    }
+                }
+            }
+
             for (int i = 0; i < parameters.length; i++){
                 if (parameters[i].name == null) {
                     parameters[i].name = name;
@@ -104,6 +122,106 @@ public class JtdsCallableStatement extends JtdsPreparedStatement implements Call
         throw new SQLException(Messages.get("error.callable.noparam", name), "07000");
     }
 
+    /**
+     * Retrieves the parameters of the called procedure from the procedure
+     * signature cache the first time they are needed.
+     *
+     * @return the procedure parameters excluding the return value or
+     *         <code>null</code> if not known
+     * @throws SQLException if the connection is closed
+     */
+    private ParamInfo[] getSignature() throws SQLException {
+        if (!described) {
+            described = true;
+
+            if (procName != null) {
+                signature = MetaDataCache.getSignature(connection, procName);
+            }
+        }
+
+        return signature;
+    }
+
+    /**
+     * Retrieves the offset of the procedure parameters in the statement's
+     * parameters, which is only known if the statement passes all of them.
+     *
+     * @return 1 if the statement has a return value parameter, 0 if it
+     *         doesn't or -1 if the parameters don't match the procedure
+     * @throws SQLException if the connection is closed
+     */
+    private int getSignatureOffset() throws SQLException {
+        if (getSignature() == null) {
+            return -1;
+        }
+
+        int offset = parameters.length - signature.length;
+
+        if (offset == 0 || offset == 1 && parameters[0].isRetVal) {
+            return offset;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Retrieves the procedure parameter a statement parameter is bound to,
+     * either by name or by position.
+     *
+     * @param parameterIndex the ordinal position of the parameter
+     * @return the procedure parameter descriptor or <code>null</code> if not
+     *         known
+     * @throws SQLException if the connection is closed
+     */
+    private ParamInfo describe(int parameterIndex) throws SQLException {
+        ParamInfo pi = getParameter(parameterIndex);
+
+        if (pi.isRetVal || getSignature() == null) {
+            return null;
+        }
+
+        if (pi.name != null) {
+            for (int i = 0; i < signature.length; i++) {
+                if (signature[i].name.equalsIgnoreCase(pi.name)) {
+                    return signature[i];
+                }
+            }
+
+            return null;
+        }
+
+        int offset = getSignatureOffset();
+
+        return offset < 0 ? null : signature[parameterIndex - 1 - offset];
+    }
+
+    /**
+     * Sends a string parameter as <code>varchar</code> or
+     * <code>nvarchar</code> to match the procedure parameter, avoiding an
+     * implicit conversion on the server.
+     *
+     * @param parameterIndex the ordinal position of the parameter
+     * @throws SQLException if the connection is closed
+     */
+    private void matchStringType(int parameterIndex) throws SQLException {
+        ParamInfo desc = describe(parameterIndex);
+
+        if (desc != null) {
+            Boolean unicode = MetaDataCache.isUnicodeCharType(desc.sqlType);
+
+            if (unicode != null) {
+                getParameter(parameterIndex).isUnicode = unicode.booleanValue();
+            }
+        }
+    }
+
+    @Override
+    protected void setParameter(int parameterIndex, Object x, int targetSqlType, int scale, int length)
+        throws SQLException {
+        super.setParameter(parameterIndex, x, targetSqlType, scale, length);
+        matchStringType(parameterIndex);
+    }
+
     /**
      * Retrieve the value of an output parameter.
      *
@@ -157,7 +275,7 @@ public class JtdsCallableStatement extends JtdsPreparedStatement implements Call
     * @throws SQLException
     */
    @Override
-   protected SQLException executeMSBatch( int size, int executeSize, ArrayList counts )
+   protected SQLException executeMSBatch( int size, int executeSize, BatchCounts counts )
       throws SQLException
    {
       if( parameters.length == 0 )
@@ -221,7 +339,7 @@ public class JtdsCallableStatement extends JtdsPreparedStatement implements Call
     *    if a serious error occurs during execution
     */
    @Override
-   protected SQLException executeSybaseBatch( int size, int executeSize, ArrayList counts )
+   protected SQLException executeSybaseBatch( int size, int executeSize, BatchCounts counts )
       throws SQLException
    {
       if( parameters.length == 0 )
@@ -307,7 +425,11 @@ public class JtdsCallableStatement extends JtdsPreparedStatement implements Call
    public void registerOutParameter(int parameterIndex, int sqlType) throws SQLException {
         if (sqlType == java.sql.Types.DECIMAL
             || sqlType == java.sql.Types.NUMERIC) {
-            registerOutParameter(parameterIndex, sqlType, TdsData.DEFAULT_SCALE);
+            // use the declared scale of the procedure parameter, if known
+            ParamInfo desc = describe(parameterIndex);
+            int scale = desc != null && desc.scale >= 0
+                    ? desc.scale : TdsData.DEFAULT_SCALE;
+            registerOutParameter(parameterIndex, sqlType, scale);
         } else {
             registerOutParameter(parameterIndex, sqlType, 0);
         }
@@ -340,6 +462,40 @@ public class JtdsCallableStatement extends JtdsPreparedStatement implements Call
         }
 
         pi.scale = scale;
+        matchStringType(parameterIndex);
+    }
+
+    /**
+     * Retrieves the parameter metadata. If the procedure signature is known,
+     * types of parameters not set yet and the declared precision and scale
+     * are taken from it instead of being guessed.
+     */
+    @Override
+    public ParameterMetaData getParameterMetaData() throws SQLException {
+        checkOpen();
+
+        if (getSignature() == null) {
+            return super.getParameterMetaData();
+        }
+
+        ParamInfo[] params = new ParamInfo[parameters.length];
+
+        for (int i = 0; i < params.length; i++) {
+            params[i] = (ParamInfo) parameters[i].clone();
+            ParamInfo desc = describe(i + 1);
+
+            if (desc != null) {
+                if (!params[i].isSet && !params[i].isOutput) {
+                    params[i].jdbcType = desc.jdbcType;
+                }
+                params[i].isOutput |= desc.isOutput;
+                params[i].sqlType   = desc.sqlType;
+                params[i].precision = desc.precision;
+                params[i].scale     = desc.scale;
+            }
+        }
+
+        return new ParameterMetaDataImpl(params, connection);
     }
 
     @Override
@@ -17,7 +17,6 @@
 //
 package net.sourceforge.jtds.jdbc;
 
-import java.lang.ref.WeakReference;
 import java.sql.*;
 import java.net.UnknownHostException;
 import java.io.*;
@@ -25,11 +24,13 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.HashSet;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.sourceforge.jtds.jdbc.cache.*;
 import net.sourceforge.jtds.util.*;
@@ -79,19 +80,60 @@ public class JtdsConnection implements java.sql.Connection {
                                                          "SET QUOTED_IDENTIFIER ON\r\n"+
                                                          "SET TEXTSIZE 2147483647";
     /**
-     * SQL Server initial connection string. Also contains a
-     * <code>SELECT @@MAX_PRECISION</code> query to retrieve
-     * the maximum precision for DECIMAL/NUMERIC data. */
-    private static final String SQL_SERVER_INITIAL_SQL = "SELECT @@MAX_PRECISION\r\n" +
-                                                         "SET TRANSACTION ISOLATION LEVEL READ COMMITTED\r\n" +
+     * SQL Server initial connection string for TDS 4.2. The ODBC flag of the
+     * TDS 7.0+ login record makes the server apply these settings itself.
+     */
+    private static final String SQL_SERVER_INITIAL_SQL = "SET TRANSACTION ISOLATION LEVEL READ COMMITTED\r\n" +
                                                          "SET IMPLICIT_TRANSACTIONS OFF\r\n" +
                                                          "SET QUOTED_IDENTIFIER ON\r\n"+
                                                          "SET TEXTSIZE 2147483647";
+    /**
+     * SQL Server session settings restored after a connection reset. The
+     * <code>TEXTSIZE</code> is restored along with the row count by
+     * {@link #getSessionSql}.
+     */
+    static final String SQL_SERVER_RESET_SQL =           "SET TRANSACTION ISOLATION LEVEL READ COMMITTED;\r\n" +
+                                                         "SET IMPLICIT_TRANSACTIONS OFF;\r\n" +
+                                                         "SET QUOTED_IDENTIFIER ON;\r\n";
+    /**
+     * SQL query to retrieve the maximum precision for DECIMAL/NUMERIC data.
+     */
+    private static final String SQL_SERVER_MAX_PRECISION_QUERY = "SELECT @@MAX_PRECISION";
+
+    /**
+     * Maximum decimal precisions of the servers connected to, keyed by
+     * {@link #getServerKey()}, so that only the first connection queries it.
+     */
+    private static final ConcurrentHashMap serverPrecisions = new ConcurrentHashMap();
+    /**
+     * Default charsets of the servers connected to that don't report it at
+     * login, keyed by {@link #getServerKey()}.
+     */
+    private static final ConcurrentHashMap serverCharsets = new ConcurrentHashMap();
+
     /**
      * SQL Server custom transaction isolation level.
      */
     public static final int TRANSACTION_SNAPSHOT = 4096;
 
+    /**
+     * The maximum number of statements whose executions are counted while
+     * they have not reached the prepare threshold.
+     */
+    private static final int EXECUTION_COUNT_LIMIT = 1000;
+
+    /**
+     * The number of obsolete SQL Server statement handles and temporary
+     * procedures that triggers dropping them in a single request.
+     */
+    private static final int UNPREPARE_THRESHOLD = 32;
+
+    /**
+     * The maximum number of obsolete statement handles and temporary
+     * procedures kept queued if dropping them fails.
+     */
+    private static final int MAX_PENDING_UNPREPARES = 1024;
+
     /*
      * Conection attributes
      */
@@ -154,12 +196,24 @@ public class JtdsConnection implements java.sql.Connection {
     private volatile boolean closed;
     /** True if this connection is read only. */
     private boolean readOnly;
-    /** List of statements associated with this connection. */
-    private final ArrayList statements = new ArrayList();
+    /** Statements associated with this connection. */
+    private final StatementRegistry statements = new StatementRegistry();
     /** Default transaction isolation level. */
     private int transactionIsolation = java.sql.Connection.TRANSACTION_READ_COMMITTED;
     /** Default auto commit state. */
     private volatile boolean autoCommit = true;
+    /** Transaction isolation level as last sent to the server. */
+    private volatile int serverIsolation = java.sql.Connection.TRANSACTION_READ_COMMITTED;
+    /** Auto commit state as last sent to the server. */
+    private volatile boolean serverAutoCommit = true;
+    /**
+     * True if a transaction may be open, i.e. if a request has been sent in
+     * manual commit mode or the server reported a transaction start since
+     * the last commit or rollback.
+     */
+    private volatile boolean transactionPending;
+    /** Descriptor of the open transaction as reported by the server. */
+    private volatile byte[] transactionDescriptor;
     /** Diagnostc messages for this connection. */
     private final SQLDiagnostic messages;
     /** Connection's current rowcount limit. */
@@ -174,6 +228,33 @@ public class JtdsConnection implements java.sql.Connection {
     private int cursorSequenceNo = 1;
     /** Procedures in this transaction. */
     private final ArrayList procInTran = new ArrayList();
+    /** Obsolete SQL Server statement handles and temporary procedures to drop. */
+    private final ArrayList pendingUnprepares = new ArrayList();
+    /**
+     * Keys and entries of statements prepared by <code>sp_prepexec</code>
+     * waiting to be cached, see {@link #addPreparedOnExecute}.
+     */
+    private final ArrayList preparedOnExecute = new ArrayList();
+    /** Database selected at the end of the login, restored by a reset. */
+    private String loginDatabase;
+    /** True if the next request has to reset the connection. */
+    private volatile boolean resetPending;
+    /** Initial session settings to send along with the next request. */
+    private String initialSql;
+    /** Guards the session settings journal, see {@link #getSessionSql}. */
+    private final Object sessionLock = new Object();
+    /** Number of the last request sent with session settings. */
+    private int sessionSequence;
+    /**
+     * Number of the last request sent with session settings known to have
+     * completed without error.
+     */
+    private int confirmedSettings;
+    /**
+     * Number of the first request sent with the settings restored after a
+     * reset or 0 if they have been applied.
+     */
+    private int resetSettings;
     /** Java charset for encoding. */
     private CharsetInfo charsetInfo;
     /** Method for preparing SQL used in Prepared Statements. */
@@ -184,6 +265,19 @@ public class JtdsConnection implements java.sql.Connection {
     private int maxStatements;
     /** Statement cache.*/
     private StatementCache statementCache;
+    /** Execution counts of statements not prepared yet (see <code>prepareThreshold</code>). */
+    private final SimpleLRUCache<String,int[]> executionCounts =
+            new SimpleLRUCache<String,int[]>(EXECUTION_COUNT_LIMIT);
+    /** The number of statements prepared after reaching the prepare threshold. */
+    private long preparePromotions;
+    /** The number of executions not prepared because of the prepare threshold. */
+    private long unpreparedExecutions;
+    /** Closed statements kept for reuse, in least recently used order. */
+    private LinkedHashMap statementPool;
+    /** The number of statements served from the statement pool. */
+    private long poolHits;
+    /** The number of statements not found in the statement pool. */
+    private long poolMisses;
     /** Send parameters as unicode. */
     private boolean useUnicode = true;
     /** Use named pipe IPC instead of TCP/IP sockets. */
@@ -205,7 +299,7 @@ public class JtdsConnection implements java.sql.Connection {
     /** True if driver should emulate distributed transactions. */
     private boolean xaEmulation = true;
     /** Mutual exclusion lock to control access to connection. */
-    private final Semaphore mutex = new Semaphore(1);
+    private final Semaphore mutex;
     /** Socket timeout value in seconds or 0. */
     private int socketTimeout;
     /** True to enable socket keep alive. */
@@ -228,6 +322,38 @@ public class JtdsConnection implements java.sql.Connection {
     private int bufferMinPackets;
     /** Map large types (IMAGE and TEXT/NTEXT) to LOBs by default. */
     private boolean useLOBs;
+    /** Kilobytes a cached result set keeps in memory or 0 to never spill. */
+    private int resultSetMaxMemory;
+    /** Seconds to cache instance ports or 0 to look them up for each connection. */
+    private int instanceCacheTTL;
+    /** Connect to all server addresses in parallel. */
+    private boolean multiSubnetFailover;
+    /** Failover partner as host[:port] or empty. */
+    private String failoverPartner;
+    /** Milliseconds to wait for the connection lock or 0 to wait indefinitely. */
+    private int lockTimeout;
+    /** Threads sharing the connection acquire it in arrival order. */
+    private boolean fairLock;
+    /** Milliseconds after the last server response in which isValid() skips the ping. */
+    private int validationWindow;
+    /** Send string parameters as varchar or nvarchar depending on the described parameter types. */
+    private boolean describeParameters;
+    /** Number of seconds procedure signatures are cached. */
+    private int procedureCacheTtl;
+    /** Maximum number of cached metadata results. */
+    private int metadataCacheSize;
+    /** Number of seconds metadata results are cached. */
+    private int metadataCacheTtl;
+    /** Number of executions before a statement is prepared (SQL Server only). */
+    private int prepareThreshold;
+    /** Maximum number of closed statements kept for reuse. */
+    private int statementPoolSize;
+    /** Maximum number of entries of the SQL parse cache. */
+    private int parseCacheSize;
+    /** Execute batches in pieces of <code>batchSize</code> statements as they are added. */
+    private boolean streamBatches;
+    /** Rewrite PreparedStatement batches of simple INSERTs into multi-row INSERTs. */
+    private boolean rewriteBatchedInserts;
     /** A cached <code>TdsCore</code> instance to reuse on new statements. */
     private TdsCore cachedTds;
     /** The local address to bind to when connecting to a database via TCP/IP. */
@@ -261,6 +387,7 @@ public class JtdsConnection implements java.sql.Connection {
         socket = null;
         baseTds = null;
         messages = null;
+        mutex = new Semaphore(1);
     }
 
     /**
@@ -281,15 +408,19 @@ public class JtdsConnection implements java.sql.Connection {
         //
         unpackProperties(info);
         messages = new SQLDiagnostic(serverType);
+        mutex = new Semaphore(1, fairLock);
         //
         // Get the instance port, if it is specified.
         // Named pipes use instance names differently.
         //
+        boolean instancePort = false;
         if (instanceName.length() > 0 && !namedPipe) {
             try {
-                final MSSqlServerInfo msInfo = new MSSqlServerInfo(serverName);
+                final MSSqlServerInfo msInfo =
+                        MSSqlServerInfo.getInstance(serverName, instanceCacheTTL);
 
                 portNumber = msInfo.getPortForInstance(instanceName);
+                instancePort = true;
             } catch (SQLException e) {
                // may already have a valid portNumber but Microsoft SQL Server Browser disabled
                if (portNumber <= 0) {
@@ -298,6 +429,10 @@ public class JtdsConnection implements java.sql.Connection {
             }
 
             if (portNumber == -1) {
+                if (instancePort) {
+                    // Don't wait for the cache to expire if the instance was just started
+                    MSSqlServerInfo.invalidate(serverName);
+                }
                 throw new SQLException(
                                       Messages.get("error.msinfo.badinst", serverName, instanceName),
                                       "08003");
@@ -328,7 +463,15 @@ public class JtdsConnection implements java.sql.Connection {
                 socket = createNamedPipe(this);
             } else {
                 // Use plain TCP/IP socket
-                socket = new SharedSocket(this);
+                try {
+                    socket = new SharedSocket(this);
+                } catch (IOException e) {
+                    if (instancePort) {
+                        // The instance may have moved to another port
+                        MSSqlServerInfo.invalidate(serverName);
+                    }
+                    throw e;
+                }
             }
 
             if( macAddress.equals( DefaultProperties.MAC_ADDRESS ) )
@@ -391,37 +534,72 @@ public class JtdsConnection implements java.sql.Connection {
             // the TDS version for the socket and there are no other objects
             // with cached TDS versions at this point.
             tdsVersion = baseTds.getTdsVersion();
+
+            // Initial database settings.
+            // Sets: auto commit mode  = true
+            //       transaction isolation = read committed.
+            // The autoCommit property is applied with the first request.
+            boolean initialAutoCommit = autoCommit;
+            autoCommit = true;
+
+            // The ODBC flag of the TDS 7.0+ login record makes SQL Server
+            // apply the initial settings, otherwise they are sent along with
+            // the next request made while connecting.
+            if (serverType == Driver.SYBASE) {
+                initialSql = SYBASE_INITIAL_SQL;
+            } else if (tdsVersion < Driver.TDS70) {
+                initialSql = SQL_SERVER_INITIAL_SQL;
+            }
+
             if (tdsVersion < Driver.TDS70 && databaseName.length() > 0) {
                 // Need to select the default database
                 setCatalog(databaseName);
             }
 
+            String serverKey = getServerKey();
+
             // If charset is still unknown and the collation is not set either,
             // determine the charset by querying (we're using Sybase or SQL Server
             // 6.5)
             if ((serverCharset == null || serverCharset.length() == 0)
                     && collation == null) {
-                loadCharset(determineServerCharset());
+                String charset = (String) serverCharsets.get(serverKey);
+                if (charset == null) {
+                    charset = determineServerCharset();
+                    serverCharsets.put(serverKey, charset);
+                }
+                loadCharset(charset);
             }
 
-            // Initial database settings.
-            // Sets: auto commit mode  = true
-            //       transaction isolation = read committed.
-            if (serverType == Driver.SYBASE) {
-                baseTds.submitSQL(SYBASE_INITIAL_SQL);
-            } else {
+            if (serverType == Driver.SQLSERVER) {
                 // Also discover the maximum decimal precision:  28 (default)
                 // or 38 for MS SQL Server 6.5/7, or 38 for 2000 and later.
-                Statement stmt = this.createStatement();
-                ResultSet rs = stmt.executeQuery(SQL_SERVER_INITIAL_SQL);
+                Integer precision = (Integer) serverPrecisions.get(serverKey);
+                if (precision == null) {
+                    Statement stmt = this.createStatement();
+                    ResultSet rs = stmt.executeQuery(SQL_SERVER_MAX_PRECISION_QUERY);
+
+                    if (rs.next()) {
+                        maxPrecision = rs.getByte(1);
+                        serverPrecisions.put(serverKey, new Integer(maxPrecision));
+                    }
 
-                if (rs.next()) {
-                    maxPrecision = rs.getByte(1);
+                    rs.close();
+                    stmt.close();
+                } else {
+                    maxPrecision = precision.intValue();
                 }
+            }
 
-                rs.close();
-                stmt.close();
+            if (initialSql != null) {
+                // No request made since the login
+                String sql = initialSql;
+                initialSql = null;
+                baseTds.submitSQL(sql);
             }
+
+            loginDatabase = currentDatabase;
+            autoCommit = initialAutoCommit;
         } catch (UnknownHostException e) {
             loginError = true;
             throw Support.linkException(
@@ -632,11 +810,47 @@ public class JtdsConnection implements java.sql.Connection {
                                    boolean returnKeys,
                                    boolean cursorNeeded)
             throws SQLException {
+        return prepareSQL(pstmt, sql, params, returnKeys, cursorNeeded, false);
+    }
+
+    /**
+     * Try to convert the SQL statement into a statement prepare call, see
+     * {@link #prepareSQL(JtdsPreparedStatement, String, ParamInfo[], boolean, boolean)}.
+     * <p/>
+     * If <code>executing</code> is <code>true</code> and the statement would
+     * be prepared by <code>sp_prepare</code>, the prepare is deferred: the
+     * name <code>sp_prepexec</code> is returned and the statement prepared
+     * and executed in a single call, saving a round trip. The handle is
+     * queued for the statement cache once the response has been processed,
+     * see {@link #addPreparedOnExecute}.
+     *
+     * @param pstmt        the target prepared statement
+     * @param sql          the SQL statement to prepare
+     * @param params       the parameters
+     * @param returnKeys   indicates whether the statement will return
+     *                     generated keys
+     * @param cursorNeeded indicates whether a cursor prepare is needed
+     * @param executing    indicates whether the statement is executed by the
+     *                     statement's <code>TdsCore</code> right away
+     * @return the SQL procedure name as a <code>String</code> or null if the
+     *         SQL cannot be prepared
+     */
+    synchronized String prepareSQL(JtdsPreparedStatement pstmt,
+                                   String sql,
+                                   ParamInfo[] params,
+                                   boolean returnKeys,
+                                   boolean cursorNeeded,
+                                   boolean executing)
+            throws SQLException {
         if (prepareSql == TdsCore.UNPREPARED
                 || prepareSql == TdsCore.EXECUTE_SQL) {
             return null; // User selected not to use procs
         }
 
+        if (Support.hasTableValuedParameters(params)) {
+            return null; // Always executed via sp_executesql
+        }
+
         if (serverType == Driver.SYBASE) {
             if (tdsVersion != Driver.TDS50) {
                 return null; // No longer support stored procs with 4.2
@@ -678,10 +892,12 @@ public class JtdsConnection implements java.sql.Connection {
 
         String key = Support.getStatementKey(sql, params, serverType,
                 getCatalog(), autoCommit, cursorNeeded);
+        boolean prepExec = false;
 
         //
         // See if we have already built this one
         //
+        cachePreparedOnExecute();
         ProcEntry proc = (ProcEntry) statementCache.get(key);
 
         if (proc != null) {
@@ -700,11 +916,39 @@ public class JtdsConnection implements java.sql.Connection {
             }
         } else {
             //
-            // No, so create the stored procedure now
+            // No, so check whether the statement has been executed often
+            // enough to be worth preparing
+            //
+            if (prepareThreshold > 1 && serverType == Driver.SQLSERVER) {
+                int[] count = executionCounts.get(key);
+
+                if (count == null) {
+                    count = new int[1];
+                    executionCounts.put(key, count);
+                }
+
+                if (++count[0] < prepareThreshold) {
+                    unpreparedExecutions++;
+                    return null; // Execute using sp_executesql
+                }
+
+                executionCounts.remove(key);
+                preparePromotions++;
+            }
+
+            //
+            // Create the stored procedure now
             //
             proc = new ProcEntry();
 
-            if (serverType == Driver.SQLSERVER) {
+            if (serverType == Driver.SQLSERVER && executing
+                    && prepareSql == TdsCore.PREPARE && !cursorNeeded) {
+                // Prepare on first execution using sp_prepexec; the entry
+                // is only cached once the handle has been returned
+                proc.setType(ProcEntry.PREPEXEC);
+                pstmt.getTds().prepareOnExecute(key, proc);
+                prepExec = true;
+            } else if (serverType == Driver.SQLSERVER) {
                 proc.setName(
                         baseTds.microsoftPrepare(
                                 sql, params, cursorNeeded,
@@ -736,8 +980,10 @@ public class JtdsConnection implements java.sql.Connection {
                 pstmt.setColMetaData(proc.getColMetaData());
                 pstmt.setParamMetaData(proc.getParamMetaData());
             }
-            // OK we have built a proc so add it to the cache.
-            addCachedProcedure(key, proc);
+            if (!prepExec) {
+                // OK we have built a proc so add it to the cache.
+                addCachedProcedure(key, proc);
+            }
         }
         // Add the handle to the prepared statement so that the handles
         // can be used to clean up the statement cache properly when the
@@ -748,6 +994,10 @@ public class JtdsConnection implements java.sql.Connection {
 
         pstmt.handles.add(proc);
 
+        if (prepExec) {
+            return "sp_prepexec";
+        }
+
         // Give the user the name will be null if prepare failed
         return proc.toString();
     }
@@ -777,6 +1027,42 @@ public class JtdsConnection implements java.sql.Connection {
          }
     }
 
+    /**
+     * Queues a statement prepared by <code>sp_prepexec</code> for caching,
+     * once the server has returned its handle. The statement is added to the
+     * cache by the next synchronized method looking up or releasing cached
+     * statements.
+     * <p/>
+     * Not synchronized on the connection because it's called by the protocol
+     * while holding the connection mutex, which synchronized methods acquire
+     * when submitting SQL themselves.
+     *
+     * @param key  the signature of the statement to cache
+     * @param proc the statement descriptor
+     */
+    void addPreparedOnExecute(String key, ProcEntry proc) {
+        synchronized (preparedOnExecute) {
+            preparedOnExecute.add(new Object[] {key, proc});
+        }
+    }
+
+    /**
+     * Adds the statements queued by {@link #addPreparedOnExecute} to the
+     * cache.
+     * <p>
+     * Not explicitly synchronized because it's only called by synchronized
+     * methods.
+     */
+    private void cachePreparedOnExecute() {
+        synchronized (preparedOnExecute) {
+            for (int i = 0; i < preparedOnExecute.size(); i++) {
+                Object[] entry = (Object[]) preparedOnExecute.get(i);
+                addCachedProcedure((String) entry[0], (ProcEntry) entry[1]);
+            }
+            preparedOnExecute.clear();
+        }
+    }
+
     /**
      * Remove a stored procedure from the cache.
      * <p>
@@ -848,6 +1134,247 @@ public class JtdsConnection implements java.sql.Connection {
         rowCount = count;
     }
 
+    /**
+     * Resets the session state of the connection before it is reused, e.g. by
+     * a connection pool. Any open transaction is rolled back, the connection
+     * returns to auto commit mode, <code>READ COMMITTED</code> isolation and
+     * its login database, and temporary tables, procedures and prepared
+     * statement handles are dropped by the server.
+     * <p/>
+     * The reset itself costs no round trip: it is requested by a flag in the
+     * next request, along with the settings jTDS establishes after login.
+     * Only supported by SQL Server 2000 and later.
+     *
+     * @return <code>true</code> if the connection will be reset,
+     *         <code>false</code> if resetting isn't supported by the server
+     * @throws SQLException if the connection is closed or rolling back the
+     *         current transaction fails
+     */
+    public synchronized boolean resetConnection() throws SQLException {
+        checkOpen();
+
+        if (serverType != Driver.SQLSERVER || tdsVersion < Driver.TDS80
+                || xaTransaction) {
+            return false;
+        }
+
+        if (transactionPending) {
+            baseTds.submitSQL("IF @@TRANCOUNT > 0 ROLLBACK TRAN");
+            transactionPending = false;
+        }
+
+        resetPending = true;
+
+        // Resync the cached state with the state after the reset
+        autoCommit = serverAutoCommit = true;
+        transactionIsolation = serverIsolation =
+                java.sql.Connection.TRANSACTION_READ_COMMITTED;
+        readOnly = false;
+        currentDatabase = loginDatabase;
+        rowCount = 0;
+
+        // Temporary procedures and statement handles are gone
+        statementCache = new ProcedureCache(maxStatements);
+        synchronized (preparedOnExecute) {
+            preparedOnExecute.clear();
+        }
+        pendingUnprepares.clear();
+        procInTran.clear();
+        clearSavepoints();
+        clearWarnings();
+
+        return true;
+    }
+
+    /**
+     * Retrieves whether the next request has to reset the connection.
+     */
+    boolean isResetPending() {
+        return resetPending;
+    }
+
+    /**
+     * Called by the protocol once the reset has been sent to the server.
+     */
+    void resetSent() {
+        resetPending = false;
+    }
+
+    /**
+     * Builds the SQL applying the session settings changed since the last
+     * request. The settings are only journaled by the setters, so changes
+     * that cancel each other out or don't change anything never cost a
+     * request.
+     * <p/>
+     * The settings are recorded as sent, but only known to be in effect once
+     * the request has completed without error (see
+     * {@link #sessionSettingsCompleted}): SQL Server doesn't execute any
+     * statement of a batch that fails to compile. Until then, and after a
+     * failure, the next requests send all settings again. Once one of these
+     * completes the settings are known again, whatever the outcome of the
+     * earlier requests.
+     * <p/>
+     * Not synchronized on the connection because it's called by the protocol
+     * while holding the connection mutex, which synchronized methods acquire
+     * when submitting SQL themselves.
+     *
+     * @param rowCount the number of rows to return or 0 for no limit or -1 to
+     *                 leave as is
+     * @param textSize the maximum number of bytes in a TEXT column to return
+     *                 or -1 to leave as is
+     * @return the SQL to execute before the request or <code>null</code> if
+     *         the session is up to date
+     */
+    String getSessionSql(int rowCount, int textSize) throws SQLException {
+        synchronized (sessionLock) {
+            // Settings of requests not known to have succeeded may not be in
+            // effect, so send all of them again
+            boolean unknown = sessionSequence > confirmedSettings;
+            StringBuilder sql = null;
+
+            if (initialSql != null) {
+                sql = append(sql, initialSql);
+            }
+
+            if (resetPending) {
+                // The reset restores the login defaults, so re-establish the
+                // settings of the initial SQL along with the reset
+                resetSettings = sessionSequence + 1;
+                if (textSize < 0) {
+                    textSize = this.textSize;
+                }
+                this.textSize = -1;
+            }
+
+            if (resetSettings > 0) {
+                if (sql == null) {
+                    sql = new StringBuilder(128);
+                }
+                sql.append(SQL_SERVER_RESET_SQL);
+            }
+
+            boolean ac = autoCommit;
+            if (unknown || ac != serverAutoCommit) {
+                sql = append(sql, serverType == Driver.SYBASE
+                        ? (ac ? "SET CHAINED OFF" : "SET CHAINED ON")
+                        : (ac ? "SET IMPLICIT_TRANSACTIONS OFF"
+                              : "SET IMPLICIT_TRANSACTIONS ON"));
+                serverAutoCommit = ac;
+            }
+
+            int level = transactionIsolation;
+            if (unknown || level != serverIsolation) {
+                sql = append(sql, getIsolationSql(level));
+                serverIsolation = level;
+            }
+
+            if (rowCount >= 0 && (unknown || rowCount != this.rowCount)) {
+                sql = append(sql, "SET ROWCOUNT " + rowCount);
+                this.rowCount = rowCount;
+            }
+
+            if (textSize >= 0 && (unknown || textSize != this.textSize)) {
+                sql = append(sql, "SET TEXTSIZE "
+                        + (textSize == 0 ? 2147483647 : textSize));
+                this.textSize = textSize;
+            }
+
+            if (!ac) {
+                // The request might start a transaction
+                transactionPending = true;
+            }
+
+            if (sql == null) {
+                return null;
+            }
+
+            sessionSequence++;
+
+            return sql.toString();
+        }
+    }
+
+    /**
+     * Retrieves the number identifying the request the SQL last returned by
+     * {@link #getSessionSql} is sent with.
+     */
+    int getSessionSequence() {
+        synchronized (sessionLock) {
+            return sessionSequence;
+        }
+    }
+
+    /**
+     * Called by the protocol once a request sent with session settings has
+     * completed or could not be sent.
+     *
+     * @param sequence the number of the request, see
+     *                 {@link #getSessionSequence}
+     * @param applied  <code>true</code> if the request completed without
+     *                 error, so the settings are in effect
+     */
+    void sessionSettingsCompleted(int sequence, boolean applied) {
+        synchronized (sessionLock) {
+            if (!applied) {
+                // Unknown, so sent again once requested
+                rowCount = -1;
+                textSize = -1;
+                return;
+            }
+
+            // The request either found the settings known or sent all of them
+            confirmedSettings = Math.max(confirmedSettings, sequence);
+            initialSql = null;
+
+            if (resetSettings > 0 && sequence >= resetSettings) {
+                resetSettings = 0;
+            }
+        }
+    }
+
+    /**
+     * Called by the protocol when the server reports the start or end of a
+     * transaction. Servers sending these notifications allow
+     * {@link #commit()} and {@link #rollback()} to skip the request if no
+     * transaction has been started since.
+     *
+     * @param descriptor the descriptor of the started transaction or
+     *                   <code>null</code> if the transaction has ended
+     */
+    void setTransactionDescriptor(byte[] descriptor) {
+        transactionDescriptor = descriptor;
+        transactionPending = descriptor != null;
+    }
+
+    /**
+     * Retrieves the descriptor of the open transaction.
+     *
+     * @return the descriptor reported by the server or <code>null</code> if
+     *         no transaction is open or the server doesn't report them
+     */
+    byte[] getTransactionDescriptor() {
+        return transactionDescriptor;
+    }
+
+    /**
+     * Appends a statement to the session SQL built by
+     * {@link #getSessionSql}. With SQL Server 7.0 and later the statement is
+     * terminated by a semicolon, as required before statements such as
+     * <code>WITH</code>, <code>MERGE</code> or <code>THROW</code>.
+     */
+    private StringBuilder append(StringBuilder sql, String stmt) {
+        if (sql == null) {
+            sql = new StringBuilder(64);
+        }
+
+        sql.append(stmt);
+        if (serverType == Driver.SQLSERVER && tdsVersion >= Driver.TDS70) {
+            sql.append(';');
+        }
+
+        return sql.append("\r\n");
+    }
+
     /**
      * Retrieves the current maximum textsize on this connection.
      *
@@ -884,6 +1411,18 @@ public class JtdsConnection implements java.sql.Connection {
         return maxPrecision;
     }
 
+    /**
+     * Retrieves the key identifying the server in the caches of information
+     * shared by all connections to it. Includes the server version, which
+     * is only known after the login.
+     *
+     * @return the server key
+     */
+    private String getServerKey() {
+        return serverType + ":" + serverName.toLowerCase() + ':' + portNumber
+                + '\\' + instanceName.toLowerCase() + ':' + databaseProductVersion;
+    }
+
     /**
      * Retrieves the LOB buffer size.
      *
@@ -1008,6 +1547,179 @@ public class JtdsConnection implements java.sql.Connection {
         return bufferMinPackets;
     }
 
+    /**
+     * Retrieves the number of kilobytes a cached result set may keep in memory
+     * before spilling to memory mapped files.
+     *
+     * @return the memory limit in kilobytes or 0 to never spill
+     */
+    int getResultSetMaxMemory() {
+        return resultSetMaxMemory;
+    }
+
+    /**
+     * Retrieves the number of seconds an instance port looked up from the SQL
+     * Server Browser is cached.
+     *
+     * @return the instance cache TTL in seconds or 0 if the cache is disabled
+     */
+    int getInstanceCacheTTL() {
+        return instanceCacheTTL;
+    }
+
+    /**
+     * Retrieves whether all addresses of the server and failover partner are
+     * connected to in parallel.
+     *
+     * @return <code>true</code> if connects are raced
+     */
+    boolean getMultiSubnetFailover() {
+        return multiSubnetFailover;
+    }
+
+    /**
+     * Retrieves the failover partner to connect to if the server is not
+     * reachable.
+     *
+     * @return the failover partner as <code>host[:port]</code> or an empty string
+     */
+    String getFailoverPartner() {
+        return failoverPartner;
+    }
+
+    /**
+     * Retrieves the number of milliseconds to wait for the connection if it's
+     * in use by another thread.
+     *
+     * @return the lock timeout in milliseconds or 0 to wait indefinitely
+     */
+    int getLockTimeout() {
+        return lockTimeout;
+    }
+
+    /**
+     * Retrieves whether threads sharing the connection acquire it in arrival
+     * order.
+     *
+     * @return <code>true</code> if the connection lock is fair
+     */
+    boolean getFairLock() {
+        return fairLock;
+    }
+
+    /**
+     * Retrieves the number of milliseconds after the last server response during which <code>isValid()</code> doesn't ping the server.
+     *
+     * @return the validation window in milliseconds or 0 if <code>isValid()</code> always pings the server
+     */
+    int getValidationWindow() {
+        return validationWindow;
+    }
+
+    /**
+     * Retrieves whether the types of prepared statement parameters are looked up to choose between varchar and nvarchar.
+     *
+     * @return <code>true</code> if parameter types are described
+     */
+    boolean getDescribeParameters() {
+        return describeParameters;
+    }
+
+    /**
+     * Retrieves the number of seconds stored procedure signatures are cached.
+     *
+     * @return the procedure signature cache TTL in seconds or 0 if signatures are not looked up
+     */
+    int getProcedureCacheTtl() {
+        return procedureCacheTtl;
+    }
+
+    /**
+     * Retrieves the maximum number of cached <code>DatabaseMetaData</code> results requested by this connection.
+     *
+     * @return the number of metadata results to cache
+     */
+    int getMetadataCacheSize() {
+        return metadataCacheSize;
+    }
+
+    /**
+     * Retrieves the number of seconds <code>DatabaseMetaData</code> results are cached.
+     *
+     * @return the metadata cache TTL in seconds or 0 if metadata caching is disabled
+     */
+    int getMetadataCacheTtl() {
+        return metadataCacheTtl;
+    }
+
+    /**
+     * Retrieves the number of executions of the same SQL required before it is prepared.
+     *
+     * @return the prepare threshold or 0 if statements are prepared on their first execution
+     */
+    int getPrepareThreshold() {
+        return prepareThreshold;
+    }
+
+    /**
+     * Retrieves the number of statements that have been prepared after
+     * reaching the prepare threshold.
+     *
+     * @return the number of statements promoted to prepared statements
+     */
+    public synchronized long getPreparePromotions() {
+        return preparePromotions;
+    }
+
+    /**
+     * Retrieves the number of executions that were not prepared because the
+     * statement had not reached the prepare threshold yet.
+     *
+     * @return the number of executions using <code>sp_executesql</code>
+     *         instead of a prepared statement handle
+     */
+    public synchronized long getUnpreparedExecutions() {
+        return unpreparedExecutions;
+    }
+
+    /**
+     * Retrieves the maximum number of closed statements this connection keeps for reuse.
+     *
+     * @return the statement pool size or 0 if statement pooling is disabled
+     */
+    int getStatementPoolSize() {
+        return statementPoolSize;
+    }
+
+    /**
+     * Retrieves the size of the SQL parse cache requested by this connection.
+     *
+     * @return the number of parsed SQL statements to cache or 0 if parse caching is disabled
+     */
+    int getParseCacheSize() {
+        return parseCacheSize;
+    }
+
+    /**
+     * Retrieves whether batches are executed in pieces of <code>batchSize</code>
+     * statements as they are added.
+     *
+     * @return <code>true</code> if batches are streamed
+     */
+    boolean getStreamBatches() {
+        return streamBatches;
+    }
+
+    /**
+     * Retrieves whether batches of simple INSERT statements are rewritten into
+     * multi-row INSERT statements.
+     *
+     * @return <code>true</code> if batched INSERTs are rewritten
+     */
+    boolean getRewriteBatchedInserts() {
+        return rewriteBatchedInserts;
+    }
+
     /**
      * Retrieves the database name for this connection.
      *
@@ -1257,6 +1969,7 @@ public class JtdsConnection implements java.sql.Connection {
         maxStatements = parseIntegerProperty(info, Driver.MAXSTATEMENTS);
 
         statementCache = new ProcedureCache(maxStatements);
+
         prepareSql = parseIntegerProperty(info, Driver.PREPARESQL);
         if (prepareSql < 0) {
             prepareSql = 0;
@@ -1272,33 +1985,113 @@ public class JtdsConnection implements java.sql.Connection {
             prepareSql = TdsCore.TEMPORARY_STORED_PROCEDURES;
         }
 
-        ssl = info.getProperty(Messages.get(Driver.SSL));
+        ssl = info.getProperty(Messages.get(Driver.SSL));
+
+        batchSize = parseIntegerProperty(info, Driver.BATCHSIZE);
+        if (batchSize < 0) {
+            throw new SQLException(Messages.get("error.connection.badprop",
+                    Messages.get(Driver.BATCHSIZE)), "08001");
+        }
+
+        bufferDir = new File(info.getProperty(Messages.get(Driver.BUFFERDIR)));
+        if (!bufferDir.isDirectory()) {
+        	if (!bufferDir.mkdirs()) {
+                throw new SQLException(Messages.get("error.connection.badprop",
+                        Messages.get(Driver.BUFFERDIR)), "08001");
+        	}
+        }
+
+        bufferMaxMemory = parseIntegerProperty(info, Driver.BUFFERMAXMEMORY);
+        if (bufferMaxMemory < 0) {
+            throw new SQLException(Messages.get("error.connection.badprop",
+                    Messages.get(Driver.BUFFERMAXMEMORY)), "08001");
+        }
+
+        bufferMinPackets = parseIntegerProperty(info, Driver.BUFFERMINPACKETS);
+        if (bufferMinPackets < 1) {
+            throw new SQLException(Messages.get("error.connection.badprop",
+                    Messages.get(Driver.BUFFERMINPACKETS)), "08001");
+        }
+
+        resultSetMaxMemory = parseIntegerProperty(info, Driver.RESULTSETMAXMEMORY);
+        if (resultSetMaxMemory < 0) {
+            throw new SQLException(Messages.get("error.connection.badprop",
+                    Messages.get(Driver.RESULTSETMAXMEMORY)), "08001");
+        }
+
+        instanceCacheTTL = parseIntegerProperty(info, Driver.INSTANCECACHETTL);
+        if (instanceCacheTTL < 0) {
+            throw new SQLException(Messages.get("error.connection.badprop",
+                    Messages.get(Driver.INSTANCECACHETTL)), "08001");
+        }
+
+        multiSubnetFailover = parseBooleanProperty(info, Driver.MULTISUBNETFAILOVER);
+
+        failoverPartner = info.getProperty(Messages.get(Driver.FAILOVERPARTNER));
+        if (failoverPartner != null && !failoverPartner.isEmpty()
+                && !failoverPartner.matches("[^:]+(:[0-9]{1,5})?")) {
+            throw new SQLException(Messages.get("error.connection.badprop",
+                    Messages.get(Driver.FAILOVERPARTNER)), "08001");
+        }
+
+        lockTimeout = parseIntegerProperty(info, Driver.LOCKTIMEOUT);
+        if (lockTimeout < 0) {
+            throw new SQLException(Messages.get("error.connection.badprop",
+                    Messages.get(Driver.LOCKTIMEOUT)), "08001");
+        }
+
+        fairLock = parseBooleanProperty(info, Driver.FAIRLOCK);
+
+        validationWindow = parseIntegerProperty(info, Driver.VALIDATIONWINDOW);
+        if (validationWindow < 0) {
+            throw new SQLException(Messages.get("error.connection.badprop",
+                    Messages.get(Driver.VALIDATIONWINDOW)), "08001");
+        }
+
+        describeParameters = parseBooleanProperty(info, Driver.DESCRIBEPARAMETERS);
+
+        procedureCacheTtl = parseIntegerProperty(info, Driver.PROCEDURECACHETTL);
+        if (procedureCacheTtl < 0) {
+            throw new SQLException(Messages.get("error.connection.badprop",
+                    Messages.get(Driver.PROCEDURECACHETTL)), "08001");
+        }
+
+        metadataCacheSize = parseIntegerProperty(info, Driver.METADATACACHESIZE);
+        if (metadataCacheSize < 1) {
+            throw new SQLException(Messages.get("error.connection.badprop",
+                    Messages.get(Driver.METADATACACHESIZE)), "08001");
+        }
 
-        batchSize = parseIntegerProperty(info, Driver.BATCHSIZE);
-        if (batchSize < 0) {
+        metadataCacheTtl = parseIntegerProperty(info, Driver.METADATACACHETTL);
+        if (metadataCacheTtl < 0) {
             throw new SQLException(Messages.get("error.connection.badprop",
-                    Messages.get(Driver.BATCHSIZE)), "08001");
+                    Messages.get(Driver.METADATACACHETTL)), "08001");
         }
 
-        bufferDir = new File(info.getProperty(Messages.get(Driver.BUFFERDIR)));
-        if (!bufferDir.isDirectory()) {
-        	if (!bufferDir.mkdirs()) {
-                throw new SQLException(Messages.get("error.connection.badprop",
-                        Messages.get(Driver.BUFFERDIR)), "08001");
-        	}
+        prepareThreshold = parseIntegerProperty(info, Driver.PREPARETHRESHOLD);
+        if (prepareThreshold < 0) {
+            throw new SQLException(Messages.get("error.connection.badprop",
+                    Messages.get(Driver.PREPARETHRESHOLD)), "08001");
         }
 
-        bufferMaxMemory = parseIntegerProperty(info, Driver.BUFFERMAXMEMORY);
-        if (bufferMaxMemory < 0) {
+        statementPoolSize = parseIntegerProperty(info, Driver.STATEMENTPOOLSIZE);
+        if (statementPoolSize < 0) {
             throw new SQLException(Messages.get("error.connection.badprop",
-                    Messages.get(Driver.BUFFERMAXMEMORY)), "08001");
+                    Messages.get(Driver.STATEMENTPOOLSIZE)), "08001");
+        }
+        if (statementPoolSize > 0) {
+            statementPool = new LinkedHashMap(Math.min(statementPoolSize, 256) * 2, 0.75f, true);
         }
 
-        bufferMinPackets = parseIntegerProperty(info, Driver.BUFFERMINPACKETS);
-        if (bufferMinPackets < 1) {
+        parseCacheSize = parseIntegerProperty(info, Driver.PARSECACHESIZE);
+        if (parseCacheSize < 0) {
             throw new SQLException(Messages.get("error.connection.badprop",
-                    Messages.get(Driver.BUFFERMINPACKETS)), "08001");
+                    Messages.get(Driver.PARSECACHESIZE)), "08001");
         }
+
+        streamBatches = parseBooleanProperty(info, Driver.STREAMBATCHES);
+
+        rewriteBatchedInserts = parseBooleanProperty(info, Driver.REWRITEBATCHEDINSERTS);
     }
 
     /**
@@ -1657,49 +2450,27 @@ public class JtdsConnection implements java.sql.Connection {
    synchronized void removeStatement( JtdsStatement statement )
       throws SQLException
    {
-      // Remove the JtdsStatement from the statement list
-      synchronized( statements )
-      {
-         for( int i = 0; i < statements.size(); i++ )
-         {
-            WeakReference wr = (WeakReference) statements.get( i );
-
-            if( wr != null )
-            {
-               Statement stmt = (Statement) wr.get();
-
-               // Remove the statement if found but also remove all
-               // statements that have already been garbage collected
-               if( stmt == null || stmt == statement )
-               {
-                  statements.set( i, null );
-               }
-            }
-         }
-      }
+      // Remove the JtdsStatement from the statement registry
+      statements.remove( statement, statement.registrySlot );
 
       if( statement instanceof JtdsPreparedStatement )
       {
          // Clean up the prepared statement cache; getObsoleteHandles will
          // decrement the usage count for the set of used handles
+         cachePreparedOnExecute();
          Collection handles = statementCache.getObsoleteHandles( ((JtdsPreparedStatement) statement).handles );
 
          if( handles != null )
          {
             if( serverType == Driver.SQLSERVER )
             {
-               // SQL Server unprepare
-               StringBuilder cleanupSql = new StringBuilder( handles.size() * 32 );
-               for( Iterator iterator = handles.iterator(); iterator.hasNext(); )
-               {
-                  ProcEntry pe = (ProcEntry) iterator.next();
-                  // Could get put back if in a transaction that is rolled back
-                  pe.appendDropSQL( cleanupSql );
-               }
-               if( cleanupSql.length() > 0 )
+               // SQL Server unprepare, deferred to drop handles in batches
+               // instead of adding a round trip to each close()
+               pendingUnprepares.addAll( handles );
+
+               if( pendingUnprepares.size() >= UNPREPARE_THRESHOLD )
                {
-                  baseTds.executeSQL( cleanupSql.toString(), null, null, true, 0, -1, -1, true );
-                  baseTds.clearResponseQueue();
+                  flushUnprepares();
                }
             }
             else
@@ -1719,33 +2490,199 @@ public class JtdsConnection implements java.sql.Connection {
       }
    }
 
+   /**
+    * <p> Drops the queued obsolete SQL Server statement handles and temporary
+    * procedures in a single request. </p>
+    *
+    * <p> Not explicitly synchronized because it's only called by synchronized
+    * methods. </p>
+    *
+    * @throws SQLException
+    *    if an I/O error occurs; the handles remain queued (up to a maximum of
+    *    {@link #MAX_PENDING_UNPREPARES}) in that case
+    */
+   private void flushUnprepares()
+      throws SQLException
+   {
+      StringBuilder cleanupSql = new StringBuilder( pendingUnprepares.size() * 32 );
+
+      for( int i = 0; i < pendingUnprepares.size(); i ++ )
+      {
+         // Could get put back if in a transaction that is rolled back
+         ( (ProcEntry) pendingUnprepares.get( i ) ).appendDropSQL( cleanupSql );
+      }
+
+      try
+      {
+         if( cleanupSql.length() > 0 )
+         {
+            baseTds.executeSQL( cleanupSql.toString(), null, null, true, 0, -1, -1, true );
+            baseTds.clearResponseQueue();
+         }
+
+         pendingUnprepares.clear();
+      }
+      finally
+      {
+         // don't let the queue grow without bounds, the server releases all
+         // handles at the latest when the connection is closed
+         int excess = pendingUnprepares.size() - MAX_PENDING_UNPREPARES;
+
+         if( excess > 0 )
+         {
+            pendingUnprepares.subList( 0, excess ).clear();
+         }
+      }
+   }
+
+   /**
+    * <p> Retrieves the number of obsolete statement handles and temporary
+    * procedures waiting to be dropped. </p>
+    */
+   synchronized int getPendingUnprepareCount()
+   {
+      return pendingUnprepares.size();
+   }
+
     /**
      * Adds a statement object to the list maintained by the connection.
      * <p/>
      * WeakReferences are used so that statements can still be closed and
-     * garbage collected even if not explicitly closed by the connection.
+     * garbage collected even if not explicitly closed by the connection,
+     * see {@link StatementRegistry}.
      *
      * @param statement statement to add
      */
     void addStatement(JtdsStatement statement) {
-        synchronized (statements) {
-            for (int i = 0; i < statements.size(); i++) {
-                WeakReference wr = (WeakReference) statements.get(i);
+        statement.registrySlot = statements.add(statement);
+    }
+
+    /**
+     * Builds the key identifying a statement in the statement pool.
+     *
+     * @param sql         the original SQL statement
+     * @param type        the result set type
+     * @param concurrency the result set concurrency
+     * @param returnKeys  <code>true</code> if generated keys are returned
+     * @param callable    <code>true</code> for a <code>CallableStatement</code>
+     * @return the key or <code>null</code> if statement pooling is disabled
+     */
+    private String getPoolKey(String sql, int type, int concurrency,
+                              boolean returnKeys, boolean callable) {
+        if (statementPool == null) {
+            return null;
+        }
 
-                // FIXME: entries from statements should be dropped immediately
-                // on GC, instead of being kept until overwritten or connection
-                // being closed
+        StringBuilder key = new StringBuilder(sql.length() + 16);
+        key.append(callable ? 'C' : 'P').append(returnKeys ? 'K' : 'N');
+        key.append(type).append(',').append(concurrency).append(':');
+        key.append(sql);
 
-                if (wr == null || wr.get() == null) {
-                    statements.set(i, new WeakReference(statement));
-                    return;
-                }
+        return key.toString();
+    }
+
+    /**
+     * Retrieves a statement from the statement pool, removing it from the
+     * pool and reopening it.
+     *
+     * @param key the statement key as returned by {@link #getPoolKey}
+     * @return the pooled statement or <code>null</code> if there is none
+     */
+    private JtdsPreparedStatement takePooledStatement(String key) {
+        if (key == null) {
+            return null;
+        }
+
+        JtdsPreparedStatement stmt = (JtdsPreparedStatement) statementPool.remove(key);
+
+        if (stmt != null && stmt.activate()) {
+            poolHits++;
+            return stmt;
+        }
+
+        poolMisses++;
+        return null;
+    }
+
+    /**
+     * Returns a statement closed by the application to the statement pool.
+     * If the pool is full, the least recently used statement is closed.
+     * <p/>
+     * Synchronized because it accesses the statement pool and, when closing
+     * a statement, the statement cache.
+     *
+     * @param stmt the statement to pool
+     * @return <code>true</code> if the statement has been pooled,
+     *         <code>false</code> if it has to be closed
+     * @throws SQLException if closing an evicted statement fails
+     */
+    synchronized boolean poolStatement(JtdsPreparedStatement stmt)
+            throws SQLException {
+        if (closed || statementPool == null
+                || statementPool.containsKey(stmt.poolKey)
+                || !stmt.passivate()) {
+            return false;
+        }
+
+        statementPool.put(stmt.poolKey, stmt);
+
+        if (statementPool.size() > statementPoolSize) {
+            Iterator it = statementPool.values().iterator();
+            JtdsPreparedStatement eldest = (JtdsPreparedStatement) it.next();
+            it.remove();
+
+            if (eldest.activate()) {
+                eldest.closeStatement();
             }
+        }
+
+        return true;
+    }
+
+    /**
+     * Closes all statements held by the statement pool and disables pooling,
+     * so that statements closed along with the connection are not pooled.
+     */
+    private void closeStatementPool() {
+        if (statementPool == null) {
+            return;
+        }
+
+        ArrayList pooled = new ArrayList(statementPool.values());
+        statementPool = null;
 
-            statements.add(new WeakReference(statement));
+        for (int i = 0; i < pooled.size(); i++) {
+            JtdsPreparedStatement stmt = (JtdsPreparedStatement) pooled.get(i);
+
+            if (stmt.activate()) {
+                try {
+                    stmt.closeStatement();
+                } catch (SQLException ex) {
+                    // Ignore
+                }
+            }
         }
     }
 
+    /**
+     * Retrieves the number of statements served from the statement pool.
+     *
+     * @return the number of statement pool hits
+     */
+    synchronized long getStatementPoolHits() {
+        return poolHits;
+    }
+
+    /**
+     * Retrieves the number of poolable statements that had to be created
+     * because no matching statement was pooled.
+     *
+     * @return the number of statement pool misses
+     */
+    synchronized long getStatementPoolMisses() {
+        return poolMisses;
+    }
+
     /**
      * Checks that the connection is still open.
      *
@@ -2020,6 +2957,120 @@ public class JtdsConnection implements java.sql.Connection {
       return mutex;
     }
 
+   /**
+    * Retrieves the connection mutex and acquires an exclusive lock on the
+    * network connection, waiting at most {@link #getLockTimeout() lockTimeout}
+    * milliseconds or the given query timeout, whichever is shorter.
+    *
+    * @param timeout
+    *    the query timeout in seconds or 0
+    *
+    * @return
+    *    the mutex object as a <code>Semaphore</code>
+    *
+    * @throws SQLException
+    *    if the lock couldn't be acquired in time
+    */
+   Semaphore getMutex( int timeout )
+      throws SQLException
+   {
+      long wait = lockTimeout;
+
+      if( timeout > 0 && ( wait == 0 || timeout * 1000L < wait ) )
+      {
+         wait = timeout * 1000L;
+      }
+
+      if( wait == 0 )
+      {
+         return getMutex();
+      }
+
+      long deadline = System.currentTimeMillis() + wait;
+      boolean interrupted = false;
+      boolean acquired;
+
+      while( true )
+      {
+         // JDBC can not be interrupted, retry on InterruptedException
+         try
+         {
+            acquired = mutex.attempt( deadline - System.currentTimeMillis() );
+            break;
+         }
+         catch( InterruptedException e )
+         {
+            // interrupt status is cleared now
+            interrupted = true;
+         }
+      }
+
+      // Bug [1596743] do not absorb interrupt status
+      if( interrupted )
+      {
+         Thread.currentThread().interrupt();
+      }
+
+      if( ! acquired )
+      {
+         Thread holder = mutex.getHolder();
+         throw new SQLTimeoutException( Messages.get( "error.connection.locktimeout", String.valueOf( wait ), holder == null ? "unknown" : holder.getName() ), "HYT00" );
+      }
+
+      return mutex;
+   }
+
+    /**
+     * Retrieves the thread currently using the network connection.
+     *
+     * @return the thread or <code>null</code> if the connection is idle
+     */
+    public Thread getLockHolder() {
+        return mutex.getHolder();
+    }
+
+    /**
+     * Retrieves the number of times the network connection was acquired for
+     * a request.
+     */
+    public long getLockAcquireCount() {
+        return mutex.getAcquireCount();
+    }
+
+    /**
+     * Retrieves the number of times a thread had to wait for the network
+     * connection because another thread was using it.
+     */
+    public long getLockContendedCount() {
+        return mutex.getContendedCount();
+    }
+
+    /**
+     * Retrieves the total time threads spent waiting for the network
+     * connection, in microseconds.
+     */
+    public long getLockWaitTime() {
+        return mutex.getTotalWaitTime();
+    }
+
+    /**
+     * Retrieves the longest time a thread spent waiting for the network
+     * connection, in microseconds.
+     */
+    public long getLockMaxWaitTime() {
+        return mutex.getMaxWaitTime();
+    }
+
+    /**
+     * Retrieves a histogram of the times threads spent waiting for the
+     * network connection. Element 0 counts acquisitions without waiting,
+     * element <i>i</i> waits of 2<sup><i>i</i>-1</sup> to 2<sup><i>i</i></sup>
+     * microseconds and the last element all longer waits.
+     */
+    public long[] getLockWaitHistogram() {
+        return mutex.getWaitHistogram();
+    }
+
    /**
     * Releases (either closes or caches) a <code>TdsCore</code>.
     *
@@ -2103,25 +3154,16 @@ public class JtdsConnection implements java.sql.Connection {
                 //
                 // Close any open statements
                 //
-                ArrayList tmpList;
+                closeStatementPool();
 
-                synchronized (statements) {
-                    tmpList = new ArrayList(statements);
-                    statements.clear();
-                }
+                List tmpList = statements.removeAll();
 
                 for (int i = 0; i < tmpList.size(); i++) {
-                    WeakReference wr = (WeakReference)tmpList.get(i);
-
-                    if (wr != null) {
-                        Statement stmt = (Statement) wr.get();
-                        if (stmt != null) {
-                            try {
-                                stmt.close();
-                            } catch (SQLException ex) {
-                                // Ignore
-                            }
-                        }
+                    Statement stmt = (Statement) tmpList.get(i);
+                    try {
+                        stmt.close();
+                    } catch (SQLException ex) {
+                        // Ignore
                     }
                 }
 
@@ -2166,7 +3208,11 @@ public class JtdsConnection implements java.sql.Connection {
                     "25000");
         }
 
-        baseTds.submitSQL("IF @@TRANCOUNT > 0 COMMIT TRAN");
+        if (transactionPending) {
+            baseTds.submitSQL("IF @@TRANCOUNT > 0 COMMIT TRAN");
+            transactionPending = false;
+        }
+
         procInTran.clear();
         clearSavepoints();
     }
@@ -2181,7 +3227,10 @@ public class JtdsConnection implements java.sql.Connection {
                     "25000");
         }
 
-        baseTds.submitSQL("IF @@TRANCOUNT > 0 ROLLBACK TRAN");
+        if (transactionPending) {
+            baseTds.submitSQL("IF @@TRANCOUNT > 0 ROLLBACK TRAN");
+            transactionPending = false;
+        }
 
         for (int i = 0; i < procInTran.size(); i++) {
             String key = (String) procInTran.get(i);
@@ -2233,6 +3282,10 @@ public class JtdsConnection implements java.sql.Connection {
         }
     }
 
+    /**
+     * Sets the transaction isolation level. The change is sent to the
+     * server along with the next request.
+     */
     synchronized public void setTransactionIsolation(int level) throws SQLException {
         checkOpen();
 
@@ -2241,6 +3294,19 @@ public class JtdsConnection implements java.sql.Connection {
             return;
         }
 
+        // Validate the level now rather than with the next request
+        getIsolationSql(level);
+        transactionIsolation = level;
+    }
+
+    /**
+     * Builds the SQL setting a transaction isolation level.
+     *
+     * @param level the transaction isolation level
+     * @return the SQL statement
+     * @throws SQLException if the level is invalid or not supported
+     */
+    private String getIsolationSql(int level) throws SQLException {
         String sql = "SET TRANSACTION ISOLATION LEVEL ";
         boolean sybase = serverType == Driver.SYBASE;
 
@@ -2282,10 +3348,13 @@ public class JtdsConnection implements java.sql.Connection {
                         "HY092");
         }
 
-        transactionIsolation = level;
-        baseTds.submitSQL(sql);
+        return sql;
     }
 
+    /**
+     * Sets the auto commit mode. The change is sent to the server along with
+     * the next request, unless a transaction may have to be committed.
+     */
     synchronized public void setAutoCommit(boolean autoCommit) throws SQLException {
         checkOpen();
         checkLocal("setAutoCommit");
@@ -2301,30 +3370,21 @@ public class JtdsConnection implements java.sql.Connection {
             return;
         }
 
-        StringBuilder sql = new StringBuilder(70);
-        //
-        if (!this.autoCommit) {
+        this.autoCommit = autoCommit;
+
+        if (autoCommit && transactionPending) {
             // If we're in manual commit mode the spec requires that we commit
-            // the transaction when setAutoCommit() is called
+            // the transaction when setAutoCommit() is called. Sybase doesn't
+            // allow SET CHAINED within a transaction, so commit first.
+            StringBuilder sql = new StringBuilder(70);
             sql.append("IF @@TRANCOUNT > 0 COMMIT TRAN\r\n");
-        }
+            sql.append(serverType == Driver.SYBASE
+                    ? "SET CHAINED OFF" : "SET IMPLICIT_TRANSACTIONS OFF");
 
-        if (serverType == Driver.SYBASE) {
-            if (autoCommit) {
-                sql.append("SET CHAINED OFF");
-            } else {
-                sql.append("SET CHAINED ON");
-            }
-        } else {
-            if (autoCommit) {
-                sql.append("SET IMPLICIT_TRANSACTIONS OFF");
-            } else {
-                sql.append("SET IMPLICIT_TRANSACTIONS ON");
-            }
+            serverAutoCommit = true;
+            baseTds.submitSQL(sql.toString());
+            transactionPending = false;
         }
-
-        baseTds.submitSQL(sql.toString());
-        this.autoCommit = autoCommit;
     }
 
     public void setReadOnly(boolean readOnly) throws SQLException {
@@ -2437,10 +3497,18 @@ public class JtdsConnection implements java.sql.Connection {
             throw new SQLException(Messages.get("error.generic.nosql"), "HY000");
         }
 
+        String key = getPoolKey(sql, type, concurrency, false, true);
+        JtdsPreparedStatement pooled = takePooledStatement(key);
+
+        if (pooled != null) {
+            return (JtdsCallableStatement) pooled;
+        }
+
         JtdsCallableStatement stmt = new JtdsCallableStatement(this,
                                                                sql,
                                                                type,
                                                                concurrency);
+        stmt.poolKey = key;
         addStatement(stmt);
 
         return stmt;
@@ -2483,12 +3551,24 @@ public class JtdsConnection implements java.sql.Connection {
                     "HY092");
         }
 
-        JtdsPreparedStatement stmt = new JtdsPreparedStatement(this,
-                sql,
-                java.sql.ResultSet.TYPE_FORWARD_ONLY,
-                java.sql.ResultSet.CONCUR_READ_ONLY,
-                autoGeneratedKeys == JtdsStatement.RETURN_GENERATED_KEYS);
-        addStatement(stmt);
+        boolean returnKeys = autoGeneratedKeys == JtdsStatement.RETURN_GENERATED_KEYS;
+        JtdsPreparedStatement stmt;
+
+        synchronized (this) {
+            String key = getPoolKey(sql, java.sql.ResultSet.TYPE_FORWARD_ONLY,
+                    java.sql.ResultSet.CONCUR_READ_ONLY, returnKeys, false);
+            stmt = takePooledStatement(key);
+
+            if (stmt == null) {
+                stmt = new JtdsPreparedStatement(this,
+                        sql,
+                        java.sql.ResultSet.TYPE_FORWARD_ONLY,
+                        java.sql.ResultSet.CONCUR_READ_ONLY,
+                        returnKeys);
+                stmt.poolKey = key;
+                addStatement(stmt);
+            }
+        }
 
         return stmt;
     }
@@ -2503,11 +3583,19 @@ public class JtdsConnection implements java.sql.Connection {
             throw new SQLException(Messages.get("error.generic.nosql"), "HY000");
         }
 
-        JtdsPreparedStatement stmt = new JtdsPreparedStatement(this,
-                                                               sql,
-                                                               type,
-                                                               concurrency,
-                                                               false);
+        String key = getPoolKey(sql, type, concurrency, false, false);
+        JtdsPreparedStatement stmt = takePooledStatement(key);
+
+        if (stmt != null) {
+            return stmt;
+        }
+
+        stmt = new JtdsPreparedStatement(this,
+                                         sql,
+                                         type,
+                                         concurrency,
+                                         false);
+        stmt.poolKey = key;
         addStatement(stmt);
 
         return stmt;
@@ -2858,12 +3946,39 @@ public class JtdsConnection implements java.sql.Connection {
         throw new AbstractMethodError();
     }
 
-    /* (non-Javadoc)
+    /**
+     * Checks whether the connection is still usable. If data was received
+     * from the server within the last <code>validationWindow</code>
+     * milliseconds the connection is assumed to be alive, otherwise an empty
+     * batch is sent and its <code>DONE</code> token awaited.
+     * <p/>
+     * Synchronized like the other methods sending requests through the base
+     * protocol object, such as {@link #commit()}.
+     *
      * @see java.sql.Connection#isValid(int)
      */
-    public boolean isValid(int timeout) throws SQLException {
-	    // TODO Auto-generated method stub
-        throw new AbstractMethodError();
+    public synchronized boolean isValid(int timeout) throws SQLException {
+        if (timeout < 0) {
+            throw new SQLException(
+                    Messages.get("error.generic.badparam",
+                            Integer.toString(timeout), "timeout"), "HY092");
+        }
+
+        if (closed) {
+            return false;
+        }
+
+        if (validationWindow > 0
+                && System.currentTimeMillis() - socket.getLastReceived() < validationWindow) {
+            return true;
+        }
+
+        try {
+            baseTds.ping(timeout);
+            return !closed;
+        } catch (SQLException e) {
+            return false;
+        }
     }
 
     /* (non-Javadoc)
@@ -179,6 +179,13 @@ public class JtdsDatabaseMetaData implements java.sql.DatabaseMetaData {
                                                    int scope,
                                                    boolean nullable)
     throws SQLException {
+        String key = MetaDataCache.getKey(connection, "getBestRowIdentifier",
+                new Object[] {catalog, schema, table, scope, nullable});
+        CachedResultSet cached = MetaDataCache.get(connection, key);
+        if (cached != null) {
+            return cached;
+        }
+
         String colNames[] = {"SCOPE",           "COLUMN_NAME",
                              "DATA_TYPE",       "TYPE_NAME",
                              "COLUMN_SIZE",     "BUFFER_LENGTH",
@@ -219,7 +226,7 @@ public class JtdsDatabaseMetaData implements java.sql.DatabaseMetaData {
         // Do not close the statement, rsTmp is also built from it
         rsTmp.moveToCurrentRow();
         rsTmp.setConcurrency(ResultSet.CONCUR_READ_ONLY);
-        return rsTmp;
+        return MetaDataCache.put(connection, key, rsTmp);
     }
 
     /**
@@ -384,6 +391,13 @@ public class JtdsDatabaseMetaData implements java.sql.DatabaseMetaData {
                                          String tableNamePattern,
                                          String columnNamePattern)
     throws SQLException {
+        String key = MetaDataCache.getKey(connection, "getColumns",
+                new Object[] {catalog, schemaPattern, tableNamePattern, columnNamePattern});
+        CachedResultSet cached = MetaDataCache.get(connection, key);
+        if (cached != null) {
+            return cached;
+        }
+
         String colNames[] = {"TABLE_CAT",           "TABLE_SCHEM",
                              "TABLE_NAME",          "COLUMN_NAME",
                              "DATA_TYPE",           "TYPE_NAME",
@@ -488,7 +502,7 @@ public class JtdsDatabaseMetaData implements java.sql.DatabaseMetaData {
         rsTmp.moveToCurrentRow();
         rsTmp.setConcurrency(ResultSet.CONCUR_READ_ONLY);
 
-        return rsTmp;
+        return MetaDataCache.put(connection, key, rsTmp);
     }
 
     /**
@@ -577,6 +591,14 @@ public class JtdsDatabaseMetaData implements java.sql.DatabaseMetaData {
                                                 String foreignSchema,
                                                 String foreignTable)
     throws SQLException {
+        String key = MetaDataCache.getKey(connection, "getCrossReference",
+                new Object[] {primaryCatalog, primarySchema, primaryTable,
+                              foreignCatalog, foreignSchema, foreignTable});
+        CachedResultSet cached = MetaDataCache.get(connection, key);
+        if (cached != null) {
+            return cached;
+        }
+
         String colNames[] = {"PKTABLE_CAT",  "PKTABLE_SCHEM",
                              "PKTABLE_NAME", "PKCOLUMN_NAME",
                              "FKTABLE_CAT",  "FKTABLE_SCHEM",
@@ -628,7 +650,7 @@ public class JtdsDatabaseMetaData implements java.sql.DatabaseMetaData {
         rsTmp.moveToCurrentRow();
         rsTmp.setConcurrency(ResultSet.CONCUR_READ_ONLY);
 
-        return rsTmp;
+        return MetaDataCache.put(connection, key, rsTmp);
     }
 
     /**
@@ -947,6 +969,13 @@ public class JtdsDatabaseMetaData implements java.sql.DatabaseMetaData {
                                            boolean unique,
                                            boolean approximate)
     throws SQLException {
+        String key = MetaDataCache.getKey(connection, "getIndexInfo",
+                new Object[] {catalog, schema, table, unique, approximate});
+        CachedResultSet cached = MetaDataCache.get(connection, key);
+        if (cached != null) {
+            return cached;
+        }
+
         String colNames[] = {"TABLE_CAT",       "TABLE_SCHEM",
                              "TABLE_NAME",      "NON_UNIQUE",
                              "INDEX_QUALIFIER", "INDEX_NAME",
@@ -986,7 +1015,7 @@ public class JtdsDatabaseMetaData implements java.sql.DatabaseMetaData {
         rsTmp.moveToCurrentRow();
         rsTmp.setConcurrency(ResultSet.CONCUR_READ_ONLY);
 
-        return rsTmp;
+        return MetaDataCache.put(connection, key, rsTmp);
     }
 
     //----------------------------------------------------------------------
@@ -1284,6 +1313,13 @@ public class JtdsDatabaseMetaData implements java.sql.DatabaseMetaData {
                                              String schema,
                                              String table)
     throws SQLException {
+        String key = MetaDataCache.getKey(connection, "getPrimaryKeys",
+                new Object[] {catalog, schema, table});
+        CachedResultSet cached = MetaDataCache.get(connection, key);
+        if (cached != null) {
+            return cached;
+        }
+
         String colNames[] = {"TABLE_CAT",    "TABLE_SCHEM",
                              "TABLE_NAME",   "COLUMN_NAME",
                              "KEY_SEQ",      "PK_NAME"};
@@ -1312,7 +1348,7 @@ public class JtdsDatabaseMetaData implements java.sql.DatabaseMetaData {
         rsTmp.moveToCurrentRow();
         rsTmp.setConcurrency(ResultSet.CONCUR_READ_ONLY);
 
-        return rsTmp;
+        return MetaDataCache.put(connection, key, rsTmp);
     }
 
     /**
@@ -1380,6 +1416,14 @@ public class JtdsDatabaseMetaData implements java.sql.DatabaseMetaData {
                                                   String procedureNamePattern,
                                                   String columnNamePattern)
     throws SQLException {
+        String key = MetaDataCache.getKey(connection, "getProcedureColumns",
+                new Object[] {catalog, schemaPattern, procedureNamePattern,
+                              columnNamePattern});
+        CachedResultSet cached = MetaDataCache.get(connection, key);
+        if (cached != null) {
+            return cached;
+        }
+
         String colNames[] = {"PROCEDURE_CAT",   "PROCEDURE_SCHEM",
                              "PROCEDURE_NAME",  "COLUMN_NAME",
                              "COLUMN_TYPE",     "DATA_TYPE",
@@ -1472,7 +1516,7 @@ public class JtdsDatabaseMetaData implements java.sql.DatabaseMetaData {
         rs.close();
         rsTmp.moveToCurrentRow();
         rsTmp.setConcurrency(ResultSet.CONCUR_READ_ONLY);
-        return rsTmp;
+        return MetaDataCache.put(connection, key, rsTmp);
     }
 
     /**
@@ -1515,6 +1559,13 @@ public class JtdsDatabaseMetaData implements java.sql.DatabaseMetaData {
                                             String schemaPattern,
                                             String procedureNamePattern)
     throws SQLException {
+        String key = MetaDataCache.getKey(connection, "getProcedures",
+                new Object[] {catalog, schemaPattern, procedureNamePattern});
+        CachedResultSet cached = MetaDataCache.get(connection, key);
+        if (cached != null) {
+            return cached;
+        }
+
         String colNames[] = {"PROCEDURE_CAT",   "PROCEDURE_SCHEM",
                              "PROCEDURE_NAME",  "RESERVED_1",
                              "RESERVED_2",      "RESERVED_3",
@@ -1564,7 +1615,7 @@ public class JtdsDatabaseMetaData implements java.sql.DatabaseMetaData {
         rsTmp.moveToCurrentRow();
         rsTmp.setConcurrency(ResultSet.CONCUR_READ_ONLY);
         rs.close();
-        return rsTmp;
+        return MetaDataCache.put(connection, key, rsTmp);
     }
 
     /**
@@ -1796,6 +1847,13 @@ public class JtdsDatabaseMetaData implements java.sql.DatabaseMetaData {
                                         String tableNamePattern,
                                         String types[])
     throws SQLException {
+        String key = MetaDataCache.getKey(connection, "getTables",
+                new Object[] {catalog, schemaPattern, tableNamePattern, types});
+        CachedResultSet cached = MetaDataCache.get(connection, key);
+        if (cached != null) {
+            return cached;
+        }
+
         String colNames[] = {"TABLE_CAT",                   "TABLE_SCHEM",
                              "TABLE_NAME",                  "TABLE_TYPE",
                              "REMARKS",                     "TYPE_CAT",
@@ -1849,7 +1907,7 @@ public class JtdsDatabaseMetaData implements java.sql.DatabaseMetaData {
         rsTmp.moveToCurrentRow();
         rsTmp.setConcurrency(ResultSet.CONCUR_READ_ONLY);
         rs.close();
-        return rsTmp;
+        return MetaDataCache.put(connection, key, rsTmp);
     }
 
     /**
@@ -1938,6 +1996,12 @@ public class JtdsDatabaseMetaData implements java.sql.DatabaseMetaData {
      * @throws SQLException if a database-access error occurs.
      */
     public java.sql.ResultSet getTypeInfo() throws SQLException {
+        String key = MetaDataCache.getKey(connection, "getTypeInfo", new Object[0]);
+        CachedResultSet cached = MetaDataCache.get(connection, key);
+        if (cached != null) {
+            return cached;
+        }
+
         Statement s = connection.createStatement();
         JtdsResultSet rs;
 
@@ -1949,7 +2013,8 @@ public class JtdsDatabaseMetaData implements java.sql.DatabaseMetaData {
         }
 
         try {
-            return createTypeInfoResultSet(rs, connection.getUseLOBs());
+            return MetaDataCache.put(connection, key,
+                    createTypeInfoResultSet(rs, connection.getUseLOBs()));
         } finally {
             // CachedResultSet retains reference to same statement as rs, so don't close statement
             rs.close();
@@ -2095,6 +2160,13 @@ public class JtdsDatabaseMetaData implements java.sql.DatabaseMetaData {
                                                 String schema,
                                                 String table)
     throws SQLException {
+        String key = MetaDataCache.getKey(connection, "getVersionColumns",
+                new Object[] {catalog, schema, table});
+        CachedResultSet cached = MetaDataCache.get(connection, key);
+        if (cached != null) {
+            return cached;
+        }
+
         String colNames[] = {"SCOPE", "COLUMN_NAME","DATA_TYPE",
                              "TYPE_NAME","COLUMN_SIZE",
                              "BUFFER_LENGTH","DECIMAL_DIGITS",
@@ -2132,7 +2204,7 @@ public class JtdsDatabaseMetaData implements java.sql.DatabaseMetaData {
         rsTmp.moveToCurrentRow();
         rsTmp.setConcurrency(ResultSet.CONCUR_READ_ONLY);
         rs.close();
-        return rsTmp;
+        return MetaDataCache.put(connection, key, rsTmp);
     }
 
     /**
@@ -3422,6 +3494,18 @@ public class JtdsDatabaseMetaData implements java.sql.DatabaseMetaData {
         return true;
     }
 
+    /**
+     * Discards all metadata results cached for the server and database this
+     * connection is currently using, for all connections sharing the cache.
+     * Call this after schema changes if the <code>metadataCacheTtl</code>
+     * property is set; otherwise this method has no effect.
+     *
+     * @throws SQLException if the connection is closed
+     */
+    public void invalidateCache() throws SQLException {
+        MetaDataCache.invalidate(connection);
+    }
+
     /**
      * Format the supplied search pattern to transform the escape \x into [x].
      *
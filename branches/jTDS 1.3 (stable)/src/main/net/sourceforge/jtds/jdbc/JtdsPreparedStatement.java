@@ -80,6 +80,16 @@ public class JtdsPreparedStatement extends JtdsStatement implements PreparedStat
     private final static NumberFormat f = NumberFormat.getInstance();
     /** Collection of handles used by this statement */
     Collection handles;
+    /** The parameters as initially parsed, used to reset pooled statements. */
+    private ParamInfo[] paramTemplate;
+    /** The key of this statement in the statement pool or <code>null</code>. */
+    Object poolKey;
+    /** Per parameter Unicode flags described by the server, if known. */
+    private Boolean[] unicodeParameters;
+    /** The parameters have been described. */
+    private boolean parametersDescribed;
+    /** The maximum number of parameters in a rewritten batch INSERT (actually 2100). */
+    private final static int MAX_REWRITE_PARAMS = 2000;
 
     /**
      * Construct a new preparedStatement object.
@@ -136,6 +146,14 @@ public class JtdsPreparedStatement extends JtdsStatement implements PreparedStat
         }
 
         parameters = (ParamInfo[]) params.toArray(new ParamInfo[params.size()]);
+        poolable = true;
+
+        if (connection.getStatementPoolSize() > 0) {
+            paramTemplate = new ParamInfo[parameters.length];
+            for (int i = 0; i < parameters.length; i++) {
+                paramTemplate[i] = (ParamInfo) parameters[i].clone();
+            }
+        }
     }
 
     /**
@@ -444,7 +462,7 @@ public class JtdsPreparedStatement extends JtdsStatement implements PreparedStat
     *   if a serious error occurs during execution
     */
    @Override
-   protected SQLException executeMSBatch( int size, int executeSize, ArrayList counts )
+   protected SQLException executeMSBatch( int size, int executeSize, BatchCounts counts )
       throws SQLException
    {
       if( parameters.length == 0 )
@@ -453,6 +471,18 @@ public class JtdsPreparedStatement extends JtdsStatement implements PreparedStat
          // simple batch
          return super.executeMSBatch( size, executeSize, counts );
       }
+
+      if( connection.getRewriteBatchedInserts() && procName == null && ! returnKeys && size > 1
+          && connection.getServerType() == Driver.SQLSERVER )
+      {
+         int[] tuple = getRewritableInsertValues( size );
+
+         if( tuple != null )
+         {
+            return executeRewrittenInsertBatch( size, executeSize, counts, tuple );
+         }
+      }
+
       SQLException sqlEx = null;
       String procHandle[] = null;
 
@@ -496,6 +526,173 @@ public class JtdsPreparedStatement extends JtdsStatement implements PreparedStat
       return sqlEx;
    }
 
+   /**
+    * <p> Checks whether the batch can be sent as multi-row INSERT statements,
+    * that is the statement is a simple single row INSERT with all parameter
+    * markers in its value list and at least two rows fit into one statement
+    * without exceeding the server's parameter limit. </p>
+    *
+    * @param size
+    *    total size of the batch
+    *
+    * @return
+    *    the bounds of the value list as returned by
+    *    {@link SQLParser#getInsertValuesBounds(String)} or {@code null} if the
+    *    batch cannot be rewritten
+    */
+   private int[] getRewritableInsertValues( int size )
+   {
+      if( MAX_REWRITE_PARAMS / parameters.length < 2 )
+      {
+         return null;
+      }
+
+      int[] tuple = SQLParser.getInsertValuesBounds( sql );
+
+      if( tuple == null )
+      {
+         return null;
+      }
+
+      for( int i = 0; i < parameters.length; i ++ )
+      {
+         int pos = parameters[i].markerPos;
+
+         if( pos < tuple[0] || pos >= tuple[1] )
+         {
+            return null;
+         }
+      }
+
+      for( int i = 0; i < size; i ++ )
+      {
+         if( Support.hasTableValuedParameters( (ParamInfo[]) batchValues.get( i ) ) )
+         {
+            return null;
+         }
+      }
+
+      return tuple;
+   }
+
+   /**
+    * <p> Execute a batch of a simple INSERT statement as multi-row INSERT
+    * statements of up to 1000 rows. </p>
+    *
+    * <p> The server only returns a single update count for each multi-row
+    * statement. If this count equals the number of rows inserted, each row is
+    * reported with an update count of 1, if the statement failed each row is
+    * reported as {@link java.sql.Statement#EXECUTE_FAILED} and as
+    * {@link java.sql.Statement#SUCCESS_NO_INFO} otherwise (e.g. if a trigger modified
+    * the count). </p>
+    *
+    * @param size
+    *    total size of the batch
+    *
+    * @param executeSize
+    *    maximum number of rows to send in one request
+    *
+    * @param counts
+    *    the returned update counts
+    *
+    * @param tuple
+    *    the bounds of the INSERT statement's value list
+    *
+    * @return
+    *    chained exceptions linked to a <code>SQLException</code>
+    *
+    * @throws SQLException
+    *   if a serious error occurs during execution
+    */
+   private SQLException executeRewrittenInsertBatch( int size, int executeSize, BatchCounts counts, int[] tuple )
+      throws SQLException
+   {
+      final int rowsPerInsert = Math.min( TableValuedParameter.MAX_INSERT_ROWS, MAX_REWRITE_PARAMS / parameters.length );
+      final int tupleLen = tuple[1] - tuple[0];
+
+      SQLException sqlEx = null;
+      StringBuilder sqlBuf = new StringBuilder( sql.length() + rowsPerInsert * (tupleLen + 1) );
+      BatchCounts chunks = new BatchCounts( 0 );
+      BatchCounts chunkCounts = new BatchCounts( 0 );
+
+      for( int i = 0; i < size; )
+      {
+         // don't let a statement span the boundary of a request
+         int rows = Math.min( Math.min( rowsPerInsert, size - i ), executeSize - i % executeSize );
+         ParamInfo[] args = new ParamInfo[rows * parameters.length];
+
+         sqlBuf.setLength( 0 );
+         sqlBuf.append( sql, 0, tuple[1] );
+
+         for( int r = 0; r < rows; r ++ )
+         {
+            ParamInfo[] row = (ParamInfo[]) batchValues.get( i + r );
+
+            if( r > 0 )
+            {
+               sqlBuf.append( ',' ).append( sql, tuple[0], tuple[1] );
+            }
+
+            for( int n = 0; n < parameters.length; n ++ )
+            {
+               ParamInfo p = (ParamInfo) row[n].clone();
+               // Allow for the position of the '?' marker in the buffer
+               p.markerPos += r * (tupleLen + 1);
+               args[r * parameters.length + n] = p;
+            }
+         }
+
+         sqlBuf.append( sql, tuple[1], sql.length() );
+         i += rows;
+         chunks.add( rows );
+
+         // Execute batch now if max size reached or end of batch
+         boolean executeNow = (i % executeSize == 0) || i == size;
+
+         tds.startBatch();
+
+         // provide statement's ROWCOUNT and TEXTSIZE (see bug #726)
+         tds.executeSQL( sqlBuf.toString(), null, args, false, 0, maxRows, maxFieldSize, executeNow );
+
+         // If the batch has been sent, process the results
+         if( executeNow )
+         {
+            sqlEx = tds.getBatchCounts( chunkCounts, sqlEx );
+
+            // map the update count of each multi-row INSERT back to its rows
+            for( int c = 0; c < chunkCounts.size() && c < chunks.size(); c ++ )
+            {
+               int chunkRows = chunks.get( c );
+               int count = chunkCounts.get( c );
+
+               if( count == chunkRows )
+               {
+                  count = 1;
+               }
+               else if( count != JtdsStatement.EXECUTE_FAILED )
+               {
+                  count = JtdsStatement.SUCCESS_NO_INFO;
+               }
+
+               for( int r = 0; r < chunkRows; r ++ )
+               {
+                  counts.add( count );
+               }
+            }
+
+            // If a serious error then we stop execution now as count is too small.
+            if( sqlEx != null && chunkCounts.size() != chunks.size() )
+            {
+               break;
+            }
+
+            chunks.clear();
+            chunkCounts.clear();
+         }
+      }
+      return sqlEx;
+   }
+
    /**
     * <p> Execute the SQL batch on a Sybase server. </p>
     *
@@ -519,7 +716,7 @@ public class JtdsPreparedStatement extends JtdsStatement implements PreparedStat
     *    if a serious error occurs during execution
     */
    @Override
-   protected SQLException executeSybaseBatch( int size, int executeSize, ArrayList counts )
+   protected SQLException executeSybaseBatch( int size, int executeSize, BatchCounts counts )
       throws SQLException
    {
       if( parameters.length == 0 )
@@ -708,7 +905,47 @@ public class JtdsPreparedStatement extends JtdsStatement implements PreparedStat
         pi.value = x;
         pi.jdbcType = targetSqlType;
         pi.isSet = true;
-        pi.isUnicode = connection.getUseUnicode();
+        pi.isUnicode = isUnicodeParameter(parameterIndex, targetSqlType);
+    }
+
+    /**
+     * Determines whether a string parameter is sent as Unicode. If the
+     * <code>describeParameters</code> property is set, the string types of
+     * the parameters are described by the server the first time a string
+     * parameter is set, so they can be sent as <code>varchar</code> or
+     * <code>nvarchar</code> to match the columns they are used with.
+     *
+     * @param parameterIndex the parameter index 1 to n
+     * @param sqlType        the JDBC type of the parameter
+     * @return <code>true</code> if the parameter is sent as Unicode
+     * @throws SQLException if the parameters can't be described
+     */
+    private boolean isUnicodeParameter(int parameterIndex, int sqlType)
+            throws SQLException {
+        if (connection.getDescribeParameters()
+                && (sqlType == java.sql.Types.CHAR
+                    || sqlType == java.sql.Types.VARCHAR
+                    || sqlType == java.sql.Types.LONGVARCHAR
+                    || sqlType == java.sql.Types.CLOB)) {
+            if (!parametersDescribed) {
+                parametersDescribed = true;
+
+                if (procName == null && !(this instanceof JtdsCallableStatement)
+                        && connection.getServerType() == Driver.SQLSERVER
+                        && connection.getDatabaseMajorVersion() >= 11) {
+                    unicodeParameters = MetaDataCache.getParameterTypes(
+                            connection, sql, parameters);
+                }
+            }
+
+            if (unicodeParameters != null
+                    && parameterIndex <= unicodeParameters.length
+                    && unicodeParameters[parameterIndex - 1] != null) {
+                return unicodeParameters[parameterIndex - 1].booleanValue();
+            }
+        }
+
+        return connection.getUseUnicode();
     }
 
     /**
@@ -741,8 +978,40 @@ public class JtdsPreparedStatement extends JtdsStatement implements PreparedStat
 
 // -------------------- java.sql.PreparedStatement methods follow -----------------
 
+    /**
+     * Prepares this statement for being held by the statement pool, in
+     * addition restoring the parameters to their state after parsing.
+     */
+    @Override
+    boolean passivate() {
+        if (paramTemplate == null || !super.passivate()) {
+            return false;
+        }
+
+        for (int i = 0; i < paramTemplate.length; i++) {
+            parameters[i] = (ParamInfo) paramTemplate[i].clone();
+        }
+
+        return true;
+    }
+
     @Override
     public void close() throws SQLException {
+        // Keep the statement open for reuse if the connection pools it
+        if (poolable && poolKey != null && !isClosed()
+                && connection.poolStatement(this)) {
+            return;
+        }
+
+        closeStatement();
+    }
+
+    /**
+     * Closes this statement, bypassing the statement pool.
+     *
+     * @throws SQLException if an error occurs
+     */
+    void closeStatement() throws SQLException {
         try {
             super.close();
         } finally {
@@ -763,7 +1032,7 @@ public class JtdsPreparedStatement extends JtdsStatement implements PreparedStat
             // between the moment when the statement is prepared and the moment
             // when it's executed.
             synchronized (connection) {
-                String spName = connection.prepareSQL(this, sql, parameters, returnKeys, false);
+                String spName = connection.prepareSQL(this, sql, parameters, returnKeys, false, true);
                 executeSQL(sql, spName, parameters, true, false);
             }
         } else {
@@ -778,18 +1047,13 @@ public class JtdsPreparedStatement extends JtdsStatement implements PreparedStat
     public void addBatch() throws SQLException {
         checkOpen();
 
-        if (batchValues == null) {
-            batchValues = new ArrayList();
-        }
-
         if (parameters.length == 0) {
             // This is likely to be an error. Batch execution
             // of a prepared statement with no parameters means
             // exactly the same SQL will be executed each time!
-            batchValues.add(sql);
+            addBatchValue(sql);
         } else {
-            batchValues.add(parameters);
-
+            ParamInfo values[] = parameters;
             ParamInfo tmp[] = new ParamInfo[parameters.length];
 
             for (int i = 0; i < parameters.length; ++i) {
@@ -797,6 +1061,8 @@ public class JtdsPreparedStatement extends JtdsStatement implements PreparedStat
             }
 
             parameters = tmp;
+
+            addBatchValue(values);
         }
     }
 
@@ -820,7 +1086,7 @@ public class JtdsPreparedStatement extends JtdsStatement implements PreparedStat
             // between the moment when the statement is prepared and the moment
             // when it's executed.
             synchronized (connection) {
-                String spName = connection.prepareSQL(this, sql, parameters, returnKeys, useCursor);
+                String spName = connection.prepareSQL(this, sql, parameters, returnKeys, useCursor, true);
                 return executeSQL(sql, spName, parameters, false, useCursor);
             }
         } else {
@@ -1065,7 +1331,7 @@ public class JtdsPreparedStatement extends JtdsStatement implements PreparedStat
             // between the moment when the statement is prepared and the moment
             // when it's executed.
             synchronized (connection) {
-                String spName = connection.prepareSQL(this, sql, parameters, false, useCursor);
+                String spName = connection.prepareSQL(this, sql, parameters, false, useCursor, true);
                 return executeSQLQuery(sql, spName, parameters, useCursor);
             }
         } else {
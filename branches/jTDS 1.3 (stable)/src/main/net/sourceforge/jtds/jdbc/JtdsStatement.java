@@ -81,8 +81,8 @@ public class JtdsStatement implements java.sql.Statement
     static final int CLOSE_ALL_RESULTS = 3;
     static final int BOOLEAN = 16;
     static final int DATALINK = 70;
-    static final Integer SUCCESS_NO_INFO = new Integer(-2);
-    static final Integer EXECUTE_FAILED = new Integer(-3);
+    static final int SUCCESS_NO_INFO = -2;
+    static final int EXECUTE_FAILED = -3;
     static final int DEFAULT_FETCH_SIZE = 100;
 
     /** The connection owning this statement object. */
@@ -117,6 +117,14 @@ public class JtdsStatement implements java.sql.Statement
     protected final SQLDiagnostic messages;
     /** Batched SQL Statement array. */
     protected ArrayList batchValues;
+    /** Update counts of the batch statements already executed (streaming batches only). */
+    private BatchCounts batchCounts;
+    /** Errors raised by the batch statements already executed (streaming batches only). */
+    private SQLException batchException;
+    /** True if a streamed batch statement failed and stopped the batch. */
+    private boolean batchAborted;
+    /** True if the statement may be reused after being closed. */
+    protected boolean poolable;
     /** Dummy result set for getGeneratedKeys. */
     protected CachedResultSet genKeyResultSet;
     /**
@@ -128,6 +136,8 @@ public class JtdsStatement implements java.sql.Statement
     protected ArrayList openResultSets;
     /** The cached column meta data. */
     protected ColInfo[] colMetaData;
+    /** Slot of this statement in the connection's statement registry. */
+    int registrySlot = -1;
 
    /**
     * <table>
@@ -143,6 +153,10 @@ public class JtdsStatement implements java.sql.Statement
     *     <td>2</td>
     *     <td>- this statement is closed</td>
     *   </tr>
+    *   <tr>
+    *     <td>3</td>
+    *     <td>- this statement is closed and held by the statement pool</td>
+    *   </tr>
     * </table>
     */
    private final AtomicInteger _Closed = new AtomicInteger();
@@ -371,7 +385,7 @@ public class JtdsStatement implements java.sql.Statement
     * @throws SQLException
     *    if a serious error occurs during execution
     */
-   protected SQLException executeMSBatch( int size, int executeSize, ArrayList counts )
+   protected SQLException executeMSBatch( int size, int executeSize, BatchCounts counts )
       throws SQLException
    {
       SQLException sqlEx = null;
@@ -425,7 +439,7 @@ public class JtdsStatement implements java.sql.Statement
     * @throws SQLException
     *    if a serious error occurs during execution
     */
-   protected SQLException executeSybaseBatch( int size, int executeSize, ArrayList counts )
+   protected SQLException executeSybaseBatch( int size, int executeSize, BatchCounts counts )
       throws SQLException
    {
       StringBuilder sql = new StringBuilder( size * 32 ); // Make buffer
@@ -946,6 +960,10 @@ public class JtdsStatement implements java.sql.Statement
         if (batchValues != null) {
             batchValues.clear();
         }
+
+        batchCounts = null;
+        batchException = null;
+        batchAborted = false;
     }
 
     public void clearWarnings() throws SQLException {
@@ -1062,50 +1080,30 @@ public class JtdsStatement implements java.sql.Statement
         checkOpen();
         reset();
 
-        if (batchValues == null || batchValues.size() == 0) {
+        if ((batchValues == null || batchValues.size() == 0) && batchCounts == null) {
             return new int[0];
         }
 
-        int size = batchValues.size();
-        int executeSize = connection.getBatchSize();
-        executeSize = (executeSize == 0) ? Integer.MAX_VALUE : executeSize;
-        SQLException sqlEx;
-        ArrayList counts = new ArrayList(size);
-
         try {
             // Lock the connection, making sure the batch executes atomically. This is especially important in the
             // case of prepared statement batches (where we don't want the prepares rolled back before being executed)
             // but should also provide some level of sanity in the general case.
             synchronized (connection) {
-                if (connection.getServerType() == Driver.SYBASE
-                    && connection.getTdsVersion() == Driver.TDS50) {
-                    sqlEx = executeSybaseBatch(size, executeSize, counts);
-                } else {
-                    sqlEx = executeMSBatch(size, executeSize, counts);
-                }
+                executeBatchValues();
             }
 
-            // Ensure array is the same size as the original statement list
-            int updateCounts[] = new int[size];
-            // Copy the update counts into the int array
-            int results = counts.size();
-            for (int i = 0; i < results && i < size; i++) {
-                updateCounts[i] = ((Integer) counts.get(i)).intValue();
-            }
-            // Pad any remaining slots with EXECUTE_FAILED
-            for (int i = results; i < updateCounts.length; i++) {
-                updateCounts[i] = EXECUTE_FAILED.intValue();
-            }
+            // The update counts, padded with EXECUTE_FAILED to the size of the batch
+            int updateCounts[] = batchCounts.toArray();
 
             // See if we should return an exception
-            if (sqlEx != null) {
+            if (batchException != null) {
                 BatchUpdateException batchEx =
-                        new BatchUpdateException(sqlEx.getMessage(),
-                                                 sqlEx.getSQLState(),
-                                                 sqlEx.getErrorCode(),
+                        new BatchUpdateException(batchException.getMessage(),
+                                                 batchException.getSQLState(),
+                                                 batchException.getErrorCode(),
                                                  updateCounts);
                 // Chain any other exceptions
-                batchEx.setNextException(sqlEx.getNextException());
+                batchEx.setNextException(batchException.getNextException());
                 throw batchEx;
             }
             return updateCounts;
@@ -1120,14 +1118,126 @@ public class JtdsStatement implements java.sql.Statement
             // Come to think of it, is there any circumstance under which this
             // could actually happen without the connection getting closed?
             // No counts will have been returned either as last packet will not
-            // have been sent.
+            // have been sent, only those of batch statements streamed earlier.
             throw new BatchUpdateException(ex.getMessage(), ex.getSQLState(),
-                    ex.getErrorCode(), new int[0]);
+                    ex.getErrorCode(), batchCounts == null ? new int[0] : batchCounts.toArray());
         } finally {
             clearBatch();
         }
     }
 
+    /**
+     * Adds a SQL statement or parameter set to the batch. When executing
+     * batches in streaming mode (see {@link JtdsConnection#getStreamBatches()})
+     * the statements collected so far are executed as soon as their number
+     * reaches the batch size, retaining only their update counts and errors.
+     * <p/>
+     * Statements are not streamed while the response to a previous execution
+     * of this statement has not been read completely, so that adding to the
+     * batch doesn't close or truncate open result sets.
+     * <p/>
+     * Once a streamed batch statement failed in a way that stopped the
+     * execution of the batch, no further statements are executed but reported
+     * as <code>EXECUTE_FAILED</code> by {@link #executeBatch()}.
+     *
+     * @param value the SQL <code>String</code> or <code>ParamInfo[]</code>
+     * @throws SQLException if streaming the batch fails
+     */
+    protected void addBatchValue(Object value) throws SQLException {
+        if (batchValues == null) {
+            batchValues = new ArrayList();
+        }
+
+        if (batchAborted) {
+            batchCounts.add(EXECUTE_FAILED);
+            return;
+        }
+
+        batchValues.add(value);
+
+        int batchSize = connection.getBatchSize();
+
+        if (batchSize > 0 && batchValues.size() >= batchSize
+                && connection.getStreamBatches() && tds.isEndOfResponse()) {
+            try {
+                synchronized (connection) {
+                    executeBatchValues();
+                }
+            } catch (SQLException ex) {
+                // The batch could not be sent, report it when executeBatch()
+                // is called and don't execute this or any further statements
+                chainBatchException(ex);
+                batchAborted = true;
+
+                if (batchCounts == null) {
+                    batchCounts = new BatchCounts(batchValues.size());
+                }
+                for (int i = 0; i < batchValues.size(); i++) {
+                    batchCounts.add(EXECUTE_FAILED);
+                }
+                batchValues.clear();
+            }
+        }
+    }
+
+    /**
+     * Executes the batch statements collected in {@link #batchValues},
+     * appending their update counts (padded with <code>EXECUTE_FAILED</code>
+     * to the number of statements) to {@link #batchCounts} and chaining any
+     * errors to {@link #batchException}.
+     *
+     * @throws SQLException if an error occurs sending the batch
+     */
+    private void executeBatchValues() throws SQLException {
+        int size = (batchValues == null) ? 0 : batchValues.size();
+
+        if (batchCounts == null) {
+            batchCounts = new BatchCounts(size);
+        }
+
+        if (size == 0) {
+            return;
+        }
+
+        int executeSize = connection.getBatchSize();
+        executeSize = (executeSize == 0) ? Integer.MAX_VALUE : executeSize;
+        BatchCounts counts = new BatchCounts(size);
+        SQLException sqlEx;
+
+        if (connection.getServerType() == Driver.SYBASE
+            && connection.getTdsVersion() == Driver.TDS50) {
+            sqlEx = executeSybaseBatch(size, executeSize, counts);
+        } else {
+            sqlEx = executeMSBatch(size, executeSize, counts);
+        }
+
+        // Ensure the counts match the original statement list, there is a
+        // problem with statements returning more update counts than there
+        // are batch statements (see bug [2827931])
+        batchCounts.addAll(counts, size);
+        batchValues.clear();
+
+        if (sqlEx != null) {
+            chainBatchException(sqlEx);
+
+            // A serious error stopped the execution of the batch
+            batchAborted = counts.size() < size;
+        }
+    }
+
+    /**
+     * Chains an exception to the errors raised by the batch.
+     *
+     * @param sqlEx the exception to chain
+     */
+    private void chainBatchException(SQLException sqlEx) {
+        if (batchException == null) {
+            batchException = sqlEx;
+        } else {
+            batchException.setNextException(sqlEx);
+        }
+    }
+
     public void setFetchDirection(int direction) throws SQLException {
         checkOpen();
         switch (direction) {
@@ -1281,10 +1391,6 @@ public class JtdsStatement implements java.sql.Statement
             throw new NullPointerException();
         }
 
-        if (batchValues == null) {
-            batchValues = new ArrayList();
-        }
-
         if (escapeProcessing) {
             String tmp[] = SQLParser.parse(sql, null, connection, false);
 
@@ -1296,7 +1402,7 @@ public class JtdsStatement implements java.sql.Statement
             sql = tmp[0];
         }
 
-        batchValues.add(sql);
+        addBatchValue(sql);
     }
 
     public void setCursorName(String name) throws SQLException {
@@ -1468,23 +1574,81 @@ public class JtdsStatement implements java.sql.Statement
    public boolean isClosed()
       throws SQLException
    {
-      return _Closed.get() == 2;
+      return _Closed.get() >= 2;
+   }
+
+   /**
+    * <p> Prepares this statement for being held by the statement pool of its
+    * connection: all results are discarded and the statement's settings are
+    * restored to their defaults. On success, the statement is reported as
+    * closed until it is handed out again by {@link #activate()}. </p>
+    *
+    * @return
+    *    {@code true} if the statement can be pooled, {@code false} if it is
+    *    already closed or could not be reset
+    */
+   boolean passivate()
+   {
+      if( ! _Closed.compareAndSet( 0, 1 ) )
+         return false;
+
+      try
+      {
+         reset();
+      }
+      catch( SQLException e )
+      {
+         // not reusable, leave it to close() to clean up
+         _Closed.set( 0 );
+         return false;
+      }
+
+      if( batchValues != null )
+         batchValues.clear();
+
+      batchCounts      = null;
+      batchException   = null;
+      batchAborted     = false;
+      queryTimeout     = 0;
+      fetchDirection   = ResultSet.FETCH_FORWARD;
+      fetchSize        = DEFAULT_FETCH_SIZE;
+      cursorName       = null;
+      maxFieldSize     = 0;
+      maxRows          = 0;
+      escapeProcessing = true;
+
+      _Closed.set( 3 );
+      return true;
+   }
+
+   /**
+    * <p> Reopens a statement held by the statement pool. </p>
+    *
+    * @return
+    *    {@code true} if the statement has been reopened, {@code false} if it
+    *    was not held by the statement pool
+    */
+   boolean activate()
+   {
+      return _Closed.compareAndSet( 3, 0 );
    }
 
     /* (non-Javadoc)
      * @see java.sql.Statement#isPoolable()
      */
     public boolean isPoolable() throws SQLException {
-        // TODO Auto-generated method stub
-        throw new AbstractMethodError();
+        checkOpen();
+
+        return poolable;
     }
 
     /* (non-Javadoc)
      * @see java.sql.Statement#setPoolable(boolean)
      */
     public void setPoolable(boolean poolable) throws SQLException {
-        // TODO Auto-generated method stub
-        throw new AbstractMethodError();
+        checkOpen();
+
+        this.poolable = poolable;
     }
 
     /* (non-Javadoc)
@@ -20,6 +20,8 @@ package net.sourceforge.jtds.jdbc;
 import java.io.InterruptedIOException;
 import java.sql.SQLException;
 import java.net.*;
+import java.util.HashMap;
+import java.util.Map;
 
 import net.sourceforge.jtds.util.Logger;
 
@@ -46,15 +48,180 @@ import net.sourceforge.jtds.util.Logger;
  * < 000000d0 45 59 5c 70 69 70 65 5c 4d 53 53 51 4c 24 44 4f # EY\pipe\MSSQL$DO
  * < 000000e0 47 5c 73 71 6c 5c 71 75 65 72 79 3b 3b          # G\sql\query;;
  * </pre>
+ * <p>
+ * Because a connection pool may open many connections to the same instance
+ * in a short time, the information is cached per host by
+ * {@link #getInstance(String, int)}. An expired entry is still used while
+ * it's refreshed in the background, a failed lookup is cached for at most
+ * {@link #NEGATIVE_TTL} seconds and {@link #invalidate(String)} discards the
+ * entry of a host once a connect to the reported port fails.
  *
  * @author Matt Brinkley
  * @version $Id: MSSqlServerInfo.java,v 1.8.2.1 2009-07-30 10:50:05 ickzon Exp $
  */
 public class MSSqlServerInfo {
+    /** Maximum number of seconds a failed lookup is cached. */
+    static final int NEGATIVE_TTL = 10;
+
+    /**
+     * Cached information of a host.
+     */
+    private static final class CacheEntry {
+        /** The host name. */
+        final String host;
+        /** The server information or <code>null</code> if the lookup failed. */
+        MSSqlServerInfo info;
+        /** A lookup has completed. */
+        boolean loaded;
+        /** The <code>System.nanoTime()</code> the entry expires at. */
+        long expires;
+        /** A lookup is in progress, other threads wait for it. */
+        boolean loading;
+        /** A background refresh of the expired entry is in progress. */
+        boolean refreshing;
+
+        CacheEntry(String host) {
+            this.host = host;
+        }
+
+        /**
+         * Stores the result of a lookup, must hold the entry's lock.
+         */
+        void update(MSSqlServerInfo info, int ttl) {
+            this.info = info;
+            loaded = true;
+            if (info == null) {
+                ttl = Math.min(ttl, NEGATIVE_TTL);
+            }
+            expires = System.nanoTime() + ttl * 1000000000L;
+        }
+    }
+
+    /** The cached entries, keyed by lower case host name. */
+    private static final Map cache = new HashMap();
+
     private final int numRetries = 3;
     private final int timeout = 2000;
     private String[] serverInfoStrings;
 
+    /**
+     * Retrieves the information of the instances of a server, from the
+     * cache if possible.
+     * <p/>
+     * Concurrent lookups of the same host wait for a single request to the
+     * SQL Server Browser. An expired entry is returned while a background
+     * thread refreshes it, so only the first connection to a host, or the
+     * first after a failure, waits for the response.
+     *
+     * @param host the host name
+     * @param ttl  the number of seconds to cache the information or 0 to
+     *             bypass the cache
+     * @return the server information
+     * @throws SQLException if the server doesn't respond
+     */
+    public static MSSqlServerInfo getInstance(String host, int ttl)
+            throws SQLException {
+        if (ttl <= 0) {
+            return new MSSqlServerInfo(host);
+        }
+
+        String key = host.toLowerCase();
+        CacheEntry entry;
+        synchronized (cache) {
+            entry = (CacheEntry) cache.get(key);
+            if (entry == null) {
+                entry = new CacheEntry(host);
+                cache.put(key, entry);
+            }
+        }
+
+        boolean load = true;
+        synchronized (entry) {
+            while (entry.loading) {
+                try {
+                    entry.wait();
+                } catch (InterruptedException e) {
+                    // Don't wait any longer, look the host up ourselves
+                    Thread.currentThread().interrupt();
+                    load = false;
+                    break;
+                }
+            }
+
+            if (load && entry.loaded) {
+                if (entry.info != null) {
+                    if (System.nanoTime() - entry.expires >= 0 && !entry.refreshing) {
+                        entry.refreshing = true;
+                        refresh(entry, ttl);
+                    }
+                    return entry.info;
+                }
+                if (System.nanoTime() - entry.expires < 0) {
+                    throw new SQLException(Messages.get("error.msinfo.badinfo", host), "HY000");
+                }
+            }
+
+            if (load) {
+                entry.loading = true;
+            }
+        }
+
+        MSSqlServerInfo info = null;
+        try {
+            info = new MSSqlServerInfo(host);
+            return info;
+        } finally {
+            if (load) {
+                synchronized (entry) {
+                    entry.update(info, ttl);
+                    entry.loading = false;
+                    entry.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Discards the cached information of a host, e.g. because a connect to
+     * the port reported for an instance failed.
+     *
+     * @param host the host name
+     */
+    public static void invalidate(String host) {
+        synchronized (cache) {
+            cache.remove(host.toLowerCase());
+        }
+    }
+
+    /**
+     * Refreshes an expired entry in a background thread. If the lookup fails
+     * the old information is kept for up to {@link #NEGATIVE_TTL} seconds.
+     */
+    private static void refresh(final CacheEntry entry, final int ttl) {
+        Thread thread = new Thread("jTDS instance lookup " + entry.host) {
+            public void run() {
+                MSSqlServerInfo info = null;
+                try {
+                    info = new MSSqlServerInfo(entry.host);
+                } catch (SQLException e) {
+                    // Already logged
+                }
+
+                synchronized (entry) {
+                    if (info != null) {
+                        entry.update(info, ttl);
+                    } else {
+                        entry.expires = System.nanoTime()
+                                + Math.min(ttl, NEGATIVE_TTL) * 1000000000L;
+                    }
+                    entry.refreshing = false;
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     public MSSqlServerInfo(String host) throws SQLException {
         DatagramSocket socket = null;
         try {
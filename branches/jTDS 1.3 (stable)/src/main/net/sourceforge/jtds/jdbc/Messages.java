@@ -91,7 +91,7 @@ public final class Messages {
      * @param param2 The object to insert into message.
      * @return The selected message as a <code>String</code>.
      */
-    static String get(String key, Object param1, Object param2) {
+    public static String get(String key, Object param1, Object param2) {
         Object args[] = {param1, param2};
         return get(key, args);
     }
@@ -0,0 +1,614 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sourceforge.jtds.jdbc.cache.ConcurrentClockCache;
+import net.sourceforge.jtds.util.Logger;
+
+/**
+ * Cache of <code>DatabaseMetaData</code> results, shared by all connections.
+ * <p/>
+ * Results are stored as snapshots of their columns and rows, keyed by server,
+ * database, user and the metadata call including its arguments. A snapshot
+ * is returned as a new read only <code>CachedResultSet</code> each time it is
+ * found, as long as it is younger than the TTL of the connection looking it
+ * up.
+ * <p/>
+ * Invalidation doesn't search the cache for matching entries. Instead, the
+ * key contains a generation number kept per server and database, which is
+ * incremented to invalidate all results cached for that database. Entries of
+ * older generations are never found again and are evicted over time.
+ * <p/>
+ * The cache also holds the parameter signatures of stored procedures called
+ * through <code>CallableStatement</code>s, read from
+ * <code>sp_sproc_columns</code> the first time a procedure is used, and the
+ * string types of prepared statement parameters described by
+ * <code>sp_describe_undeclared_parameters</code>.
+ *
+ * @version $Id$
+ */
+final class MetaDataCache {
+    /** The cached results. */
+    private static final ConcurrentClockCache<String,Entry> cache =
+            new ConcurrentClockCache<String,Entry>(
+                    Integer.parseInt(DefaultProperties.METADATA_CACHE_SIZE));
+    /** Current generation per server and database. */
+    private static final ConcurrentHashMap<String,AtomicInteger> generations =
+            new ConcurrentHashMap<String,AtomicInteger>();
+    /** Set while the current thread reads a procedure signature. */
+    private static final ThreadLocal<Boolean> describing = new ThreadLocal<Boolean>();
+
+    /**
+     * Base class of all cache entries.
+     */
+    private static class Entry {
+        /** The time the entry was created. */
+        final long created = System.currentTimeMillis();
+
+        /**
+         * Checks whether this entry is younger than a TTL.
+         *
+         * @param ttl the TTL in seconds
+         * @return <code>true</code> if the entry is still valid
+         */
+        boolean isValid(int ttl) {
+            long age = System.currentTimeMillis() - created;
+
+            return age >= 0 && age < ttl * 1000L;
+        }
+    }
+
+    /**
+     * Immutable copy of a metadata result set.
+     */
+    private static final class Snapshot extends Entry {
+        /** The column descriptors. */
+        final ColInfo[] columns;
+        /** The number of visible columns. */
+        final int columnCount;
+        /** The row data. */
+        final Object[][] rows;
+
+        Snapshot(ColInfo[] columns, int columnCount, Object[][] rows) {
+            this.columns = columns;
+            this.columnCount = columnCount;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * The parameters of a stored procedure.
+     */
+    private static final class Signature extends Entry {
+        /** The parameter descriptors, never modified once cached. */
+        final ParamInfo[] params;
+
+        Signature(ParamInfo[] params) {
+            this.params = params;
+        }
+    }
+
+    /**
+     * The string types of the parameters of a SQL statement.
+     */
+    private static final class ParameterTypes extends Entry {
+        /** The Unicode flags, never modified once cached. */
+        final Boolean[] unicode;
+
+        ParameterTypes(Boolean[] unicode) {
+            this.unicode = unicode;
+        }
+    }
+
+    /**
+     * This class is not meant to be instantiated.
+     */
+    private MetaDataCache() {
+    }
+
+    /**
+     * Builds the cache key for a metadata call.
+     *
+     * @param connection the connection the call is made on
+     * @param call       the name of the metadata method
+     * @param args       the method arguments; <code>String[]</code> arguments
+     *                   are supported in addition to simple values
+     * @return the cache key or <code>null</code> if the connection doesn't
+     *         use the metadata cache
+     * @throws SQLException if the connection is closed
+     */
+    static String getKey(JtdsConnection connection, String call, Object[] args)
+            throws SQLException {
+        if (connection.getMetadataCacheTtl() == 0) {
+            return null;
+        }
+
+        return buildKey(connection, call, args);
+    }
+
+    /**
+     * Builds the cache key for a call, regardless of the cache settings.
+     */
+    private static String buildKey(JtdsConnection connection, String call,
+            Object[] args) throws SQLException {
+        String scope = getScope(connection);
+        StringBuilder key = new StringBuilder(scope.length() + 64);
+
+        key.append(scope).append('\u0000');
+        key.append(getGeneration(scope).get()).append('\u0000');
+        key.append(connection.getUser()).append('\u0000');
+        key.append(connection.getUseLOBs()).append('\u0000');
+        key.append(call);
+
+        for (int i = 0; i < args.length; i++) {
+            key.append('\u0000');
+            Object arg = args[i];
+
+            if (arg == null) {
+                // distinguish null from the string "null"
+                key.append('\u0001');
+            } else if (arg instanceof String[]) {
+                String[] values = (String[]) arg;
+
+                for (int j = 0; j < values.length; j++) {
+                    key.append(values[j]).append('\u0002');
+                }
+            } else {
+                key.append(arg);
+            }
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * Looks up a cached metadata result.
+     *
+     * @param connection the connection the call is made on
+     * @param key        the key returned by {@link #getKey}, may be
+     *                   <code>null</code>
+     * @return a new read only result set holding the cached data or
+     *         <code>null</code> if no valid entry has been found
+     * @throws SQLException if the result set can't be created
+     */
+    static CachedResultSet get(JtdsConnection connection, String key)
+            throws SQLException {
+        if (key == null) {
+            return null;
+        }
+
+        Entry entry = cache.get(key);
+
+        if (entry == null) {
+            return null;
+        }
+
+        if (!entry.isValid(connection.getMetadataCacheTtl())) {
+            cache.remove(key, entry);
+            return null;
+        }
+
+        Snapshot snapshot = (Snapshot) entry;
+
+        // Closed along with the result set
+        JtdsStatement stmt = (JtdsStatement) connection.createStatement();
+
+        try {
+            return new CachedResultSet(stmt, snapshot.columns,
+                    snapshot.columnCount, snapshot.rows);
+        } catch (SQLException e) {
+            stmt.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Caches a metadata result. The result set must be a freshly built
+     * <code>CachedResultSet</code> positioned before its first row.
+     *
+     * @param connection the connection the call has been made on
+     * @param key        the key returned by {@link #getKey}, may be
+     *                   <code>null</code>
+     * @param rs         the result set to cache
+     * @return the result set passed in
+     */
+    static CachedResultSet put(JtdsConnection connection, String key,
+            CachedResultSet rs) {
+        if (key == null) {
+            return rs;
+        }
+
+        ColInfo[] columns = rs.copyInfo(rs.getColumns());
+        Object[][] rows = new Object[rs.rowStore.size()][];
+
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = rs.rowStore.get(i);
+        }
+
+        cache.ensureLimit(connection.getMetadataCacheSize());
+        cache.put(key, new Snapshot(columns, rs.columnCount, rows));
+
+        return rs;
+    }
+
+    /**
+     * Retrieves the parameters of a stored procedure, reading them from the
+     * server if they are not cached yet. The return value is not included.
+     * <p/>
+     * Failures to read the signature are logged and cached as an empty
+     * signature, so they are not retried for every statement.
+     *
+     * @param connection the connection the procedure is called on
+     * @param procName   the procedure name, optionally qualified by database
+     *                   and owner
+     * @return the parameter descriptors, which must not be modified, or
+     *         <code>null</code> if the connection doesn't use the procedure
+     *         cache or the name can't be resolved
+     * @throws SQLException if the connection is closed
+     */
+    static ParamInfo[] getSignature(JtdsConnection connection, String procName)
+            throws SQLException {
+        int ttl = connection.getProcedureCacheTtl();
+
+        // reading the signature uses a CallableStatement itself
+        if (ttl == 0 || describing.get() != null) {
+            return null;
+        }
+
+        String[] name = splitProcName(procName);
+
+        if (name == null) {
+            return null;
+        }
+
+        String key = buildKey(connection, "signature", name);
+        Entry entry = cache.get(key);
+
+        if (entry != null) {
+            if (entry.isValid(ttl)) {
+                return ((Signature) entry).params;
+            }
+
+            cache.remove(key, entry);
+        }
+
+        ParamInfo[] params;
+        describing.set(Boolean.TRUE);
+
+        try {
+            params = readSignature(connection, name);
+        } catch (SQLException e) {
+            Logger.logException(e);
+            params = new ParamInfo[0];
+        } finally {
+            describing.remove();
+        }
+
+        cache.ensureLimit(connection.getMetadataCacheSize());
+        cache.put(key, new Signature(params));
+
+        return params;
+    }
+
+    /**
+     * Describes the parameters of a SQL statement, using
+     * <code>sp_describe_undeclared_parameters</code> (SQL Server 2012 and
+     * later). Results are shared through the cache if the connection uses the
+     * metadata cache.
+     * <p/>
+     * Statements the server can't describe are logged and treated as having
+     * no known parameter types.
+     *
+     * @param connection the connection the statement is executed on
+     * @param sql        the SQL statement with <code>?</code> markers
+     * @param params     the statement parameters
+     * @return per parameter <code>Boolean.TRUE</code> if it is used as a
+     *         Unicode string, <code>Boolean.FALSE</code> if it is used as a
+     *         non Unicode string and <code>null</code> if not known
+     * @throws SQLException if the connection is closed
+     */
+    static Boolean[] getParameterTypes(JtdsConnection connection, String sql,
+            ParamInfo[] params) throws SQLException {
+        int ttl = connection.getMetadataCacheTtl();
+        String key = null;
+
+        if (ttl > 0) {
+            key = buildKey(connection, "parameters", new Object[] {sql});
+            Entry entry = cache.get(key);
+
+            if (entry != null) {
+                if (entry.isValid(ttl)
+                        && ((ParameterTypes) entry).unicode.length == params.length) {
+                    return ((ParameterTypes) entry).unicode;
+                }
+
+                cache.remove(key, entry);
+            }
+        }
+
+        Boolean[] unicode = new Boolean[params.length];
+        String tsql = Support.substituteParamMarkers(sql, params);
+        Statement stmt = connection.createStatement();
+
+        try {
+            ResultSet rs = stmt.executeQuery(
+                    "exec sp_describe_undeclared_parameters N'"
+                    + tsql.replace("'", "''") + '\'');
+
+            while (rs.next()) {
+                String name = rs.getString("name");
+
+                if (name != null && name.startsWith("@P")) {
+                    int index;
+
+                    try {
+                        index = Integer.parseInt(name.substring(2));
+                    } catch (NumberFormatException e) {
+                        // Not one of our markers, leave it to the default
+                        continue;
+                    }
+
+                    if (index >= 0 && index < unicode.length) {
+                        unicode[index] = isUnicodeCharType(
+                                rs.getString("suggested_system_type_name"));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            Logger.logException(e);
+        } finally {
+            stmt.close();
+        }
+
+        if (key != null) {
+            cache.ensureLimit(connection.getMetadataCacheSize());
+            cache.put(key, new ParameterTypes(unicode));
+        }
+
+        return unicode;
+    }
+
+    /**
+     * Invalidates all results cached for the server and database a
+     * connection is currently using.
+     *
+     * @param connection the connection
+     * @throws SQLException if the connection is closed
+     */
+    static void invalidate(JtdsConnection connection) throws SQLException {
+        getGeneration(getScope(connection)).incrementAndGet();
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    static void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Retrieves the number of cached results, including expired and
+     * invalidated ones not yet evicted.
+     *
+     * @return the number of cache entries
+     */
+    static int size() {
+        return cache.size();
+    }
+
+    /**
+     * Reads the parameters of a stored procedure using
+     * <code>DatabaseMetaData.getProcedureColumns</code>.
+     */
+    private static ParamInfo[] readSignature(JtdsConnection connection,
+            String[] name) throws SQLException {
+        ResultSet rs = connection.getMetaData().getProcedureColumns(
+                name[0], name[1], escapePattern(name[2]), "%");
+        Statement stmt = rs.getStatement();
+        ArrayList<ParamInfo> params = new ArrayList<ParamInfo>();
+        ArrayList<String> names = new ArrayList<String>();
+        String owner = null;
+
+        try {
+            while (rs.next()) {
+                // without an owner the procedure may exist in several schemas,
+                // use the first one like the server would for dbo
+                if (owner == null) {
+                    owner = rs.getString(2);
+                } else if (!owner.equals(rs.getString(2))) {
+                    continue;
+                }
+
+                int mode = rs.getInt(5);
+                String paramName = rs.getString(4);
+
+                if (mode == DatabaseMetaData.procedureColumnReturn
+                        || mode == DatabaseMetaData.procedureColumnResult
+                        || paramName == null
+                        || names.contains(paramName.toLowerCase())) {
+                    continue;
+                }
+
+                String typeName = rs.getString(7);
+                ParamInfo pi = new ParamInfo(paramName, -1, false,
+                        isUnicodeType(typeName));
+
+                pi.isOutput  = mode == DatabaseMetaData.procedureColumnInOut
+                        || mode == DatabaseMetaData.procedureColumnOut;
+                pi.jdbcType  = rs.getInt(6);
+                pi.sqlType   = typeName;
+                pi.precision = rs.getInt(8);
+                pi.scale     = rs.getInt(10);
+
+                if (rs.wasNull()) {
+                    pi.scale = -1;
+                }
+
+                names.add(paramName.toLowerCase());
+                params.add(pi);
+            }
+        } finally {
+            stmt.close();
+        }
+
+        return params.toArray(new ParamInfo[params.size()]);
+    }
+
+    /**
+     * Checks whether a server data type name denotes a Unicode string type.
+     *
+     * @param typeName the data type name as reported by the server
+     * @return <code>true</code> for Unicode and <code>false</code> for other
+     *         string types; <code>null</code> for non string types
+     */
+    static Boolean isUnicodeCharType(String typeName) {
+        if (typeName == null) {
+            return null;
+        }
+
+        String type = typeName.toLowerCase();
+
+        if (type.startsWith("nchar") || type.startsWith("nvarchar")
+                || type.startsWith("ntext") || type.startsWith("unichar")
+                || type.startsWith("univarchar") || type.startsWith("unitext")) {
+            return Boolean.TRUE;
+        }
+
+        if (type.startsWith("char") || type.startsWith("varchar")
+                || type.startsWith("text")) {
+            return Boolean.FALSE;
+        }
+
+        return null;
+    }
+
+    /**
+     * Checks whether a server data type name denotes a Unicode string type.
+     */
+    private static boolean isUnicodeType(String typeName) {
+        return Boolean.TRUE.equals(isUnicodeCharType(typeName));
+    }
+
+    /**
+     * Splits a procedure name into database, owner and name, removing quotes.
+     *
+     * @param procName the procedure name
+     * @return the name parts, database and owner may be <code>null</code>; or
+     *         <code>null</code> for names referring to temporary procedures or
+     *         other servers
+     */
+    static String[] splitProcName(String procName) {
+        ArrayList<String> parts = new ArrayList<String>(3);
+        StringBuilder part = new StringBuilder(procName.length());
+        char quote = 0;
+
+        for (int i = 0; i < procName.length(); i++) {
+            char c = procName.charAt(i);
+
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else {
+                    part.append(c);
+                }
+            } else if (c == '[') {
+                quote = ']';
+            } else if (c == '"') {
+                quote = '"';
+            } else if (c == '.') {
+                parts.add(part.length() == 0 ? null : part.toString());
+                part.setLength(0);
+            } else if (c == ';') {
+                // procedure group number
+                break;
+            } else if (!Character.isWhitespace(c)) {
+                part.append(c);
+            }
+        }
+
+        parts.add(part.toString());
+
+        String name = parts.get(parts.size() - 1);
+
+        if (parts.size() > 3 || name.length() == 0 || name.charAt(0) == '#') {
+            return null;
+        }
+
+        while (parts.size() < 3) {
+            parts.add(0, null);
+        }
+
+        return parts.toArray(new String[3]);
+    }
+
+    /**
+     * Escapes the pattern characters in a name, using the search string
+     * escape of <code>JtdsDatabaseMetaData</code>.
+     */
+    private static String escapePattern(String name) {
+        StringBuilder buf = new StringBuilder(name.length() + 8);
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+
+            if (c == '_' || c == '%' || c == '[' || c == '\\') {
+                buf.append('\\');
+            }
+
+            buf.append(c);
+        }
+
+        return buf.toString();
+    }
+
+    /**
+     * Retrieves the server and database a connection is using.
+     */
+    private static String getScope(JtdsConnection connection)
+            throws SQLException {
+        return connection.getServerName() + ':' + connection.getPortNumber()
+                + '\\' + connection.getInstanceName()
+                + '/' + connection.getCatalog();
+    }
+
+    /**
+     * Retrieves the generation counter of a server and database.
+     */
+    private static AtomicInteger getGeneration(String scope) {
+        AtomicInteger generation = generations.get(scope);
+
+        if (generation == null) {
+            generation = new AtomicInteger();
+            AtomicInteger old = generations.putIfAbsent(scope, generation);
+
+            if (old != null) {
+                generation = old;
+            }
+        }
+
+        return generation;
+    }
+}
@@ -189,6 +189,15 @@ class ParamInfo implements Cloneable {
         isSet = false;
     }
 
+    /**
+     * Determines whether this is a table-valued parameter.
+     *
+     * @return <code>true</code> if the value is a {@link TableValuedParameter}
+     */
+    boolean isTableValued() {
+        return value instanceof TableValuedParameter;
+    }
+
     /**
      * Get the string value of the parameter.
      *
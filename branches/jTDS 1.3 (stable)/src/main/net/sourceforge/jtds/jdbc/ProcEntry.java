@@ -17,6 +17,8 @@
 //
 package net.sourceforge.jtds.jdbc;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Stores information about a cached stored procedure or statement handle.
  *
@@ -31,6 +33,8 @@ public class ProcEntry {
     public static final int CURSOR      = 3;
     /** The entry references a failed prepare. */
     public static final int PREP_FAILED = 4;
+    /** The entry awaits the handle of a pending <code>sp_prepexec</code> call. */
+    public static final int PREPEXEC    = 5;
 
     /** Stored procedure name or statement handle. */
     private String name;
@@ -40,8 +44,8 @@ public class ProcEntry {
     private ParamInfo[] paramMetaData;
     /** Type of statement referenced by this entry. */
     private int type;
-    /** Usage count for this statement. */
-    private int refCount;
+    /** Usage count for this statement, -1 once evicted from the cache. */
+    private final AtomicInteger refCount = new AtomicInteger();
 
     /**
      * Retrieves the procedure or handle name.
@@ -139,6 +143,7 @@ public class ProcEntry {
                 sql.append("EXEC sp_cursorunprepare ").append(name).append('\n');
                 break;
             case PREP_FAILED:
+            case PREPEXEC:
                 break;
             default:
                 throw new IllegalStateException("Invalid cached statement type " + type);
@@ -147,17 +152,34 @@ public class ProcEntry {
 
     /**
      * Increments the usage count.
+     *
+     * @return <code>false</code> if the entry has already been evicted (see
+     *         {@link #evict()}) and must not be used any more
      */
-    public void addRef() {
-        refCount++;
+    public boolean addRef() {
+        for (;;) {
+            int count = refCount.get();
+
+            if (count < 0) {
+                return false;
+            }
+
+            if (refCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
     }
 
     /**
      * Decrements the usage count.
      */
     public void release() {
-        if (refCount > 0) {
-            refCount--;
+        for (;;) {
+            int count = refCount.get();
+
+            if (count <= 0 || refCount.compareAndSet(count, count - 1)) {
+                return;
+            }
         }
     }
 
@@ -167,6 +189,17 @@ public class ProcEntry {
      * @return the usage count as an <code>int</code>
      */
     public int getRefCount() {
-        return refCount;
+        return Math.max(refCount.get(), 0);
+    }
+
+    /**
+     * Marks an unused entry as evicted from the statement cache, preventing
+     * any further use.
+     *
+     * @return <code>true</code> if the entry was evicted, <code>false</code>
+     *         if it is in use
+     */
+    public boolean evict() {
+        return refCount.compareAndSet(0, -1);
     }
 }
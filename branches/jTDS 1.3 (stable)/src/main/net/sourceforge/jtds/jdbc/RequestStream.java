@@ -53,6 +53,8 @@ public class RequestStream {
     private final VirtualSocket _VirtualSocket;
     /** True if stream is closed. */
     private boolean isClosed;
+    /** True if the next packet has to carry the reset connection flag. */
+    private boolean resetConnection;
     /** The current output buffer size*/
     private final int bufferSize;
     /** The maximum decimal precision. */
@@ -149,6 +151,15 @@ public class RequestStream {
         this.pktType = pktType;
     }
 
+    /**
+     * Requests the server to reset the connection before processing the
+     * next request, by setting the reset connection flag in the status of
+     * its first packet. Only supported by SQL Server 2000 and later.
+     */
+    void setResetConnection() {
+        resetConnection = true;
+    }
+
     /**
      * Write a byte to the output stream.
      *
@@ -556,6 +567,11 @@ public class RequestStream {
 
         buffer[0] = pktType;
         buffer[1] = (byte) last; // last segment indicator
+
+        if (resetConnection) {
+            buffer[1] |= TdsCore.STATUS_RESET_CONNECTION;
+            resetConnection = false;
+        }
         buffer[2] = (byte) (bufferPtr >> 8);
         buffer[3] = (byte) bufferPtr;
         buffer[4] = 0;
@@ -21,7 +21,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 
-import net.sourceforge.jtds.jdbc.cache.SimpleLRUCache;
+import net.sourceforge.jtds.jdbc.cache.ConcurrentClockCache;
 
 /**
  * Process JDBC escape strings and parameter markers in the SQL string.
@@ -48,49 +48,70 @@ import net.sourceforge.jtds.jdbc.cache.SimpleLRUCache;
  */
 class SQLParser {
     /**
-     * Serialized version of a parsed SQL query (the value stored in the cache
+     * Immutable template of a parsed SQL query (the value stored in the cache
      * for a parsed SQL).
      * <p/>
-     * Holds the parsed SQL query and the names, positions and return value and
-     * unicode flags for the parameters.
+     * Holds the parsed SQL query and prototypes of the parameters, which are
+     * never handed out but copied for each statement using the query.
      */
-    private static class CachedSQLQuery {
-        final String[]  parsedSql;
-        final String[]  paramNames;
-        final int[]     paramMarkerPos;
-        final boolean[] paramIsRetVal;
-        final boolean[] paramIsUnicode;
+    private static final class CachedSQLQuery {
+        private final String[]    parsedSql;
+        private final ParamInfo[] params;
 
         CachedSQLQuery(String[] parsedSql, ArrayList params) {
-            this.parsedSql = parsedSql;
+            this.parsedSql = parsedSql.clone();
 
             if (params != null) {
                 final int size = params.size();
-                paramNames     = new String[size];
-                paramMarkerPos = new int[size];
-                paramIsRetVal  = new boolean[size];
-                paramIsUnicode = new boolean[size];
+                this.params = new ParamInfo[size];
 
                 for (int i = 0; i < size; i++) {
                     ParamInfo paramInfo = (ParamInfo) params.get(i);
-                    paramNames[i]     = paramInfo.name;
-                    paramMarkerPos[i] = paramInfo.markerPos;
-                    paramIsRetVal[i]  = paramInfo.isRetVal;
-                    paramIsUnicode[i] = paramInfo.isUnicode;
+                    this.params[i] = new ParamInfo(paramInfo.name, paramInfo.markerPos,
+                            paramInfo.isRetVal, paramInfo.isUnicode);
                 }
             } else {
-                paramNames = null;
-                paramMarkerPos = null;
-                paramIsRetVal = null;
-                paramIsUnicode = null;
+                this.params = new ParamInfo[0];
             }
         }
+
+        /**
+         * Retrieves the number of parameters of the query.
+         */
+        int getParameterCount() {
+            return params.length;
+        }
+
+        /**
+         * Appends copies of the parameter prototypes to a parameter list and
+         * returns a copy of the parsed SQL.
+         *
+         * @param paramList the parameter list to populate
+         * @return the parsed SQL as returned by {@link SQLParser#parse}
+         */
+        String[] stamp(ArrayList paramList) {
+            if (params.length > 0) {
+                paramList.ensureCapacity(paramList.size() + params.length);
+
+                for (int i = 0; i < params.length; i++) {
+                    paramList.add(params[i].clone());
+                }
+            }
+
+            return parsedSql.clone();
+        }
     }
 
    /**
-    * a LRU cache for the last 1000 parsed SQL statements
+    * default maximum number of cached parsed SQL statements
+    */
+   private final static int _DefaultCacheSize = Integer.parseInt( DefaultProperties.PARSE_CACHE_SIZE );
+
+   /**
+    * cache of parsed SQL statements shared by all connections, its size is
+    * the largest parse cache size requested by any connection
     */
-   private final static SimpleLRUCache<ConInfo,CachedSQLQuery> _Cache = new SimpleLRUCache( 1000 );
+   private final static ConcurrentClockCache<ConInfo,CachedSQLQuery> _Cache = new ConcurrentClockCache<ConInfo,CachedSQLQuery>( _DefaultCacheSize );
 
     /** Input buffer with SQL statement. */
     private final char[] in;
@@ -142,10 +163,22 @@ class SQLParser {
       throws SQLException
    {
       String[] ret;
+
+      // plain SQL without JDBC escapes is neither copied nor cached
+      if( ! extractTable )
+      {
+         ret = scanPlain( sql, paramList, connection.getUseUnicode() );
+
+         if( ret != null )
+            return ret;
+      }
+
       ConInfo conInfo = new ConInfo( sql, connection );
 
+      int cacheSize = connection.getParseCacheSize();
+
       // don't cache extract table parse requests
-      if( extractTable )
+      if( extractTable || cacheSize == 0 )
       {
          ret = new SQLParser( paramList, conInfo ).parse( extractTable );
       }
@@ -158,32 +191,470 @@ class SQLParser {
          // By avoiding a synchronization block around the get()-parse()-put(), we
          // reduce the contention greatly in the nominal case.
 
+         _Cache.ensureLimit( cacheSize );
+
          CachedSQLQuery cachedQuery = _Cache.get( conInfo );
 
-         if( cachedQuery == null )
+         // a statement without parameter list has to be parsed to report the
+         // parameter markers found in the SQL as error
+         if( cachedQuery == null || paramList == null && cachedQuery.getParameterCount() > 0 )
          {
             // parse statement
             ret = new SQLParser( paramList, conInfo ).parse( extractTable );
 
-            // update LRU cache
+            // update cache
             _Cache.put( conInfo, new CachedSQLQuery( ret, paramList ) );
          }
          else
          {
-            // REVIEW: potentially insecure, the array could be modified be the caller, corrupting the cache
-            ret = cachedQuery.parsedSql;
+            // create ParamInfo objects and parsed SQL from the cached template
+            ret = cachedQuery.stamp( paramList );
+         }
+      }
+
+      return ret;
+   }
+
+   /**
+    * <p> Fast path for SQL statements that don't contain any JDBC escapes.
+    * Such statements are passed to the server unchanged, so the only thing
+    * left to do is locating the parameter markers and the first keyword,
+    * which is done in a single pass over the original {@code String} without
+    * copying it. </p>
+    *
+    * <p> Anything this method doesn't handle identically to the full parser
+    * (escapes, unterminated strings or comments, unexpected parameter markers
+    * and statements with more than 255 parameters) is left to the latter.
+    * </p>
+    *
+    * @return
+    *    the result of {@link #parse} or {@code null} if the statement has to
+    *    be processed by the full parser
+    */
+   static String[] scanPlain( String sql, ArrayList paramList, boolean unicode )
+   {
+      // String.indexOf() is an intrinsic of current VMs, quickly rejecting
+      // SQL containing escapes without examining each character here
+      if( sql.indexOf( '{' ) >= 0 )
+         return null;
+
+      final int len     = sql.length();
+      String    keyWord = null;
+      int[]     markers = null;
+      int       count   = 0;
+      int       pos     = 0;
+
+      while( pos < len )
+      {
+         char c = sql.charAt( pos );
+
+         switch( c )
+         {
+            case '?':
+               if( paramList == null || count == 255 )
+                  return null;
+
+               if( markers == null )
+                  markers = new int[16];
+               else if( count == markers.length )
+               {
+                  int[] tmp = new int[count * 2];
+                  System.arraycopy( markers, 0, tmp, 0, count );
+                  markers = tmp;
+               }
+
+               markers[count ++] = pos ++;
+               break;
+
+            case '[':
+            case '"':
+            case '\'':
+               pos = sql.indexOf( c == '[' ? ']' : c, pos + 1 );
+
+               if( pos < 0 )
+                  return null;
+
+               pos ++;
+               break;
+
+            case '-':
+               if( pos + 1 < len && sql.charAt( pos + 1 ) == '-' )
+               {
+                  while( pos < len && sql.charAt( pos ) != '\n' && sql.charAt( pos ) != '\r' )
+                     pos ++;
+               }
+               else
+               {
+                  pos ++;
+               }
+               break;
+
+            case '/':
+               if( pos + 1 < len && sql.charAt( pos + 1 ) == '*' )
+               {
+                  pos = skipComment( sql, pos );
+
+                  if( pos < 0 )
+                     return null;
+               }
+               else
+               {
+                  pos ++;
+               }
+               break;
+
+            default:
+               if( keyWord == null && Character.isLetter( c ) )
+               {
+                  int start = pos;
+
+                  while( pos < len && isIdentifier( sql.charAt( pos ) ) )
+                     pos ++;
+
+                  keyWord = sql.substring( start, pos ).toLowerCase();
+               }
+               else
+               {
+                  pos ++;
+               }
+               break;
+         }
+      }
+
+      for( int i = 0; i < count; i ++ )
+      {
+         paramList.add( new ParamInfo( markers[i], unicode ) );
+      }
+
+      return new String[] { sql, "", keyWord == null ? "" : keyWord, null };
+   }
+
+   /**
+    * <p> Skips a (possibly nested) multi-line comment. </p>
+    *
+    * @param pos
+    *    position of the comment start
+    *
+    * @return
+    *    the position following the comment or {@code -1} if the comment is
+    *    not terminated
+    */
+   private static int skipComment( String sql, int pos )
+   {
+      final int len   = sql.length();
+      int       block = 0;
+
+      do
+      {
+         if( pos >= len - 1 )
+            return -1;
+
+         if( sql.charAt( pos ) == '/' && sql.charAt( pos + 1 ) == '*' )
+         {
+            block ++;
+            pos ++;
+         }
+         else if( sql.charAt( pos ) == '*' && sql.charAt( pos + 1 ) == '/' )
+         {
+            block --;
+            pos ++;
+         }
+
+         pos ++;
+      }
+      while( block > 0 );
+
+      return pos;
+   }
+
+   /**
+    * <p> Get the number of {@link #parse} requests served from the parse
+    * cache. </p>
+    */
+   static long getCacheHitCount()
+   {
+      return _Cache.getHitCount();
+   }
+
+   /**
+    * <p> Get the number of {@link #parse} requests that had to parse the SQL
+    * statement because it wasn't cached. </p>
+    */
+   static long getCacheMissCount()
+   {
+      return _Cache.getMissCount();
+   }
+
+   /**
+    * <p> Get the number of parsed SQL statements currently cached. </p>
+    */
+   static int getCacheSize()
+   {
+      return _Cache.size();
+   }
+
+   /**
+    * <p> Checks whether a processed SQL statement is a simple single row
+    * {@code INSERT [INTO] table [(columns)] VALUES (...)} statement and, if
+    * so, locates its value list. Only whitespace, comments and a terminating
+    * semicolon may follow the value list. </p>
+    *
+    * @param sql
+    *    the SQL statement as returned by {@link #parse}
+    *
+    * @return
+    *    the start (the opening parenthesis) and end (the position following
+    *    the closing parenthesis) of the value list as elements 0 and 1 of the
+    *    returned {@code int[]} or {@code null} if the statement is not a
+    *    simple single row INSERT
+    */
+   static int[] getInsertValuesBounds( String sql )
+   {
+      char[] in  = sql.toCharArray();
+      int    len = in.length;
+
+      int pos = matchKeyword( in, skipBlanks( in, 0 ), "insert" );
+
+      if( pos < 0 )
+         return null;
+
+      pos = skipBlanks( in, pos );
+
+      int into = matchKeyword( in, pos, "into" );
+
+      if( into >= 0 )
+         pos = skipBlanks( in, into );
+
+      // (optionally qualified) table name
+      while( true )
+      {
+         pos = skipIdentifier( in, pos );
+
+         if( pos < 0 )
+            return null;
+
+         pos = skipBlanks( in, pos );
+
+         if( pos >= len || in[pos] != '.' )
+            break;
 
-            // create ParamInfo objects from CachedSQLQuery
-            int length = cachedQuery.paramNames == null ? 0 : cachedQuery.paramNames.length;
+         pos = skipBlanks( in, pos + 1 );
+      }
+
+      // optional column list
+      if( pos < len && in[pos] == '(' )
+      {
+         pos = skipParenthesis( in, pos );
+
+         if( pos < 0 )
+            return null;
+
+         pos = skipBlanks( in, pos );
+      }
+
+      pos = matchKeyword( in, pos, "values" );
+
+      if( pos < 0 )
+         return null;
+
+      int start = skipBlanks( in, pos );
+
+      if( start >= len || in[start] != '(' )
+         return null;
+
+      int end = skipParenthesis( in, start );
+
+      if( end < 0 )
+         return null;
 
-            for( int i = 0; i < length; i ++ )
+      pos = skipBlanks( in, end );
+
+      if( pos < len && in[pos] == ';' )
+         pos = skipBlanks( in, pos + 1 );
+
+      return pos == len ? new int[] { start, end } : null;
+   }
+
+   /**
+    * <p> Skips whitespace and comments. </p>
+    *
+    * @return
+    *    the position of the next character that is neither whitespace nor
+    *    part of a comment, {@code in.length} if there is none
+    */
+   private static int skipBlanks( char[] in, int pos )
+   {
+      int len = in.length;
+
+      while( pos < len )
+      {
+         char c = in[pos];
+
+         if( Character.isWhitespace( c ) )
+         {
+            pos ++;
+         }
+         else if( c == '-' && pos + 1 < len && in[pos + 1] == '-' )
+         {
+            while( pos < len && in[pos] != '\n' && in[pos] != '\r' )
+               pos ++;
+         }
+         else if( c == '/' && pos + 1 < len && in[pos + 1] == '*' )
+         {
+            int block = 0;
+
+            do
             {
-               paramList.add( new ParamInfo( cachedQuery.paramNames[i], cachedQuery.paramMarkerPos[i], cachedQuery.paramIsRetVal[i], cachedQuery.paramIsUnicode[i] ) );
+               if( pos >= len - 1 )
+                  return len;
+
+               if( in[pos] == '/' && in[pos + 1] == '*' )
+               {
+                  block ++;
+                  pos ++;
+               }
+               else if( in[pos] == '*' && in[pos + 1] == '/' )
+               {
+                  block --;
+                  pos ++;
+               }
+
+               pos ++;
             }
+            while( block > 0 );
+         }
+         else
+         {
+            break;
          }
       }
 
-      return ret;
+      return pos;
+   }
+
+   /**
+    * <p> Matches a keyword, ignoring case. </p>
+    *
+    * @return
+    *    the position following the keyword or {@code -1} if the keyword is
+    *    not found at the given position
+    */
+   private static int matchKeyword( char[] in, int pos, String keyword )
+   {
+      int end = pos + keyword.length();
+
+      if( end > in.length || ! new String( in, pos, keyword.length() ).equalsIgnoreCase( keyword ) )
+         return -1;
+
+      return end < in.length && isIdentifier( in[end] ) ? -1 : end;
+   }
+
+   /**
+    * <p> Skips a plain, bracketed or quoted identifier. </p>
+    *
+    * @return
+    *    the position following the identifier or {@code -1} if there is no
+    *    identifier at the given position
+    */
+   private static int skipIdentifier( char[] in, int pos )
+   {
+      int len = in.length;
+
+      if( pos >= len )
+         return -1;
+
+      if( in[pos] == '[' || in[pos] == '"' )
+         return skipQuoted( in, pos );
+
+      int start = pos;
+
+      while( pos < len && isIdentifier( in[pos] ) )
+         pos ++;
+
+      return pos > start ? pos : -1;
+   }
+
+   /**
+    * <p> Skips a string literal, bracketed or quoted identifier starting at
+    * the given position. </p>
+    *
+    * @return
+    *    the position following the closing delimiter or {@code -1} if it is
+    *    missing
+    */
+   private static int skipQuoted( char[] in, int pos )
+   {
+      char term = in[pos] == '[' ? ']' : in[pos];
+
+      for( pos ++; pos < in.length; pos ++ )
+      {
+         if( in[pos] == term )
+         {
+            // doubled delimiters are escapes
+            if( pos + 1 < in.length && in[pos + 1] == term )
+               pos ++;
+            else
+               return pos + 1;
+         }
+      }
+
+      return -1;
+   }
+
+   /**
+    * <p> Skips a parenthesized expression, including nested expressions,
+    * strings, quoted identifiers and comments. </p>
+    *
+    * @return
+    *    the position following the matching closing parenthesis or {@code -1}
+    *    if it is missing
+    */
+   private static int skipParenthesis( char[] in, int pos )
+   {
+      int len   = in.length;
+      int depth = 0;
+
+      while( pos < len )
+      {
+         char c = in[pos];
+
+         switch( c )
+         {
+            case '(':
+               depth ++;
+               pos ++;
+               break;
+
+            case ')':
+               pos ++;
+
+               if( -- depth == 0 )
+                  return pos;
+
+               break;
+
+            case '\'':
+            case '"':
+            case '[':
+               pos = skipQuoted( in, pos );
+
+               if( pos < 0 )
+                  return -1;
+
+               break;
+
+            case '-':
+            case '/':
+               int next = skipBlanks( in, pos );
+               pos = next > pos ? next : pos + 1;
+               break;
+
+            default:
+               pos ++;
+         }
+      }
+
+      return -1;
    }
 
     // --------------------------- Private Methods --------------------------------
@@ -17,22 +17,66 @@
 //
 package net.sourceforge.jtds.jdbc;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 /**
  * Simple semaphore class used to serialize access requests over the network
  * connection.
  * <p/>
- * Based on the code originally written by Doug Lea. Once JDK 1.5 is the
- * standard this class can be replaced by the
- * <code>java.util.concurrent.Sempahore</code> class.
+ * Backed by a <code>java.util.concurrent.Semaphore</code>, optionally fair,
+ * and instrumented to show where threads sharing a connection lose time: it
+ * records the number of acquisitions, how many of them had to wait, a
+ * histogram of the wait times and the thread last acquiring a permit. The
+ * uncontended path doesn't read the clock.
+ * <p/>
+ * Unlike a lock, permits may be released by a thread other than the one that
+ * acquired them, which the protocol relies on.
  *
  * @author  Mike Hutchinson
  * @version $Id: Semaphore.java,v 1.1 2004-12-20 15:51:17 alin_sinpalean Exp $
  */
 public class Semaphore {
     /**
-     * Current number of available permits.
+     * Number of wait time histogram buckets. Bucket 0 counts acquisitions
+     * that didn't wait, bucket <i>i</i> waits of 2<sup><i>i</i>-1</sup> to
+     * 2<sup><i>i</i></sup> microseconds and the last bucket all longer ones
+     * (more than about 4 seconds).
+     */
+    public static final int HISTOGRAM_SIZE = 24;
+
+    /**
+     * The permits.
+     */
+    private final java.util.concurrent.Semaphore permits;
+
+    /**
+     * Whether waiting threads acquire permits in arrival order.
+     */
+    private final boolean fair;
+
+    /**
+     * Thread that acquired the last permit, if not released since.
+     */
+    private volatile Thread holder;
+
+    /**
+     * Number of acquisitions and of acquisitions that had to wait.
+     */
+    private final AtomicLong acquireCount = new AtomicLong();
+    private final AtomicLong contendedCount = new AtomicLong();
+
+    /**
+     * Total and maximum wait time in microseconds.
+     */
+    private final AtomicLong totalWait = new AtomicLong();
+    private final AtomicLong maxWait = new AtomicLong();
+
+    /**
+     * Wait time histogram, see {@link #HISTOGRAM_SIZE}.
      */
-    protected long permits;
+    private final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_SIZE);
 
     /**
      * Create a Semaphore with the given initial number of permits. Using a
@@ -41,7 +85,20 @@ public class Semaphore {
      * number of releases has pushed the number of permits past 0.
      */
     public Semaphore(long initialPermits) {
-        permits = initialPermits;
+        this(initialPermits, false);
+    }
+
+    /**
+     * Create a Semaphore with the given initial number of permits and the
+     * given fairness.
+     *
+     * @param initialPermits the initial number of permits
+     * @param fair           <code>true</code> if waiting threads should
+     *                       acquire permits in arrival order
+     */
+    public Semaphore(long initialPermits, boolean fair) {
+        permits = new java.util.concurrent.Semaphore((int) initialPermits, fair);
+        this.fair = fair;
     }
 
     /**
@@ -52,16 +109,10 @@ public class Semaphore {
             throw new InterruptedException();
         }
 
-        synchronized (this) {
-            try {
-                while (permits <= 0) {
-                    wait();
-                }
-                --permits;
-            } catch (InterruptedException ex) {
-                notify();
-                throw ex;
-            }
+        if (!tryAcquire()) {
+            long start = System.nanoTime();
+            permits.acquire();
+            acquired(start);
         }
     }
 
@@ -73,44 +124,26 @@ public class Semaphore {
             throw new InterruptedException();
         }
 
-        synchronized (this) {
-            if (permits > 0) {
-                --permits;
-                return true;
-            } else if (msecs <= 0) {
-                return false;
-            } else {
-                try {
-                    long startTime = System.currentTimeMillis();
-                    long waitTime = msecs;
-
-                    while (true) {
-                        wait(waitTime);
-
-                        if (permits > 0) {
-                            --permits;
-                            return true;
-                        } else {
-                            waitTime = msecs - (System.currentTimeMillis() - startTime);
-                            if (waitTime <= 0) {
-                                return false;
-                            }
-                        }
-                    }
-                } catch (InterruptedException ex) {
-                    notify();
-                    throw ex;
-                }
-            }
+        if (tryAcquire()) {
+            return true;
+        } else if (msecs <= 0) {
+            return false;
+        }
+
+        long start = System.nanoTime();
+        if (permits.tryAcquire(msecs, TimeUnit.MILLISECONDS)) {
+            acquired(start);
+            return true;
         }
+        return false;
     }
 
     /**
      * Release a permit.
      */
-    public synchronized void release() {
-        ++permits;
-        notify();
+    public void release() {
+        holder = null;
+        permits.release();
     }
 
     /**
@@ -123,22 +156,121 @@ public class Semaphore {
      *
      * @exception IllegalArgumentException if n is negative
      */
-    public synchronized void release(long n) {
+    public void release(long n) {
         if (n < 0) {
             throw new IllegalArgumentException("Negative argument");
         }
 
-        permits += n;
-        for (long i = 0; i < n; ++i) {
-            notify();
-        }
+        holder = null;
+        permits.release((int) n);
     }
 
     /**
      * Return the current number of available permits. Returns an accurate, but
      * possibly unstable value, that may change immediately after returning.
      */
-    public synchronized long permits() {
-        return permits;
+    public long permits() {
+        return permits.availablePermits();
+    }
+
+    /**
+     * Returns whether waiting threads acquire permits in arrival order.
+     */
+    public boolean isFair() {
+        return fair;
+    }
+
+    /**
+     * Returns the thread that acquired the last permit or <code>null</code>
+     * if it has been released since. For a mutual exclusion lock that's the
+     * thread currently holding the lock.
+     */
+    public Thread getHolder() {
+        return holder;
+    }
+
+    /**
+     * Returns the number of threads waiting for a permit, an estimate.
+     */
+    public int getQueueLength() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     * Returns the number of permits acquired.
+     */
+    public long getAcquireCount() {
+        return acquireCount.get();
+    }
+
+    /**
+     * Returns the number of permits acquired after waiting for a release.
+     */
+    public long getContendedCount() {
+        return contendedCount.get();
+    }
+
+    /**
+     * Returns the total time spent waiting for permits in microseconds.
+     */
+    public long getTotalWaitTime() {
+        return totalWait.get();
+    }
+
+    /**
+     * Returns the longest time spent waiting for a permit in microseconds.
+     */
+    public long getMaxWaitTime() {
+        return maxWait.get();
+    }
+
+    /**
+     * Returns a copy of the wait time histogram, see
+     * {@link #HISTOGRAM_SIZE}.
+     */
+    public long[] getWaitHistogram() {
+        long[] result = new long[HISTOGRAM_SIZE];
+        for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+            result[i] = histogram.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Takes a permit if one is available without waiting. A fair semaphore
+     * doesn't let the caller overtake waiting threads.
+     */
+    private boolean tryAcquire() throws InterruptedException {
+        boolean acquired = fair
+                ? permits.tryAcquire(0, TimeUnit.NANOSECONDS)
+                : permits.tryAcquire();
+
+        if (acquired) {
+            holder = Thread.currentThread();
+            acquireCount.incrementAndGet();
+            histogram.incrementAndGet(0);
+        }
+        return acquired;
+    }
+
+    /**
+     * Records a permit acquired after waiting since <code>start</code>.
+     */
+    private void acquired(long start) {
+        holder = Thread.currentThread();
+
+        long micros = (System.nanoTime() - start) / 1000;
+        acquireCount.incrementAndGet();
+        contendedCount.incrementAndGet();
+        totalWait.addAndGet(micros);
+
+        long max;
+        while (micros > (max = maxWait.get())
+               && !maxWait.compareAndSet(max, micros)) {
+            // Retry
+        }
+
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        histogram.incrementAndGet(Math.min(bucket, HISTOGRAM_SIZE - 1));
     }
 }
@@ -23,14 +23,19 @@ import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -204,6 +209,10 @@ class SharedSocket {
      * A cancel packet is pending.
      */
     private boolean cancelPending;
+    /**
+     * Time the last packet has been received from the server.
+     */
+    private volatile long lastReceived;
     /**
      * Synchronization monitor for {@link #cancelPending} and
      * {@link #responseOwner}.
@@ -245,9 +254,11 @@ class SharedSocket {
      */
     SharedSocket(JtdsConnection connection) throws IOException, UnknownHostException {
         this(connection.getBufferDir(), connection.getTdsVersion(), connection.getServerType());
-        host = connection.getServerName();
-        port = connection.getPortNumber();
         socket = createSocketForJDBC3(connection);
+        // The server or failover partner actually connected to
+        InetSocketAddress remote = (InetSocketAddress) socket.getRemoteSocketAddress();
+        host = remote.getHostString();
+        port = remote.getPort();
         setOut(new DataOutputStream(socket.getOutputStream()));
         setIn(new DataInputStream(socket.getInputStream()));
         socket.setTcpNoDelay(connection.getTcpNoDelay());
@@ -256,7 +267,17 @@ class SharedSocket {
     }
 
    /**
-    * Creates a {@link Socket} connection.
+    * Delay in milliseconds between starting parallel connection attempts.
+    */
+   private static final int CONNECT_STAGGER = 200;
+
+   /**
+    * <p> Creates a {@link Socket} connection. </p>
+    *
+    * <p> All addresses the server name resolves to are tried, followed by
+    * those of the failover partner, if any. The addresses are tried one after
+    * the other unless <code>multiSubnetFailover</code> is set, in which case
+    * the attempts are raced with a short stagger. </p>
     *
     * @param connection
     *    the connection object
@@ -269,23 +290,282 @@ class SharedSocket {
     */
    private Socket createSocketForJDBC3( JtdsConnection connection ) throws IOException
    {
-      final String host = connection.getServerName();
-      final int port = connection.getPortNumber();
       final String bindAddress = connection.getBindAddress();
       final int loginTimeout = connection.getLoginTimeout();
 
+      List<InetSocketAddress> addresses = resolve( connection );
+
+      if( connection.getMultiSubnetFailover() && addresses.size() > 1 )
+      {
+         return connectParallel( addresses, bindAddress, loginTimeout );
+      }
+
+      long deadline = System.currentTimeMillis() + loginTimeout * 1000L;
+      IOException error = null;
+
+      for( InetSocketAddress address : addresses )
+      {
+         int timeout = 0;
+
+         if( loginTimeout > 0 )
+         {
+            timeout = (int) ( deadline - System.currentTimeMillis() );
+
+            if( timeout <= 0 )
+            {
+               break;
+            }
+         }
+
+         try
+         {
+            return connect( address, bindAddress, timeout );
+         }
+         catch( IOException e )
+         {
+            Logger.println( "Connecting to " + address + " failed: " + e );
+            error = e;
+         }
+      }
+
+      throw error != null ? error : new SocketTimeoutException( "connect timed out" );
+   }
+
+   /**
+    * Resolves all addresses of the server and the failover partner.
+    *
+    * @throws UnknownHostException
+    *    if neither the server nor the failover partner could be resolved
+    */
+   private static List<InetSocketAddress> resolve( JtdsConnection connection ) throws UnknownHostException
+   {
+      final int port = connection.getPortNumber();
+      final String partner = connection.getFailoverPartner();
+
+      List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+      UnknownHostException error = null;
+
+      try
+      {
+         addAddresses( addresses, connection.getServerName(), port );
+      }
+      catch( UnknownHostException e )
+      {
+         error = e;
+      }
+
+      if( partner != null && ! partner.isEmpty() )
+      {
+         String partnerHost = partner;
+         int partnerPort = port;
+         int colon = partner.lastIndexOf( ':' );
+
+         if( colon > 0 )
+         {
+            partnerHost = partner.substring( 0, colon );
+            partnerPort = Integer.parseInt( partner.substring( colon + 1 ) );
+         }
+
+         try
+         {
+            addAddresses( addresses, partnerHost, partnerPort );
+         }
+         catch( UnknownHostException e )
+         {
+            Logger.println( "Failover partner " + partner + " unknown" );
+            error = error == null ? e : error;
+         }
+      }
+
+      if( addresses.isEmpty() )
+      {
+         throw error;
+      }
+
+      return addresses;
+   }
+
+   private static void addAddresses( List<InetSocketAddress> addresses, String host, int port ) throws UnknownHostException
+   {
+      for( InetAddress address : InetAddress.getAllByName( host ) )
+      {
+         addresses.add( new InetSocketAddress( address, port ) );
+      }
+   }
+
+   /**
+    * Opens a socket to a single address.
+    */
+   private static Socket connect( InetSocketAddress address, String bindAddress, int timeout ) throws IOException
+   {
       Socket socket = new Socket();
-      InetSocketAddress address = new InetSocketAddress( host, port );
 
-      // call Socket.bind(SocketAddress) if bindAddress parameter is set
-      if( bindAddress != null && ! bindAddress.isEmpty() )
+      try
+      {
+         // call Socket.bind(SocketAddress) if bindAddress parameter is set
+         if( bindAddress != null && ! bindAddress.isEmpty() )
+         {
+            socket.bind( new InetSocketAddress( bindAddress, 0 ) );
+         }
+
+         // establish connection
+         socket.connect( address, timeout );
+         return socket;
+      }
+      catch( IOException e )
+      {
+         socket.close();
+         throw e;
+      }
+   }
+
+   /**
+    * <p> Races connection attempts to several addresses, starting them
+    * {@link #CONNECT_STAGGER} milliseconds apart or as soon as all attempts
+    * started so far have failed, and returns the first socket connected. The
+    * other attempts are aborted. </p>
+    */
+   private static Socket connectParallel( final List<InetSocketAddress> addresses, final String bindAddress, final int loginTimeout ) throws IOException
+   {
+      final long deadline = System.currentTimeMillis() + loginTimeout * 1000L;
+      final Socket[] sockets = new Socket[addresses.size()];
+      final Socket[] winner = new Socket[1];
+      final IOException[] error = new IOException[1];
+      final int[] failed = new int[1];
+
+      synchronized( sockets )
       {
-         socket.bind( new InetSocketAddress( bindAddress, 0 ) );
+         try
+         {
+            int started = 0;
+            long nextStart = 0;
+
+            while( winner[0] == null )
+            {
+               if( failed[0] == addresses.size() )
+               {
+                  throw error[0];
+               }
+
+               long now = System.currentTimeMillis();
+
+               if( loginTimeout > 0 && now >= deadline )
+               {
+                  throw new SocketTimeoutException( "connect timed out" );
+               }
+
+               // start the next attempt when due or if all others failed
+               if( started < addresses.size() && ( now >= nextStart || failed[0] == started ) )
+               {
+                  sockets[started] = new Socket();
+                  startConnect( sockets, started, addresses.get( started ), bindAddress, loginTimeout, winner, error, failed );
+                  started ++;
+                  nextStart = now + CONNECT_STAGGER;
+                  continue;
+               }
+
+               // wait for the next attempt to become due, an attempt to
+               // finish or the deadline
+               long wait = started < addresses.size() ? nextStart - now : 0;
+
+               if( loginTimeout > 0 )
+               {
+                  wait = wait == 0 ? deadline - now : Math.min( wait, deadline - now );
+               }
+
+               sockets.wait( wait );
+            }
+
+            return winner[0];
+         }
+         catch( InterruptedException e )
+         {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "connect interrupted" );
+         }
+         finally
+         {
+            // abort the attempts still running
+            for( int i = 0; i < sockets.length; i ++ )
+            {
+               if( sockets[i] != null && sockets[i] != winner[0] )
+               {
+                  try
+                  {
+                     sockets[i].close();
+                  }
+                  catch( IOException e )
+                  {
+                     // ignore
+                  }
+               }
+            }
+         }
       }
+   }
+
+   /**
+    * Starts a thread connecting one socket of {@link #connectParallel}, which
+    * records the outcome while synchronized on the socket array.
+    */
+   private static void startConnect( final Socket[] sockets, final int index, final InetSocketAddress address, final String bindAddress, final int loginTimeout, final Socket[] winner, final IOException[] error, final int[] failed )
+   {
+      final Socket socket = sockets[index];
+
+      Thread thread = new Thread( "jTDS connect " + address )
+      {
+         @Override
+         public void run()
+         {
+            IOException ex = null;
+
+            try
+            {
+               if( bindAddress != null && ! bindAddress.isEmpty() )
+               {
+                  socket.bind( new InetSocketAddress( bindAddress, 0 ) );
+               }
 
-      // establish connection
-      socket.connect( address, loginTimeout * 1000 );
-      return socket;
+               socket.connect( address, loginTimeout * 1000 );
+            }
+            catch( IOException e )
+            {
+               ex = e;
+            }
+
+            synchronized( sockets )
+            {
+               if( ex == null && winner[0] == null )
+               {
+                  winner[0] = socket;
+               }
+               else
+               {
+                  if( ex != null )
+                  {
+                     Logger.println( "Connecting to " + address + " failed: " + ex );
+                     error[0] = ex;
+                  }
+
+                  failed[0] ++;
+
+                  try
+                  {
+                     socket.close();
+                  }
+                  catch( IOException e )
+                  {
+                     // ignore
+                  }
+               }
+
+               sockets.notifyAll();
+            }
+         }
+      };
+
+      thread.setDaemon( true );
+      thread.start();
    }
 
    String getMAC()
@@ -684,7 +964,7 @@ class SharedSocket {
             //
             getOut().write(buffer, 0, getPktLen(buffer));
 
-            if (buffer[1] != 0) {
+            if ((buffer[1] & TdsCore.STATUS_EOM) != 0) {
                 getOut().flush();
                 // We are the response owner now
                 responseOwner = vsock;
@@ -914,6 +1194,8 @@ class SharedSocket {
         // If this is the first packet and the length is correct
         // force the last packet flag on.
         //
+        lastReceived = System.currentTimeMillis();
+
         if (++packetCount == 1 && serverType == Driver.SQLSERVER
                 && "NTLMSSP".equals(new String(buffer, 11, 7))) {
             buffer[1] = 1;
@@ -973,6 +1255,15 @@ class SharedSocket {
         return buffer;
     }
 
+    /**
+     * Retrieves the time the last packet has been received from the server.
+     *
+     * @return the time in milliseconds or 0 if nothing has been received yet
+     */
+    long getLastReceived() {
+        return lastReceived;
+    }
+
     /**
      * Convert two bytes (in network byte order) in a byte array into a Java
      * short integer.
@@ -0,0 +1,172 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Registry of the statements of a connection, so that they can be closed
+ * along with the connection.
+ * <p/>
+ * Statements are held by weak references so that they can still be garbage
+ * collected if not closed explicitly. Each statement is assigned a slot when
+ * registered, which it passes back when removed, so both operations take
+ * constant time. Slots of garbage collected statements are reclaimed from a
+ * <code>ReferenceQueue</code> when the next statement is registered.
+ */
+final class StatementRegistry {
+    /**
+     * Weak reference to a statement, remembering its slot.
+     */
+    private static final class Entry extends WeakReference {
+        /** The slot holding this entry. */
+        final int slot;
+
+        Entry(Object statement, int slot, ReferenceQueue queue) {
+            super(statement, queue);
+            this.slot = slot;
+        }
+    }
+
+    /** Queue of the entries whose statements have been garbage collected. */
+    private final ReferenceQueue queue = new ReferenceQueue();
+    /** The entries, indexed by slot. */
+    private Entry[] entries = new Entry[16];
+    /** Stack of free slots below {@link #used}. */
+    private int[] free = new int[16];
+    /** Number of free slots on the stack. */
+    private int freeCount;
+    /** Number of slots ever used. */
+    private int used;
+    /** Number of registered statements. */
+    private int size;
+
+    /**
+     * Registers a statement.
+     *
+     * @param statement the statement
+     * @return the slot assigned to the statement
+     */
+    synchronized int add(Object statement) {
+        expunge();
+
+        int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        } else {
+            if (used == entries.length) {
+                Entry[] tmp = new Entry[used * 2];
+                System.arraycopy(entries, 0, tmp, 0, used);
+                entries = tmp;
+            }
+            slot = used++;
+        }
+
+        entries[slot] = new Entry(statement, slot, queue);
+        size++;
+        return slot;
+    }
+
+    /**
+     * Removes a statement from the registry.
+     *
+     * @param statement the statement
+     * @param slot      the slot assigned to the statement by {@link #add}
+     * @return <code>true</code> if the statement was registered in that slot
+     */
+    synchronized boolean remove(Object statement, int slot) {
+        if (slot < 0 || slot >= used) {
+            return false;
+        }
+
+        Entry entry = entries[slot];
+        if (entry == null || entry.get() != statement) {
+            // Already removed or garbage collected, slot possibly reused
+            return false;
+        }
+
+        // A cleared reference is not enqueued, so the slot is only freed once
+        entry.clear();
+        release(slot);
+        return true;
+    }
+
+    /**
+     * Removes all statements from the registry.
+     *
+     * @return the statements not garbage collected yet
+     */
+    synchronized List removeAll() {
+        List result = new ArrayList(size);
+
+        for (int i = 0; i < used; i++) {
+            Entry entry = entries[i];
+            if (entry != null) {
+                Object statement = entry.get();
+                if (statement != null) {
+                    result.add(statement);
+                }
+                entry.clear();
+                entries[i] = null;
+            }
+        }
+
+        freeCount = 0;
+        used = 0;
+        size = 0;
+        return result;
+    }
+
+    /**
+     * Returns the number of registered statements, including garbage
+     * collected ones not reclaimed yet.
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Frees the slots of garbage collected statements.
+     */
+    private void expunge() {
+        Entry entry;
+        while ((entry = (Entry) queue.poll()) != null) {
+            // The slot may have been reclaimed by removeAll() meanwhile
+            if (entry.slot < used && entries[entry.slot] == entry) {
+                release(entry.slot);
+            }
+        }
+    }
+
+    /**
+     * Frees a slot in use.
+     */
+    private void release(int slot) {
+        entries[slot] = null;
+        if (freeCount == free.length) {
+            int[] tmp = new int[free.length * 2];
+            System.arraycopy(free, 0, tmp, 0, freeCount);
+            free = tmp;
+        }
+        free[freeCount++] = slot;
+        size--;
+    }
+}
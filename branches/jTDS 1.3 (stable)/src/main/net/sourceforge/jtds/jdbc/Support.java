@@ -107,6 +107,7 @@ public class Support {
         typeMap.put(Clob.class,               new Integer(java.sql.Types.LONGVARCHAR));
         // bug #626
         typeMap.put(BigInteger.class,         new Integer(java.sql.Types.BIGINT));
+        typeMap.put(TableValuedParameter.class, new Integer(java.sql.Types.STRUCT));
     }
 
     /**
@@ -628,6 +629,13 @@ public class Support {
                 case java.sql.Types.OTHER:
                     return x;
 
+                case java.sql.Types.STRUCT:
+                    if (x instanceof TableValuedParameter) {
+                        return x;
+                    }
+
+                    break;
+
                 case java.sql.Types.JAVA_OBJECT:
                     throw new SQLException(
                             Messages.get("error.convert.badtypes",
@@ -1084,6 +1092,135 @@ public class Support {
         return sql.toString();
     }
 
+    /**
+     * Constructs the parameter definition string passed to sp_executesql
+     * along with the batch built by {@link #getTableValuedParameterSQL}.
+     * Table-valued parameters are declared in the batch itself and are
+     * replaced by the <code>nvarchar(max)</code> parameters holding their
+     * rows, and output parameters are declared as such so that their values
+     * are returned from the <code>EXEC</code> statement.
+     *
+     * @param parameters Parameters to construct the definition for
+     * @return a parameter definition string
+     */
+    static String getTableValuedParameterDefinitions(ParamInfo[] parameters) {
+        StringBuilder sql = new StringBuilder(parameters.length * 15);
+
+        for (int i = 0; i < parameters.length; i++) {
+            if (sql.length() > 0) {
+                sql.append(',');
+            }
+
+            sql.append(getParameterName(parameters[i], i));
+
+            if (parameters[i].isTableValued()) {
+                // Declared as a table variable in the statement itself
+                sql.append(TableValuedParameter.ROWS_SUFFIX).append(" nvarchar(max)");
+                continue;
+            }
+
+            sql.append(' ');
+            sql.append(parameters[i].sqlType);
+
+            if (parameters[i].isOutput) {
+                sql.append(" OUTPUT");
+            }
+        }
+
+        return sql.toString();
+    }
+
+    /**
+     * Retrieves the name a parameter is referred to by in SQL sent to the
+     * server, ie its formal name or <code>@P</code><i>n</i>.
+     *
+     * @param pi    the parameter descriptor
+     * @param index the zero based parameter index
+     * @return the parameter name as a <code>String</code>
+     */
+    static String getParameterName(ParamInfo pi, int index) {
+        return (pi.name == null) ? "@P" + index : pi.name;
+    }
+
+    /**
+     * Determines whether any of the parameters is a table-valued parameter.
+     *
+     * @param parameters the parameters to check, may be <code>null</code>
+     * @return <code>true</code> if a {@link TableValuedParameter} is bound
+     */
+    static boolean hasTableValuedParameters(ParamInfo[] parameters) {
+        if (parameters != null) {
+            for (int i = 0; i < parameters.length; i++) {
+                if (parameters[i].isTableValued()) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Builds the statement text used to execute a statement with
+     * table-valued parameters through <code>sp_executesql</code>.
+     * <p/>
+     * Each table-valued parameter is declared as a table variable named
+     * after the parameter and populated from the parameter holding its rows,
+     * see {@link TableValuedParameter#getRowsParameter}. The batch does not
+     * depend on the row data. All other parameters are referred
+     * to by name and have to be passed to <code>sp_executesql</code> using the
+     * definitions returned by
+     * {@link #getTableValuedParameterDefinitions(ParamInfo[])}.
+     *
+     * @param sql        the SQL statement containing parameter markers, used
+     *                   if <code>procName</code> is <code>null</code>
+     * @param procName   the name of the stored procedure to call or
+     *                   <code>null</code>
+     * @param parameters the parameter descriptors
+     * @return the batch to execute as a <code>String</code>
+     */
+    static String getTableValuedParameterSQL(String sql,
+                                             String procName,
+                                             ParamInfo[] parameters) {
+        StringBuilder buf = new StringBuilder(sql.length() + 256);
+
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i].isTableValued()) {
+                ((TableValuedParameter) parameters[i].value).appendDeclareSQL(
+                        buf, getParameterName(parameters[i], i));
+            }
+        }
+
+        if (procName == null) {
+            buf.append(substituteParamMarkers(sql, parameters));
+        } else {
+            // Convert the RPC call into an EXEC statement
+            int first = 0;
+
+            buf.append("EXEC ");
+            if (parameters[0].isRetVal) {
+                buf.append(getParameterName(parameters[0], 0)).append(" = ");
+                first = 1;
+            }
+            buf.append(procName);
+
+            for (int i = first; i < parameters.length; i++) {
+                String name = getParameterName(parameters[i], i);
+
+                buf.append((i == first) ? " " : ", ");
+                if (parameters[i].name != null) {
+                    buf.append(name).append(" = ");
+                }
+                buf.append(name);
+                if (parameters[i].isOutput) {
+                    buf.append(" OUTPUT");
+                }
+            }
+        }
+
+        return buf.toString();
+    }
+
     /**
      * Update the SQL string and replace the ? markers with parameter names
      * eg @P0, @P1 etc.
@@ -0,0 +1,502 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+
+/**
+ * Row builder for SQL Server 2008+ table-valued parameters.
+ * <p>
+ * An instance describes a user defined table type and holds the rows to be
+ * sent for it. It is bound to a statement parameter using
+ * <code>setObject(index, tvp)</code> or
+ * <code>setObject(index, tvp, Types.STRUCT)</code>, e.g.
+ * <pre>
+ * TableValuedParameter keys = new TableValuedParameter("dbo.KeyList");
+ * keys.addColumn("id", Types.INTEGER);
+ * for (int i = 0; i &lt; ids.length; i++) {
+ *     keys.addRow(new Object[] {new Integer(ids[i])});
+ * }
+ * CallableStatement cstmt = con.prepareCall("{call lookup_keys(?)}");
+ * cstmt.setObject(1, keys);
+ * </pre>
+ * Implementation notes:
+ * <ol>
+ * <li>jTDS does not negotiate the TDS 7.3 protocol required to send a
+ *     table-valued parameter as a native RPC parameter. The statement is
+ *     instead executed through <code>sp_executesql</code>, preceded by the
+ *     declaration of a table variable of the given type. The rows are sent
+ *     as an XML document in an <code>nvarchar(max)</code> parameter which the
+ *     statement inserts into the table variable, so the statement text does
+ *     not depend on the data and its plan can be reused.
+ * <li>Column declarations are optional. If present, row values are converted
+ *     to the column types and the rows are inserted by column name, which
+ *     allows table types with identity or defaulted columns to be used.
+ *     Values are passed as strings (binary values as hex) and converted to
+ *     the column types by the server.
+ * <li>Table-valued parameters are input only and are not supported with
+ *     server side cursors.
+ * </ol>
+ *
+ * @version $Id$
+ */
+public class TableValuedParameter {
+    /** The maximum number of rows a single INSERT ... VALUES may contain. */
+    static final int MAX_INSERT_ROWS = 1000;
+
+    /** Suffix of the name of the parameter holding the rows. */
+    static final String ROWS_SUFFIX = "_rows";
+
+    /** The name of the user defined table type. */
+    private final String typeName;
+    /** The name of the table type, quoted for use in SQL. */
+    private final String quotedTypeName;
+    /** The declared column names. */
+    private final ArrayList columnNames = new ArrayList();
+    /** The declared column types as <code>java.sql.Types</code> constants. */
+    private final ArrayList columnTypes = new ArrayList();
+    /** The row data, each row is an <code>Object[]</code>. */
+    private final ArrayList rows = new ArrayList();
+
+    /**
+     * Constructs a new, empty table-valued parameter.
+     *
+     * @param typeName the (optionally schema qualified) name of the user
+     *                 defined table type eg <code>dbo.KeyList</code>, parts
+     *                 may be delimited by brackets eg <code>[dbo].[Key List]</code>
+     * @throws IllegalArgumentException if the name is empty or malformed
+     */
+    public TableValuedParameter(String typeName) {
+        if (typeName == null || typeName.length() == 0) {
+            throw new IllegalArgumentException("typeName must not be empty");
+        }
+
+        this.typeName = typeName;
+        this.quotedTypeName = quoteName(typeName);
+    }
+
+    /**
+     * Declares the next column of the table type. Columns have to be declared
+     * before the first row is added.
+     *
+     * @param name     the column name
+     * @param jdbcType the <code>java.sql.Types</code> constant for the column
+     *                 or <code>Types.OTHER</code> to send values unconverted
+     * @throws SQLException if rows have already been added
+     */
+    public void addColumn(String name, int jdbcType) throws SQLException {
+        if (!rows.isEmpty()) {
+            throw new SQLException(Messages.get("error.tvp.columnsfixed"), "HY010");
+        }
+
+        if (name == null || name.length() == 0) {
+            throw new SQLException(Messages.get("error.generic.nullparam", "addColumn"), "HY009");
+        }
+
+        if ("ERROR".equals(Support.getJdbcTypeName(jdbcType))) {
+            throw new SQLException(Messages.get("error.generic.badtype",
+                    Integer.toString(jdbcType)), "HY092");
+        }
+
+        columnNames.add(name);
+        columnTypes.add(new Integer(jdbcType));
+    }
+
+    /**
+     * Adds a row. The row is copied, so the array may be reused by the caller.
+     *
+     * @param values the column values in declaration order
+     * @throws SQLException if the number of values does not match the number
+     *                      of declared columns (or, if no columns have been
+     *                      declared, the width of the first row)
+     */
+    public void addRow(Object[] values) throws SQLException {
+        if (values == null || values.length == 0) {
+            throw new SQLException(Messages.get("error.generic.nullparam", "addRow"), "HY009");
+        }
+
+        int width = getColumnCount();
+
+        if (width == 0 && !rows.isEmpty()) {
+            width = ((Object[]) rows.get(0)).length;
+        }
+
+        if (width > 0 && values.length != width) {
+            throw new SQLException(Messages.get("error.tvp.columncount",
+                    Integer.toString(values.length), Integer.toString(width)), "21S01");
+        }
+
+        rows.add(values.clone());
+    }
+
+    /**
+     * Removes all rows, keeping the column declarations.
+     */
+    public void clearRows() {
+        rows.clear();
+    }
+
+    /**
+     * Retrieves the name of the user defined table type.
+     *
+     * @return the table type name as a <code>String</code>
+     */
+    public String getTypeName() {
+        return typeName;
+    }
+
+    /**
+     * Retrieves the number of declared columns.
+     *
+     * @return the column count or 0 if no columns have been declared
+     */
+    public int getColumnCount() {
+        return columnNames.size();
+    }
+
+    /**
+     * Retrieves the number of rows added so far.
+     *
+     * @return the row count as an <code>int</code>
+     */
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    /**
+     * Appends the SQL required to declare the table variable
+     * <code>varName</code> and to populate it from the parameter
+     * <code>varName</code> + {@link #ROWS_SUFFIX} to the supplied buffer. The
+     * SQL only depends on the table type and the column declarations, not on
+     * the row data.
+     *
+     * @param buf     the buffer to append to
+     * @param varName the name of the table variable eg <code>@P0</code>
+     */
+    void appendDeclareSQL(StringBuilder buf, String varName) {
+        buf.append("DECLARE ").append(varName).append(' ').append(quotedTypeName).append('\n');
+
+        final int columnCount = getColumnCount();
+        final int width = (columnCount > 0 || rows.isEmpty())
+                ? columnCount : ((Object[]) rows.get(0)).length;
+
+        if (width == 0) {
+            // Nothing known about the table type, nothing to insert
+            return;
+        }
+
+        buf.append("INSERT INTO ").append(varName);
+
+        if (columnCount > 0) {
+            buf.append(" (");
+            for (int c = 0; c < columnCount; c++) {
+                if (c > 0) {
+                    buf.append(',');
+                }
+                buf.append('[').append(((String) columnNames.get(c)).replace("]", "]]")).append(']');
+            }
+            buf.append(')');
+        }
+
+        buf.append(" SELECT ");
+        for (int c = 0; c < width; c++) {
+            if (c > 0) {
+                buf.append(',');
+            }
+            if (isBinary(c)) {
+                buf.append("t.r.value('xs:hexBinary(@c").append(c).append(")','varbinary(max)')");
+            } else {
+                buf.append("t.r.value('@c").append(c).append("','nvarchar(max)')");
+            }
+        }
+        buf.append(" FROM (SELECT CAST(").append(varName).append(ROWS_SUFFIX)
+           .append(" AS xml) AS x) AS d CROSS APPLY d.x.nodes('/r') AS t(r)\n");
+    }
+
+    /**
+     * Creates the parameter holding the rows for the SQL built by
+     * {@link #appendDeclareSQL}. Each row is sent as an element
+     * <code>&lt;r c0="..." c1="..."/&gt;</code>, leaving out the attributes
+     * of <code>null</code> values. The document is generated row by row while
+     * the parameter is sent, so it is never held in memory as a whole.
+     *
+     * @param name       the name of the parameter or <code>null</code>
+     * @param connection the connection used to convert the row data
+     * @return the parameter descriptor
+     * @throws SQLException if a row value cannot be converted
+     */
+    ParamInfo getRowsParameter(String name, JtdsConnection connection)
+            throws SQLException {
+        // The length has to be known up front, so format the rows twice
+        StringBuilder buf = new StringBuilder();
+        int length = 0;
+
+        for (int i = 0; i < rows.size(); i++) {
+            buf.setLength(0);
+            appendRow(buf, (Object[]) rows.get(i), connection);
+            length += buf.length();
+        }
+
+        ParamInfo pi = new ParamInfo(Types.LONGVARCHAR,
+                (length == 0) ? (Object) "" : new RowReader(connection),
+                ParamInfo.UNICODE);
+        pi.name   = name;
+        pi.length = length;
+
+        return pi;
+    }
+
+    /**
+     * Determines whether the values of a column are sent as hex, either
+     * because the column has been declared binary or, if no columns have been
+     * declared, because its first non-null value is binary.
+     */
+    private boolean isBinary(int column) {
+        if (getColumnCount() > 0) {
+            switch (((Integer) columnTypes.get(column)).intValue()) {
+                case Types.BINARY:
+                case Types.VARBINARY:
+                case Types.LONGVARBINARY:
+                case Types.BLOB:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        for (int i = 0; i < rows.size(); i++) {
+            Object value = ((Object[]) rows.get(i))[column];
+
+            if (value != null) {
+                return value instanceof byte[] || value instanceof Blob;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Appends a row as an XML element to the supplied buffer.
+     */
+    private void appendRow(StringBuilder buf, Object[] row, JtdsConnection connection)
+            throws SQLException {
+        final int columnCount = getColumnCount();
+
+        buf.append("<r");
+        for (int c = 0; c < row.length; c++) {
+            Object value = row[c];
+
+            if (value != null && columnCount > 0) {
+                int jdbcType = ((Integer) columnTypes.get(c)).intValue();
+
+                if (jdbcType != Types.OTHER) {
+                    value = Support.convert(connection, value, jdbcType,
+                            connection.getCharset());
+                }
+            }
+
+            if (value != null) {
+                buf.append(" c").append(c).append("=\"");
+                appendXml(buf, format(value));
+                buf.append('"');
+            }
+        }
+        buf.append("/>");
+    }
+
+    /**
+     * Formats a value as a string the server converts to the column type.
+     */
+    private static String format(Object value) throws SQLException {
+        if (value instanceof Blob) {
+            Blob blob = (Blob) value;
+
+            value = blob.getBytes(1, (int) blob.length());
+        } else if (value instanceof Clob) {
+            Clob clob = (Clob) value;
+
+            value = clob.getSubString(1, (int) clob.length());
+        }
+
+        if (value instanceof byte[]) {
+            return Support.toHex((byte[]) value);
+        } else if (value instanceof java.sql.Timestamp) {
+            return new DateTime((java.sql.Timestamp) value).toString();
+        } else if (value instanceof java.sql.Date) {
+            return new DateTime((java.sql.Date) value).toString();
+        } else if (value instanceof java.sql.Time) {
+            return new DateTime((java.sql.Time) value).toString();
+        } else if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue() ? "1" : "0";
+        } else if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        } else if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+
+            if (!Double.isNaN(d) && !Double.isInfinite(d)) {
+                // No exponent, which decimal columns wouldn't accept
+                return new BigDecimal(value.toString()).toPlainString();
+            }
+        }
+
+        return value.toString();
+    }
+
+    /**
+     * Appends text to an XML attribute value, escaping markup and the
+     * whitespace characters attribute value normalization would replace.
+     */
+    private static void appendXml(StringBuilder buf, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            switch (c) {
+                case '&':
+                    buf.append("&amp;");
+                    break;
+                case '<':
+                    buf.append("&lt;");
+                    break;
+                case '"':
+                    buf.append("&quot;");
+                    break;
+                default:
+                    if (c < ' ') {
+                        buf.append("&#").append((int) c).append(';');
+                    } else {
+                        buf.append(c);
+                    }
+            }
+        }
+    }
+
+    /**
+     * Quotes a (optionally multi-part) object name with brackets. Parts that
+     * are already delimited by brackets are kept as they are.
+     *
+     * @param name the name to quote
+     * @return the quoted name
+     * @throws IllegalArgumentException if the name is malformed
+     */
+    static String quoteName(String name) {
+        StringBuilder buf = new StringBuilder(name.length() + 8);
+        int pos = 0;
+
+        while (true) {
+            if (pos < name.length() && name.charAt(pos) == '[') {
+                // Copy up to the closing bracket, "]]" is an escaped ']'
+                int end = pos + 1;
+
+                while (end < name.length()) {
+                    if (name.charAt(end) == ']') {
+                        if (end + 1 < name.length() && name.charAt(end + 1) == ']') {
+                            end += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    end++;
+                }
+
+                if (end == name.length()) {
+                    throw new IllegalArgumentException("Unterminated name: " + name);
+                }
+
+                buf.append(name, pos, end + 1);
+                pos = end + 1;
+            } else {
+                int end = name.indexOf('.', pos);
+
+                if (end < 0) {
+                    end = name.length();
+                }
+
+                // An empty part, as in db..type, stands for the default
+                if (end > pos) {
+                    buf.append('[').append(name.substring(pos, end).replace("]", "]]")).append(']');
+                }
+                pos = end;
+            }
+
+            if (pos == name.length()) {
+                return buf.toString();
+            }
+
+            if (name.charAt(pos) != '.') {
+                throw new IllegalArgumentException("Malformed name: " + name);
+            }
+
+            buf.append('.');
+            pos++;
+        }
+    }
+
+    /**
+     * Generates the XML document holding the rows, one row at a time.
+     */
+    private class RowReader extends Reader {
+        private final JtdsConnection connection;
+        private final StringBuilder row = new StringBuilder();
+        private int next;
+        private int pos;
+
+        RowReader(JtdsConnection connection) {
+            this.connection = connection;
+        }
+
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            while (pos == row.length()) {
+                if (next == rows.size()) {
+                    return -1;
+                }
+
+                row.setLength(0);
+                pos = 0;
+
+                try {
+                    appendRow(row, (Object[]) rows.get(next++), connection);
+                } catch (SQLException e) {
+                    IOException ioe = new IOException(e.getMessage());
+                    ioe.initCause(e);
+                    throw ioe;
+                }
+            }
+
+            int count = Math.min(len, row.length() - pos);
+            row.getChars(pos, pos + count, cbuf, off);
+            pos += count;
+
+            return count;
+        }
+
+        public void close() {
+            // Nothing to release
+        }
+    }
+}
@@ -196,6 +196,10 @@ public class TdsCore {
     public static final byte NTLMAUTH_PKT = 17;
     /** SQL 2000 prelogin negotiation packet. */
     public static final byte PRELOGIN_PKT = 18;
+    /** Packet status: last packet of the request. */
+    static final byte STATUS_EOM = 0x01;
+    /** Packet status: reset the connection before processing the request. */
+    static final byte STATUS_RESET_CONNECTION = 0x08;
     /** SSL Mode - Login packet must be encrypted. */
     public static final int SSL_ENCRYPT_LOGIN = 0;
     /** SSL Mode - Client requested force encryption. */
@@ -294,6 +298,12 @@ public class TdsCore {
     private static final byte TDS_ENV_LCID          = (byte) 5;
     /** Environment change: TDS 8 collation changed. */
     private static final byte TDS_ENV_SQLCOLLATION  = (byte) 7; // TDS8 Collation
+    /** Environment change: transaction started. */
+    private static final byte TDS_ENV_BEGINTRAN     = (byte) 8;
+    /** Environment change: transaction committed. */
+    private static final byte TDS_ENV_COMMITTRAN    = (byte) 9;
+    /** Environment change: transaction rolled back. */
+    private static final byte TDS_ENV_ROLLBACKTRAN  = (byte) 10;
 
     //
     // Static variables used only for performance
@@ -420,6 +430,16 @@ public class TdsCore {
     private ParamInfo[] parameters;
     /** The index of the next output parameter to populate. */
     private int nextParam = -1;
+    /** The statement cache key of the pending sp_prepexec call. */
+    private String prepExecKey;
+    /** The cache entry to receive the handle of a pending sp_prepexec call. */
+    private ProcEntry prepExecEntry;
+    /** The handle output parameter of the pending sp_prepexec call. */
+    private ParamInfo prepExecHandle;
+    /** The number of the session settings sent with the pending request or 0. */
+    private int sessionSequence;
+    /** An error occurred executing the session settings sent. */
+    private boolean sessionFailed;
     /** The head of the diagnostic messages chain. */
     private final SQLDiagnostic messages;
     /** Indicates that this object is closed. */
@@ -439,6 +459,16 @@ public class TdsCore {
     private boolean cancelPending;
     /** Synchronization monitor for {@link #cancelPending}. */
     private final int[] cancelMonitor = new int[1];
+    /** Cancels the current request when the query timeout expires. */
+    private final TimerThread.TimerListener queryTimeoutListener =
+            new TimerThread.TimerListener() {
+                public void timerExpired() {
+                    TdsCore.this.cancel(true);
+                }
+            };
+    /** Query timeout timer, reused for every request. */
+    private final Object queryTimer =
+            TimerThread.createTimer(queryTimeoutListener);
 
     /**
      * flag set to {@code true} whenever a TDS_ERROR token is received
@@ -950,6 +980,28 @@ public class TdsCore {
       messages.checkErrors();
    }
 
+   /**
+    * <p> Checks whether the server responds by sending an empty batch, which
+    * only returns a <code>DONE</code> token. </p>
+    *
+    * @param timeOut
+    *    the time to wait for the response in seconds or 0
+    *
+    * @throws SQLException
+    *    if the connection is broken or the server didn't respond in time
+    */
+   void ping( int timeOut )
+      throws SQLException
+   {
+      checkOpen();
+      messages.clearWarnings();
+
+      executeSQL( " ", null, null, false, timeOut, -1, -1, true );
+      clearResponseQueue();
+
+      messages.checkErrors();
+   }
+
     /**
      * Notifies the <code>TdsCore</code> that a batch is starting. This is so
      * that it knows to use <code>sp_executesql</code> for parameterized
@@ -988,6 +1040,8 @@ public class TdsCore {
             throws SQLException {
         boolean sendFailed = true; // Used to ensure mutex is released.
         _ErrorReceived = false; // reset error token flag
+        // Statements after the first of a batch are sent with the mutex held
+        boolean continued = connectionLock != null;
 
         try {
             //
@@ -995,21 +1049,12 @@ public class TdsCore {
             // to the network connection for this thread
             //
             if (connectionLock == null) {
-                connectionLock = connection.getMutex();
+                connectionLock = connection.getMutex(timeOut);
             }
             // Also checks if connection is open
             clearResponseQueue();
             messages.exceptions = null;
 
-            //
-            // Set the connection row count and text size if required.
-            // Once set these will not be changed within a
-            // batch so execution of the set rows query will
-            // only occur once a the start of a batch.
-            // No other thread can send until this one has finished.
-            //
-            setRowCountAndTextSize(maxRows, maxFieldSize);
-
             messages.clearWarnings();
             returnStatus = null;
             //
@@ -1069,6 +1114,17 @@ public class TdsCore {
                 }
             }
 
+            //
+            // Apply the session settings changed since the last request.
+            // Once set these will not be changed within a batch so this
+            // will only occur once at the start of a batch. No other thread
+            // can send until this one has finished.
+            //
+            if (!continued) {
+                sql = applySessionSettings(sql, procName, parameters,
+                                           maxRows, maxFieldSize);
+            }
+
             try {
                 switch (tdsVersion) {
                     case Driver.TDS42:
@@ -1111,6 +1167,13 @@ public class TdsCore {
                 connectionLock.release();
                 connectionLock = null;
             }
+            if (sendFailed) {
+                // No handle will be returned for a request not sent
+                clearPrepExec();
+                if (sessionSequence != 0) {
+                    completeSessionSettings(false);
+                }
+            }
             // Clear the in batch flag
             if (sendNow) {
                 inBatch = false;
@@ -1267,6 +1330,52 @@ public class TdsCore {
         return null;
     }
 
+    /**
+     * Requests the next execution of <code>sp_prepexec</code> on this object
+     * to prepare the statement for the specified cache entry. The handle is
+     * returned along with the results of the execution. Once the response has
+     * been processed it is stored in the entry, which is then added to the
+     * statement cache. If no handle is returned or the request can't be sent
+     * the entry is not cached, so the statement is prepared again by its next
+     * execution.
+     *
+     * @param key  the statement cache key of the entry
+     * @param proc the cache entry to receive the prepared statement handle
+     */
+    void prepareOnExecute(String key, ProcEntry proc) {
+        prepExecKey    = key;
+        prepExecEntry  = proc;
+        prepExecHandle = null;
+    }
+
+    /**
+     * Stores the handle returned by a completed <code>sp_prepexec</code> call
+     * in the entry it was requested for and queues the entry for the
+     * statement cache.
+     */
+    private void completePrepExec() {
+        Object handle = prepExecHandle.isSetOut ? prepExecHandle.outValue : null;
+
+        if (handle != null) {
+            prepExecEntry.setName(handle.toString());
+            prepExecEntry.setType(ProcEntry.PREPARE);
+            connection.addPreparedOnExecute(prepExecKey, prepExecEntry);
+        } else {
+            prepExecEntry.setType(ProcEntry.PREP_FAILED);
+        }
+
+        clearPrepExec();
+    }
+
+    /**
+     * Forgets the pending <code>sp_prepexec</code> call, if any.
+     */
+    private void clearPrepExec() {
+        prepExecKey    = null;
+        prepExecEntry  = null;
+        prepExecHandle = null;
+    }
+
     /**
      * Creates a light weight stored procedure on a Sybase server.
      *
@@ -1304,7 +1413,7 @@ public class TdsCore {
         Semaphore mutex = null;
 
         try {
-            mutex = connection.getMutex();
+            mutex = connection.getMutex(0);
 
             out.setPacketType(SYBQUERY_PKT);
             out.write(TDS5_DYNAMIC_TOKEN);
@@ -1367,7 +1476,7 @@ public class TdsCore {
 
         Semaphore mutex = null;
         try {
-            mutex = connection.getMutex();
+            mutex = connection.getMutex(0);
 
             out.setPacketType(SYBQUERY_PKT);
             out.write(TDS5_DYNAMIC_TOKEN);
@@ -1413,7 +1522,7 @@ public class TdsCore {
     synchronized byte[] enlistConnection(int type, byte[] oleTranID) throws SQLException {
         Semaphore mutex = null;
         try {
-            mutex = connection.getMutex();
+            mutex = connection.getMutex(0);
 
             out.setPacketType(MSDTC_PKT);
             out.write((short)type);
@@ -1473,15 +1582,15 @@ public class TdsCore {
      * Care is taken to ensure that <code>SQLException</code>s are chained
      * because there could be several errors reported in a batch.
      *
-     * @param counts the <code>ArrayList</code> containing the update counts
+     * @param counts the <code>BatchCounts</code> containing the update counts
      * @param sqlEx  any previous <code>SQLException</code>(s) encountered
      * @return updated <code>SQLException</code> or <code>null</code> if no
      *         error has yet occurred
      * @throws SQLException
      *         if the connection is closed
      */
-    SQLException getBatchCounts(ArrayList counts, SQLException sqlEx) throws SQLException {
-        Integer lastCount = JtdsStatement.SUCCESS_NO_INFO;
+    SQLException getBatchCounts(BatchCounts counts, SQLException sqlEx) throws SQLException {
+        int lastCount = JtdsStatement.SUCCESS_NO_INFO;
 
         try {
             checkOpen();
@@ -1504,7 +1613,7 @@ public class TdsCore {
                             counts.add(JtdsStatement.EXECUTE_FAILED);
                         } else {
                             if (currentToken.isUpdateCount()) {
-                                counts.add(new Integer(currentToken.updateCount));
+                                counts.add(currentToken.updateCount);
                             } else {
                                 counts.add(lastCount);
                             }
@@ -1515,7 +1624,7 @@ public class TdsCore {
                         if ((currentToken.status & DONE_ERROR) != 0) {
                             lastCount = JtdsStatement.EXECUTE_FAILED;
                         } else if (currentToken.isUpdateCount()) {
-                            lastCount = new Integer(currentToken.updateCount);
+                            lastCount = currentToken.updateCount;
                         }
                         break;
                     case TDS_DONEPROC_TOKEN:
@@ -2981,6 +3090,7 @@ public class TdsCore {
         if (currentToken.token == TDS_ERROR_TOKEN)
         {
            _ErrorReceived = true;
+           sessionFailed = true;
 
             if (severity < 10) {
                 severity = 11; // Ensure treated as error
@@ -3428,6 +3538,24 @@ public class TdsCore {
                     break;
                 }
 
+            case TDS_ENV_BEGINTRAN:
+                {
+                    // New value is the transaction descriptor
+                    int clen = in.read();
+                    byte descriptor[] = new byte[clen];
+                    in.read(descriptor);
+                    in.skip(len - 2 - clen);
+                    connection.setTransactionDescriptor(descriptor);
+                    break;
+                }
+
+            case TDS_ENV_COMMITTRAN:
+            case TDS_ENV_ROLLBACKTRAN:
+                    // Old value is the descriptor of the ended transaction
+                    in.skip(len - 1);
+                    connection.setTransactionDescriptor(null);
+                    break;
+
             default:
                 {
                     if (Logger.isActive()) {
@@ -3692,6 +3820,10 @@ public class TdsCore {
         //
         // Check for cancel ack
         //
+        if ((currentToken.status & (DONE_CANCEL | DONE_ERROR)) != 0) {
+            sessionFailed = true;
+        }
+
         if ((currentToken.status & DONE_CANCEL) != 0) {
             // Synchronize resetting of the cancelPending flag to ensure it
             // doesn't happen during the sending of a cancel request
@@ -3727,6 +3859,14 @@ public class TdsCore {
             //
             endOfResponse = !cancelPending;
 
+            if (endOfResponse && prepExecHandle != null) {
+                completePrepExec();
+            }
+
+            if (endOfResponse && sessionSequence != 0) {
+                completeSessionSettings(!sessionFailed);
+            }
+
             if (fatalError) {
                 // A fatal error has occured, the server has closed the
                 // connection
@@ -3985,7 +4125,49 @@ public class TdsCore {
             prepareSql = EXECUTE_SQL;
         }
 
-        if (procName == null) {
+        if (Support.hasTableValuedParameters(parameters)) {
+            // Table-valued parameters cannot be sent as RPC parameters with
+            // the TDS version used by jTDS. Declare them as table variables
+            // within the statement, populate them from parameters holding
+            // their rows and execute the statement via sp_executesql.
+            if (procName != null
+                    && (isPreparedProcedureName(procName) || tds8SpNames.get(procName) != null)) {
+                throw new SQLException(Messages.get("error.tvp.cursor"), "HY000");
+            }
+
+            ParamInfo[] params = new ParamInfo[2 + parameters.length];
+
+            for (int i = 0; i < parameters.length; i++) {
+                ParamInfo pi = parameters[i];
+
+                if (pi.isTableValued()) {
+                    pi = ((TableValuedParameter) pi.value).getRowsParameter(
+                            (pi.name == null) ? null : pi.name + TableValuedParameter.ROWS_SUFFIX,
+                            connection);
+                    TdsData.getNativeType(connection, pi);
+                }
+                params[2 + i] = pi;
+            }
+
+            params[0] = new ParamInfo(Types.LONGVARCHAR,
+                    Support.getTableValuedParameterSQL(sql, procName, parameters),
+                    ParamInfo.UNICODE);
+            TdsData.getNativeType(connection, params[0]);
+
+            params[1] = new ParamInfo(Types.LONGVARCHAR,
+                    Support.getTableValuedParameterDefinitions(parameters),
+                    ParamInfo.UNICODE);
+            TdsData.getNativeType(connection, params[1]);
+
+            parameters = params;
+
+            // Any return value is now an ordinary output parameter of the
+            // statement executed by sp_executesql
+            returnParam = null;
+            nextParam   = -1;
+
+            procName = "sp_executesql";
+        } else if (procName == null) {
             // No procedure name so not a callable statement and also
             // not a temporary stored procedure call.
             if (parameters != null) {
@@ -4020,7 +4202,40 @@ public class TdsCore {
         } else {
             // Either a stored procedure name has been supplied or this
             // statement should executed using a prepared statement handle
-            if (isPreparedProcedureName(procName)) {
+            if ("sp_prepexec".equals(procName) && prepExecEntry != null) {
+                // Prepare and execute the statement in a single call, the
+                // handle is returned as first output parameter
+                if (parameters == null) {
+                    parameters = new ParamInfo[0];
+                }
+
+                ParamInfo params[] = new ParamInfo[3 + parameters.length];
+                System.arraycopy(parameters, 0, params, 3, parameters.length);
+
+                params[0] = new ParamInfo(Types.INTEGER, null, ParamInfo.OUTPUT);
+                TdsData.getNativeType(connection, params[0]);
+
+                params[1] = new ParamInfo(Types.LONGVARCHAR,
+                        Support.getParameterDefinitions(parameters),
+                        ParamInfo.UNICODE);
+                TdsData.getNativeType(connection, params[1]);
+
+                params[2] = new ParamInfo(Types.LONGVARCHAR,
+                        Support.substituteParamMarkers(sql, parameters),
+                        ParamInfo.UNICODE);
+                TdsData.getNativeType(connection, params[2]);
+
+                parameters = params;
+
+                // The handle has to be matched with the first output value
+                this.parameters = params;
+                returnParam     = null;
+                nextParam       = -1;
+                prepExecHandle  = params[0];
+
+                // No column meta data has been cached for the handle yet
+                noMetaData = false;
+            } else if (isPreparedProcedureName(procName)) {
                 // If the procedure is a prepared handle then redefine the
                 // procedure name as sp_execute with the handle as a parameter.
                 ParamInfo params[];
@@ -4098,48 +4313,158 @@ public class TdsCore {
     }
 
     /**
-     * Sets the server row count (to limit the number of rows in a result set)
-     * and text size (to limit the size of returned TEXT/NTEXT fields).
+     * Sends the session settings changed since the last request, i.e. the
+     * auto commit mode, transaction isolation level, row count (to limit the
+     * number of rows in a result set) and text size (to limit the size of
+     * returned TEXT/NTEXT fields).
+     * <p/>
+     * Language requests carry the settings as a prefix of the SQL, so no
+     * additional round trip is required. RPC requests need a separate batch
+     * because settings made by <code>sp_executesql</code> and the like only
+     * last until the procedure returns, as do statements that have to be the
+     * first in a batch. If a reset of the connection is pending, the reset
+     * flag is sent with the settings.
+     * <p/>
+     * The connection only considers the settings applied once the response
+     * has been read without error; until then every request repeats them.
      *
-     * @param rowCount the number of rows to return or 0 for no limit or -1 to
-     *                 leave as is
-     * @param textSize the maximum number of bytes in a TEXT column to return
-     *                 or -1 to leave as is
+     * @param sql        the SQL statement or procedure name
+     * @param procName   the stored procedure to execute or <code>null</code>
+     * @param parameters the procedure parameters or <code>null</code>
+     * @param rowCount   the number of rows to return or 0 for no limit or -1
+     *                   to leave as is
+     * @param textSize   the maximum number of bytes in a TEXT column to
+     *                   return or -1 to leave as is
+     * @return the SQL to execute
      * @throws SQLException if an error is returned by the server
      */
-    private void setRowCountAndTextSize(int rowCount, int textSize)
+    private String applySessionSettings(String sql,
+                                        String procName,
+                                        ParamInfo[] parameters,
+                                        int rowCount,
+                                        int textSize)
             throws SQLException {
-        boolean newRowCount =
-                rowCount >= 0 && rowCount != connection.getRowCount();
-        boolean newTextSize =
-                textSize >= 0 && textSize != connection.getTextSize();
-        if (newRowCount || newTextSize) {
-            try {
-                StringBuilder query = new StringBuilder(64);
-                if (newRowCount) {
-                    query.append("SET ROWCOUNT ").append(rowCount);
-                }
-                if (newTextSize) {
-                    query.append(" SET TEXTSIZE ")
-                            .append(textSize == 0 ? 2147483647 : textSize);
-                }
-                out.setPacketType(QUERY_PKT);
-                out.write(query.toString());
-                out.flush();
-                endOfResponse = false;
-                endOfResults  = true;
-                wait(0);
-                clearResponseQueue();
-                messages.checkErrors();
-                // Update the values stored in the Connection
-                connection.setRowCount(rowCount);
-                connection.setTextSize(textSize);
-            } catch (IOException ioe) {
-                throw new SQLException(
-                            Messages.get("error.generic.ioerror",
-                                                    ioe.getMessage()), "08S01");
+        boolean reset = connection.isResetPending();
+        String sessionSql = connection.getSessionSql(rowCount, textSize);
+
+        if (reset) {
+            out.setResetConnection();
+            connection.resetSent();
+        }
+
+        if (sessionSql == null) {
+            return sql;
+        }
+
+        // Confirmed or discarded once the response has been processed
+        sessionSequence = connection.getSessionSequence();
+        sessionFailed = false;
+
+        boolean terminated = serverType == Driver.SQLSERVER
+                             && tdsVersion >= Driver.TDS70;
+        if (procName == null && parameters == null
+                && canPrefix(sql, terminated)) {
+            return sessionSql + sql;
+        }
+
+        try {
+            out.setPacketType(QUERY_PKT);
+            out.write(sessionSql);
+            out.flush();
+            endOfResponse = false;
+            endOfResults  = true;
+            wait(0);
+            clearResponseQueue();
+            messages.checkErrors();
+        } catch (IOException ioe) {
+            throw new SQLException(
+                        Messages.get("error.generic.ioerror",
+                                                ioe.getMessage()), "08S01");
+        }
+
+        return sql;
+    }
+
+    /**
+     * Reports the outcome of the request that carried the session settings
+     * to the connection. SQL Server executes no statement of a batch that
+     * fails to compile, so the settings are only known to be applied if the
+     * request completed without any error.
+     *
+     * @param applied <code>true</code> if no error occurred
+     */
+    private void completeSessionSettings(boolean applied) {
+        connection.sessionSettingsCompleted(sessionSequence, applied);
+        sessionSequence = 0;
+    }
+
+    /**
+     * Checks whether other statements may precede the SQL in the same batch.
+     * This is not the case for <code>CREATE</code> and <code>ALTER</code>
+     * statements of procedures, views, triggers and the like, so to be safe
+     * none of these is prefixed. Neither are the <code>SET SHOWPLAN</code>
+     * and <code>SET PARSEONLY</code> options, which have to be the only
+     * statement in a batch, nor <code>WITH</code>, <code>MERGE</code> and
+     * <code>THROW</code>, which require the preceding statement to be
+     * terminated; these are prefixed only if the settings end with a
+     * semicolon, as they do for SQL Server.
+     *
+     * @param sql        the SQL to check
+     * @param terminated <code>true</code> if the prefix ends with a semicolon
+     * @return <code>true</code> if the SQL may be prefixed
+     */
+    private static boolean canPrefix(String sql, boolean terminated) {
+        int len = sql.length();
+        int i = 0;
+
+        // Skip leading white space and comments
+        while (i < len) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (sql.startsWith("--", i)) {
+                int eol = sql.indexOf('\n', i);
+                i = eol < 0 ? len : eol + 1;
+            } else if (sql.startsWith("/*", i)) {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? len : end + 2;
+            } else {
+                break;
+            }
+        }
+
+        if (startsWithKeyword(sql, i, "create")
+                || startsWithKeyword(sql, i, "alter")) {
+            return false;
+        }
+
+        if (startsWithKeyword(sql, i, "set")) {
+            // Skip to the option name
+            i += 3;
+            while (i < len && Character.isWhitespace(sql.charAt(i))) {
+                i++;
             }
+            return !(startsWithKeyword(sql, i, "showplan_text")
+                     || startsWithKeyword(sql, i, "showplan_all")
+                     || startsWithKeyword(sql, i, "showplan_xml")
+                     || startsWithKeyword(sql, i, "parseonly"));
         }
+
+        return terminated
+               || !(startsWithKeyword(sql, i, "with")
+                    || startsWithKeyword(sql, i, "merge")
+                    || startsWithKeyword(sql, i, "throw"));
+    }
+
+    /**
+     * Checks whether a keyword, in any case, starts at the given position.
+     */
+    private static boolean startsWithKeyword(String sql, int pos, String keyword) {
+        int end = pos + keyword.length();
+
+        return sql.regionMatches(true, pos, keyword, 0, keyword.length())
+                && (end == sql.length()
+                    || !Character.isJavaIdentifierPart(sql.charAt(end)));
     }
 
     /**
@@ -4151,13 +4476,14 @@ public class TdsCore {
         Object timer = null;
         try {
             if (timeOut > 0) {
-                // Start a query timeout timer
-                timer = TimerThread.getInstance().setTimer(timeOut * 1000,
-                        new TimerThread.TimerListener() {
-                            public void timerExpired() {
-                                TdsCore.this.cancel(true);
-                            }
-                        });
+                // Start a query timeout timer, reusing this instance's timer
+                // unless it's already in use by another thread
+                TimerThread timerThread = TimerThread.getInstance();
+                timer = queryTimer;
+                if (!timerThread.startTimer(timer, timeOut * 1000)) {
+                    timer = timerThread.setTimer(timeOut * 1000,
+                                                 queryTimeoutListener);
+                }
             }
             in.peek();
         } finally {
@@ -1551,6 +1551,24 @@ public class TdsData {
 
                 break;
 
+            case Types.STRUCT:
+                if (!pi.isTableValued()
+                        || connection.getServerType() != Driver.SQLSERVER
+                        || connection.getDatabaseMajorVersion() < 10) {
+                    throw new SQLException(Messages.get(
+                            "error.tvp.notsupported"), "HY000");
+                }
+                if (pi.isOutput) {
+                    throw new SQLException(
+                            Messages.get("error.tvp.outparam"), "HY000");
+                }
+
+                // Never sent as a native parameter, see TableValuedParameter
+                pi.tdsType = 0;
+                pi.sqlType = ((TableValuedParameter) pi.value).getTypeName()
+                        + " READONLY";
+                break;
+
             case Types.OTHER:
             case Types.NULL:
                 // Send a null String in the absence of anything better
@@ -0,0 +1,292 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc.cache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p> Thread-safe cache for any type of object with a maximum size, based on
+ * a {@link ConcurrentHashMap}. </p>
+ *
+ * <p> Unlike {@link SimpleLRUCache}, lookups don't acquire any lock and don't
+ * modify shared structures other than a per entry reference flag. Entries are
+ * evicted using the CLOCK (second chance) algorithm, an approximation of LRU:
+ * the eviction scan clears the reference flag of recently used entries and
+ * removes the first entry found that has not been used since the last scan.
+ * The scan is only run by a single thread at a time, concurrent updates that
+ * find the scan in progress simply skip it and leave the cleanup to the
+ * thread performing it. </p>
+ */
+public class ConcurrentClockCache<K,V>
+{
+
+   // private inner class Node /////////////////////////////////////////////////
+
+   /**
+    * cached value and its reference flag
+    */
+   private static final class Node<V>
+   {
+
+      /**
+       * the cached value
+       */
+      final V          _Value;
+
+      /**
+       * {@code true} if the entry has been used since the last eviction scan
+       */
+      volatile boolean _Referenced;
+
+      Node( V value )
+      {
+         _Value = value;
+      }
+
+   }
+
+   // private instance fields //////////////////////////////////////////////////
+
+   /**
+    * map backing the cache
+    */
+   private final ConcurrentHashMap<K,Node<V>> _Map;
+
+   /**
+    * lock guarding the eviction scan
+    */
+   private final ReentrantLock                _EvictLock = new ReentrantLock();
+
+   /**
+    * number of successful lookups
+    */
+   private final AtomicLong                   _Hits      = new AtomicLong();
+
+   /**
+    * number of failed lookups
+    */
+   private final AtomicLong                   _Misses    = new AtomicLong();
+
+   /**
+    * current position of the eviction scan, guarded by {@link #_EvictLock}
+    */
+   private Iterator<Map.Entry<K,Node<V>>>     _Hand;
+
+   /**
+    * maximum number of entries in this cache
+    */
+   private volatile int                       _Limit;
+
+   // public constructors //////////////////////////////////////////////////////
+
+   /**
+    * <p> Constructs a new cache with a limited capacity. </p>
+    *
+    * @param limit
+    *    maximum number of entries in this cache
+    */
+   public ConcurrentClockCache( int limit )
+   {
+      _Limit = limit;
+      _Map   = new ConcurrentHashMap<K,Node<V>>( Math.min( limit, 1024 ) + 16 );
+   }
+
+   // public methods ///////////////////////////////////////////////////////////
+
+   /**
+    * <p> Get the value associated with the given key, if any. </p>
+    *
+    * @param key
+    *    the key whose associated value is to be returned
+    *
+    * @return
+    *    the value to which the specified key is mapped, or {@code null} if this
+    *    cache contains no mapping for the key
+    */
+   public V get( K key )
+   {
+      Node<V> node = _Map.get( key );
+
+      if( node == null )
+      {
+         _Misses.incrementAndGet();
+         return null;
+      }
+
+      // avoid writing to the shared cache line if the flag is already set
+      if( ! node._Referenced )
+         node._Referenced = true;
+
+      _Hits.incrementAndGet();
+      return node._Value;
+   }
+
+   /**
+    * <p> Updates the cache by adding a new entry, evicting entries not used
+    * recently if the cache exceeds its maximum size. </p>
+    *
+    * @param key
+    *    key with which the specified value is to be associated
+    *
+    * @param value
+    *    value to be associated with the specified key, must not be
+    *    {@code null}
+    *
+    * @return
+    *    previous value associated with key or {@code null} if there was no
+    *    mapping for key
+    */
+   public V put( K key, V value )
+   {
+      Node<V> old = _Map.put( key, new Node<V>( value ) );
+
+      if( _Map.size() > _Limit )
+         evict();
+
+      return old == null ? null : old._Value;
+   }
+
+   /**
+    * <p> Removes the entry for the given key, but only if it is still mapped
+    * to the given value. </p>
+    *
+    * @param key
+    *    key of the entry to remove
+    *
+    * @param value
+    *    value expected to be associated with the key
+    *
+    * @return
+    *    {@code true} if the entry has been removed
+    */
+   public boolean remove( K key, V value )
+   {
+      Node<V> node = _Map.get( key );
+      return node != null && node._Value == value && _Map.remove( key, node );
+   }
+
+   /**
+    * <p> Ensures the maximum size of this cache is at least the given number
+    * of entries. </p>
+    *
+    * @param limit
+    *    the minimum number of entries this cache should be able to hold
+    */
+   public void ensureLimit( int limit )
+   {
+      // the limit never shrinks, so there is no need to evict entries here
+      if( limit > _Limit )
+      {
+         synchronized( this )
+         {
+            if( limit > _Limit )
+               _Limit = limit;
+         }
+      }
+   }
+
+   /**
+    * <p> Get the maximum number of entries in this cache. </p>
+    */
+   public int getLimit()
+   {
+      return _Limit;
+   }
+
+   /**
+    * <p> Get the number of entries currently in this cache. </p>
+    */
+   public int size()
+   {
+      return _Map.size();
+   }
+
+   /**
+    * <p> Get the number of lookups that found a cached value. </p>
+    */
+   public long getHitCount()
+   {
+      return _Hits.get();
+   }
+
+   /**
+    * <p> Get the number of lookups that didn't find a cached value. </p>
+    */
+   public long getMissCount()
+   {
+      return _Misses.get();
+   }
+
+   /**
+    * <p> Removes all entries from this cache and resets the statistics. </p>
+    */
+   public void clear()
+   {
+      _Map.clear();
+      _Hits.set( 0 );
+      _Misses.set( 0 );
+   }
+
+   // private methods //////////////////////////////////////////////////////////
+
+   /**
+    * <p> Evicts entries until the cache doesn't exceed its maximum size. If
+    * another thread is already doing so, this method returns immediately.
+    * </p>
+    */
+   private void evict()
+   {
+      if( ! _EvictLock.tryLock() )
+         return;
+
+      try
+      {
+         // two full rounds are sufficient to evict any entry, the bound
+         // only protects against entries being added faster than removed
+         int steps = 2 * _Map.size() + 1;
+
+         while( _Map.size() > _Limit && steps -- > 0 )
+         {
+            if( _Hand == null || ! _Hand.hasNext() )
+            {
+               _Hand = _Map.entrySet().iterator();
+
+               if( ! _Hand.hasNext() )
+                  break;
+            }
+
+            Map.Entry<K,Node<V>> entry = _Hand.next();
+            Node<V> node = entry.getValue();
+
+            if( node._Referenced )
+               node._Referenced = false;
+            else
+               _Map.remove( entry.getKey(), node );
+         }
+      }
+      finally
+      {
+         _EvictLock.unlock();
+      }
+   }
+
+}
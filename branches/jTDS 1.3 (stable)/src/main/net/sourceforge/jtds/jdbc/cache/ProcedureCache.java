@@ -19,25 +19,37 @@ package net.sourceforge.jtds.jdbc.cache;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.sourceforge.jtds.jdbc.ProcEntry;
 
 /**
- * LRU cache for procedures and statement handles.
+ * Frequency aware cache for procedures and statement handles.
+ * <p/>
+ * Lookups are lock free, only insertions and removals are synchronized. The
+ * access frequency of each key (including lookups that missed) is recorded in
+ * an approximate, aging frequency sketch. To make room, a few unused entries
+ * are sampled, starting at a clock hand that moves around the cached entries,
+ * and the least frequently used one is evicted. A newly added entry is only
+ * admitted at the expense of an existing one if it has been used at least as
+ * frequently; otherwise it is remembered and evicted first once no longer in
+ * use. This way
+ * one-off ad-hoc SQL cannot flush the handles of frequently executed
+ * statements, as it would with a plain LRU policy.
  *
  * @version $Id: ProcedureCache.java,v 1.5 2005-07-05 16:44:25 alin_sinpalean Exp $
  */
 public class ProcedureCache implements StatementCache {
 
     /**
-     * Encapsulates the cached Object and implements the linked list used to
-     * implement the LRU logic.
+     * Encapsulates the cached Object and implements the circular linked list
+     * traversed by the clock hand.
      */
     private static class CacheEntry {
-        String key;
-        ProcEntry value;
+        final String key;
+        final ProcEntry value;
         CacheEntry next;
         CacheEntry prior;
 
@@ -74,18 +86,115 @@ public class ProcedureCache implements StatementCache {
         }
     }
 
+    /**
+     * Approximate, aging access frequency counter for keys (a count-min
+     * sketch with four 4-bit counters per key). Updates are not synchronized,
+     * lost updates merely make the approximation slightly less accurate.
+     */
+    private static class FrequencySketch {
+        /** Seeds of the four hash functions. */
+        private static final int[] SEEDS = {
+            0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F
+        };
+        /** The counters. */
+        private final byte[] table;
+        /** Mask to map a hash value into the table. */
+        private final int mask;
+        /** Number of increments after which all counters are halved. */
+        private final int sampleSize;
+        /** Number of increments since the counters were last halved. */
+        private int additions;
+
+        /**
+         * Constructs a new sketch.
+         *
+         * @param capacity the maximum number of cached entries
+         */
+        FrequencySketch(int capacity) {
+            int size = Integer.highestOneBit(Math.max(capacity, 16) * 8 - 1) << 1;
+            table = new byte[size];
+            mask = size - 1;
+            sampleSize = size * 2;
+        }
+
+        /**
+         * Retrieves the index of a key's counter for one of the hash functions.
+         */
+        private int indexOf(int hash, int i) {
+            int h = hash * SEEDS[i];
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        /**
+         * Records an access to a key.
+         *
+         * @param hash the key's hash code
+         */
+        void increment(int hash) {
+            boolean added = false;
+
+            for (int i = 0; i < SEEDS.length; i++) {
+                int index = indexOf(hash, i);
+
+                if (table[index] < MAX_FREQUENCY) {
+                    table[index]++;
+                    added = true;
+                }
+            }
+
+            if (added && ++additions >= sampleSize) {
+                // Age all counters, so that frequencies reflect recent usage
+                additions = 0;
+
+                for (int i = 0; i < table.length; i++) {
+                    table[i] >>= 1;
+                }
+            }
+        }
+
+        /**
+         * Retrieves the estimated access frequency of a key.
+         *
+         * @param hash the key's hash code
+         * @return the estimated frequency, at most {@link #MAX_FREQUENCY}
+         */
+        int frequency(int hash) {
+            int frequency = MAX_FREQUENCY;
+
+            for (int i = 0; i < SEEDS.length; i++) {
+                frequency = Math.min(frequency, table[indexOf(hash, i)]);
+            }
+
+            return frequency;
+        }
+    }
+
     /** The maximum initial HashMap size. */
     private static final int MAX_INITIAL_SIZE = 50;
+    /** The maximum access frequency recorded for a key. */
+    private static final int MAX_FREQUENCY = 15;
+    /** The number of unused entries examined to select an eviction victim. */
+    private static final int EVICTION_SAMPLES = 8;
     /** The actual cache instance. */
-    private HashMap cache;
+    private final ConcurrentHashMap cache;
     /** Maximum cache size or 0 to disable. */
     int cacheSize;
-    /** Head node of the linked list. */
+    /** Head node of the circular linked list. */
     CacheEntry head;
-    /** Tail node of the linked list. */
-    CacheEntry tail;
+    /** The clock hand, the next entry to be examined for eviction. */
+    CacheEntry hand;
     /** List of redundant cache entries. */
     ArrayList free;
+    /** Entries not admitted, to be evicted first once no longer in use. */
+    private final ArrayList rejected = new ArrayList();
+    /** Access frequencies of recently used keys. */
+    private final FrequencySketch sketch;
+    /** Number of lookups that found an entry. */
+    private final AtomicLong hits = new AtomicLong();
+    /** Number of lookups that did not find an entry. */
+    private final AtomicLong misses = new AtomicLong();
+    /** Number of entries evicted to bring down the cache size. */
+    private final AtomicLong evictions = new AtomicLong();
 
     /**
      * Constructs a new statement cache.
@@ -94,36 +203,37 @@ public class ProcedureCache implements StatementCache {
      */
     public ProcedureCache(int cacheSize) {
         this.cacheSize = cacheSize;
-        cache = new HashMap(Math.min(MAX_INITIAL_SIZE, cacheSize) + 1);
+        cache = new ConcurrentHashMap(Math.min(MAX_INITIAL_SIZE, cacheSize) + 1);
         head  = new CacheEntry(null, null);
-        tail  = new CacheEntry(null, null);
-        head.next = tail;
-        tail.prior = head;
+        head.next = head;
+        head.prior = head;
+        hand = head;
         free = new ArrayList();
+        sketch = new FrequencySketch(cacheSize);
     }
 
     /**
      * Retrieves a ProcEntry object from the cache.
      * <p/>
-     * If the entry exists it is moved to the front of the linked list to keep
-     * it alive as long as possible.
+     * The access is recorded to keep frequently used entries alive as long as
+     * possible. This method does not block.
      *
      * @param key the key value identifying the required entry
      * @return the keyed entry as an <code>Object</code> or null if the entry
      *         does not exist
      */
-    public synchronized Object get(String key) {
+    public Object get(String key) {
+        sketch.increment(key.hashCode());
+
         CacheEntry ce = (CacheEntry) cache.get(key);
-        if (ce != null) {
-            // remove entry from linked list
-            ce.unlink();
-            // Relink at Head
-            ce.link(head);
-            // Increment usage count
-            ce.value.addRef();
 
+        // Increment usage count, unless the entry is just being evicted
+        if (ce != null && ce.value.addRef()) {
+            hits.incrementAndGet();
             return ce.value;
         }
+
+        misses.incrementAndGet();
         return null;
     }
 
@@ -142,11 +252,21 @@ public class ProcedureCache implements StatementCache {
 
         // Add new entry to cache
         CacheEntry ce = new CacheEntry(key, (ProcEntry) handle);
-        cache.put(key, ce);
-        ce.link(head);
+
+        CacheEntry old = (CacheEntry) cache.put(key, ce);
+        if (old != null) {
+            unlink(old);
+            // Drop the replaced entry unless it's still in use
+            if (old.value != handle && old.value.evict()) {
+                free.add(old.value);
+            }
+        }
+
+        // Link behind the clock hand, i.e. examine the new entry last
+        ce.link(hand.prior);
 
         // See if we need to scavenge some existing entries
-        scavengeCache();
+        scavengeCache(ce);
     }
 
     /**
@@ -155,12 +275,10 @@ public class ProcedureCache implements StatementCache {
      * @param key value that identifies the cache entry
      */
     public synchronized void remove(String key) {
-        CacheEntry ce = (CacheEntry) cache.get(key);
+        CacheEntry ce = (CacheEntry) cache.remove(key);
         if (ce != null) {
             // remove entry from linked list
-            ce.unlink();
-            // Remove from HashMap
-            cache.remove(key);
+            unlink(ce);
         }
     }
 
@@ -183,7 +301,7 @@ public class ProcedureCache implements StatementCache {
         }
 
         // Scavenge some existing entries
-        scavengeCache();
+        scavengeCache(null);
 
         if (free.size() > 0) {
             // There are redundant entries to drop
@@ -196,26 +314,141 @@ public class ProcedureCache implements StatementCache {
         }
     }
 
+    /**
+     * Retrieves the number of lookups that found a cached entry.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Retrieves the number of lookups that did not find a cached entry.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Retrieves the number of entries evicted to bring down the cache size.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Retrieves the number of cached entries.
+     *
+     * @return the current cache size
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Unlinks an entry from the circular list, advancing the clock hand if it
+     * points to the entry.
+     *
+     * @param ce the entry to unlink
+     */
+    private void unlink(CacheEntry ce) {
+        if (hand == ce) {
+            hand = ce.next;
+        }
+        ce.unlink();
+    }
+
     /**
      * Removes unused entries trying to bring down the cache to the requested
      * size. The removed entries are placed in the {@link #free} list.
      * <p/>
+     * Entries that were not admitted are evicted first, as soon as they are
+     * no longer in use. Then for each entry to remove up to
+     * {@link #EVICTION_SAMPLES} unused entries following the clock hand are
+     * examined and the least frequently used one is evicted, unless it has
+     * been used more frequently than the entry just added, in which case the
+     * new entry is not admitted at its expense but added to the
+     * {@link #rejected} list.
+     * <p/>
      * <b>Note:</b> entries that are in use will not be removed so it is
      * possible for the cache to still be larger than {@link #cacheSize} after
      * the call finishes.
+     *
+     * @param candidate the entry just added or <code>null</code>
      */
-    private void scavengeCache() {
-        CacheEntry ce = tail.prior;
-        while (ce != head && cache.size() > cacheSize) {
-            if (ce.value.getRefCount() == 0) {
-                // remove entry from linked list
-                ce.unlink();
-                // Add to free list for reclaiming
-                free.add(ce.value);
-                // Remove from HashMap
-                cache.remove(ce.key);
+    private void scavengeCache(CacheEntry candidate) {
+        for (Iterator iterator = rejected.iterator(); iterator.hasNext();) {
+            CacheEntry ce = (CacheEntry) iterator.next();
+
+            if (cache.size() <= cacheSize || cache.get(ce.key) != ce) {
+                // There's room after all or the entry is gone already
+                iterator.remove();
+            } else if (ce.value.getRefCount() == 0) {
+                iterator.remove();
+                evict(ce);
+            }
+        }
+
+        while (cache.size() > cacheSize) {
+            CacheEntry victim = null;
+            int victimFrequency = 0;
+            int samples = 0;
+            // Examine each entry at most once
+            int steps = cache.size() + 1;
+            CacheEntry ce = hand;
+
+            for (; steps > 0 && samples < EVICTION_SAMPLES; steps--, ce = ce.next) {
+                if (ce == head || ce == candidate || ce.value.getRefCount() > 0) {
+                    continue;
+                }
+
+                int frequency = sketch.frequency(ce.key.hashCode());
+                if (victim == null || frequency < victimFrequency) {
+                    victim = ce;
+                    victimFrequency = frequency;
+                }
+                samples++;
+            }
+
+            // Continue sampling where we stopped next time
+            hand = ce;
+
+            if (victim == null) {
+                // All entries are in use
+                return;
             }
-            ce = ce.prior;
+
+            if (candidate != null
+                    && victimFrequency > sketch.frequency(candidate.key.hashCode())) {
+                // The new entry is used less frequently, evict it instead
+                // once released
+                rejected.add(candidate);
+                return;
+            }
+
+            evict(victim);
+        }
+    }
+
+    /**
+     * Evicts an entry, unless it has just been taken into use.
+     *
+     * @param ce the entry to evict
+     */
+    private void evict(CacheEntry ce) {
+        if (ce.value.evict()) {
+            // remove entry from linked list
+            unlink(ce);
+            // Add to free list for reclaiming
+            free.add(ce.value);
+            // Remove from HashMap
+            cache.remove(ce.key);
+            evictions.incrementAndGet();
         }
     }
 }
@@ -99,4 +99,22 @@ public class SimpleLRUCache<K,V>
       return _Map.get( key );
    }
 
+   /**
+    * <p> Removes the mapping for the given key, if any. </p>
+    *
+    * @see
+    *    java.util.Map#remove(Object)
+    *
+    * @param key
+    *    the key whose mapping is to be removed
+    *
+    * @return
+    *    the value previously associated with the key, or {@code null} if
+    *    there was no mapping for the key
+    */
+   public synchronized V remove( K key )
+   {
+      return _Map.remove( key );
+   }
+
 }
\ No newline at end of file
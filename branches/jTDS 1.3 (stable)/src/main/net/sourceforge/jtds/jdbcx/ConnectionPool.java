@@ -0,0 +1,738 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbcx;
+
+import java.lang.ref.WeakReference;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.sourceforge.jtds.jdbc.JtdsConnection;
+import net.sourceforge.jtds.jdbc.Messages;
+import net.sourceforge.jtds.util.Logger;
+
+/**
+ * <p> The connection pool behind a {@link JtdsPoolingDataSource}. </p>
+ *
+ * <p> Physical connections are wrapped into {@link PoolEntry} instances, which
+ * are {@link PooledConnection}s handing out the usual
+ * {@link net.sourceforge.jtds.jdbcx.proxy.ConnectionProxy} as logical
+ * connection. Closing the proxy fires the connection closed event, which
+ * returns the entry to the pool directly instead of going through a listener.
+ * </p>
+ *
+ * <p> Borrowing doesn't take any lock as long as an idle connection is
+ * available: each entry carries an atomic state and is claimed by a
+ * compare-and-set. A thread first tries the connection it used last, which
+ * is usually still idle and avoids contention between threads, then scans
+ * all entries. Only if the pool is exhausted the borrowing thread waits for a
+ * connection to be returned. </p>
+ *
+ * <p> A background task evicts connections that have been idle for too long
+ * or exceeded their maximum lifetime and keeps the pool filled up to its
+ * minimum size. </p>
+ */
+final class ConnectionPool implements Runnable
+{
+
+   // package-private inner class PoolEntry ////////////////////////////////////
+
+   /**
+    * physical connection held by the pool
+    */
+   static final class PoolEntry extends PooledConnection
+   {
+
+      /**
+       * the entry is available for borrowing
+       */
+      static final int      IDLE    = 0;
+
+      /**
+       * the entry is borrowed or being checked
+       */
+      static final int      IN_USE  = 1;
+
+      /**
+       * the entry has been removed from the pool
+       */
+      static final int      REMOVED = -1;
+
+      /**
+       * current state of this entry
+       */
+      final AtomicInteger   _State  = new AtomicInteger( IN_USE );
+
+      /**
+       * time the physical connection has been created
+       */
+      final long            _Created = System.currentTimeMillis();
+
+      /**
+       * the owning pool
+       */
+      private final ConnectionPool _Pool;
+
+      /**
+       * the catalog, isolation level and read-only state after connecting,
+       * restored when the connection is returned
+       */
+      private final String  _Catalog;
+      private final int     _Isolation;
+
+      /**
+       * time the connection has been returned to the pool the last time
+       */
+      volatile long         _LastUsed = _Created;
+
+      PoolEntry( ConnectionPool pool, Connection connection )
+         throws SQLException
+      {
+         super( connection );
+         _Pool      = pool;
+         _Catalog   = connection.getCatalog();
+         _Isolation = connection.getTransactionIsolation();
+      }
+
+      /**
+       * <p> Returns the entry to the pool if the logical connection has been
+       * closed or removes it if the physical connection is broken, then
+       * notifies any registered listeners. </p>
+       */
+      @Override
+      public void fireConnectionEvent( boolean closed, SQLException sqlException )
+      {
+         if( closed )
+         {
+            _Pool.release( this );
+         }
+         else if( isBroken() )
+         {
+            _Pool.remove( this );
+         }
+
+         super.fireConnectionEvent( closed, sqlException );
+      }
+
+      /**
+       * <p> Get the physical connection. </p>
+       */
+      synchronized Connection getPhysicalConnection()
+      {
+         return connection;
+      }
+
+      /**
+       * <p> Checks whether the physical connection has been closed, either by
+       * the pool or due to a fatal error. </p>
+       */
+      boolean isBroken()
+      {
+         Connection con = getPhysicalConnection();
+
+         try
+         {
+            return con == null || con.isClosed();
+         }
+         catch( SQLException e )
+         {
+            return true;
+         }
+      }
+
+      /**
+       * <p> Restores the state of the physical connection after it has been
+       * used, rolling back any pending transaction. SQL Server connections
+       * are marked for a reset carried out by the server along with the next
+       * request. </p>
+       *
+       * @return
+       *    {@code true} if the connection can be reused
+       */
+      boolean reset()
+      {
+         Connection con = getPhysicalConnection();
+
+         try
+         {
+            if( con == null || con.isClosed() )
+               return false;
+
+            // resyncs the cached state of SQL Server connections, making the
+            // explicit resets below no-ops
+            if( con instanceof JtdsConnection )
+               ( (JtdsConnection) con ).resetConnection();
+
+            if( ! con.getAutoCommit() )
+            {
+               con.rollback();
+               con.setAutoCommit( true );
+            }
+
+            if( _Catalog != null && ! _Catalog.equals( con.getCatalog() ) )
+               con.setCatalog( _Catalog );
+
+            if( con.getTransactionIsolation() != _Isolation )
+               con.setTransactionIsolation( _Isolation );
+
+            if( con.isReadOnly() )
+               con.setReadOnly( false );
+
+            con.clearWarnings();
+            return true;
+         }
+         catch( SQLException e )
+         {
+            Logger.logException( e );
+            return false;
+         }
+      }
+
+   }
+
+   // private static fields ////////////////////////////////////////////////////
+
+   /**
+    * interval of the background task in milliseconds
+    */
+   private static final long HOUSEKEEPING_INTERVAL = 30000;
+
+   /**
+    * executor running the background tasks of all pools
+    */
+   private static ScheduledExecutorService _Housekeeper;
+
+   // private instance fields //////////////////////////////////////////////////
+
+   /**
+    * data source providing configuration and physical connections
+    */
+   private final JtdsPoolingDataSource                  _DataSource;
+
+   /**
+    * all entries of the pool, idle or not
+    */
+   private final CopyOnWriteArrayList<PoolEntry>        _Entries  = new CopyOnWriteArrayList<PoolEntry>();
+
+   /**
+    * the entry last used by each thread
+    */
+   private final ThreadLocal<WeakReference<PoolEntry>>  _Affinity = new ThreadLocal<WeakReference<PoolEntry>>();
+
+   /**
+    * number of entries, including those being created
+    */
+   private final AtomicInteger                          _Total    = new AtomicInteger();
+
+   /**
+    * number of threads waiting for a connection
+    */
+   private final AtomicInteger                          _Waiters  = new AtomicInteger();
+
+   /**
+    * lock and condition used by threads waiting for a connection
+    */
+   private final ReentrantLock                          _Lock      = new ReentrantLock();
+   private final Condition                              _Available = _Lock.newCondition();
+
+   /**
+    * statistics
+    */
+   private final AtomicLong                             _Borrowed           = new AtomicLong();
+   private final AtomicLong                             _Connected          = new AtomicLong();
+   private final AtomicLong                             _Timeouts           = new AtomicLong();
+   private final AtomicLong                             _ValidationFailures = new AtomicLong();
+
+   /**
+    * the scheduled background task
+    */
+   private final ScheduledFuture<?>                     _Task;
+
+   /**
+    * set once the pool has been closed
+    */
+   private volatile boolean                             _Closed;
+
+   // constructors /////////////////////////////////////////////////////////////
+
+   /**
+    * <p> Creates a new pool. </p>
+    *
+    * @param dataSource
+    *    data source providing the configuration and physical connections
+    */
+   ConnectionPool( JtdsPoolingDataSource dataSource )
+   {
+      _DataSource = dataSource;
+      _Task       = getHousekeeper().scheduleWithFixedDelay( this, 0, HOUSEKEEPING_INTERVAL, TimeUnit.MILLISECONDS );
+   }
+
+   // package-private methods //////////////////////////////////////////////////
+
+   /**
+    * <p> Borrows a connection from the pool, waiting up to the configured
+    * connection timeout if the pool is exhausted. </p>
+    *
+    * @return
+    *    a logical connection, closing it returns the physical connection to
+    *    the pool
+    *
+    * @throws SQLException
+    *    if the pool has been closed, no connection became available in time
+    *    or a new connection couldn't be created
+    */
+   Connection borrow()
+      throws SQLException
+   {
+      int  timeout  = _DataSource.getConnectionTimeout();
+      long deadline = System.currentTimeMillis() + timeout * 1000L;
+
+      for( ;; )
+      {
+         if( _Closed )
+            throw new SQLException( Messages.get( "error.jdbcx.poolclosed" ), "08003" );
+
+         PoolEntry entry = acquire();
+
+         if( entry == null && reserve() )
+         {
+            entry = create();
+         }
+
+         if( entry != null )
+         {
+            if( isUsable( entry ) )
+            {
+               Connection connection;
+
+               try
+               {
+                  connection = entry.getConnection();
+               }
+               catch( RuntimeException e )
+               {
+                  remove( entry );
+                  throw e;
+               }
+
+               _Borrowed.incrementAndGet();
+               _Affinity.set( new WeakReference<PoolEntry>( entry ) );
+               return connection;
+            }
+
+            remove( entry );
+            continue;
+         }
+
+         long wait = deadline - System.currentTimeMillis();
+
+         if( wait <= 0 )
+         {
+            _Timeouts.incrementAndGet();
+            throw new SQLException( Messages.get( "error.jdbcx.pooltimeout", String.valueOf( timeout ), String.valueOf( _Total.get() ) ), "08001" );
+         }
+
+         await( wait );
+      }
+   }
+
+   /**
+    * <p> Returns a connection to the pool after its logical connection has
+    * been closed. </p>
+    */
+   void release( PoolEntry entry )
+   {
+      if( entry._State.get() != PoolEntry.IN_USE )
+         return;
+
+      if( _Closed || isExpired( entry, System.currentTimeMillis() ) || ! entry.reset() )
+      {
+         remove( entry );
+         return;
+      }
+
+      entry._LastUsed = System.currentTimeMillis();
+      entry._State.set( PoolEntry.IDLE );
+      signal();
+   }
+
+   /**
+    * <p> Removes an entry from the pool and closes its physical connection.
+    * </p>
+    */
+   void remove( PoolEntry entry )
+   {
+      if( entry._State.getAndSet( PoolEntry.REMOVED ) == PoolEntry.REMOVED )
+         return;
+
+      _Entries.remove( entry );
+      _Total.decrementAndGet();
+
+      try
+      {
+         entry.close();
+      }
+      catch( SQLException e )
+      {
+         // the connection is discarded anyway
+      }
+
+      signal();
+   }
+
+   /**
+    * <p> Closes all idle connections and prevents further borrowing.
+    * Connections in use are closed when they are returned. </p>
+    */
+   void close()
+   {
+      _Closed = true;
+      _Task.cancel( false );
+
+      for( PoolEntry entry : _Entries )
+      {
+         if( entry._State.compareAndSet( PoolEntry.IDLE, PoolEntry.IN_USE ) )
+            remove( entry );
+      }
+
+      _Lock.lock();
+
+      try
+      {
+         _Available.signalAll();
+      }
+      finally
+      {
+         _Lock.unlock();
+      }
+   }
+
+   /**
+    * <p> Evicts idle and expired connections and fills the pool up to its
+    * minimum size. Called periodically by the background task. </p>
+    */
+   public void run()
+   {
+      if( _Closed )
+         return;
+
+      try
+      {
+         long now         = System.currentTimeMillis();
+         long idleTimeout = _DataSource.getIdleTimeout() * 1000L;
+
+         for( PoolEntry entry : _Entries )
+         {
+            // claim the entry so it can't be borrowed while being checked
+            if( ! entry._State.compareAndSet( PoolEntry.IDLE, PoolEntry.IN_USE ) )
+               continue;
+
+            boolean idle = idleTimeout > 0 && now - entry._LastUsed >= idleTimeout
+                        && _Total.get() > _DataSource.getMinPoolSize();
+
+            if( idle || isExpired( entry, now ) || entry.isBroken() )
+            {
+               remove( entry );
+            }
+            else
+            {
+               entry._State.set( PoolEntry.IDLE );
+               signal();
+            }
+         }
+
+         while( ! _Closed && _Total.get() < _DataSource.getMinPoolSize() && reserve() )
+         {
+            release( create() );
+         }
+      }
+      catch( Throwable t )
+      {
+         // don't let the scheduled task die, just retry next time
+         Logger.println( "jTDS connection pool housekeeping failed: " + t );
+      }
+   }
+
+   /**
+    * <p> Get the number of physical connections. </p>
+    */
+   int getTotalConnections()
+   {
+      return _Entries.size();
+   }
+
+   /**
+    * <p> Get the number of idle physical connections. </p>
+    */
+   int getIdleConnections()
+   {
+      int idle = 0;
+
+      for( PoolEntry entry : _Entries )
+      {
+         if( entry._State.get() == PoolEntry.IDLE )
+            idle ++;
+      }
+
+      return idle;
+   }
+
+   /**
+    * <p> Get the number of threads waiting for a connection. </p>
+    */
+   int getThreadsAwaitingConnection()
+   {
+      return _Waiters.get();
+   }
+
+   /**
+    * <p> Get the number of connections handed out by the pool. </p>
+    */
+   long getBorrowCount()
+   {
+      return _Borrowed.get();
+   }
+
+   /**
+    * <p> Get the number of physical connections created by the pool. </p>
+    */
+   long getConnectCount()
+   {
+      return _Connected.get();
+   }
+
+   /**
+    * <p> Get the number of requests that timed out waiting for a connection.
+    * </p>
+    */
+   long getTimeoutCount()
+   {
+      return _Timeouts.get();
+   }
+
+   /**
+    * <p> Get the number of connections found broken when borrowed. </p>
+    */
+   long getValidationFailureCount()
+   {
+      return _ValidationFailures.get();
+   }
+
+   // private methods //////////////////////////////////////////////////////////
+
+   /**
+    * <p> Claims an idle entry, preferring the one the current thread used
+    * last. </p>
+    *
+    * @return
+    *    the claimed entry or {@code null} if no entry is idle
+    */
+   private PoolEntry acquire()
+   {
+      WeakReference<PoolEntry> ref = _Affinity.get();
+      PoolEntry entry = ref == null ? null : ref.get();
+
+      if( entry != null && entry._State.compareAndSet( PoolEntry.IDLE, PoolEntry.IN_USE ) )
+         return entry;
+
+      for( PoolEntry candidate : _Entries )
+      {
+         if( candidate._State.compareAndSet( PoolEntry.IDLE, PoolEntry.IN_USE ) )
+            return candidate;
+      }
+
+      return null;
+   }
+
+   /**
+    * <p> Reserves room for a new connection if the pool hasn't reached its
+    * maximum size. </p>
+    */
+   private boolean reserve()
+   {
+      for( ;; )
+      {
+         int total = _Total.get();
+
+         if( total >= _DataSource.getMaxPoolSize() )
+            return false;
+
+         if( _Total.compareAndSet( total, total + 1 ) )
+            return true;
+      }
+   }
+
+   /**
+    * <p> Creates a new entry in state {@link PoolEntry#IN_USE} for a reserved
+    * slot, releasing the reservation if the connection fails. </p>
+    */
+   private PoolEntry create()
+      throws SQLException
+   {
+      try
+      {
+         PoolEntry entry = new PoolEntry( this, _DataSource.connect() );
+         _Entries.add( entry );
+         _Connected.incrementAndGet();
+         return entry;
+      }
+      catch( SQLException e )
+      {
+         _Total.decrementAndGet();
+         signal();
+         throw e;
+      }
+      catch( RuntimeException e )
+      {
+         _Total.decrementAndGet();
+         signal();
+         throw e;
+      }
+   }
+
+   /**
+    * <p> Checks whether a connection has exceeded its maximum lifetime. </p>
+    */
+   private boolean isExpired( PoolEntry entry, long now )
+   {
+      long maxLifetime = _DataSource.getMaxLifetime() * 1000L;
+      return maxLifetime > 0 && now - entry._Created >= maxLifetime;
+   }
+
+   /**
+    * <p> Checks a claimed entry before it's handed out. Connections used
+    * within the validation interval are assumed to be fine, others are
+    * validated by a round trip to the server. </p>
+    */
+   private boolean isUsable( PoolEntry entry )
+   {
+      long now = System.currentTimeMillis();
+
+      if( isExpired( entry, now ) || entry.isBroken() )
+         return false;
+
+      if( now - entry._LastUsed < _DataSource.getValidationInterval() * 1000L )
+         return true;
+
+      if( validate( entry.getPhysicalConnection() ) )
+         return true;
+
+      _ValidationFailures.incrementAndGet();
+      return false;
+   }
+
+   /**
+    * <p> Validates a physical connection by a round trip to the server. </p>
+    */
+   private boolean validate( Connection connection )
+   {
+      try
+      {
+         return connection.isValid( _DataSource.getValidationTimeout() );
+      }
+      catch( SQLException e )
+      {
+         return false;
+      }
+   }
+
+   /**
+    * <p> Waits until a connection might be available. </p>
+    *
+    * @param millis
+    *    maximum time to wait
+    */
+   private void await( long millis )
+      throws SQLException
+   {
+      _Waiters.incrementAndGet();
+      _Lock.lock();
+
+      try
+      {
+         // re-check under the lock, a connection returned after acquire()
+         // failed but before waiting wouldn't signal this thread otherwise
+         if( _Closed || getIdleConnections() > 0 || _Total.get() < _DataSource.getMaxPoolSize() )
+            return;
+
+         _Available.await( millis, TimeUnit.MILLISECONDS );
+      }
+      catch( InterruptedException e )
+      {
+         Thread.currentThread().interrupt();
+         throw new SQLException( Messages.get( "error.jdbcx.pooltimeout", String.valueOf( _DataSource.getConnectionTimeout() ), String.valueOf( _Total.get() ) ), "08001" );
+      }
+      finally
+      {
+         _Lock.unlock();
+         _Waiters.decrementAndGet();
+      }
+   }
+
+   /**
+    * <p> Wakes up a thread waiting for a connection, if any. </p>
+    */
+   private void signal()
+   {
+      if( _Waiters.get() > 0 )
+      {
+         _Lock.lock();
+
+         try
+         {
+            _Available.signal();
+         }
+         finally
+         {
+            _Lock.unlock();
+         }
+      }
+   }
+
+   /**
+    * <p> Get the executor running the background tasks, creating it on first
+    * use. </p>
+    */
+   private static synchronized ScheduledExecutorService getHousekeeper()
+   {
+      if( _Housekeeper == null )
+      {
+         _Housekeeper = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+         {
+            public Thread newThread( Runnable r )
+            {
+               Thread thread = new Thread( r, "jTDS connection pool housekeeper" );
+               thread.setDaemon( true );
+               return thread;
+            }
+         } );
+      }
+
+      return _Housekeeper;
+   }
+
+}
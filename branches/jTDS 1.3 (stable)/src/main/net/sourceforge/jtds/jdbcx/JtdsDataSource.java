@@ -684,6 +684,166 @@ public class JtdsDataSource implements DataSource, ConnectionPoolDataSource, XAD
       return Boolean.valueOf( (String) _Config.get( Driver.USEJCIFS ) ).booleanValue();
    }
 
+   public void setRewriteBatchedInserts( boolean rewriteBatchedInserts )
+   {
+      _Config.put( Driver.REWRITEBATCHEDINSERTS, String.valueOf( rewriteBatchedInserts ) );
+   }
+
+   public boolean getRewriteBatchedInserts()
+   {
+      return Boolean.valueOf( (String) _Config.get( Driver.REWRITEBATCHEDINSERTS ) ).booleanValue();
+   }
+
+   public void setStreamBatches( boolean streamBatches )
+   {
+      _Config.put( Driver.STREAMBATCHES, String.valueOf( streamBatches ) );
+   }
+
+   public boolean getStreamBatches()
+   {
+      return Boolean.valueOf( (String) _Config.get( Driver.STREAMBATCHES ) ).booleanValue();
+   }
+
+   public void setParseCacheSize( int parseCacheSize )
+   {
+      _Config.put( Driver.PARSECACHESIZE, String.valueOf( parseCacheSize ) );
+   }
+
+   public int getParseCacheSize()
+   {
+      return getIntProperty( Driver.PARSECACHESIZE );
+   }
+
+   public void setStatementPoolSize( int statementPoolSize )
+   {
+      _Config.put( Driver.STATEMENTPOOLSIZE, String.valueOf( statementPoolSize ) );
+   }
+
+   public int getStatementPoolSize()
+   {
+      return getIntProperty( Driver.STATEMENTPOOLSIZE );
+   }
+
+   public void setPrepareThreshold( int prepareThreshold )
+   {
+      _Config.put( Driver.PREPARETHRESHOLD, String.valueOf( prepareThreshold ) );
+   }
+
+   public int getPrepareThreshold()
+   {
+      return getIntProperty( Driver.PREPARETHRESHOLD );
+   }
+
+   public void setMetadataCacheTtl( int metadataCacheTtl )
+   {
+      _Config.put( Driver.METADATACACHETTL, String.valueOf( metadataCacheTtl ) );
+   }
+
+   public int getMetadataCacheTtl()
+   {
+      return getIntProperty( Driver.METADATACACHETTL );
+   }
+
+   public void setMetadataCacheSize( int metadataCacheSize )
+   {
+      _Config.put( Driver.METADATACACHESIZE, String.valueOf( metadataCacheSize ) );
+   }
+
+   public int getMetadataCacheSize()
+   {
+      return getIntProperty( Driver.METADATACACHESIZE );
+   }
+
+   public void setProcedureCacheTtl( int procedureCacheTtl )
+   {
+      _Config.put( Driver.PROCEDURECACHETTL, String.valueOf( procedureCacheTtl ) );
+   }
+
+   public int getProcedureCacheTtl()
+   {
+      return getIntProperty( Driver.PROCEDURECACHETTL );
+   }
+
+   public void setDescribeParameters( boolean describeParameters )
+   {
+      _Config.put( Driver.DESCRIBEPARAMETERS, String.valueOf( describeParameters ) );
+   }
+
+   public boolean getDescribeParameters()
+   {
+      return Boolean.valueOf( (String) _Config.get( Driver.DESCRIBEPARAMETERS ) ).booleanValue();
+   }
+
+   public void setValidationWindow( int validationWindow )
+   {
+      _Config.put( Driver.VALIDATIONWINDOW, String.valueOf( validationWindow ) );
+   }
+
+   public int getValidationWindow()
+   {
+      return getIntProperty( Driver.VALIDATIONWINDOW );
+   }
+
+   public void setFairLock( boolean fairLock )
+   {
+      _Config.put( Driver.FAIRLOCK, String.valueOf( fairLock ) );
+   }
+
+   public boolean getFairLock()
+   {
+      return Boolean.valueOf( (String) _Config.get( Driver.FAIRLOCK ) ).booleanValue();
+   }
+
+   public void setLockTimeout( int lockTimeout )
+   {
+      _Config.put( Driver.LOCKTIMEOUT, String.valueOf( lockTimeout ) );
+   }
+
+   public int getLockTimeout()
+   {
+      return getIntProperty( Driver.LOCKTIMEOUT );
+   }
+
+   public void setFailoverPartner( String failoverPartner )
+   {
+      _Config.put( Driver.FAILOVERPARTNER, failoverPartner );
+   }
+
+   public String getFailoverPartner()
+   {
+      return (String) _Config.get( Driver.FAILOVERPARTNER );
+   }
+
+   public void setMultiSubnetFailover( boolean multiSubnetFailover )
+   {
+      _Config.put( Driver.MULTISUBNETFAILOVER, String.valueOf( multiSubnetFailover ) );
+   }
+
+   public boolean getMultiSubnetFailover()
+   {
+      return Boolean.valueOf( (String) _Config.get( Driver.MULTISUBNETFAILOVER ) ).booleanValue();
+   }
+
+   public void setInstanceCacheTTL( int instanceCacheTTL )
+   {
+      _Config.put( Driver.INSTANCECACHETTL, String.valueOf( instanceCacheTTL ) );
+   }
+
+   public int getInstanceCacheTTL()
+   {
+      return getIntProperty( Driver.INSTANCECACHETTL );
+   }
+
+   public void setResultSetMaxMemory( int resultSetMaxMemory )
+   {
+      _Config.put( Driver.RESULTSETMAXMEMORY, String.valueOf( resultSetMaxMemory ) );
+   }
+
+   public int getResultSetMaxMemory()
+   {
+      return getIntProperty( Driver.RESULTSETMAXMEMORY );
+   }
+
    private void addNonNullProperties( Properties props, String user, String password )
    {
       Iterator it = _Config.entrySet().iterator();
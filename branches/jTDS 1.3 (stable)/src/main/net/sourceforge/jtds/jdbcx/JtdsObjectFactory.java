@@ -49,7 +49,9 @@ public class JtdsObjectFactory implements ObjectFactory
    {
       Reference ref = (Reference) refObj;
 
-      if( ref.getClassName().equals( JtdsDataSource.class.getName() ) )
+      String className = ref.getClassName();
+
+      if( className.equals( JtdsDataSource.class.getName() ) || className.equals( JtdsPoolingDataSource.class.getName() ) )
       {
          HashMap props = loadProps( ref, new String[]
          {
@@ -65,27 +67,42 @@ public class JtdsObjectFactory implements ObjectFactory
             Driver.CACHEMETA,
             Driver.CHARSET,
             Driver.DATABASENAME,
+            Driver.DESCRIBEPARAMETERS,
             Driver.DOMAIN,
+            Driver.FAILOVERPARTNER,
+            Driver.FAIRLOCK,
             Driver.INSTANCE,
+            Driver.INSTANCECACHETTL,
             Driver.LANGUAGE,
             Driver.LASTUPDATECOUNT,
             Driver.LOBBUFFER,
+            Driver.LOCKTIMEOUT,
             Driver.LOGFILE,
             Driver.LOGINTIMEOUT,
             Driver.MACADDRESS,
             Driver.MAXSTATEMENTS,
+            Driver.METADATACACHESIZE,
+            Driver.METADATACACHETTL,
+            Driver.MULTISUBNETFAILOVER,
             Driver.NAMEDPIPE,
             Driver.PACKETSIZE,
+            Driver.PARSECACHESIZE,
             Driver.PASSWORD,
             Driver.PORTNUMBER,
             Driver.PREPARESQL,
+            Driver.PREPARETHRESHOLD,
+            Driver.PROCEDURECACHETTL,
             Driver.PROGNAME,
+            Driver.RESULTSETMAXMEMORY,
+            Driver.REWRITEBATCHEDINSERTS,
             Driver.SERVERNAME,
             Driver.SERVERTYPE,
             Driver.SOTIMEOUT,
             Driver.SOKEEPALIVE,
             Driver.PROCESSID,
             Driver.SSL,
+            Driver.STATEMENTPOOLSIZE,
+            Driver.STREAMBATCHES,
             Driver.TCPNODELAY,
             Driver.TDS,
             Driver.USECURSORS,
@@ -95,10 +112,18 @@ public class JtdsObjectFactory implements ObjectFactory
             Driver.USELOBS,
             Driver.USER,
             Driver.SENDSTRINGPARAMETERSASUNICODE,
+            Driver.VALIDATIONWINDOW,
             Driver.WSID,
             Driver.XAEMULATION
          } );
 
+         if( className.equals( JtdsPoolingDataSource.class.getName() ) )
+         {
+            JtdsPoolingDataSource ds = new JtdsPoolingDataSource( props );
+            ds.loadPoolSettings( ref );
+            return ds;
+         }
+
          return new JtdsDataSource( props );
       }
 
@@ -0,0 +1,421 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package net.sourceforge.jtds.jdbcx;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import javax.naming.RefAddr;
+import javax.naming.Reference;
+import javax.naming.StringRefAddr;
+import javax.sql.XAConnection;
+
+/**
+ * <p> A {@link JtdsDataSource} maintaining its own pool of physical
+ * connections. {@link #getConnection()} borrows a connection from the pool,
+ * closing it returns the connection to the pool after rolling back any open
+ * transaction and restoring catalog, isolation level and read-only state. </p>
+ *
+ * <p> The pool grows on demand up to {@link #getMaxPoolSize() maxPoolSize}
+ * connections and is kept filled with at least
+ * {@link #getMinPoolSize() minPoolSize} connections. Connections idle for
+ * longer than {@link #getIdleTimeout() idleTimeout} seconds are closed as long
+ * as the pool holds more than the minimum number of connections, connections
+ * older than {@link #getMaxLifetime() maxLifetime} seconds are replaced.
+ * Connections that haven't been used for
+ * {@link #getValidationInterval() validationInterval} seconds are validated
+ * before being handed out. </p>
+ *
+ * <p> Connections requested for a user other than the configured one aren't
+ * pooled. {@link #getPooledConnection()} and {@link #getXAConnection()} always
+ * return new physical connections, for use by an external pool or transaction
+ * manager. </p>
+ */
+public class JtdsPoolingDataSource extends JtdsDataSource
+{
+
+   /**
+    * serial version UID
+    */
+   static final long                   serialVersionUID   = 01010001L;
+
+   /**
+    * names of the pool settings stored in a JNDI reference
+    */
+   private static final String         MINPOOLSIZE        = "minPoolSize";
+   private static final String         MAXPOOLSIZE        = "maxPoolSize";
+   private static final String         CONNECTIONTIMEOUT  = "connectionTimeout";
+   private static final String         IDLETIMEOUT        = "idleTimeout";
+   private static final String         MAXLIFETIME        = "maxLifetime";
+   private static final String         VALIDATIONINTERVAL = "validationInterval";
+   private static final String         VALIDATIONTIMEOUT  = "validationTimeout";
+
+   private volatile int                _MinPoolSize        = 0;
+   private volatile int                _MaxPoolSize        = 10;
+   private volatile int                _ConnectionTimeout  = 30;
+   private volatile int                _IdleTimeout        = 600;
+   private volatile int                _MaxLifetime        = 1800;
+   private volatile int                _ValidationInterval = 5;
+   private volatile int                _ValidationTimeout  = 5;
+
+   /**
+    * the pool, created on first use
+    */
+   private transient volatile ConnectionPool _Pool;
+
+   /**
+    * Constructs a configured DataSource.
+    */
+   JtdsPoolingDataSource( HashMap config )
+   {
+      super( config );
+   }
+
+   /**
+    * Constructs a new DataSource.
+    */
+   public JtdsPoolingDataSource()
+   {
+      super();
+   }
+
+   /**
+    * <p> Borrows a connection from the pool. </p>
+    *
+    * @return
+    *    a pooled connection, closing it returns it to the pool
+    *
+    * @throws SQLException
+    *    if the pool has been closed, no connection became available within
+    *    {@link #getConnectionTimeout() connectionTimeout} seconds or a new
+    *    connection couldn't be established
+    */
+   @Override
+   public Connection getConnection()
+      throws SQLException
+   {
+      return getPool().borrow();
+   }
+
+   /**
+    * <p> Borrows a connection from the pool if the credentials match the
+    * configured ones, otherwise returns a new physical connection. </p>
+    *
+    * @param user
+    *    the user name to connect with
+    *
+    * @param password
+    *    the password to connect with
+    */
+   @Override
+   public Connection getConnection( String user, String password )
+      throws SQLException
+   {
+      if( equals( user, getUser() ) && equals( password, getPassword() ) )
+      {
+         return getPool().borrow();
+      }
+
+      return super.getConnection( user, password );
+   }
+
+   /**
+    * Returns a new XA database connection, not taken from the pool.
+    */
+   @Override
+   public XAConnection getXAConnection( String user, String password )
+      throws SQLException
+   {
+      return new JtdsXAConnection( this, super.getConnection( user, password ) );
+   }
+
+   /**
+    * Returns a new pooled database connection, not taken from the pool.
+    */
+   @Override
+   public synchronized javax.sql.PooledConnection getPooledConnection( String user, String password )
+      throws SQLException
+   {
+      return new net.sourceforge.jtds.jdbcx.PooledConnection( super.getConnection( user, password ) );
+   }
+
+   @Override
+   public Reference getReference()
+   {
+      Reference ref = super.getReference();
+
+      ref.add( new StringRefAddr( MINPOOLSIZE       , String.valueOf( _MinPoolSize        ) ) );
+      ref.add( new StringRefAddr( MAXPOOLSIZE       , String.valueOf( _MaxPoolSize        ) ) );
+      ref.add( new StringRefAddr( CONNECTIONTIMEOUT , String.valueOf( _ConnectionTimeout  ) ) );
+      ref.add( new StringRefAddr( IDLETIMEOUT       , String.valueOf( _IdleTimeout        ) ) );
+      ref.add( new StringRefAddr( MAXLIFETIME       , String.valueOf( _MaxLifetime        ) ) );
+      ref.add( new StringRefAddr( VALIDATIONINTERVAL, String.valueOf( _ValidationInterval ) ) );
+      ref.add( new StringRefAddr( VALIDATIONTIMEOUT , String.valueOf( _ValidationTimeout  ) ) );
+
+      return ref;
+   }
+
+   /**
+    * <p> Closes all idle connections and rejects further requests.
+    * Connections currently in use are closed when returned. Does nothing if
+    * no connection has been requested yet. </p>
+    */
+   public void close()
+   {
+      ConnectionPool pool = _Pool;
+
+      if( pool != null )
+      {
+         pool.close();
+      }
+   }
+
+   //
+   // Pool statistics
+   //
+
+   /**
+    * Get the number of physical connections held by the pool.
+    */
+   public int getTotalConnections()
+   {
+      ConnectionPool pool = _Pool;
+      return pool == null ? 0 : pool.getTotalConnections();
+   }
+
+   /**
+    * Get the number of idle physical connections.
+    */
+   public int getIdleConnections()
+   {
+      ConnectionPool pool = _Pool;
+      return pool == null ? 0 : pool.getIdleConnections();
+   }
+
+   /**
+    * Get the number of connections currently in use.
+    */
+   public int getActiveConnections()
+   {
+      ConnectionPool pool = _Pool;
+      return pool == null ? 0 : Math.max( 0, pool.getTotalConnections() - pool.getIdleConnections() );
+   }
+
+   /**
+    * Get the number of threads waiting for a connection.
+    */
+   public int getThreadsAwaitingConnection()
+   {
+      ConnectionPool pool = _Pool;
+      return pool == null ? 0 : pool.getThreadsAwaitingConnection();
+   }
+
+   /**
+    * Get the number of connections handed out by the pool.
+    */
+   public long getBorrowCount()
+   {
+      ConnectionPool pool = _Pool;
+      return pool == null ? 0 : pool.getBorrowCount();
+   }
+
+   /**
+    * Get the number of physical connections created by the pool.
+    */
+   public long getConnectCount()
+   {
+      ConnectionPool pool = _Pool;
+      return pool == null ? 0 : pool.getConnectCount();
+   }
+
+   /**
+    * Get the number of requests that timed out waiting for a connection.
+    */
+   public long getTimeoutCount()
+   {
+      ConnectionPool pool = _Pool;
+      return pool == null ? 0 : pool.getTimeoutCount();
+   }
+
+   /**
+    * Get the number of pooled connections that failed validation.
+    */
+   public long getValidationFailureCount()
+   {
+      ConnectionPool pool = _Pool;
+      return pool == null ? 0 : pool.getValidationFailureCount();
+   }
+
+   //
+   // Getters and setters
+   //
+
+   public void setMinPoolSize( int minPoolSize )
+   {
+      _MinPoolSize = minPoolSize;
+   }
+
+   public int getMinPoolSize()
+   {
+      return _MinPoolSize;
+   }
+
+   public void setMaxPoolSize( int maxPoolSize )
+   {
+      _MaxPoolSize = maxPoolSize;
+   }
+
+   public int getMaxPoolSize()
+   {
+      return _MaxPoolSize;
+   }
+
+   /**
+    * Set the number of seconds to wait for a connection if the pool is
+    * exhausted.
+    */
+   public void setConnectionTimeout( int connectionTimeout )
+   {
+      _ConnectionTimeout = connectionTimeout;
+   }
+
+   public int getConnectionTimeout()
+   {
+      return _ConnectionTimeout;
+   }
+
+   /**
+    * Set the number of seconds after which idle connections exceeding the
+    * minimum pool size are closed, 0 to keep them open.
+    */
+   public void setIdleTimeout( int idleTimeout )
+   {
+      _IdleTimeout = idleTimeout;
+   }
+
+   public int getIdleTimeout()
+   {
+      return _IdleTimeout;
+   }
+
+   /**
+    * Set the number of seconds after which a connection is replaced, 0 for
+    * no limit.
+    */
+   public void setMaxLifetime( int maxLifetime )
+   {
+      _MaxLifetime = maxLifetime;
+   }
+
+   public int getMaxLifetime()
+   {
+      return _MaxLifetime;
+   }
+
+   /**
+    * Set the number of seconds a connection may be unused before it's
+    * validated when borrowed.
+    */
+   public void setValidationInterval( int validationInterval )
+   {
+      _ValidationInterval = validationInterval;
+   }
+
+   public int getValidationInterval()
+   {
+      return _ValidationInterval;
+   }
+
+   /**
+    * Set the number of seconds to wait for the server when validating a
+    * connection.
+    */
+   public void setValidationTimeout( int validationTimeout )
+   {
+      _ValidationTimeout = validationTimeout;
+   }
+
+   public int getValidationTimeout()
+   {
+      return _ValidationTimeout;
+   }
+
+   //
+   // package-private methods
+   //
+
+   /**
+    * Opens a new physical connection for the pool.
+    */
+   Connection connect()
+      throws SQLException
+   {
+      return super.getConnection( getUser(), getPassword() );
+   }
+
+   /**
+    * Restores the pool settings from a JNDI reference.
+    */
+   void loadPoolSettings( Reference ref )
+   {
+      _MinPoolSize        = getInt( ref, MINPOOLSIZE       , _MinPoolSize        );
+      _MaxPoolSize        = getInt( ref, MAXPOOLSIZE       , _MaxPoolSize        );
+      _ConnectionTimeout  = getInt( ref, CONNECTIONTIMEOUT , _ConnectionTimeout  );
+      _IdleTimeout        = getInt( ref, IDLETIMEOUT       , _IdleTimeout        );
+      _MaxLifetime        = getInt( ref, MAXLIFETIME       , _MaxLifetime        );
+      _ValidationInterval = getInt( ref, VALIDATIONINTERVAL, _ValidationInterval );
+      _ValidationTimeout  = getInt( ref, VALIDATIONTIMEOUT , _ValidationTimeout  );
+   }
+
+   //
+   // private methods
+   //
+
+   private ConnectionPool getPool()
+   {
+      ConnectionPool pool = _Pool;
+
+      if( pool == null )
+      {
+         synchronized( this )
+         {
+            pool = _Pool;
+
+            if( pool == null )
+            {
+               pool = new ConnectionPool( this );
+               _Pool = pool;
+            }
+         }
+      }
+
+      return pool;
+   }
+
+   private static boolean equals( String s1, String s2 )
+   {
+      return s1 == null ? s2 == null : s1.equals( s2 );
+   }
+
+   private static int getInt( Reference ref, String name, int def )
+   {
+      RefAddr addr = ref.get( name );
+      return addr == null ? def : Integer.parseInt( (String) addr.getContent() );
+   }
+
+}
@@ -762,12 +762,24 @@ public class ConnectionProxy implements Connection {
         throw new AbstractMethodError();
     }
 
-    /* (non-Javadoc)
+    /**
+     * Delgates calls to the connection; SQLExceptions thrown from the connection
+     * will cause an event to be fired on the connection pool listeners.
+     *
      * @see java.sql.Connection#isValid(int)
      */
     public boolean isValid(int timeout) throws SQLException {
-        // TODO Auto-generated method stub
-        throw new AbstractMethodError();
+        if (_closed) {
+            return false;
+        }
+
+        try {
+            return _connection.isValid(timeout);
+        } catch (SQLException sqlException) {
+            processSQLException(sqlException);
+        }
+
+        return false;
     }
 
     /* (non-Javadoc)
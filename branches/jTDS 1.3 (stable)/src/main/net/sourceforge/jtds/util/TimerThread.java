@@ -17,12 +17,17 @@
 //
 package net.sourceforge.jtds.util;
 
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Simple timer class used to implement login and query timeouts.
  * <p/>
+ * Timers are kept in a hashed timing wheel of {@link #WHEEL_SIZE} buckets,
+ * each covering one tick of {@link #TICK} milliseconds, so that starting and
+ * cancelling a timer takes constant time and only locks a single bucket.
+ * Timers never expire early, but may expire up to one tick late.
+ * <p/>
  * This thread runs as a Daemon thread to ensure that the java VM will exit
  * correctly when normal execution is complete.
  * <p/>
@@ -44,41 +49,87 @@ public class TimerThread extends Thread {
         void timerExpired();
     }
 
+    /** Duration of a tick of the timing wheel in milliseconds. */
+    private static final int TICK = 100;
+    /** Number of buckets of the timing wheel, a power of 2. */
+    private static final int WHEEL_SIZE = 512;
+    /** Mask to map a tick to its bucket. */
+    private static final int MASK = WHEEL_SIZE - 1;
+
     /**
      * Internal class associating a login or query timeout value with a target
-     * <code>TimerListener</code>.
+     * <code>TimerListener</code>. Requests may be started again once they
+     * have expired or have been cancelled.
      */
     private static class TimerRequest {
-        /** The time when this timeout will expire. */
-        final long time;
         /** Target to notify when the timeout expires. */
         final TimerListener target;
+        /** True from starting the timer until it expires or is cancelled. */
+        final AtomicBoolean running = new AtomicBoolean();
+        /** The time when this timeout will expire, relative to the wheel. */
+        long time;
+        /** The bucket holding this request or <code>null</code>. */
+        volatile Bucket bucket;
+        /** Neighbours within the bucket, guarded by the bucket. */
+        TimerRequest prev, next;
 
         /**
          * Create a <code>TimerRequest</code>.
          *
-         * @param timeout the desired timeout in milliseconds
          * @param target  the target object; one of <code>SharedSocket</code> or
          *                <code>TdsCore</code>
-         * @throws IllegalArgumentException if the timeout is negative or 0
          */
-        TimerRequest(int timeout, TimerListener target) {
-            if (timeout <= 0) {
-                throw new IllegalArgumentException("Invalid timeout parameter "
-                        + timeout);
-            }
-            this.time = System.currentTimeMillis() + (timeout);
+        TimerRequest(TimerListener target) {
             this.target = target;
         }
     }
 
+    /**
+     * Bucket of the timing wheel, a doubly linked list of the requests
+     * expiring within one tick or a multiple of {@link #WHEEL_SIZE} ticks
+     * later. Also serves as the lock guarding the list.
+     */
+    private static class Bucket {
+        /** First request in the bucket. */
+        TimerRequest head;
+
+        void add(TimerRequest t) {
+            t.prev = null;
+            t.next = head;
+            if (head != null) {
+                head.prev = t;
+            }
+            head = t;
+            t.bucket = this;
+        }
+
+        void remove(TimerRequest t) {
+            if (t.prev != null) {
+                t.prev.next = t.next;
+            } else {
+                head = t.next;
+            }
+            if (t.next != null) {
+                t.next.prev = t.prev;
+            }
+            t.prev = t.next = null;
+            t.bucket = null;
+        }
+    }
+
     /** Singleton instance. */
     private static TimerThread instance;
 
-    /** List of <code>TimerRequest</code>s to execute, ordered by time. */
-    private final LinkedList timerList = new LinkedList();
-    /** Time when the first request time out should occur. */
-    private long nextTimeout;
+    /** The timing wheel. */
+    private final Bucket[] wheel = new Bucket[WHEEL_SIZE];
+    /** Start of tick 0 in nanoseconds. */
+    private final long start = System.nanoTime();
+    /** Last tick processed (or being processed) by the timer thread. */
+    private volatile long currentTick;
+    /** Number of running timers. */
+    private final AtomicInteger pending = new AtomicInteger();
+    /** Lock used to wait while no timer is running. */
+    private final Object idle = new Object();
 
     /**
      * Singleton getter.
@@ -99,95 +150,127 @@ public class TimerThread extends Thread {
         super("jTDS TimerThread");
         // Ensure that this thread does not prevent the VM from exiting
         this.setDaemon(true);
+
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new Bucket();
+        }
     }
 
     /**
      * Execute the <code>TimerThread</code> main loop.
      */
     public void run() {
-        synchronized (timerList) {
-            boolean run = true;
-            while (run) {
-                try {
-                    long ms;
-                    while ((ms = nextTimeout - System.currentTimeMillis()) > 0 || nextTimeout == 0) {
-                        // positive timeout, wait appropriately
-                        timerList.wait(nextTimeout==0 ? 0 : ms);
-                    }
-
-                    // Fire expired timeout requests
-                    long time = System.currentTimeMillis();
-                    while (!timerList.isEmpty()) {
-                        // Examine the head of the list and see
-                        // if the timer has expired.
-                        TimerRequest t = (TimerRequest) timerList.getFirst();
-                        if (t.time > time) {
-                            break; // No timers have expired
+        try {
+            while (true) {
+                if (pending.get() == 0) {
+                    synchronized (idle) {
+                        while (pending.get() == 0) {
+                            idle.wait();
                         }
-                        // Notify target of timeout
-                        t.target.timerExpired();
-                        // Remove the fired timeout request
-                        timerList.removeFirst();
                     }
+                }
+
+                long now = elapsed();
+                long tick = now / TICK;
+                if (tick <= currentTick) {
+                    // Wait for the next tick
+                    Thread.sleep((currentTick + 1) * TICK - now);
+                    continue;
+                }
 
-                    // Determine next timeout
-                    updateNextTimeout();
-                } catch (InterruptedException e) {
-                    // stopThread() called, or thread interrupted externally
-                    run = false;
-                    timerList.clear();
+                // Catch up with the ticks passed, but a single pass over the
+                // wheel is enough to fire all expired requests
+                for (long t = Math.max(currentTick + 1, tick - MASK); t <= tick; t++) {
+                    currentTick = t;
+                    expire(wheel[(int) t & MASK], now);
+                }
+            }
+        } catch (InterruptedException e) {
+            // stopThread() called, or thread interrupted externally
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                Bucket bucket = wheel[i];
+                synchronized (bucket) {
+                    while (bucket.head != null) {
+                        TimerRequest t = bucket.head;
+                        bucket.remove(t);
+                        t.running.set(false);
+                    }
                 }
             }
         }
     }
 
+    /**
+     * Create a timer that can be started repeatedly using
+     * {@link #startTimer}, to avoid creating a new request per timeout.
+     *
+     * @param l <code>TimerListener</code> to be notified on timeout
+     * @return a handle to the timer
+     */
+    public static Object createTimer(TimerListener l) {
+        return new TimerRequest(l);
+    }
+
     /**
      * Add a timer request to the queue.
-     * <p/>
-     * The queue is ordered by time so that the head of the list is always the
-     * first timer to expire.
      *
      * @param timeout the interval in milliseconds after which the timer will
      *                expire
      * @param l       <code>TimerListener</code> to be notified on timeout
      * @return a handle to the timer request, that can later be used with
      *         <code>cancelTimer</code>
+     * @throws IllegalArgumentException if the timeout is negative or 0
      */
     public Object setTimer(int timeout, TimerListener l) {
-        // Create a new timer request
-        TimerRequest t = new TimerRequest(timeout, l);
+        Object handle = createTimer(l);
+        startTimer(handle, timeout);
+        return handle;
+    }
 
-        synchronized (timerList) {
-            if (timerList.isEmpty()) {
-                // List was empty, just add new request
-                timerList.add(t);
-            } else {
-                // Tiny optimization; new requests will usually go to the end
-                TimerRequest crt = (TimerRequest) timerList.getLast();
-                if (t.time >= crt.time) {
-                    timerList.addLast(t);
-                } else {
-                    // Iterate the list and insert it into the right place
-                    for (ListIterator li = timerList.listIterator(); li.hasNext(); ) {
-                        crt = (TimerRequest) li.next();
-                        if (t.time < crt.time) {
-                            li.previous();
-                            li.add(t);
-                            break;
-                        }
+    /**
+     * Start a timer created by {@link #createTimer} that isn't running.
+     *
+     * @param handle  handle to the timer
+     * @param timeout the interval in milliseconds after which the timer will
+     *                expire
+     * @return <code>false</code> if the timer is already running, e.g. in
+     *         another thread
+     * @throws IllegalArgumentException if the timeout is negative or 0
+     */
+    public boolean startTimer(Object handle, int timeout) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Invalid timeout parameter "
+                    + timeout);
+        }
+
+        TimerRequest t = (TimerRequest) handle;
+        if (!t.running.compareAndSet(false, true)) {
+            return false;
+        }
+
+        t.time = elapsed() + timeout;
+        long tick = (t.time + TICK - 1) / TICK;
+
+        while (true) {
+            // Don't add to a bucket the timer thread has already passed
+            tick = Math.max(tick, currentTick + 1);
+            Bucket bucket = wheel[(int) tick & MASK];
+            synchronized (bucket) {
+                if (currentTick < tick) {
+                    bucket.add(t);
+                    if (pending.getAndIncrement() != 0) {
+                        return true;
                     }
+                    break;
                 }
             }
-
-            // If this request is now the first in the list, interrupt timer
-            if (timerList.getFirst() == t) {
-                nextTimeout = t.time;
-                timerList.notifyAll();
-            }
         }
 
-        // Return the created request as timer handle
-        return t;
+        // First running timer, wake up the timer thread
+        synchronized (idle) {
+            idle.notify();
+        }
+        return true;
     }
 
     /**
@@ -199,14 +282,21 @@ public class TimerThread extends Thread {
      */
     public boolean cancelTimer(Object handle) {
         TimerRequest t = (TimerRequest) handle;
+        Bucket bucket = t.bucket;
 
-        synchronized (timerList) {
-            boolean result = timerList.remove(t);
-            if (nextTimeout == t.time) {
-                updateNextTimeout();
+        if (bucket != null) {
+            // Blocks while the timer is expiring
+            synchronized (bucket) {
+                if (t.bucket == bucket) {
+                    bucket.remove(t);
+                    pending.decrementAndGet();
+                    t.running.set(false);
+                    return true;
+                }
             }
-            return result;
         }
+
+        return false;
     }
 
     /**
@@ -229,16 +319,35 @@ public class TimerThread extends Thread {
      * @return <code>true</code> if timer has expired
      */
     public boolean hasExpired(Object handle) {
-        TimerRequest t = (TimerRequest) handle;
+        return !((TimerRequest) handle).running.get();
+    }
 
-        synchronized (timerList) {
-            return !timerList.contains(t);
+    /**
+     * Fires and removes the expired requests of a bucket.
+     *
+     * @param bucket the bucket
+     * @param now    the current time relative to the wheel
+     */
+    private void expire(Bucket bucket, long now) {
+        synchronized (bucket) {
+            TimerRequest t = bucket.head;
+            while (t != null) {
+                TimerRequest next = t.next;
+                if (t.time <= now) {
+                    // Notify target of timeout
+                    t.target.timerExpired();
+                    // Remove the fired timeout request
+                    bucket.remove(t);
+                    pending.decrementAndGet();
+                    t.running.set(false);
+                }
+                t = next;
+            }
         }
     }
 
-    /** Internal method that updates the value of {@link #nextTimeout}. */
-    private void updateNextTimeout() {
-        nextTimeout = timerList.isEmpty() ? 0
-                : ((TimerRequest) timerList.getFirst()).time;
+    /** Returns the milliseconds passed since tick 0. */
+    private long elapsed() {
+        return (System.nanoTime() - start) / 1000000;
     }
 }
@@ -754,6 +754,127 @@ public class BatchTest extends DatabaseTestCase {
         statement.close();
     }
 
+    /**
+     * Test rewriting of batched INSERTs into multi-row INSERT statements.
+     */
+    public void testRewrittenInsertBatch() throws Exception {
+        // statements that can be rewritten
+        assertEquals("[29, 35]", array2String(SQLParser.getInsertValuesBounds("insert into #t (a, b) values (?, ?)")));
+        assertEquals("[32, 44]", array2String(SQLParser.getInsertValuesBounds("INSERT [dbo].[t] /* x */ VALUES ('?)', [?)]) ;")));
+        // statements that can't be rewritten
+        assertNull(SQLParser.getInsertValuesBounds("insert into #t values (?) select 1"));
+        assertNull(SQLParser.getInsertValuesBounds("insert into #t select ?"));
+        assertNull(SQLParser.getInsertValuesBounds("insert into #t output inserted.a values (?)"));
+        assertNull(SQLParser.getInsertValuesBounds("update #t set a = ?"));
+
+        if (!isMSSQL()) {
+            return;
+        }
+
+        Properties props = new Properties();
+        props.setProperty(Messages.get(Driver.REWRITEBATCHEDINSERTS), "true");
+        props.setProperty(Messages.get(Driver.BATCHSIZE), "1500");
+        Connection con = getConnection(props);
+
+        try {
+            Statement stmt = con.createStatement();
+            stmt.execute("create table #rewrite (id int primary key, txt varchar(10))");
+
+            PreparedStatement pstmt = con.prepareStatement("insert into #rewrite (id, txt) values (?, 'x' + ?)");
+            for (int i = 0; i < 2500; i++) {
+                pstmt.setInt(1, i);
+                pstmt.setString(2, String.valueOf(i));
+                pstmt.addBatch();
+            }
+            int[] counts = pstmt.executeBatch();
+            assertEquals(2500, counts.length);
+            for (int i = 0; i < counts.length; i++) {
+                assertEquals(1, counts[i]);
+            }
+
+            ResultSet rs = stmt.executeQuery("select count(*), max(txt) from #rewrite where txt = 'x' + cast(id as varchar)");
+            assertTrue(rs.next());
+            assertEquals(2500, rs.getInt(1));
+            rs.close();
+
+            // a duplicate key fails the whole multi-row statement
+            pstmt.setInt(1, 5000);
+            pstmt.setString(2, "a");
+            pstmt.addBatch();
+            pstmt.setInt(1, 1);
+            pstmt.setString(2, "b");
+            pstmt.addBatch();
+            try {
+                pstmt.executeBatch();
+                fail("expected BatchUpdateException");
+            } catch (BatchUpdateException e) {
+                counts = e.getUpdateCounts();
+                assertEquals(2, counts.length);
+                assertEquals(EXECUTE_FAILED, counts[0]);
+                assertEquals(EXECUTE_FAILED, counts[1]);
+            }
+
+            pstmt.close();
+            stmt.close();
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Test execution of batches in pieces of <code>batchSize</code> statements
+     * as they are added.
+     */
+    public void testStreamingBatch() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Messages.get(Driver.STREAMBATCHES), "true");
+        props.setProperty(Messages.get(Driver.BATCHSIZE), "100");
+        Connection con = getConnection(props);
+
+        try {
+            Statement stmt = con.createStatement();
+            stmt.execute("create table #stream (id int primary key)");
+
+            PreparedStatement pstmt = con.prepareStatement("insert into #stream (id) values (?)");
+            for (int i = 0; i < 1050; i++) {
+                pstmt.setInt(1, i);
+                pstmt.addBatch();
+            }
+
+            // the first 1000 statements have already been executed
+            ResultSet rs = stmt.executeQuery("select count(*) from #stream");
+            assertTrue(rs.next());
+            assertEquals(1000, rs.getInt(1));
+            rs.close();
+
+            int[] counts = pstmt.executeBatch();
+            assertEquals(1050, counts.length);
+            for (int i = 0; i < counts.length; i++) {
+                assertEquals(1, counts[i]);
+            }
+
+            // errors of streamed statements are reported by executeBatch()
+            for (int i = 0; i < 250; i++) {
+                pstmt.setInt(1, i == 150 ? 0 : 2000 + i);
+                pstmt.addBatch();
+            }
+            try {
+                pstmt.executeBatch();
+                fail("expected BatchUpdateException");
+            } catch (BatchUpdateException e) {
+                counts = e.getUpdateCounts();
+                assertEquals(250, counts.length);
+                assertEquals(1, counts[149]);
+                assertEquals(EXECUTE_FAILED, counts[150]);
+            }
+
+            pstmt.close();
+            stmt.close();
+        } finally {
+            con.close();
+        }
+    }
+
     /**
      * low-level test for critical performance issue described in bug [3078236]
      */
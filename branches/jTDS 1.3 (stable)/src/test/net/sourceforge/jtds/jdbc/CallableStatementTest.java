@@ -19,12 +19,15 @@ package net.sourceforge.jtds.jdbc;
 
 import java.math.BigDecimal;
 import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ParameterMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.Properties;
 
 import junit.framework.Assert;
 import junit.framework.AssertionFailedError;
@@ -1293,6 +1296,83 @@ public class CallableStatementTest extends TestBase
       stm.close();
    }
 
+   /**
+    * Test for table-valued parameters passed to a procedure call and to a
+    * prepared statement, including return value and output parameter.
+    */
+   public void testTableValuedParameter()
+      throws Exception
+   {
+      // table-valued parameters require SQL Server 2008 or later
+      if( ! isMSSQL() || con.getMetaData().getDatabaseMajorVersion() < 10 )
+         return;
+
+      dropProcedure( "sp_tvp" );
+      Statement st = con.createStatement();
+      st.execute( "if type_id( 'jtds_tvp' ) is not null drop type jtds_tvp" );
+      st.execute( "create type jtds_tvp as table( id int not null, name nvarchar( 20 ) null )" );
+      st.execute( "create procedure sp_tvp @rows jtds_tvp readonly, @min int, @sum int output as " +
+                  "select @sum = sum( id ) from @rows where id >= @min " +
+                  "select name from @rows where id >= @min order by id " +
+                  "return ( select count(*) from @rows )" );
+
+      try
+      {
+         TableValuedParameter tvp = new TableValuedParameter( "jtds_tvp" );
+         tvp.addColumn( "id", Types.INTEGER );
+         tvp.addColumn( "name", Types.VARCHAR );
+
+         // more rows than allowed in a single INSERT ... VALUES
+         for( int i = 1; i <= 2500; i ++ )
+         {
+            tvp.addRow( new Object[] { new Integer( i ), i == 2500 ? null : "row 'n' " + i } );
+         }
+
+         try
+         {
+            tvp.addRow( new Object[] { new Integer( 0 ) } );
+            fail();
+         }
+         catch( SQLException sqle )
+         {
+            assertEquals( "21S01", sqle.getSQLState() );
+         }
+
+         CallableStatement cstmt = con.prepareCall( "{?=call sp_tvp(?,?,?)}" );
+         cstmt.registerOutParameter( 1, Types.INTEGER );
+         cstmt.setObject( 2, tvp );
+         cstmt.setInt( 3, 2499 );
+         cstmt.registerOutParameter( 4, Types.INTEGER );
+
+         ResultSet rs = cstmt.executeQuery();
+         assertTrue( rs.next() );
+         assertEquals( "row 'n' 2499", rs.getString( 1 ) );
+         assertTrue( rs.next() );
+         assertNull( rs.getString( 1 ) );
+         assertFalse( rs.next() );
+         rs.close();
+
+         assertEquals( 2500, cstmt.getInt( 1 ) );
+         assertEquals( 4999, cstmt.getInt( 4 ) );
+         cstmt.close();
+
+         PreparedStatement pstmt = con.prepareStatement( "select count(*) from ? where id > ?" );
+         pstmt.setObject( 1, tvp, Types.STRUCT );
+         pstmt.setInt( 2, 2000 );
+         rs = pstmt.executeQuery();
+         assertTrue( rs.next() );
+         assertEquals( 500, rs.getInt( 1 ) );
+         rs.close();
+         pstmt.close();
+      }
+      finally
+      {
+         dropProcedure( "sp_tvp" );
+         st.execute( "drop type jtds_tvp" );
+         st.close();
+      }
+   }
+
     /**
      * Test that output result sets, return values and output parameters are
      * correctly handled for a remote procedure call.
@@ -1338,6 +1418,56 @@ public class CallableStatementTest extends TestBase
     }
     */
 
+   /**
+    * Test that the procedure signature is used to bind named parameters, to
+    * match string parameter types and to determine the output scale.
+    */
+   public void testProcedureSignature()
+      throws Exception
+   {
+      dropProcedure( "sp_signature" );
+
+      Statement st = con.createStatement();
+      st.execute( "create procedure sp_signature @a varchar(10), @b nvarchar(10), @c decimal(10,4) output as set @c = len(@a) + len(@b) + 0.5" );
+      st.close();
+
+      Properties props = new Properties();
+      props.setProperty( Messages.get( Driver.PROCEDURECACHETTL ), "60" );
+      props.setProperty( Messages.get( Driver.SENDSTRINGPARAMETERSASUNICODE ), "true" );
+      Connection con2 = getConnection( props );
+
+      try
+      {
+         JtdsCallableStatement cstmt = (JtdsCallableStatement) con2.prepareCall( "{call sp_signature(?,?,?)}" );
+
+         // bound by position in the procedure, not by order of binding
+         cstmt.setString( "b", "xyz" );
+         cstmt.setString( "a", "ab" );
+         cstmt.registerOutParameter( "c", Types.DECIMAL );
+         assertEquals( "@a", cstmt.parameters[0].name );
+         assertEquals( "@b", cstmt.parameters[1].name );
+
+         assertFalse( cstmt.parameters[0].isUnicode );
+         assertTrue( cstmt.parameters[1].isUnicode );
+         assertEquals( 4, cstmt.parameters[2].scale );
+
+         cstmt.execute();
+         assertEquals( new BigDecimal( "5.5000" ), cstmt.getBigDecimal( 3 ) );
+
+         ParameterMetaData pmd = cstmt.getParameterMetaData();
+         assertEquals( Types.DECIMAL, pmd.getParameterType( 3 ) );
+         assertEquals( 10, pmd.getPrecision( 3 ) );
+         assertEquals( 4, pmd.getScale( 3 ) );
+         assertEquals( ParameterMetaData.parameterModeOut, pmd.getParameterMode( 3 ) );
+         cstmt.close();
+      }
+      finally
+      {
+         con2.close();
+         dropProcedure( "sp_signature" );
+      }
+   }
+
     public static void main(String[] args) {
         junit.textui.TestRunner.run(CallableStatementTest.class);
     }
@@ -0,0 +1,186 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the {@link ColumnStore} class.
+ *
+ * @version $Id$
+ */
+public class ColumnStoreUnitTest extends TestCase {
+
+    public ColumnStoreUnitTest(String name) {
+        super(name);
+    }
+
+    private static Object[] row(int i) {
+        return new Object[] {
+            new Integer(i),
+            i % 3 == 0 ? null : "name" + (i % 10),
+            new Long(i * 1000000007L),
+            new Double(i / 7.0),
+            Boolean.valueOf(i % 2 == 0),
+            new Short((short) i),
+            new Byte((byte) i),
+            new Float(i / 3f),
+            new DateTime(i, i * 300),
+            new BigDecimal(i).movePointLeft(2),
+            i % 5 == 0 ? null : new byte[] {(byte) i}
+        };
+    }
+
+    private static void assertRow(Object[] expected, Object[] actual) {
+        assertNotNull(actual);
+        assertEquals(expected.length, actual.length);
+        for (int c = 0; c < expected.length; c++) {
+            if (expected[c] instanceof byte[]) {
+                assertTrue(Arrays.equals((byte[]) expected[c], (byte[]) actual[c]));
+            } else if (expected[c] instanceof DateTime) {
+                DateTime dt = (DateTime) actual[c];
+                assertEquals(((DateTime) expected[c]).getDate(), dt.getDate());
+                assertEquals(((DateTime) expected[c]).getTime(), dt.getTime());
+            } else {
+                assertEquals(expected[c], actual[c]);
+            }
+        }
+    }
+
+    /**
+     * Test that values of all column kinds are returned unchanged, across
+     * several blocks.
+     */
+    public void testRoundTrip() {
+        ColumnStore store = new ColumnStore(11, 0, null);
+        int count = ColumnStore.BLOCK_SIZE * 2 + 17;
+
+        for (int i = 0; i < count; i++) {
+            store.add(row(i));
+        }
+
+        assertEquals(count, store.size());
+        for (int i = 0; i < count; i++) {
+            assertRow(row(i), store.get(i));
+        }
+        assertFalse(store.isSpilled());
+        store.close();
+    }
+
+    /**
+     * Test replacing and deleting rows, short rows and columns changing to
+     * objects when given values of another type.
+     */
+    public void testSet() {
+        ColumnStore store = new ColumnStore(3, 0, null);
+
+        store.add(new Object[] {new Integer(1), "a", null});
+        store.add(new Object[] {new Integer(2)});
+        store.add(new Object[] {new Integer(3), "c", null});
+
+        assertRow(new Object[] {new Integer(2), null, null}, store.get(1));
+
+        // A BigDecimal in an int column, a null replacing a string
+        store.set(1, new Object[] {new BigDecimal("2.5"), null, new Long(7)});
+        assertRow(new Object[] {new Integer(1), "a", null}, store.get(0));
+        assertRow(new Object[] {new BigDecimal("2.5"), null, new Long(7)}, store.get(1));
+        assertRow(new Object[] {new Integer(3), "c", null}, store.get(2));
+
+        store.set(2, null);
+        assertNull(store.get(2));
+        assertEquals(3, store.size());
+
+        store.add(new Object[] {new Integer(4), new Integer(4), "x"});
+        assertRow(new Object[] {new Integer(4), new Integer(4), "x"}, store.get(3));
+        assertRow(new Object[] {new Integer(1), "a", null}, store.get(0));
+        assertRow(new Object[] {new BigDecimal("2.5"), null, new Long(7)}, store.get(1));
+
+        try {
+            store.get(4);
+            fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Test that a datetime read by the application is stored back unchanged,
+     * as happens when a row of an updatable result set is updated.
+     */
+    public void testDateTimeReadBeforeSet() {
+        ColumnStore store = new ColumnStore(1, 0, null);
+        // 2020-06-15 13:45:30.500
+        int time = ((13 * 60 + 45) * 60 + 30) * 300 + 150;
+        store.add(new Object[] {new DateTime(43995, time)});
+
+        DateTime dt = (DateTime) store.get(0)[0];
+        String expected = dt.toTimestamp().toString();
+        assertEquals("2020-06-15 13:45:30.5", expected);
+        assertEquals(time, dt.getTime());
+
+        store.set(0, new Object[] {dt});
+        DateTime stored = (DateTime) store.get(0)[0];
+        assertEquals(43995, stored.getDate());
+        assertEquals(time, stored.getTime());
+        assertEquals(expected, stored.toTimestamp().toString());
+    }
+
+    /**
+     * Test that mostly distinct strings are stored as objects once the
+     * dictionary grows large.
+     */
+    public void testDistinctStrings() {
+        ColumnStore store = new ColumnStore(1, 0, null);
+        int count = 70000;
+
+        for (int i = 0; i < count; i++) {
+            store.add(new Object[] {"value" + i});
+        }
+        for (int i = 0; i < count; i += 997) {
+            assertEquals("value" + i, store.get(i)[0]);
+        }
+        assertEquals("value" + (count - 1), store.get(count - 1)[0]);
+    }
+
+    /**
+     * Test that blocks are moved to the spill file once the memory limit is
+     * exceeded and values are still returned unchanged.
+     */
+    public void testSpill() {
+        ColumnStore store = new ColumnStore(11, 64 * 1024, null);
+        int count = ColumnStore.BLOCK_SIZE * 3;
+
+        for (int i = 0; i < count; i++) {
+            store.add(row(i));
+        }
+        assertTrue(store.isSpilled());
+
+        store.set(5, row(6));
+        for (int i = 0; i < count; i++) {
+            assertRow(row(i == 5 ? 6 : i), store.get(i));
+        }
+        store.close();
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(ColumnStoreUnitTest.class);
+    }
+}
@@ -0,0 +1,94 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import net.sourceforge.jtds.jdbc.cache.ConcurrentClockCache;
+
+/**
+ * Unit tests for the {@link ConcurrentClockCache} class.
+ *
+ * @version $Id$
+ */
+public class ConcurrentClockCacheUnitTest extends UnitTestBase {
+
+    public ConcurrentClockCacheUnitTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Test hit and miss counters.
+     */
+    public void testCounters() {
+        ConcurrentClockCache<String,String> cache = new ConcurrentClockCache<String,String>(10);
+
+        assertNull(cache.get("a"));
+        assertNull(cache.put("a", "1"));
+        assertEquals("1", cache.get("a"));
+        assertEquals("1", cache.put("a", "2"));
+        assertEquals("2", cache.get("a"));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Test that the cache doesn't exceed its limit and that recently used
+     * entries survive the eviction of unused ones.
+     */
+    public void testEviction() {
+        ConcurrentClockCache<Integer,String> cache = new ConcurrentClockCache<Integer,String>(4);
+
+        for (int i = 0; i < 4; i++) {
+            cache.put(new Integer(i), String.valueOf(i));
+        }
+
+        assertNotNull(cache.get(new Integer(0)));
+
+        for (int i = 4; i < 100; i++) {
+            cache.put(new Integer(i), String.valueOf(i));
+            assertTrue(cache.size() <= 4);
+            // keep entry 0 in use
+            assertNotNull(cache.get(new Integer(0)));
+        }
+
+        assertNotNull(cache.get(new Integer(99)));
+    }
+
+    /**
+     * Test that the limit only ever grows.
+     */
+    public void testEnsureLimit() {
+        ConcurrentClockCache<Integer,String> cache = new ConcurrentClockCache<Integer,String>(2);
+
+        cache.ensureLimit(1);
+        assertEquals(2, cache.getLimit());
+        cache.ensureLimit(8);
+        assertEquals(8, cache.getLimit());
+
+        for (int i = 0; i < 8; i++) {
+            cache.put(new Integer(i), String.valueOf(i));
+        }
+
+        assertEquals(8, cache.size());
+    }
+}
@@ -284,6 +284,216 @@ public class ConnectionTest extends UnitTestBase
       stmt.execute( "SELECT {fn curdate()}, {fn curdate()}, {fn curdate()}, {fn curdate()}, {fn curdate()}, {fn curdate()}, {fn curdate()}, {fn curdate()}, {fn curdate()}, {fn curdate()}, {fn curdate()}, {fn curdate()}, {fn curdate()}, {fn curdate()}, {fn curdate()}, {fn curdate()}" );
    }
 
+   /**
+    * Test {@link Connection#isValid(int)}, with and without a validation window.
+    */
+   public void testIsValid() throws Exception
+   {
+      assertTrue( con.isValid( 5 ) );
+      assertTrue( con.isValid( 0 ) );
+
+      try
+      {
+         con.isValid( -1 );
+         fail( "Expecting an SQLException" );
+      }
+      catch( SQLException e )
+      {
+         assertEquals( "HY092", e.getSQLState() );
+      }
+
+      // the connection stays usable after a ping
+      Statement stmt = con.createStatement();
+      assertTrue( stmt.execute( "SELECT 1" ) );
+      stmt.close();
+
+      Properties override = new Properties();
+      override.setProperty( Messages.get( Driver.VALIDATIONWINDOW ), "60000" );
+      Connection con2 = getConnectionOverrideProperties( override );
+
+      try
+      {
+         assertTrue( con2.isValid( 5 ) );
+      }
+      finally
+      {
+         con2.close();
+      }
+
+      assertFalse( con2.isValid( 5 ) );
+   }
+
+   /**
+    * Test that {@link JtdsConnection#resetConnection()} resets the session
+    * state with the next request and resyncs the cached connection state.
+    */
+   public void testResetConnection() throws Exception
+   {
+      JtdsConnection jcon = (JtdsConnection) con;
+
+      if( ! isMSSQL() || jcon.getTdsVersion() < Driver.TDS80 )
+      {
+         assertFalse( jcon.resetConnection() );
+         return;
+      }
+
+      String catalog = con.getCatalog();
+      Statement stmt = con.createStatement();
+      stmt.execute( "CREATE TABLE #reset (id INT)" );
+      con.setAutoCommit( false );
+      con.setTransactionIsolation( Connection.TRANSACTION_SERIALIZABLE );
+      stmt.execute( "INSERT INTO #reset VALUES (1)" );
+      stmt.close();
+
+      assertTrue( jcon.resetConnection() );
+      assertTrue( con.getAutoCommit() );
+      assertEquals( Connection.TRANSACTION_READ_COMMITTED, con.getTransactionIsolation() );
+      assertEquals( catalog, con.getCatalog() );
+
+      stmt = con.createStatement();
+      ResultSet rs = stmt.executeQuery( "SELECT @@TRANCOUNT, OBJECT_ID('tempdb..#reset')" );
+      assertTrue( rs.next() );
+      assertEquals( 0, rs.getInt( 1 ) );
+      assertNull( rs.getObject( 2 ) );
+      rs.close();
+      stmt.close();
+   }
+
+   /**
+    * Test that connections start with the initial session settings, also if
+    * the server information is already cached by an earlier connection.
+    */
+   public void testInitialSettings() throws Exception
+   {
+      for( int i = 0; i < 2; i++ )
+      {
+         Connection c = getConnection();
+         Statement stmt = c.createStatement();
+         ResultSet rs;
+
+         if( isMSSQL() )
+         {
+            rs = stmt.executeQuery( "SELECT @@OPTIONS & 2, SESSIONPROPERTY('QUOTED_IDENTIFIER'), @@TEXTSIZE" );
+            assertTrue( rs.next() );
+            assertEquals( 0, rs.getInt( 1 ) );
+            assertEquals( 1, rs.getInt( 2 ) );
+            assertEquals( 2147483647, rs.getInt( 3 ) );
+            rs.close();
+
+            rs = stmt.executeQuery( "SELECT @@MAX_PRECISION" );
+            assertTrue( rs.next() );
+            assertEquals( rs.getInt( 1 ), ( (JtdsConnection) c ).getMaxPrecision() );
+            rs.close();
+         }
+         else
+         {
+            rs = stmt.executeQuery( "SELECT @@tranchained, @@isolation, @@textsize" );
+            assertTrue( rs.next() );
+            assertEquals( 0, rs.getInt( 1 ) );
+            assertEquals( 1, rs.getInt( 2 ) );
+            assertEquals( 2147483647, rs.getInt( 3 ) );
+            rs.close();
+         }
+
+         stmt.close();
+         c.close();
+      }
+   }
+
+   /**
+    * Test that auto commit mode changes are applied with the next request,
+    * for both language and RPC requests, and that switching back to auto
+    * commit mode commits an open transaction.
+    */
+   public void testSessionSettings() throws Exception
+   {
+      if( ! isMSSQL() )
+      {
+         return;
+      }
+
+      Statement stmt = con.createStatement();
+      stmt.execute( "CREATE TABLE #session (id INT)" );
+
+      // changes cancelling each other out
+      con.setAutoCommit( false );
+      con.setAutoCommit( true );
+      assertImplicitTransactions( stmt, false );
+
+      // language request
+      con.setAutoCommit( false );
+      assertImplicitTransactions( stmt, true );
+
+      // switching back commits the transaction
+      stmt.execute( "INSERT INTO #session VALUES (1)" );
+      con.setAutoCommit( true );
+      ResultSet rs = stmt.executeQuery( "SELECT @@TRANCOUNT, COUNT(*) FROM #session" );
+      assertTrue( rs.next() );
+      assertEquals( 0, rs.getInt( 1 ) );
+      assertEquals( 1, rs.getInt( 2 ) );
+      rs.close();
+
+      // RPC request
+      con.setAutoCommit( false );
+      PreparedStatement pstmt = con.prepareStatement( "SELECT @@OPTIONS & ?" );
+      pstmt.setInt( 1, 2 );
+      rs = pstmt.executeQuery();
+      assertTrue( rs.next() );
+      assertEquals( 2, rs.getInt( 1 ) );
+      rs.close();
+      pstmt.close();
+
+      con.rollback();
+      con.setAutoCommit( true );
+      assertImplicitTransactions( stmt, false );
+      stmt.close();
+   }
+
+   /**
+    * Test that commit and rollback end transactions started by a statement,
+    * also if nothing is left to commit or the transaction has been ended by
+    * the SQL itself.
+    */
+   public void testCommitRollbackTracking() throws Exception
+   {
+      Statement stmt = con.createStatement();
+      stmt.execute( "CREATE TABLE #tracking (id INT)" );
+
+      con.setAutoCommit( false );
+
+      // nothing to commit or rollback
+      con.commit();
+      con.rollback();
+
+      stmt.execute( "INSERT INTO #tracking VALUES (1)" );
+      con.commit();
+      con.commit();
+
+      // transaction ended by the SQL
+      stmt.execute( "INSERT INTO #tracking VALUES (2) COMMIT TRAN" );
+      con.rollback();
+
+      stmt.execute( "INSERT INTO #tracking VALUES (3)" );
+      con.rollback();
+
+      ResultSet rs = stmt.executeQuery( "SELECT COUNT(*) FROM #tracking" );
+      assertTrue( rs.next() );
+      assertEquals( 2, rs.getInt( 1 ) );
+      rs.close();
+
+      con.rollback();
+      con.setAutoCommit( true );
+      stmt.close();
+   }
+
+   private void assertImplicitTransactions( Statement stmt, boolean on ) throws SQLException
+   {
+      ResultSet rs = stmt.executeQuery( "SELECT @@OPTIONS & 2" );
+      assertTrue( rs.next() );
+      assertEquals( on ? 2 : 0, rs.getInt( 1 ) );
+      rs.close();
+   }
+
    /**
     * Test that temporary procedures created within transactions with savepoints
     * which are released are still kept in the procedure cache.
@@ -905,6 +905,63 @@ public class DatabaseMetaDataTest extends MetaDataTestCase {
         st.close();
     }
 
+    /**
+     * Test that metadata results are cached across connections and that the
+     * cache can be invalidated.
+     */
+    public void testMetaDataCache() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Messages.get(Driver.METADATACACHETTL), "60");
+        Connection con1 = getConnection(props);
+        Connection con2 = getConnection(props);
+
+        try {
+            Statement st = con1.createStatement();
+            st.execute("create table #testMetaDataCache (id int primary key, data varchar(10))");
+            st.close();
+
+            JtdsDatabaseMetaData meta1 = (JtdsDatabaseMetaData) con1.getMetaData();
+            meta1.invalidateCache();
+
+            ResultSet rs = meta1.getTypeInfo();
+            int types = 0;
+            while (rs.next()) {
+                types++;
+            }
+            rs.close();
+
+            // the second connection must get the same rows from the cache
+            ResultSet rs2 = con2.getMetaData().getTypeInfo();
+            assertEquals(JtdsStatement.class, rs2.getStatement().getClass());
+            assertEquals(ResultSet.CONCUR_READ_ONLY, rs2.getConcurrency());
+            assertEquals(rs.getMetaData().getColumnCount(), rs2.getMetaData().getColumnCount());
+            for (int i = 0; i < types; i++) {
+                assertTrue(rs2.next());
+            }
+            assertFalse(rs2.next());
+            rs2.close();
+
+            // cached results are independent of each other
+            rs = meta1.getColumns(null, null, "#testMetaDataCache%", "%");
+            assertTrue(rs.next());
+            assertEquals("id", rs.getString("COLUMN_NAME"));
+            rs = meta1.getColumns(null, null, "#testMetaDataCache%", "%");
+            assertTrue(rs.next());
+            assertTrue(rs.next());
+            assertEquals("data", rs.getString("COLUMN_NAME"));
+            assertFalse(rs.next());
+
+            int entries = MetaDataCache.size();
+            meta1.invalidateCache();
+            rs = meta1.getColumns(null, null, "#testMetaDataCache%", "%");
+            assertEquals(entries + 1, MetaDataCache.size());
+            rs.close();
+        } finally {
+            con1.close();
+            con2.close();
+        }
+    }
+
     public static void main(String[] args) {
         junit.textui.TestRunner.run(DatabaseMetaDataTest.class);
     }
@@ -469,6 +469,214 @@ public abstract class DefaultPropertiesTestLibrary extends TestCase {
         }
     }
 
+    /**
+     * Test the <code>rewriteBatchedInserts</code> property.
+     */
+    public void test_rewriteBatchedInserts() {
+        String fieldName = "rewriteBatchedInserts";
+        String messageKey = Driver.REWRITEBATCHEDINSERTS;
+        String expectedValue = DefaultProperties.REWRITE_BATCHED_INSERTS;
+        assertDefaultPropertyByServerType(URL_SQLSERVER, messageKey, fieldName, expectedValue);
+        if (!isOnlySqlServerTests()) {
+            assertDefaultPropertyByServerType(URL_SYBASE, messageKey, fieldName, expectedValue);
+        }
+    }
+
+    /**
+     * Test the <code>streamBatches</code> property.
+     */
+    public void test_streamBatches() {
+        String fieldName = "streamBatches";
+        String messageKey = Driver.STREAMBATCHES;
+        String expectedValue = DefaultProperties.STREAM_BATCHES;
+        assertDefaultPropertyByServerType(URL_SQLSERVER, messageKey, fieldName, expectedValue);
+        if (!isOnlySqlServerTests()) {
+            assertDefaultPropertyByServerType(URL_SYBASE, messageKey, fieldName, expectedValue);
+        }
+    }
+
+    /**
+     * Test the <code>parseCacheSize</code> property.
+     */
+    public void test_parseCacheSize() {
+        String fieldName = "parseCacheSize";
+        String messageKey = Driver.PARSECACHESIZE;
+        String expectedValue = DefaultProperties.PARSE_CACHE_SIZE;
+        assertDefaultPropertyByServerType(URL_SQLSERVER, messageKey, fieldName, expectedValue);
+        if (!isOnlySqlServerTests()) {
+            assertDefaultPropertyByServerType(URL_SYBASE, messageKey, fieldName, expectedValue);
+        }
+    }
+
+    /**
+     * Test the <code>statementPoolSize</code> property.
+     */
+    public void test_statementPoolSize() {
+        String fieldName = "statementPoolSize";
+        String messageKey = Driver.STATEMENTPOOLSIZE;
+        String expectedValue = DefaultProperties.STATEMENT_POOL_SIZE;
+        assertDefaultPropertyByServerType(URL_SQLSERVER, messageKey, fieldName, expectedValue);
+        if (!isOnlySqlServerTests()) {
+            assertDefaultPropertyByServerType(URL_SYBASE, messageKey, fieldName, expectedValue);
+        }
+    }
+
+    /**
+     * Test the <code>prepareThreshold</code> property.
+     */
+    public void test_prepareThreshold() {
+        String fieldName = "prepareThreshold";
+        String messageKey = Driver.PREPARETHRESHOLD;
+        String expectedValue = DefaultProperties.PREPARE_THRESHOLD;
+        assertDefaultPropertyByServerType(URL_SQLSERVER, messageKey, fieldName, expectedValue);
+        if (!isOnlySqlServerTests()) {
+            assertDefaultPropertyByServerType(URL_SYBASE, messageKey, fieldName, expectedValue);
+        }
+    }
+
+    /**
+     * Test the <code>metadataCacheTtl</code> property.
+     */
+    public void test_metadataCacheTtl() {
+        String fieldName = "metadataCacheTtl";
+        String messageKey = Driver.METADATACACHETTL;
+        String expectedValue = DefaultProperties.METADATA_CACHE_TTL;
+        assertDefaultPropertyByServerType(URL_SQLSERVER, messageKey, fieldName, expectedValue);
+        if (!isOnlySqlServerTests()) {
+            assertDefaultPropertyByServerType(URL_SYBASE, messageKey, fieldName, expectedValue);
+        }
+    }
+
+    /**
+     * Test the <code>metadataCacheSize</code> property.
+     */
+    public void test_metadataCacheSize() {
+        String fieldName = "metadataCacheSize";
+        String messageKey = Driver.METADATACACHESIZE;
+        String expectedValue = DefaultProperties.METADATA_CACHE_SIZE;
+        assertDefaultPropertyByServerType(URL_SQLSERVER, messageKey, fieldName, expectedValue);
+        if (!isOnlySqlServerTests()) {
+            assertDefaultPropertyByServerType(URL_SYBASE, messageKey, fieldName, expectedValue);
+        }
+    }
+
+    /**
+     * Test the <code>procedureCacheTtl</code> property.
+     */
+    public void test_procedureCacheTtl() {
+        String fieldName = "procedureCacheTtl";
+        String messageKey = Driver.PROCEDURECACHETTL;
+        String expectedValue = DefaultProperties.PROCEDURE_CACHE_TTL;
+        assertDefaultPropertyByServerType(URL_SQLSERVER, messageKey, fieldName, expectedValue);
+        if (!isOnlySqlServerTests()) {
+            assertDefaultPropertyByServerType(URL_SYBASE, messageKey, fieldName, expectedValue);
+        }
+    }
+
+    /**
+     * Test the <code>describeParameters</code> property.
+     */
+    public void test_describeParameters() {
+        String fieldName = "describeParameters";
+        String messageKey = Driver.DESCRIBEPARAMETERS;
+        String expectedValue = DefaultProperties.DESCRIBE_PARAMETERS;
+        assertDefaultPropertyByServerType(URL_SQLSERVER, messageKey, fieldName, expectedValue);
+        if (!isOnlySqlServerTests()) {
+            assertDefaultPropertyByServerType(URL_SYBASE, messageKey, fieldName, expectedValue);
+        }
+    }
+
+    /**
+     * Test the <code>validationWindow</code> property.
+     */
+    public void test_validationWindow() {
+        String fieldName = "validationWindow";
+        String messageKey = Driver.VALIDATIONWINDOW;
+        String expectedValue = DefaultProperties.VALIDATION_WINDOW;
+        assertDefaultPropertyByServerType(URL_SQLSERVER, messageKey, fieldName, expectedValue);
+        if (!isOnlySqlServerTests()) {
+            assertDefaultPropertyByServerType(URL_SYBASE, messageKey, fieldName, expectedValue);
+        }
+    }
+
+    /**
+     * Test the <code>fairLock</code> property.
+     */
+    public void test_fairLock() {
+        String fieldName = "fairLock";
+        String messageKey = Driver.FAIRLOCK;
+        String expectedValue = DefaultProperties.FAIR_LOCK;
+        assertDefaultPropertyByServerType(URL_SQLSERVER, messageKey, fieldName, expectedValue);
+        if (!isOnlySqlServerTests()) {
+            assertDefaultPropertyByServerType(URL_SYBASE, messageKey, fieldName, expectedValue);
+        }
+    }
+
+    /**
+     * Test the <code>lockTimeout</code> property.
+     */
+    public void test_lockTimeout() {
+        String fieldName = "lockTimeout";
+        String messageKey = Driver.LOCKTIMEOUT;
+        String expectedValue = DefaultProperties.LOCK_TIMEOUT;
+        assertDefaultPropertyByServerType(URL_SQLSERVER, messageKey, fieldName, expectedValue);
+        if (!isOnlySqlServerTests()) {
+            assertDefaultPropertyByServerType(URL_SYBASE, messageKey, fieldName, expectedValue);
+        }
+    }
+
+    /**
+     * Test the <code>failoverPartner</code> property.
+     */
+    public void test_failoverPartner() {
+        String fieldName = "failoverPartner";
+        String messageKey = Driver.FAILOVERPARTNER;
+        String expectedValue = DefaultProperties.FAILOVER_PARTNER;
+        assertDefaultPropertyByServerType(URL_SQLSERVER, messageKey, fieldName, expectedValue);
+        if (!isOnlySqlServerTests()) {
+            assertDefaultPropertyByServerType(URL_SYBASE, messageKey, fieldName, expectedValue);
+        }
+    }
+
+    /**
+     * Test the <code>multiSubnetFailover</code> property.
+     */
+    public void test_multiSubnetFailover() {
+        String fieldName = "multiSubnetFailover";
+        String messageKey = Driver.MULTISUBNETFAILOVER;
+        String expectedValue = DefaultProperties.MULTI_SUBNET_FAILOVER;
+        assertDefaultPropertyByServerType(URL_SQLSERVER, messageKey, fieldName, expectedValue);
+        if (!isOnlySqlServerTests()) {
+            assertDefaultPropertyByServerType(URL_SYBASE, messageKey, fieldName, expectedValue);
+        }
+    }
+
+    /**
+     * Test the <code>instanceCacheTTL</code> property.
+     */
+    public void test_instanceCacheTTL() {
+        String fieldName = "instanceCacheTTL";
+        String messageKey = Driver.INSTANCECACHETTL;
+        String expectedValue = DefaultProperties.INSTANCE_CACHE_TTL;
+        assertDefaultPropertyByServerType(URL_SQLSERVER, messageKey, fieldName, expectedValue);
+        if (!isOnlySqlServerTests()) {
+            assertDefaultPropertyByServerType(URL_SYBASE, messageKey, fieldName, expectedValue);
+        }
+    }
+
+    /**
+     * Test the <code>resultSetMaxMemory</code> property.
+     */
+    public void test_resultSetMaxMemory() {
+        String fieldName = "resultSetMaxMemory";
+        String messageKey = Driver.RESULTSETMAXMEMORY;
+        String expectedValue = DefaultProperties.RESULT_SET_MAX_MEMORY;
+        assertDefaultPropertyByServerType(URL_SQLSERVER, messageKey, fieldName, expectedValue);
+        if (!isOnlySqlServerTests()) {
+            assertDefaultPropertyByServerType(URL_SYBASE, messageKey, fieldName, expectedValue);
+        }
+    }
+
     /**
      * Test the <code>wsid</code> property.
      */
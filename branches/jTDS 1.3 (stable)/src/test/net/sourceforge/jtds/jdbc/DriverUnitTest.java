@@ -203,6 +203,11 @@ public class DriverUnitTest extends UnitTestBase {
         expectedChoicesMap.put(Messages.get(Driver.CACHEMETA), expectedBooleanChoices);
         expectedChoicesMap.put(Messages.get(Driver.USECURSORS), expectedBooleanChoices);
         expectedChoicesMap.put(Messages.get(Driver.USELOBS), expectedBooleanChoices);
+        expectedChoicesMap.put(Messages.get(Driver.MULTISUBNETFAILOVER), expectedBooleanChoices);
+        expectedChoicesMap.put(Messages.get(Driver.FAIRLOCK), expectedBooleanChoices);
+        expectedChoicesMap.put(Messages.get(Driver.DESCRIBEPARAMETERS), expectedBooleanChoices);
+        expectedChoicesMap.put(Messages.get(Driver.STREAMBATCHES), expectedBooleanChoices);
+        expectedChoicesMap.put(Messages.get(Driver.REWRITEBATCHEDINSERTS), expectedBooleanChoices);
 
         final Map infoMap = new HashMap();
         loadDriverPropertyInfoMap(infoMap);
@@ -0,0 +1,473 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import net.sourceforge.jtds.jdbcx.JtdsDataSource;
+import net.sourceforge.jtds.jdbcx.JtdsPoolingDataSource;
+
+/**
+ * Unit tests for the {@link JtdsConnection} class, using a {@link MockServer}
+ * on the loopback interface.
+ *
+ * @version $Id$
+ */
+public class JtdsConnectionUnitTest extends TestCase {
+
+    private MockServer server;
+
+    public JtdsConnectionUnitTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new MockServer();
+    }
+
+    protected void tearDown() throws Exception {
+        server.close();
+        super.tearDown();
+    }
+
+    /**
+     * Test that a statement closed by the application is returned by the
+     * next <code>prepareStatement</code> call with the same SQL.
+     */
+    public void testStatementPool() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Messages.get(Driver.STATEMENTPOOLSIZE), "2");
+        Connection con = server.connect(props);
+
+        try {
+            JtdsConnection jcon = (JtdsConnection) con;
+            PreparedStatement ps1 = con.prepareStatement("select ?");
+            ps1.close();
+
+            PreparedStatement ps2 = con.prepareStatement("select ?");
+            assertSame(ps1, ps2);
+            assertFalse(ps2.isClosed());
+            assertEquals(1, jcon.getStatementPoolHits());
+
+            // the pooled statement is in use, so a new one is created
+            PreparedStatement ps3 = con.prepareStatement("select ?");
+            assertNotSame(ps2, ps3);
+            ps3.close();
+            ps2.close();
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Test that the parameters of a pooled statement are only described by
+     * the server once.
+     */
+    public void testStatementPoolDescribeParameters() throws Exception {
+        server.close();
+        server = new MockServer() {
+            protected void respond(int type, String text, Reply reply) {
+                if (text.indexOf("sp_describe_undeclared_parameters") >= 0) {
+                    reply.result(
+                            new String[] {"name", "suggested_system_type_name"},
+                            new Object[][] {{"@P0", "varchar(10)"}});
+                } else {
+                    super.respond(type, text, reply);
+                }
+            }
+        };
+        Properties props = new Properties();
+        props.setProperty(Messages.get(Driver.STATEMENTPOOLSIZE), "2");
+        props.setProperty(Messages.get(Driver.DESCRIBEPARAMETERS), "true");
+        Connection con = server.connect(props);
+
+        try {
+            for (int i = 0; i < 3; i++) {
+                JtdsPreparedStatement ps = (JtdsPreparedStatement)
+                        con.prepareStatement("select * from t where a = ?");
+                ps.setString(1, "x");
+                assertFalse(ps.parameters[0].isUnicode);
+                ps.close();
+            }
+            assertEquals(1, server.count("sp_describe_undeclared_parameters"));
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Test that parameter names not generated by jTDS in the description
+     * returned by the server are ignored.
+     */
+    public void testDescribeParametersUnknownNames() throws Exception {
+        server.close();
+        server = new MockServer() {
+            protected void respond(int type, String text, Reply reply) {
+                if (text.indexOf("sp_describe_undeclared_parameters") >= 0) {
+                    reply.result(
+                            new String[] {"name", "suggested_system_type_name"},
+                            new Object[][] {{"@P", "varchar(10)"},
+                                            {"@Pname", "varchar(10)"},
+                                            {"@P1", "varchar(10)"}});
+                } else {
+                    super.respond(type, text, reply);
+                }
+            }
+        };
+        Properties props = new Properties();
+        props.setProperty(Messages.get(Driver.DESCRIBEPARAMETERS), "true");
+        Connection con = server.connect(props);
+
+        try {
+            JtdsPreparedStatement ps = (JtdsPreparedStatement)
+                    con.prepareStatement("select * from t where a = ? and b = ?");
+            ps.setString(1, "x");
+            ps.setString(2, "y");
+            assertTrue(ps.parameters[0].isUnicode);
+            assertFalse(ps.parameters[1].isUnicode);
+            ps.close();
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Test that a statement is only cached once <code>sp_prepexec</code>
+     * returned its handle, so a failed first execution prepares it again.
+     */
+    public void testPrepareOnExecute() throws Exception {
+        server.close();
+        server = new MockServer() {
+            protected void respond(int type, String text, Reply reply) {
+                if (text.startsWith("sp_prepexec") && text.indexOf("fail") >= 0) {
+                    reply.error(208, "Invalid object name 'fail'.")
+                         .done(Reply.DONE_ERROR, 0);
+                } else if (text.startsWith("sp_prepexec")) {
+                    reply.returnValue("@P0", 42)
+                         .doneInProc(Reply.DONE_MORE | Reply.DONE_COUNT, 1)
+                         .returnStatus(0).doneProc(0, 0);
+                } else if (text.startsWith("sp_execute")) {
+                    reply.doneInProc(Reply.DONE_MORE | Reply.DONE_COUNT, 1)
+                         .returnStatus(0).doneProc(0, 0);
+                } else {
+                    super.respond(type, text, reply);
+                }
+            }
+        };
+        Connection con = server.connect(null);
+
+        try {
+            for (int i = 0; i < 2; i++) {
+                PreparedStatement ps = con.prepareStatement("update fail set a = ?");
+                ps.setInt(1, 1);
+                try {
+                    ps.executeUpdate();
+                    fail("Expecting an exception");
+                } catch (SQLException ex) {
+                    assertEquals(208, ex.getErrorCode());
+                }
+                ps.close();
+            }
+            assertEquals(2, server.count("sp_prepexec"));
+
+            for (int i = 0; i < 2; i++) {
+                PreparedStatement ps = con.prepareStatement("update t set a = ?");
+                ps.setInt(1, 1);
+                assertEquals(1, ps.executeUpdate());
+                ps.close();
+            }
+            assertEquals(3, server.count("sp_prepexec"));
+            assertEquals(1, server.count("sp_execute "));
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Test that session settings are sent again after the request carrying
+     * them failed, as SQL Server doesn't execute any statement of a batch
+     * that fails to compile.
+     */
+    public void testSessionSettingsAfterError() throws Exception {
+        server.close();
+        server = new MockServer() {
+            protected void respond(int type, String text, Reply reply) {
+                if (text.indexOf("update bad") >= 0) {
+                    reply.error(102, "Incorrect syntax near 'bad'.")
+                         .done(Reply.DONE_ERROR, 0);
+                } else {
+                    super.respond(type, text, reply);
+                }
+            }
+        };
+        Connection con = server.connect(null);
+
+        try {
+            Statement stmt = con.createStatement();
+            con.setAutoCommit(false);
+
+            try {
+                stmt.executeUpdate("update bad");
+                fail("Expecting an exception");
+            } catch (SQLException ex) {
+                assertEquals(102, ex.getErrorCode());
+            }
+            assertTrue(server.lastRequest().startsWith(
+                    "SET IMPLICIT_TRANSACTIONS ON;\r\n"));
+
+            stmt.executeUpdate("update t set a = 1");
+            assertTrue(server.lastRequest().startsWith(
+                    "SET IMPLICIT_TRANSACTIONS ON;\r\n"));
+
+            // confirmed, so not sent again
+            stmt.executeUpdate("update t set a = 2");
+            assertEquals("update t set a = 2", server.lastRequest());
+            stmt.close();
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Test that the session settings are terminated, so that statements
+     * like <code>WITH</code> can be prefixed, and that statements which
+     * have to be alone in a batch are not.
+     */
+    public void testSessionSettingsPrefix() throws Exception {
+        Connection con = server.connect(null);
+
+        try {
+            Statement stmt = con.createStatement();
+
+            con.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+            stmt.execute("with x as (select 1 a) update t set a = 1");
+            assertEquals("SET TRANSACTION ISOLATION LEVEL SERIALIZABLE;\r\n"
+                    + "with x as (select 1 a) update t set a = 1",
+                    server.lastRequest());
+
+            con.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            stmt.execute("set showplan_text on");
+            assertEquals("set showplan_text on", server.lastRequest());
+            assertEquals(1, server.count(
+                    "SET TRANSACTION ISOLATION LEVEL READ COMMITTED;"));
+            stmt.close();
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Test that the statement of a result set returned by the metadata cache
+     * is closed along with the result set.
+     */
+    public void testMetaDataCacheStatement() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Messages.get(Driver.METADATACACHETTL), "60");
+        JtdsConnection con = (JtdsConnection) server.connect(props);
+
+        try {
+            String key = MetaDataCache.getKey(con, "testMetaDataCacheStatement",
+                    new Object[0]);
+            JtdsStatement stmt = (JtdsStatement) con.createStatement();
+            CachedResultSet rs = new CachedResultSet(stmt,
+                    new String[] {"ID"}, new int[] {Types.INTEGER});
+            rs.moveToInsertRow();
+            rs.updateInt(1, 1);
+            rs.insertRow();
+            rs.moveToCurrentRow();
+            MetaDataCache.put(con, key, rs).close();
+
+            for (int i = 0; i < 2; i++) {
+                ResultSet cached = MetaDataCache.get(con, key);
+                assertTrue(cached.next());
+                assertEquals(1, cached.getInt(1));
+                Statement owner = cached.getStatement();
+                assertFalse(owner.isClosed());
+                cached.close();
+                assertTrue(owner.isClosed());
+            }
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Test that <code>isValid</code> pings the server and fails once the
+     * connection has been lost.
+     */
+    public void testIsValid() throws Exception {
+        Connection con = server.connect(null);
+
+        try {
+            assertTrue(con.isValid(5));
+            assertEquals(" ", server.lastRequest());
+
+            server.close();
+            assertFalse(con.isValid(5));
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Test that a request fails with a timeout once it waited
+     * <code>lockTimeout</code> milliseconds for the connection.
+     */
+    public void testLockTimeout() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Messages.get(Driver.LOCKTIMEOUT), "100");
+        JtdsConnection con = (JtdsConnection) server.connect(props);
+
+        try {
+            Statement stmt = con.createStatement();
+            Semaphore mutex = con.getMutex();
+            assertSame(Thread.currentThread(), con.getLockHolder());
+
+            long start = System.currentTimeMillis();
+            try {
+                stmt.executeUpdate("update t set a = 1");
+                fail("Expecting a SQLTimeoutException");
+            } catch (SQLTimeoutException ex) {
+                assertEquals("HYT00", ex.getSQLState());
+                assertTrue(ex.getMessage().indexOf(
+                        Thread.currentThread().getName()) >= 0);
+            }
+            assertTrue(System.currentTimeMillis() - start >= 100);
+
+            mutex.release();
+            assertEquals(0, stmt.executeUpdate("update t set a = 1"));
+            stmt.close();
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Test that the rows of a table-valued parameter are sent as a parameter,
+     * so the statement text doesn't change with the data.
+     */
+    public void testTableValuedParameter() throws Exception {
+        Connection con = server.connect(null);
+
+        try {
+            String statement = "DECLARE @P0 [dbo].[KeyList]\n"
+                    + "INSERT INTO @P0 ([id],[name]) SELECT "
+                    + "t.r.value('@c0','nvarchar(max)'),"
+                    + "t.r.value('@c1','nvarchar(max)') "
+                    + "FROM (SELECT CAST(@P0_rows AS xml) AS x) AS d "
+                    + "CROSS APPLY d.x.nodes('/r') AS t(r)\n"
+                    + "update t set a = 1 where id in (select id from  @P0 )";
+            PreparedStatement ps = con.prepareStatement(
+                    "update t set a = 1 where id in (select id from ?)");
+
+            TableValuedParameter tvp = new TableValuedParameter("dbo.KeyList");
+            tvp.addColumn("id", Types.INTEGER);
+            tvp.addColumn("name", Types.VARCHAR);
+            tvp.addRow(new Object[] {new Integer(1), "a & <b>"});
+            tvp.addRow(new Object[] {new Integer(2), null});
+            ps.setObject(1, tvp);
+            ps.executeUpdate();
+
+            assertTrue(server.lastRequest().startsWith("sp_executesql"));
+            assertEquals(1, server.count(statement));
+            assertTrue(server.lastRequest().indexOf(
+                    "<r c0=\"1\" c1=\"a &amp; &lt;b>\"/><r c0=\"2\"/>") >= 0);
+
+            // Too many rows for an nvarchar(4000) value, sent as a stream
+            tvp.clearRows();
+            for (int i = 0; i < 1000; i++) {
+                tvp.addRow(new Object[] {new Integer(i), "row \"" + i + '"'});
+            }
+            ps.setObject(1, tvp);
+            ps.executeUpdate();
+
+            assertEquals(2, server.count(statement));
+            assertTrue(server.lastRequest().indexOf(
+                    "<r c0=\"0\" c1=\"row &quot;0&quot;\"/>") >= 0);
+            assertTrue(server.lastRequest().indexOf(
+                    "<r c0=\"999\" c1=\"row &quot;999&quot;\"/>") >= 0);
+            ps.close();
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Test that the connection pool resets connections returned to it, but
+     * a pooled connection handed out for an external pool is left alone.
+     */
+    public void testResetConnection() throws Exception {
+        String rollback = "IF @@TRANCOUNT > 0 ROLLBACK TRAN";
+
+        JtdsDataSource ds = new JtdsDataSource();
+        ds.setServerName("127.0.0.1");
+        ds.setPortNumber(server.getPort());
+        ds.setUser("sa");
+        ds.setPassword("sa");
+
+        javax.sql.PooledConnection pc = ds.getPooledConnection();
+        try {
+            Connection con = pc.getConnection();
+            con.setAutoCommit(false);
+            con.createStatement().executeUpdate("update t set a = 1");
+            con.close();
+
+            // The transaction is still pending for the external pool
+            con = pc.getConnection();
+            assertFalse(con.getAutoCommit());
+            assertEquals(0, server.count(rollback));
+            con.close();
+        } finally {
+            pc.close();
+        }
+
+        JtdsPoolingDataSource pool = new JtdsPoolingDataSource();
+        pool.setServerName("127.0.0.1");
+        pool.setPortNumber(server.getPort());
+        pool.setUser("sa");
+        pool.setPassword("sa");
+        pool.setMaxPoolSize(1);
+        try {
+            Connection con = pool.getConnection();
+            con.setAutoCommit(false);
+            con.createStatement().executeUpdate("update t set a = 1");
+            con.close();
+            assertEquals(1, server.count(rollback));
+
+            con = pool.getConnection();
+            assertTrue(con.getAutoCommit());
+            con.close();
+        } finally {
+            pool.close();
+        }
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(JtdsConnectionUnitTest.class);
+    }
+}
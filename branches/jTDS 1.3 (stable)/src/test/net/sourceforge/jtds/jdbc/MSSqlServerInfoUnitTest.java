@@ -0,0 +1,150 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the instance cache of the {@link MSSqlServerInfo} class,
+ * using a fake SQL Server Browser on the loopback interface.
+ *
+ * @version $Id$
+ */
+public class MSSqlServerInfoUnitTest extends TestCase {
+
+    private static final String HOST = "127.0.0.1";
+
+    /**
+     * Fake SQL Server Browser answering with the current port of instance
+     * <code>DOG</code>.
+     */
+    private static class Browser extends Thread {
+        final DatagramSocket socket;
+        volatile int port = 3546;
+        volatile int requests;
+
+        Browser() throws SocketException {
+            socket = new DatagramSocket(new InetSocketAddress(HOST, 1434));
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                byte[] buf = new byte[16];
+                while (true) {
+                    DatagramPacket request = new DatagramPacket(buf, buf.length);
+                    socket.receive(request);
+                    requests++;
+                    byte[] info = ("   ServerName;HOST;InstanceName;DOG;IsClustered;No;"
+                            + "Version;8.00.194;tcp;" + port + ";;").getBytes("ASCII");
+                    socket.send(new DatagramPacket(info, info.length,
+                            request.getSocketAddress()));
+                }
+            } catch (Exception e) {
+                // Socket closed
+            }
+        }
+    }
+
+    private Browser browser;
+
+    public MSSqlServerInfoUnitTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        MSSqlServerInfo.invalidate(HOST);
+        try {
+            browser = new Browser();
+            browser.start();
+        } catch (SocketException e) {
+            // Port 1434 in use, e.g. by a real SQL Server Browser
+            System.err.println("Skipping " + getName() + ": " + e);
+        }
+    }
+
+    protected void tearDown() throws Exception {
+        if (browser != null) {
+            browser.socket.close();
+        }
+        MSSqlServerInfo.invalidate(HOST);
+        super.tearDown();
+    }
+
+    /**
+     * Test that the server information is looked up once and again after
+     * being invalidated.
+     */
+    public void testCache() throws Exception {
+        if (browser == null) {
+            return;
+        }
+
+        assertEquals(3546, MSSqlServerInfo.getInstance(HOST, 60).getPortForInstance("dog"));
+        assertEquals(3546, MSSqlServerInfo.getInstance(HOST, 60).getPortForInstance("DOG"));
+        assertEquals(-1, MSSqlServerInfo.getInstance(HOST, 60).getPortForInstance("CAT"));
+        assertEquals(1, browser.requests);
+
+        browser.port = 3547;
+        MSSqlServerInfo.invalidate(HOST);
+        assertEquals(3547, MSSqlServerInfo.getInstance(HOST, 60).getPortForInstance("DOG"));
+        assertEquals(2, browser.requests);
+
+        // A TTL of 0 bypasses the cache
+        assertEquals(3547, MSSqlServerInfo.getInstance(HOST, 0).getPortForInstance("DOG"));
+        assertEquals(3, browser.requests);
+    }
+
+    /**
+     * Test that an expired entry is returned while refreshed in the
+     * background.
+     */
+    public void testRefresh() throws Exception {
+        if (browser == null) {
+            return;
+        }
+
+        assertEquals(3546, MSSqlServerInfo.getInstance(HOST, 1).getPortForInstance("DOG"));
+        browser.port = 3547;
+        Thread.sleep(1100);
+
+        assertEquals(3546, MSSqlServerInfo.getInstance(HOST, 1).getPortForInstance("DOG"));
+        for (int i = 0; i < 100 && browser.requests < 2; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(2, browser.requests);
+
+        int port = 0;
+        for (int i = 0; i < 100 && port != 3547; i++) {
+            Thread.sleep(20);
+            port = MSSqlServerInfo.getInstance(HOST, 1).getPortForInstance("DOG");
+        }
+        assertEquals(3547, port);
+        assertEquals(2, browser.requests);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(MSSqlServerInfoUnitTest.class);
+    }
+}
@@ -0,0 +1,69 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+/**
+ * Unit tests for the {@link MetaDataCache} helpers.
+ *
+ * @version $Id$
+ */
+public class MetaDataCacheUnitTest extends UnitTestBase {
+
+    public MetaDataCacheUnitTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Test splitting of procedure names into database, owner and name.
+     */
+    public void testSplitProcName() {
+        assertEquals(new String[] {null, null, "proc"},
+                MetaDataCache.splitProcName("proc"));
+        assertEquals(new String[] {null, "dbo", "proc"},
+                MetaDataCache.splitProcName("dbo.proc"));
+        assertEquals(new String[] {"db", null, "proc"},
+                MetaDataCache.splitProcName("db..proc"));
+        assertEquals(new String[] {"my db", "dbo", "my.proc"},
+                MetaDataCache.splitProcName("[my db].\"dbo\".[my.proc]"));
+        assertEquals(new String[] {null, null, "proc"},
+                MetaDataCache.splitProcName("proc;2"));
+
+        assertNull(MetaDataCache.splitProcName("#temp"));
+        assertNull(MetaDataCache.splitProcName("server.db.dbo.proc"));
+    }
+
+    /**
+     * Test the classification of string types.
+     */
+    public void testIsUnicodeCharType() {
+        assertEquals(Boolean.TRUE, MetaDataCache.isUnicodeCharType("nvarchar"));
+        assertEquals(Boolean.TRUE, MetaDataCache.isUnicodeCharType("NCHAR"));
+        assertEquals(Boolean.TRUE, MetaDataCache.isUnicodeCharType("univarchar"));
+        assertEquals(Boolean.FALSE, MetaDataCache.isUnicodeCharType("varchar"));
+        assertEquals(Boolean.FALSE, MetaDataCache.isUnicodeCharType("text"));
+        assertNull(MetaDataCache.isUnicodeCharType("int"));
+        assertNull(MetaDataCache.isUnicodeCharType("uniqueidentifier"));
+        assertNull(MetaDataCache.isUnicodeCharType("numeric"));
+        assertNull(MetaDataCache.isUnicodeCharType(null));
+    }
+
+    private static void assertEquals(String[] expected, String[] actual) {
+        assertEquals(java.util.Arrays.asList(expected),
+                java.util.Arrays.asList(actual));
+    }
+}
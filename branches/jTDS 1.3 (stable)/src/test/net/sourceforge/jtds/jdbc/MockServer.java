@@ -0,0 +1,429 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Minimal SQL Server (TDS 8.0) on the loopback interface for unit tests that
+ * need a connection but no database. Any login is accepted and reported as
+ * SQL Server 2012. Requests are recorded as text and answered by
+ * {@link #respond}, which returns the maximum precision queried while
+ * connecting and an update count of 0 for anything else.
+ * <p/>
+ * The text of a request is the SQL of a language request or, for an RPC,
+ * the procedure name followed by the parameters decoded as UCS-2, so that
+ * SQL sent as a parameter can be found as well.
+ *
+ * @version $Id$
+ */
+class MockServer extends Thread {
+    static final int QUERY_PKT = 1;
+    static final int RPC_PKT = 3;
+    static final int CANCEL_PKT = 6;
+    static final int MSLOGIN_PKT = 16;
+
+    /** Names of the procedures RPCs refer to by number. */
+    private static final String[] PROC_IDS = {null,
+        "sp_cursor", "sp_cursoropen", "sp_cursorprepare", "sp_cursorexecute",
+        "sp_cursorprepexec", "sp_cursorunprepare", "sp_cursorfetch",
+        "sp_cursoroption", "sp_cursorclose", "sp_executesql", "sp_prepare",
+        "sp_execute", "sp_prepexec", "sp_prepexecrpc", "sp_unprepare"};
+
+    final ServerSocket server;
+    private final List<String> requests = new ArrayList<String>();
+    private final List<Socket> clients = new ArrayList<Socket>();
+
+    MockServer() throws IOException {
+        this(new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1")));
+    }
+
+    MockServer(ServerSocket server) {
+        super("MockServer " + server.getLocalPort());
+        this.server = server;
+        setDaemon(true);
+        start();
+    }
+
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Opens a connection to this server.
+     *
+     * @param props additional connection properties or <code>null</code>
+     */
+    Connection connect(Properties props) throws SQLException {
+        Properties info = new Properties();
+        info.setProperty(Messages.get(Driver.USER), "sa");
+        info.setProperty(Messages.get(Driver.PASSWORD), "sa");
+        if (props != null) {
+            info.putAll(props);
+        }
+
+        return new Driver().connect(
+                "jdbc:jtds:sqlserver://127.0.0.1:" + getPort() + "/master", info);
+    }
+
+    /**
+     * Retrieves the number of requests received containing a text.
+     */
+    int count(String text) {
+        synchronized (requests) {
+            int count = 0;
+            for (int i = 0; i < requests.size(); i++) {
+                if (requests.get(i).indexOf(text) >= 0) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Retrieves the text of the last request received.
+     */
+    String lastRequest() {
+        synchronized (requests) {
+            return requests.isEmpty() ? null : requests.get(requests.size() - 1);
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes the connections accepted.
+     */
+    void close() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        synchronized (clients) {
+            for (int i = 0; i < clients.size(); i++) {
+                try {
+                    clients.get(i).close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    public void run() {
+        try {
+            while (true) {
+                final Socket client = server.accept();
+                synchronized (clients) {
+                    clients.add(client);
+                }
+                Thread thread = new Thread("MockServer client") {
+                    public void run() {
+                        serve(client);
+                    }
+                };
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException e) {
+            // Server socket closed
+        }
+    }
+
+    /**
+     * Builds the response to a request. Override to return other results.
+     *
+     * @param type  the packet type of the request
+     * @param text  the request text
+     * @param reply the response to fill in
+     */
+    protected void respond(int type, String text, Reply reply) {
+        if (text.indexOf("@@MAX_PRECISION") >= 0) {
+            reply.result(new String[] {""}, new Object[][] {{new Integer(38)}});
+        } else {
+            reply.done(Reply.DONE_COUNT, 0);
+        }
+    }
+
+    private void serve(Socket client) {
+        try {
+            DataInputStream in = new DataInputStream(client.getInputStream());
+            OutputStream out = client.getOutputStream();
+
+            while (true) {
+                ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                byte[] header = new byte[8];
+                int type;
+
+                do {
+                    in.readFully(header);
+                    type = header[0];
+                    byte[] data = new byte[((header[2] & 0xFF) << 8 | header[3] & 0xFF) - 8];
+                    in.readFully(data);
+                    payload.write(data);
+                } while ((header[1] & 0x01) == 0);
+
+                Reply reply = new Reply();
+
+                if (type == MSLOGIN_PKT) {
+                    reply.loginAck();
+                } else if (type == CANCEL_PKT) {
+                    reply.done(Reply.DONE_ATTN, 0);
+                } else {
+                    String text = decode(type, payload.toByteArray());
+                    synchronized (requests) {
+                        requests.add(text);
+                    }
+                    respond(type, text, reply);
+                }
+
+                reply.send(out);
+            }
+        } catch (IOException e) {
+            // Connection closed
+        }
+    }
+
+    private static String decode(int type, byte[] data) throws IOException {
+        if (type != RPC_PKT) {
+            return new String(data, "UTF-16LE");
+        }
+
+        int pos;
+        String name;
+        if ((data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xFF) {
+            name = PROC_IDS[data[2] & 0xFF];
+            pos = 4;
+        } else {
+            int len = (data[0] & 0xFF) | (data[1] & 0xFF) << 8;
+            name = new String(data, 2, len * 2, "UTF-16LE");
+            pos = 2 + len * 2;
+        }
+
+        // The parameters, at either alignment
+        return name + ' ' + new String(data, pos, data.length - pos, "UTF-16LE")
+                + ' ' + new String(data, pos + 1, data.length - pos - 1, "UTF-16LE");
+    }
+
+    /**
+     * A response, built from TDS tokens.
+     */
+    static class Reply {
+        static final int DONE_MORE = 0x01;
+        static final int DONE_ERROR = 0x02;
+        static final int DONE_COUNT = 0x10;
+        static final int DONE_ATTN = 0x20;
+
+        private final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+
+        void loginAck() {
+            envChange(1, "master", "");
+            envChange(4, "4096", "4096");
+            // Collation Latin1_General_CI_AS
+            buf.write(0xE3);
+            writeShort(8);
+            buf.write(7);
+            buf.write(5);
+            buf.write(0x09);
+            buf.write(0x04);
+            buf.write(0xD0);
+            buf.write(0x00);
+            buf.write(0x34);
+            buf.write(0);
+
+            String product = "Microsoft SQL Server";
+            buf.write(0xAD);
+            writeShort(1 + 4 + 1 + product.length() * 2 + 4);
+            buf.write(1);
+            writeInt(0x01000071); // TDS 7.1, big endian
+            buf.write(product.length());
+            writeString(product);
+            buf.write(11);
+            buf.write(0);
+            buf.write(0x0B);
+            buf.write(0xB8);
+            done(0, 0);
+        }
+
+        private void envChange(int type, String value, String old) {
+            buf.write(0xE3);
+            writeShort(3 + (value.length() + old.length()) * 2);
+            buf.write(type);
+            buf.write(value.length());
+            writeString(value);
+            buf.write(old.length());
+            writeString(old);
+        }
+
+        Reply done(int status, int count) {
+            return done(0xFD, status, count);
+        }
+
+        Reply doneInProc(int status, int count) {
+            return done(0xFF, status, count);
+        }
+
+        Reply doneProc(int status, int count) {
+            return done(0xFE, status, count);
+        }
+
+        private Reply done(int token, int status, int count) {
+            buf.write(token);
+            writeShort(status);
+            writeShort(0);
+            writeInt(count);
+            return this;
+        }
+
+        /**
+         * Adds an error message. Must be followed by a <code>DONE</code>.
+         */
+        Reply error(int number, String message) {
+            buf.write(0xAA);
+            writeShort(4 + 1 + 1 + 2 + message.length() * 2 + 1 + 1 + 2);
+            writeInt(number);
+            buf.write(1);
+            buf.write(16);
+            writeShort(message.length());
+            writeString(message);
+            buf.write(0);
+            buf.write(0);
+            writeShort(1);
+            return this;
+        }
+
+        /**
+         * Adds a result set followed by a <code>DONE</code>. Columns are
+         * <code>int</code> or <code>nvarchar</code>, depending on the values
+         * in the first row, which must not be <code>null</code>.
+         */
+        Reply result(String[] names, Object[][] rows) {
+            buf.write(0x81);
+            writeShort(names.length);
+            for (int c = 0; c < names.length; c++) {
+                writeShort(0);
+                writeShort(0x01); // nullable
+                if (rows[0][c] instanceof Integer) {
+                    buf.write(0x26);
+                    buf.write(4);
+                } else {
+                    buf.write(0xE7);
+                    writeShort(8000);
+                    buf.write(0x09);
+                    buf.write(0x04);
+                    buf.write(0xD0);
+                    buf.write(0x00);
+                    buf.write(0x34);
+                }
+                buf.write(names[c].length());
+                writeString(names[c]);
+            }
+
+            for (int r = 0; r < rows.length; r++) {
+                buf.write(0xD1);
+                for (int c = 0; c < names.length; c++) {
+                    Object value = rows[r][c];
+                    if (rows[0][c] instanceof Integer) {
+                        if (value == null) {
+                            buf.write(0);
+                        } else {
+                            buf.write(4);
+                            writeInt(((Integer) value).intValue());
+                        }
+                    } else if (value == null) {
+                        writeShort(0xFFFF);
+                    } else {
+                        String s = (String) value;
+                        writeShort(s.length() * 2);
+                        writeString(s);
+                    }
+                }
+            }
+
+            return done(DONE_COUNT, rows.length);
+        }
+
+        Reply returnStatus(int status) {
+            buf.write(0x79);
+            writeInt(status);
+            return this;
+        }
+
+        /**
+         * Adds an <code>int</code> output parameter.
+         */
+        Reply returnValue(String name, int value) {
+            buf.write(0xAC);
+            writeShort(1 + name.length() * 2 + 1 + 4 + 2 + 5);
+            buf.write(name.length());
+            writeString(name);
+            buf.write(1);
+            writeInt(0);
+            buf.write(0x26);
+            buf.write(4);
+            buf.write(4);
+            writeInt(value);
+            return this;
+        }
+
+        private void writeShort(int value) {
+            buf.write(value);
+            buf.write(value >> 8);
+        }
+
+        private void writeInt(int value) {
+            writeShort(value);
+            writeShort(value >> 16);
+        }
+
+        private void writeString(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                writeShort(value.charAt(i));
+            }
+        }
+
+        void send(OutputStream out) throws IOException {
+            byte[] data = buf.toByteArray();
+            int pos = 0;
+            int packet = 1;
+
+            do {
+                int len = Math.min(data.length - pos, 4096 - 8);
+                boolean last = pos + len == data.length;
+                out.write(new byte[] {4, (byte) (last ? 1 : 0),
+                        (byte) ((len + 8) >> 8), (byte) (len + 8), 0, 0,
+                        (byte) packet++, 0});
+                out.write(data, pos, len);
+                pos += len;
+            } while (pos < data.length);
+
+            out.flush();
+        }
+    }
+}
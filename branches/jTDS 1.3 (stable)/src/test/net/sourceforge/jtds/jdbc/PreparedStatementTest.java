@@ -1309,6 +1309,198 @@ public class PreparedStatementTest extends TestBase {
         }
     }
 
+    /**
+     * Test that statements prepared on first execution using sp_prepexec
+     * return the correct results for the first and later executions.
+     */
+    public void testPrepExec() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Messages.get(Driver.PREPARESQL), String.valueOf(TdsCore.PREPARE));
+        Connection con = getConnection(props);
+
+        try {
+            PreparedStatement ps1 = con.prepareStatement("select ? + 1");
+            PreparedStatement ps2 = con.prepareStatement("select ? + 1");
+
+            for (int i = 0; i < 3; i++) {
+                ps1.setInt(1, i);
+                ResultSet rs = ps1.executeQuery();
+                assertTrue(rs.next());
+                assertEquals(i + 1, rs.getInt(1));
+                assertFalse(rs.next());
+                rs.close();
+
+                // a second statement sharing the cached handle
+                ps2.setInt(1, i * 10);
+                rs = ps2.executeQuery();
+                assertTrue(rs.next());
+                assertEquals(i * 10 + 1, rs.getInt(1));
+                rs.close();
+            }
+
+            ps1.close();
+            ps2.close();
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Test that statements are only prepared once they have been executed
+     * <code>prepareThreshold</code> times.
+     */
+    public void testPrepareThreshold() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Messages.get(Driver.PREPARESQL), String.valueOf(TdsCore.PREPARE));
+        props.setProperty(Messages.get(Driver.PREPARETHRESHOLD), "3");
+        JtdsConnection con = (JtdsConnection) getConnection(props);
+
+        try {
+            PreparedStatement ps = con.prepareStatement("select ?");
+
+            for (int i = 0; i < 5; i++) {
+                ps.setInt(1, i);
+                ResultSet rs = ps.executeQuery();
+                assertTrue(rs.next());
+                assertEquals(i, rs.getInt(1));
+                rs.close();
+            }
+
+            ps.close();
+
+            assertEquals(2, con.getUnpreparedExecutions());
+            assertEquals(1, con.getPreparePromotions());
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Test that string parameters are sent as varchar or nvarchar depending on
+     * the columns they are compared to if <code>describeParameters</code> is
+     * set (SQL Server 2012 and later).
+     */
+    public void testDescribeParameters() throws Exception {
+        if (!isMSSQL() || con.getMetaData().getDatabaseMajorVersion() < 11) {
+            return;
+        }
+
+        Properties props = new Properties();
+        props.setProperty(Messages.get(Driver.DESCRIBEPARAMETERS), "true");
+        props.setProperty(Messages.get(Driver.SENDSTRINGPARAMETERSASUNICODE), "true");
+        Connection con = getConnection(props);
+
+        try {
+            Statement st = con.createStatement();
+            st.execute("create table #describe (v varchar(10), n nvarchar(10))");
+            st.execute("insert into #describe values ('abc', N'def')");
+            st.close();
+
+            JtdsPreparedStatement ps = (JtdsPreparedStatement) con.prepareStatement(
+                    "select count(*) from #describe where v = ? and n = ? and ? = 'x'");
+            ps.setString(1, "abc");
+            ps.setString(2, "def");
+            ps.setString(3, "x");
+
+            assertFalse(ps.parameters[0].isUnicode);
+            assertTrue(ps.parameters[1].isUnicode);
+
+            ResultSet rs = ps.executeQuery();
+            assertTrue(rs.next());
+            assertEquals(1, rs.getInt(1));
+            rs.close();
+            ps.close();
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Test that obsolete statement handles are dropped in batches rather
+     * than when each statement is closed.
+     */
+    public void testDeferredUnprepare() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Messages.get(Driver.PREPARESQL), String.valueOf(TdsCore.PREPARE));
+        props.setProperty(Messages.get(Driver.MAXSTATEMENTS), "1");
+        JtdsConnection con = (JtdsConnection) getConnection(props);
+
+        try {
+            int maxPending = 0;
+
+            for (int i = 0; i < 100; i++) {
+                PreparedStatement ps = con.prepareStatement("select " + i + ", ?");
+                ps.setInt(1, i);
+                ResultSet rs = ps.executeQuery();
+                assertTrue(rs.next());
+                assertEquals(i, rs.getInt(2));
+                rs.close();
+                ps.close();
+
+                maxPending = Math.max(maxPending, con.getPendingUnprepareCount());
+                assertTrue(con.getPendingUnprepareCount() < 32);
+            }
+
+            // handles have been queued
+            assertTrue(maxPending > 1);
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Test that closed poolable statements are reused and reset.
+     */
+    public void testStatementPool() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Messages.get(Driver.STATEMENTPOOLSIZE), "2");
+        Connection con = getConnection(props);
+
+        try {
+            PreparedStatement ps1 = con.prepareStatement("select ?");
+            assertTrue(ps1.isPoolable());
+            ps1.setInt(1, 1);
+            ps1.setMaxRows(10);
+            ps1.executeQuery().close();
+            ps1.close();
+            assertTrue(ps1.isClosed());
+
+            // the same SQL and result set type returns the pooled statement
+            PreparedStatement ps2 = con.prepareStatement("select ?");
+            assertSame(ps1, ps2);
+            assertFalse(ps2.isClosed());
+            assertEquals(0, ps2.getMaxRows());
+
+            // parameters have been cleared
+            try {
+                ps2.executeQuery();
+                fail("Expecting an exception, parameter not set");
+            } catch (SQLException ex) {
+                assertEquals("07000", ex.getSQLState());
+            }
+
+            // an identical statement is not shared while in use
+            PreparedStatement ps3 = con.prepareStatement("select ?");
+            assertNotSame(ps2, ps3);
+
+            // a different result set type is a different statement
+            ps2.close();
+            PreparedStatement ps4 = con.prepareStatement("select ?",
+                    ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+            assertNotSame(ps2, ps4);
+            ps4.close();
+
+            // statements marked as not poolable are closed
+            ps3.close();
+            PreparedStatement ps5 = con.prepareStatement("select 1");
+            ps5.setPoolable(false);
+            ps5.close();
+            assertNotSame(ps5, con.prepareStatement("select 1"));
+        } finally {
+            con.close();
+        }
+    }
+
     public static void main(String[] args) {
         junit.textui.TestRunner.run(PreparedStatementTest.class);
     }
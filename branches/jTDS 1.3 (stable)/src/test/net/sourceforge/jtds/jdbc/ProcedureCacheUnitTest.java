@@ -0,0 +1,150 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.util.Collection;
+
+import net.sourceforge.jtds.jdbc.cache.ProcedureCache;
+
+/**
+ * Unit tests for the {@link ProcedureCache} class.
+ *
+ * @version $Id$
+ */
+public class ProcedureCacheUnitTest extends UnitTestBase {
+
+    public ProcedureCacheUnitTest(String name) {
+        super(name);
+    }
+
+    private static ProcEntry entry(String name) {
+        ProcEntry pe = new ProcEntry();
+        pe.setName(name);
+        pe.setType(ProcEntry.PREPARE);
+        return pe;
+    }
+
+    /**
+     * Test hit, miss and eviction counters.
+     */
+    public void testCounters() {
+        ProcedureCache cache = new ProcedureCache(2);
+
+        assertNull(cache.get("a"));
+        cache.put("a", entry("1"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("a"));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    /**
+     * Test that entries in use are never evicted and that unused entries are
+     * returned for dropping once the cache exceeds its size.
+     */
+    public void testEvictUnused() {
+        ProcedureCache cache = new ProcedureCache(1);
+        ProcEntry a = entry("1");
+        ProcEntry b = entry("2");
+
+        cache.put("a", a);
+        cache.put("b", b);
+
+        // both entries are in use
+        assertEquals(2, cache.size());
+        assertNull(cache.getObsoleteHandles(null));
+
+        Collection obsolete = cache.getObsoleteHandles(java.util.Collections.singleton(a));
+        assertEquals(1, obsolete.size());
+        assertSame(a, obsolete.iterator().next());
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+
+        // an evicted entry can't be used any more
+        assertFalse(a.addRef());
+        assertNotNull(cache.get("b"));
+    }
+
+    /**
+     * Test that frequently used entries survive a flood of one-off entries.
+     */
+    public void testScanResistance() {
+        ProcedureCache cache = new ProcedureCache(10);
+
+        for (int i = 0; i < 10; i++) {
+            ProcEntry pe = entry("hot" + i);
+            cache.put("hot" + i, pe);
+            for (int n = 0; n < 10; n++) {
+                cache.get("hot" + i);
+            }
+            release(pe, 11);
+        }
+
+        for (int i = 0; i < 100; i++) {
+            ProcEntry pe = entry("cold" + i);
+            assertNull(cache.get("cold" + i));
+            cache.put("cold" + i, pe);
+            cache.getObsoleteHandles(java.util.Collections.singleton(pe));
+
+            // keep using the hot entries
+            ProcEntry hot = (ProcEntry) cache.get("hot" + (i % 10));
+            assertNotNull("hot" + (i % 10) + " evicted after " + i + " one-off entries", hot);
+            hot.release();
+        }
+    }
+
+    /**
+     * Test that an entry not admitted at the expense of a more frequently
+     * used one is the one evicted once it has been released.
+     */
+    public void testRejectedEvictedOnRelease() {
+        ProcedureCache cache = new ProcedureCache(20);
+
+        for (int i = 0; i < 20; i++) {
+            ProcEntry pe = entry("hot" + i);
+            cache.put("hot" + i, pe);
+            for (int n = 0; n < 10; n++) {
+                cache.get("hot" + i);
+            }
+            release(pe, 11);
+        }
+
+        // More entries than sampled, the new entry is examined last
+        ProcEntry cold = entry("cold");
+        cache.put("cold", cold);
+        assertEquals(21, cache.size());
+        assertEquals(0, cache.getEvictionCount());
+
+        Collection obsolete = cache.getObsoleteHandles(java.util.Collections.singleton(cold));
+        assertEquals(1, obsolete.size());
+        assertSame(cold, obsolete.iterator().next());
+        assertEquals(20, cache.size());
+
+        for (int i = 0; i < 20; i++) {
+            assertNotNull("hot" + i + " evicted", cache.get("hot" + i));
+        }
+    }
+
+    private static void release(ProcEntry pe, int count) {
+        for (int i = 0; i < count; i++) {
+            pe.release();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.util.ArrayList;
+
+/**
+ * Unit tests for the {@link SQLParser} fast path.
+ *
+ * @version $Id$
+ */
+public class SQLParserUnitTest extends UnitTestBase {
+
+    public SQLParserUnitTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Test that plain SQL is returned unchanged and parameter markers outside
+     * strings and comments are found.
+     */
+    public void testScanPlain() {
+        String sql = "/* ? */ SELECT '?', [?], \"?\" FROM t -- ?\nWHERE a = ? /* /* ? */ */ AND b=?";
+        ArrayList params = new ArrayList();
+        String[] result = SQLParser.scanPlain(sql, params, true);
+
+        assertSame(sql, result[0]);
+        assertEquals("", result[1]);
+        assertEquals("select", result[2]);
+        assertNull(result[3]);
+
+        assertEquals(2, params.size());
+        assertEquals(sql.indexOf("a = ?") + 4, ((ParamInfo) params.get(0)).markerPos);
+        assertEquals(sql.length() - 1, ((ParamInfo) params.get(1)).markerPos);
+        assertTrue(((ParamInfo) params.get(1)).isUnicode);
+    }
+
+    /**
+     * Test that statements the fast path can't handle are left to the full
+     * parser.
+     */
+    public void testScanPlainFallback() {
+        ArrayList params = new ArrayList();
+
+        assertNull(SQLParser.scanPlain("{call p(?)}", params, true));
+        assertNull(SQLParser.scanPlain("select 'abc", params, true));
+        assertNull(SQLParser.scanPlain("select 1 /* abc", params, true));
+        assertNull(SQLParser.scanPlain("select ?", null, true));
+        assertEquals(0, params.size());
+
+        StringBuilder buf = new StringBuilder("select ?");
+        for (int i = 0; i < 255; i++) {
+            buf.append(",?");
+        }
+        assertNull(SQLParser.scanPlain(buf.toString(), params, true));
+        assertEquals(0, params.size());
+
+        assertNotNull(SQLParser.scanPlain("select 1", null, true));
+    }
+}
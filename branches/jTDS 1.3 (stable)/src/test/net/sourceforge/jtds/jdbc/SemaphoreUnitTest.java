@@ -0,0 +1,170 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the {@link Semaphore} class.
+ *
+ * @version $Id$
+ */
+public class SemaphoreUnitTest extends TestCase {
+
+    public SemaphoreUnitTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Waits up to 5 seconds for a number of threads to queue up.
+     */
+    private static void waitForQueue(Semaphore mutex, int length)
+            throws InterruptedException {
+        for (int i = 0; i < 500 && mutex.getQueueLength() < length; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(length, mutex.getQueueLength());
+    }
+
+    /**
+     * Test that <code>attempt</code> gives up once its timeout has passed.
+     */
+    public void testAttempt() throws Exception {
+        Semaphore mutex = new Semaphore(1);
+
+        assertTrue(mutex.attempt(0));
+        assertSame(Thread.currentThread(), mutex.getHolder());
+
+        long start = System.currentTimeMillis();
+        assertFalse(mutex.attempt(100));
+        assertTrue(System.currentTimeMillis() - start >= 100);
+        assertFalse(mutex.attempt(0));
+
+        mutex.release();
+        assertNull(mutex.getHolder());
+        assertEquals(1, mutex.getAcquireCount());
+    }
+
+    /**
+     * Test that a fair semaphore hands out permits in arrival order.
+     */
+    public void testFairOrdering() throws Exception {
+        final Semaphore mutex = new Semaphore(1, true);
+        final List<Integer> order = new ArrayList<Integer>();
+        Thread[] threads = new Thread[5];
+
+        assertTrue(mutex.isFair());
+        mutex.acquire();
+
+        for (int i = 0; i < threads.length; i++) {
+            final Integer id = new Integer(i);
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        mutex.acquire();
+                        synchronized (order) {
+                            order.add(id);
+                        }
+                        mutex.release();
+                    } catch (InterruptedException e) {
+                        // Test fails
+                    }
+                }
+            };
+            threads[i].start();
+            // Queue the threads one by one
+            waitForQueue(mutex, i + 1);
+        }
+
+        // A fair semaphore doesn't let a newcomer overtake the waiting
+        // threads, so this only succeeds once all of them are done
+        mutex.release();
+        if (mutex.attempt(0)) {
+            synchronized (order) {
+                assertEquals(threads.length, order.size());
+            }
+            mutex.release();
+        }
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join(5000);
+        }
+
+        assertEquals(threads.length, order.size());
+        for (int i = 0; i < threads.length; i++) {
+            assertEquals(new Integer(i), order.get(i));
+        }
+    }
+
+    /**
+     * Test the counts and the wait time histogram.
+     */
+    public void testHistogram() throws Exception {
+        final Semaphore mutex = new Semaphore(1);
+
+        // Uncontended acquisitions are counted in bucket 0
+        for (int i = 0; i < 3; i++) {
+            mutex.acquire();
+            mutex.release();
+        }
+
+        mutex.acquire();
+        Thread waiter = new Thread() {
+            public void run() {
+                try {
+                    mutex.acquire();
+                    mutex.release();
+                } catch (InterruptedException e) {
+                    // Test fails
+                }
+            }
+        };
+        waiter.start();
+        waitForQueue(mutex, 1);
+        Thread.sleep(50);
+        mutex.release();
+        waiter.join(5000);
+
+        assertEquals(5, mutex.getAcquireCount());
+        assertEquals(1, mutex.getContendedCount());
+        assertTrue(mutex.getMaxWaitTime() >= 50000);
+        assertEquals(mutex.getMaxWaitTime(), mutex.getTotalWaitTime());
+
+        long[] histogram = mutex.getWaitHistogram();
+        assertEquals(Semaphore.HISTOGRAM_SIZE, histogram.length);
+        assertEquals(4, histogram[0]);
+
+        // A wait of w microseconds is counted in bucket floor(log2(w)) + 1
+        int bucket = 64 - Long.numberOfLeadingZeros(mutex.getMaxWaitTime());
+        assertTrue(bucket >= 16);
+        assertEquals(1, histogram[bucket]);
+
+        long total = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            total += histogram[i];
+        }
+        assertEquals(5, total);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(SemaphoreUnitTest.class);
+    }
+}
@@ -0,0 +1,200 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the connection attempts of the {@link SharedSocket} class,
+ * connecting to a {@link MockServer} on the loopback interface after a
+ * first address that can't be connected to.
+ *
+ * @version $Id$
+ */
+public class SharedSocketUnitTest extends TestCase {
+
+    private static final String HOST = "127.0.0.1";
+
+    private MockServer server;
+    private final List<Socket> backlog = new ArrayList<Socket>();
+    private ServerSocket unresponsive;
+
+    public SharedSocketUnitTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new MockServer();
+    }
+
+    protected void tearDown() throws Exception {
+        server.close();
+        for (int i = 0; i < backlog.size(); i++) {
+            backlog.get(i).close();
+        }
+        if (unresponsive != null) {
+            unresponsive.close();
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Returns a port nothing listens on.
+     */
+    private static int getClosedPort() throws IOException {
+        ServerSocket socket = new ServerSocket(0, 1, InetAddress.getByName(HOST));
+        int port = socket.getLocalPort();
+        socket.close();
+        return port;
+    }
+
+    /**
+     * Returns the port of a server socket that never accepts connections and
+     * whose backlog has been filled, so that further connection attempts hang,
+     * or -1 if connection attempts don't hang on this platform.
+     */
+    private int getUnresponsivePort() throws IOException {
+        unresponsive = new ServerSocket(0, 1, InetAddress.getByName(HOST));
+        InetSocketAddress address = new InetSocketAddress(HOST,
+                unresponsive.getLocalPort());
+
+        for (int i = 0; i < 10; i++) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(address, 500);
+                backlog.add(socket);
+            } catch (SocketTimeoutException e) {
+                socket.close();
+                return unresponsive.getLocalPort();
+            }
+        }
+
+        return -1;
+    }
+
+    private Connection connect(int port, boolean multiSubnetFailover)
+            throws Exception {
+        Properties info = new Properties();
+        info.setProperty(Messages.get(Driver.USER), "sa");
+        info.setProperty(Messages.get(Driver.PASSWORD), "sa");
+        info.setProperty(Messages.get(Driver.LOGINTIMEOUT), "10");
+        info.setProperty(Messages.get(Driver.FAILOVERPARTNER),
+                HOST + ':' + server.getPort());
+        info.setProperty(Messages.get(Driver.MULTISUBNETFAILOVER),
+                String.valueOf(multiSubnetFailover));
+
+        return new Driver().connect(
+                "jdbc:jtds:sqlserver://" + HOST + ':' + port, info);
+    }
+
+    /**
+     * Returns the number of running connection attempts of
+     * <code>multiSubnetFailover</code>.
+     */
+    private static int countConnectThreads() {
+        Thread[] threads = new Thread[Thread.activeCount() + 10];
+        int count = Thread.enumerate(threads);
+        int connecting = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (threads[i].getName().startsWith("jTDS connect ")) {
+                connecting++;
+            }
+        }
+
+        return connecting;
+    }
+
+    /**
+     * Test that the failover partner is connected to after the server
+     * refused the connection.
+     */
+    public void testSequentialFallback() throws Exception {
+        Connection con = connect(getClosedPort(), false);
+
+        try {
+            assertTrue(con.isValid(5));
+            assertEquals(1, server.count("@@MAX_PRECISION"));
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Test that <code>multiSubnetFailover</code> moves on to the failover
+     * partner as soon as the server refused the connection.
+     */
+    public void testParallelRefused() throws Exception {
+        long start = System.currentTimeMillis();
+        Connection con = connect(getClosedPort(), true);
+
+        try {
+            assertTrue(System.currentTimeMillis() - start < 5000);
+            assertTrue(con.isValid(5));
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Test that <code>multiSubnetFailover</code> connects to the failover
+     * partner while the attempt to connect to the server hangs, and that
+     * the losing attempt is aborted.
+     */
+    public void testParallelHanging() throws Exception {
+        int port = getUnresponsivePort();
+        if (port < 0) {
+            System.err.println("Skipping " + getName()
+                    + ": connection attempts don't hang");
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        Connection con = connect(port, true);
+
+        try {
+            // Well before the login timeout
+            assertTrue(System.currentTimeMillis() - start < 5000);
+            assertTrue(con.isValid(5));
+
+            // The losing socket has been closed, ending its attempt
+            for (int i = 0; i < 100 && countConnectThreads() > 0; i++) {
+                Thread.sleep(20);
+            }
+            assertEquals(0, countConnectThreads());
+        } finally {
+            con.close();
+        }
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(SharedSocketUnitTest.class);
+    }
+}
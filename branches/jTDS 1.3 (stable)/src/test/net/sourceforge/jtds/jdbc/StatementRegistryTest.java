@@ -0,0 +1,93 @@
+//jTDS JDBC Driver for Microsoft SQL Server and Sybase
+//Copyright (C) 2004 The jTDS Project
+//
+//This library is free software; you can redistribute it and/or
+//modify it under the terms of the GNU Lesser General Public
+//License as published by the Free Software Foundation; either
+//version 2.1 of the License, or (at your option) any later version.
+//
+//This library is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//Lesser General Public License for more details.
+//
+//You should have received a copy of the GNU Lesser General Public
+//License along with this library; if not, write to the Free Software
+//Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the <code>StatementRegistry</code> class.
+ */
+public class StatementRegistryTest extends TestCase {
+
+    public StatementRegistryTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Test that removed slots are reused and stale removals are ignored.
+     */
+    public void testAddRemove() {
+        StatementRegistry registry = new StatementRegistry();
+        Object s1 = new Object();
+        Object s2 = new Object();
+        Object s3 = new Object();
+
+        int slot1 = registry.add(s1);
+        int slot2 = registry.add(s2);
+        assertTrue(slot1 != slot2);
+        assertEquals(2, registry.size());
+
+        assertTrue(registry.remove(s1, slot1));
+        assertFalse(registry.remove(s1, slot1));
+        assertEquals(1, registry.size());
+
+        // The free slot is reused, the old owner can't remove the new one
+        assertEquals(slot1, registry.add(s3));
+        assertFalse(registry.remove(s1, slot1));
+        assertFalse(registry.remove(s2, slot1));
+        assertFalse(registry.remove(s1, -1));
+        assertEquals(2, registry.size());
+
+        List all = registry.removeAll();
+        assertEquals(2, all.size());
+        assertTrue(all.contains(s2));
+        assertTrue(all.contains(s3));
+        assertEquals(0, registry.size());
+        assertFalse(registry.remove(s2, slot2));
+    }
+
+    /**
+     * Test that the registry grows and slots of garbage collected statements
+     * are reclaimed.
+     */
+    public void testGarbageCollected() throws Exception {
+        StatementRegistry registry = new StatementRegistry();
+
+        for (int i = 0; i < 1000; i++) {
+            registry.add(new Object());
+        }
+        assertEquals(1000, registry.size());
+
+        Object live = new Object();
+        for (int i = 0; i < 10 && registry.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+            int slot = registry.add(live);
+            assertTrue(registry.remove(live, slot));
+        }
+
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.removeAll().size());
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(StatementRegistryTest.class);
+    }
+}
@@ -84,4 +84,83 @@ public class SupportUnitTest extends UnitTestBase {
         assertTrue(Support.isWindowsOS());
     }
 
+
+    /**
+     * Test that output parameters are only declared as such in the
+     * definitions used for statements with table-valued parameters.
+     */
+    public void testGetParameterDefinitions() throws Exception {
+        TableValuedParameter tvp = new TableValuedParameter("dbo.IdList");
+        tvp.addColumn("id", java.sql.Types.INTEGER);
+
+        ParamInfo[] params = new ParamInfo[] {
+            new ParamInfo(java.sql.Types.INTEGER, new Integer(1), 0),
+            new ParamInfo(java.sql.Types.INTEGER, null, ParamInfo.OUTPUT),
+            new ParamInfo(java.sql.Types.STRUCT, tvp, 0)
+        };
+        params[0].sqlType = "int";
+        params[1].sqlType = "int";
+
+        assertEquals("@P0 int,@P1 int",
+                Support.getParameterDefinitions(
+                        new ParamInfo[] {params[0], params[1]}));
+        assertEquals("@P0 int,@P1 int OUTPUT,@P2_rows nvarchar(max)",
+                Support.getTableValuedParameterDefinitions(params));
+    }
+
+    /**
+     * Test that the batch executing a statement with a table-valued
+     * parameter doesn't depend on the rows and quotes the type and column
+     * names.
+     */
+    public void testGetTableValuedParameterSQL() throws Exception {
+        TableValuedParameter tvp = new TableValuedParameter("dbo.Key]List");
+        tvp.addColumn("id", java.sql.Types.INTEGER);
+        tvp.addColumn("da]ta", java.sql.Types.VARBINARY);
+
+        ParamInfo[] params = new ParamInfo[] {
+            new ParamInfo(java.sql.Types.STRUCT, tvp, 0)
+        };
+        params[0].markerPos = 14;
+        String expected = "DECLARE @P0 [dbo].[Key]]List]\n"
+                + "INSERT INTO @P0 ([id],[da]]ta]) SELECT "
+                + "t.r.value('@c0','nvarchar(max)'),"
+                + "t.r.value('xs:hexBinary(@c1)','varbinary(max)') "
+                + "FROM (SELECT CAST(@P0_rows AS xml) AS x) AS d "
+                + "CROSS APPLY d.x.nodes('/r') AS t(r)\n"
+                + "select * from  @P0 ";
+
+        assertEquals(expected,
+                Support.getTableValuedParameterSQL("select * from ?", null, params));
+
+        tvp.addRow(new Object[] {new Integer(1), new byte[] {1, 2}});
+        tvp.addRow(new Object[] {new Integer(2), null});
+        assertEquals(expected,
+                Support.getTableValuedParameterSQL("select * from ?", null, params));
+    }
+
+    /**
+     * Test quoting table type names.
+     */
+    public void testQuoteName() {
+        assertEquals("[KeyList]", TableValuedParameter.quoteName("KeyList"));
+        assertEquals("[dbo].[KeyList]", TableValuedParameter.quoteName("dbo.KeyList"));
+        assertEquals("[db]..[KeyList]", TableValuedParameter.quoteName("db..KeyList"));
+        assertEquals("[dbo].[Key.]]List]", TableValuedParameter.quoteName("[dbo].[Key.]]List]"));
+        assertEquals("[x]];drop table t--]", TableValuedParameter.quoteName("x];drop table t--"));
+
+        try {
+            TableValuedParameter.quoteName("[dbo]x");
+            fail("Expecting an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            TableValuedParameter.quoteName("[dbo");
+            fail("Expecting an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
 }
@@ -214,4 +214,68 @@ public class JtdsDataSourceTest extends UnitTestBase {
           assertEquals( "non-null-value", props.getProperty( Messages.get( Driver.SERVERNAME ) ) );
           assertEquals( "user", props.getProperty( Messages.get( Driver.USER ) ) );
      }
+
+     /**
+      * Test that a closed {@link JtdsPoolingDataSource} rejects requests.
+      */
+     public void testPoolingDataSourceClosed() {
+         JtdsPoolingDataSource ds = new JtdsPoolingDataSource();
+         ds.setServerName("non-null-value");
+         ds.close();
+         try {
+             ds.getConnection();
+             fail("Expecting an SQLException");
+         } catch (SQLException ex) {
+             assertEquals("08003", ex.getSQLState());
+         }
+     }
+
+     /**
+      * Test that {@link JtdsPoolingDataSource} reuses physical connections,
+      * resets their state and times out if the pool is exhausted.
+      */
+     public void testPoolingDataSource() throws Exception {
+         JtdsPoolingDataSource ds = new JtdsPoolingDataSource();
+         ds.setServerName(TestBase.props.getProperty(Messages.get(Driver.SERVERNAME)));
+         ds.setUser(TestBase.props.getProperty(Messages.get(Driver.USER)));
+         ds.setPassword(TestBase.props.getProperty(Messages.get(Driver.PASSWORD)));
+         ds.setDatabaseName(TestBase.props.getProperty(Messages.get(Driver.DATABASENAME)));
+         ds.setTds(TestBase.props.getProperty(Messages.get(Driver.TDS)));
+         ds.setServerType("2".equals(TestBase.props.getProperty(Messages.get(Driver.SERVERTYPE))) ? 2 : 1);
+         try {
+             ds.setPortNumber(Integer.parseInt(
+                     TestBase.props.getProperty(Messages.get(Driver.PORTNUMBER))));
+         } catch (Exception ex) {
+             // Ignore
+         }
+         ds.setMaxPoolSize(1);
+         ds.setConnectionTimeout(1);
+
+         try {
+             Connection c = ds.getConnection();
+             c.setAutoCommit(false);
+             c.close();
+
+             c = ds.getConnection();
+             assertTrue(c.getAutoCommit());
+             assertEquals(1, ds.getConnectCount());
+             assertEquals(2, ds.getBorrowCount());
+             assertEquals(1, ds.getActiveConnections());
+
+             try {
+                 ds.getConnection();
+                 fail("Expecting a timeout");
+             } catch (SQLException ex) {
+                 assertEquals("08001", ex.getSQLState());
+                 assertEquals(1, ds.getTimeoutCount());
+             }
+
+             c.close();
+             assertEquals(1, ds.getIdleConnections());
+         } finally {
+             ds.close();
+         }
+
+         assertEquals(0, ds.getTotalConnections());
+     }
 }
@@ -113,6 +113,22 @@ public class JtdsObjectFactoryTest extends UnitTestBase
       assertNull  ( ds.getUser() );
       assertNull  ( ds.getWsid() );
       assertFalse ( ds.getXaEmulation() );
+      assertEquals( 0, ds.getResultSetMaxMemory() );
+      assertEquals( 0, ds.getInstanceCacheTTL() );
+      assertFalse ( ds.getMultiSubnetFailover() );
+      assertNull  ( ds.getFailoverPartner() );
+      assertEquals( 0, ds.getLockTimeout() );
+      assertFalse ( ds.getFairLock() );
+      assertEquals( 0, ds.getValidationWindow() );
+      assertFalse ( ds.getDescribeParameters() );
+      assertEquals( 0, ds.getProcedureCacheTtl() );
+      assertEquals( 0, ds.getMetadataCacheSize() );
+      assertEquals( 0, ds.getMetadataCacheTtl() );
+      assertEquals( 0, ds.getPrepareThreshold() );
+      assertEquals( 0, ds.getStatementPoolSize() );
+      assertEquals( 0, ds.getParseCacheSize() );
+      assertFalse ( ds.getStreamBatches() );
+      assertFalse ( ds.getRewriteBatchedInserts() );
    }
 
    public void testGetterSetter()
@@ -163,6 +179,22 @@ public class JtdsObjectFactoryTest extends UnitTestBase
       defaults.put( Driver.USER                         , DefaultProperties.USER                  );
       defaults.put( Driver.WSID                         , DefaultProperties.WSID                  );
       defaults.put( Driver.XAEMULATION                  , DefaultProperties.XAEMULATION           );
+      defaults.put( Driver.RESULTSETMAXMEMORY           , DefaultProperties.RESULT_SET_MAX_MEMORY );
+      defaults.put( Driver.INSTANCECACHETTL             , DefaultProperties.INSTANCE_CACHE_TTL    );
+      defaults.put( Driver.MULTISUBNETFAILOVER          , DefaultProperties.MULTI_SUBNET_FAILOVER );
+      defaults.put( Driver.FAILOVERPARTNER              , DefaultProperties.FAILOVER_PARTNER      );
+      defaults.put( Driver.LOCKTIMEOUT                  , DefaultProperties.LOCK_TIMEOUT          );
+      defaults.put( Driver.FAIRLOCK                     , DefaultProperties.FAIR_LOCK             );
+      defaults.put( Driver.VALIDATIONWINDOW             , DefaultProperties.VALIDATION_WINDOW     );
+      defaults.put( Driver.DESCRIBEPARAMETERS           , DefaultProperties.DESCRIBE_PARAMETERS   );
+      defaults.put( Driver.PROCEDURECACHETTL            , DefaultProperties.PROCEDURE_CACHE_TTL   );
+      defaults.put( Driver.METADATACACHESIZE            , DefaultProperties.METADATA_CACHE_SIZE   );
+      defaults.put( Driver.METADATACACHETTL             , DefaultProperties.METADATA_CACHE_TTL    );
+      defaults.put( Driver.PREPARETHRESHOLD             , DefaultProperties.PREPARE_THRESHOLD     );
+      defaults.put( Driver.STATEMENTPOOLSIZE            , DefaultProperties.STATEMENT_POOL_SIZE   );
+      defaults.put( Driver.PARSECACHESIZE               , DefaultProperties.PARSE_CACHE_SIZE      );
+      defaults.put( Driver.STREAMBATCHES                , DefaultProperties.STREAM_BATCHES        );
+      defaults.put( Driver.REWRITEBATCHEDINSERTS        , DefaultProperties.REWRITE_BATCHED_INSERTS );
 
       JtdsObjectFactory jtdsObjectFactory = new JtdsObjectFactory();
 
@@ -215,6 +247,22 @@ public class JtdsObjectFactoryTest extends UnitTestBase
       ds.setUser                         ( "1234" ); assertEquals( "1234", ds.getUser()                          );
       ds.setWsid                         ( "1234" ); assertEquals( "1234", ds.getWsid()                          );
       ds.setXaEmulation                  ( false  ); assertEquals( false , ds.getXaEmulation()                   );
+      ds.setResultSetMaxMemory           ( 123456 ); assertEquals( 123456, ds.getResultSetMaxMemory()             );
+      ds.setInstanceCacheTTL             ( 123456 ); assertEquals( 123456, ds.getInstanceCacheTTL()               );
+      ds.setMultiSubnetFailover          ( true   ); assertEquals( true  , ds.getMultiSubnetFailover()            );
+      ds.setFailoverPartner              ( "1234" ); assertEquals( "1234", ds.getFailoverPartner()                );
+      ds.setLockTimeout                  ( 123456 ); assertEquals( 123456, ds.getLockTimeout()                    );
+      ds.setFairLock                     ( true   ); assertEquals( true  , ds.getFairLock()                       );
+      ds.setValidationWindow             ( 123456 ); assertEquals( 123456, ds.getValidationWindow()               );
+      ds.setDescribeParameters           ( true   ); assertEquals( true  , ds.getDescribeParameters()             );
+      ds.setProcedureCacheTtl            ( 123456 ); assertEquals( 123456, ds.getProcedureCacheTtl()              );
+      ds.setMetadataCacheSize            ( 123456 ); assertEquals( 123456, ds.getMetadataCacheSize()              );
+      ds.setMetadataCacheTtl             ( 123456 ); assertEquals( 123456, ds.getMetadataCacheTtl()               );
+      ds.setPrepareThreshold             ( 123456 ); assertEquals( 123456, ds.getPrepareThreshold()               );
+      ds.setStatementPoolSize            ( 123456 ); assertEquals( 123456, ds.getStatementPoolSize()              );
+      ds.setParseCacheSize               ( 123456 ); assertEquals( 123456, ds.getParseCacheSize()                 );
+      ds.setStreamBatches                ( true   ); assertEquals( true  , ds.getStreamBatches()                  );
+      ds.setRewriteBatchedInserts        ( true   ); assertEquals( true  , ds.getRewriteBatchedInserts()         );
    }
 
    private void checkDefaults( JtdsDataSource ds )
@@ -260,6 +308,22 @@ public class JtdsObjectFactoryTest extends UnitTestBase
       assertEquals( DefaultProperties.USER                 , String.valueOf( ds.getUser()                          ) );
       assertEquals( DefaultProperties.WSID                 , String.valueOf( ds.getWsid()                          ) );
       assertEquals( DefaultProperties.XAEMULATION          , String.valueOf( ds.getXaEmulation()                   ) );
+      assertEquals( DefaultProperties.RESULT_SET_MAX_MEMORY, String.valueOf( ds.getResultSetMaxMemory()            ) );
+      assertEquals( DefaultProperties.INSTANCE_CACHE_TTL   , String.valueOf( ds.getInstanceCacheTTL()              ) );
+      assertEquals( DefaultProperties.MULTI_SUBNET_FAILOVER, String.valueOf( ds.getMultiSubnetFailover()           ) );
+      assertEquals( DefaultProperties.FAILOVER_PARTNER     , String.valueOf( ds.getFailoverPartner()               ) );
+      assertEquals( DefaultProperties.LOCK_TIMEOUT         , String.valueOf( ds.getLockTimeout()                   ) );
+      assertEquals( DefaultProperties.FAIR_LOCK            , String.valueOf( ds.getFairLock()                      ) );
+      assertEquals( DefaultProperties.VALIDATION_WINDOW    , String.valueOf( ds.getValidationWindow()              ) );
+      assertEquals( DefaultProperties.DESCRIBE_PARAMETERS  , String.valueOf( ds.getDescribeParameters()            ) );
+      assertEquals( DefaultProperties.PROCEDURE_CACHE_TTL  , String.valueOf( ds.getProcedureCacheTtl()             ) );
+      assertEquals( DefaultProperties.METADATA_CACHE_SIZE  , String.valueOf( ds.getMetadataCacheSize()             ) );
+      assertEquals( DefaultProperties.METADATA_CACHE_TTL   , String.valueOf( ds.getMetadataCacheTtl()              ) );
+      assertEquals( DefaultProperties.PREPARE_THRESHOLD    , String.valueOf( ds.getPrepareThreshold()              ) );
+      assertEquals( DefaultProperties.STATEMENT_POOL_SIZE  , String.valueOf( ds.getStatementPoolSize()             ) );
+      assertEquals( DefaultProperties.PARSE_CACHE_SIZE     , String.valueOf( ds.getParseCacheSize()                ) );
+      assertEquals( DefaultProperties.STREAM_BATCHES       , String.valueOf( ds.getStreamBatches()                 ) );
+      assertEquals( DefaultProperties.REWRITE_BATCHED_INSERTS, String.valueOf( ds.getRewriteBatchedInserts()         ) );
    }
 
 }
\ No newline at end of file
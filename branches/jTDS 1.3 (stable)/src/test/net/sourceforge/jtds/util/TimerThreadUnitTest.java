@@ -0,0 +1,164 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the {@link TimerThread} class.
+ *
+ * @version $Id$
+ */
+public class TimerThreadUnitTest extends TestCase {
+
+    /**
+     * Listener counting the timeouts.
+     */
+    private static class Listener implements TimerThread.TimerListener {
+        final AtomicInteger expired = new AtomicInteger();
+        volatile long expiredAt;
+
+        public void timerExpired() {
+            expiredAt = System.currentTimeMillis();
+            expired.incrementAndGet();
+        }
+    }
+
+    private TimerThread timer;
+
+    public TimerThreadUnitTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        timer = new TimerThread();
+        timer.start();
+    }
+
+    protected void tearDown() throws Exception {
+        timer.interrupt();
+        timer.join(1000);
+        super.tearDown();
+    }
+
+    /**
+     * Waits up to 5 seconds for a timer to expire.
+     */
+    private void waitFor(Object handle) throws InterruptedException {
+        for (int i = 0; i < 500 && !timer.hasExpired(handle); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(timer.hasExpired(handle));
+    }
+
+    /**
+     * Test that a timer expires once, not before its timeout.
+     */
+    public void testExpiry() throws Exception {
+        Listener listener = new Listener();
+        long start = System.currentTimeMillis();
+        Object handle = timer.setTimer(200, listener);
+
+        assertFalse(timer.hasExpired(handle));
+        waitFor(handle);
+        assertEquals(1, listener.expired.get());
+        assertTrue(listener.expiredAt - start >= 200);
+
+        Thread.sleep(300);
+        assertEquals(1, listener.expired.get());
+        assertFalse(timer.cancelTimer(handle));
+    }
+
+    /**
+     * Test that a cancelled timer doesn't expire.
+     */
+    public void testCancel() throws Exception {
+        Listener listener = new Listener();
+        Object handle = timer.setTimer(200, listener);
+
+        assertTrue(timer.cancelTimer(handle));
+        assertFalse(timer.cancelTimer(handle));
+
+        Thread.sleep(500);
+        assertEquals(0, listener.expired.get());
+    }
+
+    /**
+     * Test starting a timer again once it expired or was cancelled, but not
+     * while it is running.
+     */
+    public void testRestart() throws Exception {
+        Listener listener = new Listener();
+        Object handle = TimerThread.createTimer(listener);
+
+        assertTrue(timer.startTimer(handle, 100));
+        assertFalse(timer.startTimer(handle, 100));
+        waitFor(handle);
+        assertEquals(1, listener.expired.get());
+
+        assertTrue(timer.startTimer(handle, 100));
+        waitFor(handle);
+        assertEquals(2, listener.expired.get());
+
+        assertTrue(timer.startTimer(handle, 10000));
+        assertTrue(timer.cancelTimer(handle));
+        assertTrue(timer.startTimer(handle, 100));
+        waitFor(handle);
+        assertEquals(3, listener.expired.get());
+
+        try {
+            timer.startTimer(handle, 0);
+            fail("Expecting an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Test that a timeout longer than one revolution of the timing wheel
+     * (51.2 seconds) doesn't expire when the wheel passes its bucket for the
+     * first time, less than a second after starting it.
+     */
+    public void testLongTimeout() throws Exception {
+        Listener listener = new Listener();
+        Object handle = timer.setTimer(52000, listener);
+
+        Thread.sleep(1500);
+        assertFalse(timer.hasExpired(handle));
+        assertEquals(0, listener.expired.get());
+
+        // A short timer in the same bucket expires on its own
+        Listener other = new Listener();
+        Object otherHandle = timer.setTimer(51300, other);
+        Object shortHandle = timer.setTimer(100, other);
+        waitFor(shortHandle);
+        assertEquals(1, other.expired.get());
+        assertFalse(timer.hasExpired(otherHandle));
+
+        assertTrue(timer.cancelTimer(handle));
+        assertTrue(timer.cancelTimer(otherHandle));
+        assertEquals(0, listener.expired.get());
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(TimerThreadUnitTest.class);
+    }
+}